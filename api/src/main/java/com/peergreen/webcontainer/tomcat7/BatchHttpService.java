@@ -0,0 +1,34 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7;
+
+import org.osgi.service.http.HttpService;
+
+/**
+ * Extension of the {@link HttpService} allowing to register a set of servlets
+ * and resources at once. The HttpService instances given to the bundles by
+ * the Tomcat 7 web container implement this interface.
+ * @author Florent Benoit
+ */
+public interface BatchHttpService extends HttpService {
+
+    /**
+     * Creates a new batch of registrations. Nothing is registered until the
+     * {@link HttpServiceBatch#commit()} method is called.
+     * @return a new empty batch
+     */
+    HttpServiceBatch createBatch();
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7;
+
+import java.util.Dictionary;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.NamespaceException;
+
+/**
+ * Set of servlets and resources registered at once through a
+ * {@link BatchHttpService}. All the aliases are checked before registering
+ * anything and if one registration fails, none of the registrations of the
+ * batch is kept.
+ * @author Florent Benoit
+ */
+public interface HttpServiceBatch {
+
+    /**
+     * Adds a servlet in the batch.
+     * @param alias name in the URI namespace at which the servlet is registered
+     * @param servlet the servlet object to register
+     * @param initparams initialization arguments for the servlet or null
+     * @param context the HttpContext object for the registered servlet, or
+     * null to use a default HttpContext
+     * @return this batch
+     */
+    HttpServiceBatch registerServlet(String alias, Servlet servlet, Dictionary<String, String> initparams, HttpContext context);
+
+    /**
+     * Adds resources in the batch.
+     * @param alias name in the URI namespace at which the resources are
+     * registered
+     * @param name the base name of the resources that will be registered
+     * @param context the HttpContext object for the registered resources, or
+     * null to use a default HttpContext
+     * @return this batch
+     */
+    HttpServiceBatch registerResources(String alias, String name, HttpContext context);
+
+    /**
+     * Registers all the servlets and resources of the batch.
+     * @throws NamespaceException if an alias is already in use or is used
+     * twice in the batch. Nothing has been registered.
+     * @throws ServletException if the init method of a servlet throws an
+     * exception. Nothing has been registered.
+     * @throws IllegalArgumentException if an alias is invalid
+     */
+    void commit() throws ServletException, NamespaceException;
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7;
+
+/**
+ * Resolves the paths of the resources registered through the HttpService to
+ * their fingerprinted paths. A fingerprinted path contains a hash of the
+ * content of the resource (ie /static/app.0123456789abcdef.js) and is served
+ * with far-future immutable caching, so that pages can reference it safely.
+ * @author Florent Benoit
+ */
+public interface ResourceFingerprintResolver {
+
+    /**
+     * Resolves the path of a resource to its fingerprinted path.
+     * @param path the path of the resource (ie /static/app.js)
+     * @return the fingerprinted path, or the given path if the hash of the
+     * resource is not yet known (it is then computed in the background)
+     */
+    String resolve(String path);
+}
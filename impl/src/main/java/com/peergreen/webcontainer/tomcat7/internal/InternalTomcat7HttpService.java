@@ -16,7 +16,9 @@
 package com.peergreen.webcontainer.tomcat7.internal;
 
 import java.util.Dictionary;
+import java.util.List;
 
+import javax.servlet.Filter;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 
@@ -35,6 +37,33 @@ public interface InternalTomcat7HttpService {
      */
     void registerServlet(String alias, Servlet servlet, Dictionary<String, String> initparams, HttpContext context, Bundle bundle) throws ServletException, NamespaceException;
 
+    /**
+     * Register all the given servlets or none of them if one registration fails.
+     * @param registrations the servlets to register
+     * @param bundle the bundle registering the servlets
+     */
+    void registerServlets(List<ServletRegistration> registrations, Bundle bundle) throws ServletException, NamespaceException;
+
+    /**
+     * Register a filter for the requests matching the given pattern (/* or a
+     * path optionally followed by /*). Registering the same filter again only
+     * updates its ranking.
+     * @param pattern the pattern of the filtered requests
+     * @param filter the filter
+     * @param ranking the ranking, highest ranking filters are called first
+     * @param initparams the init parameters of the filter (may be null)
+     * @param context the HttpContext of the filter, checking the security of
+     * each request before the filter (may be null)
+     * @param bundle the bundle registering the filter
+     */
+    void registerFilter(String pattern, Filter filter, int ranking, Dictionary<String, String> initparams, HttpContext context, Bundle bundle) throws ServletException, NamespaceException;
+
+    /**
+     * Unregister the given filter
+     * @param filter the filter to unregister
+     */
+    void unregisterFilter(Filter filter, Bundle bundle);
+
     /**
      * Unregister the given alias
      * @param alias the alias of the resource/servlet
@@ -15,6 +15,7 @@
  */
 package com.peergreen.webcontainer.tomcat7.internal;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.net.URL;
@@ -22,7 +23,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.servlet.ServletContainerInitializer;
 
@@ -39,6 +39,7 @@ import org.apache.felix.ipojo.annotations.Bind;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
 import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.apache.felix.ipojo.annotations.Unbind;
@@ -50,7 +51,10 @@ import org.xml.sax.SAXException;
 
 import com.peergreen.deployment.DeploymentService;
 import com.peergreen.webcontainer.tomcat7.Tomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.core.DescriptorCache;
+import com.peergreen.webcontainer.tomcat7.internal.core.GlobalWebXml;
 import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.core.ServletContainerInitializerIndex;
 import com.peergreen.webcontainer.tomcat7.internal.ruleset.BundleContextDigester;
 import com.peergreen.webcontainer.tomcat7.internal.ruleset.TomcatRuleSet;
 
@@ -63,6 +67,11 @@ import com.peergreen.webcontainer.tomcat7.internal.ruleset.TomcatRuleSet;
 @Instantiate
 public class PeergreenTomcat7Service implements Tomcat7Service, InternalTomcat7Service {
 
+    /**
+     * Name of the directory of the descriptor cache in the bundle storage area.
+     */
+    private static final String DESCRIPTOR_CACHE_DIRECTORY = "descriptor-cache";
+
     /**
      * Deployment service.
      */
@@ -80,13 +89,36 @@ public class PeergreenTomcat7Service implements Tomcat7Service, InternalTomcat7S
     private final BundleContext bundleContext;
 
     /**
-     * Servlet initalizers
+     * Servlet initalizers with their handled types, replaced on each bind/unbind.
+     */
+    private volatile ServletContainerInitializerIndex servletContainerInitializers = ServletContainerInitializerIndex.EMPTY;
+
+    /**
+     * Global web.xml shared by all the contexts.
      */
-    private final List<ServletContainerInitializer> servletContainerInitializers;
+    private GlobalWebXml globalWebXml;
+
+    /**
+     * Persistent cache of the context configurations.
+     */
+    private DescriptorCache descriptorCache;
+
+    /**
+     * Descriptor cache enabled ?
+     */
+    private boolean descriptorCacheEnabled = false;
 
     public PeergreenTomcat7Service(BundleContext bundleContext) {
         this.bundleContext = bundleContext;
-        this.servletContainerInitializers = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Enables or disables the persistent cache of the context configurations.
+     * @param descriptorCacheEnabled true to restore the configuration of the unchanged applications
+     */
+    @Property(name = "descriptor.cache", value = "false")
+    public void setDescriptorCacheEnabled(boolean descriptorCacheEnabled) {
+        this.descriptorCacheEnabled = descriptorCacheEnabled;
     }
 
     /**
@@ -128,6 +160,18 @@ public class PeergreenTomcat7Service implements Tomcat7Service, InternalTomcat7S
         }
         System.setProperty(Globals.CATALINA_BASE_PROP, tmpFile.toFile().getPath());
 
+        // global web.xml is parsed once and shared by all the contexts
+        globalWebXml = new GlobalWebXml(PeergreenTomcat7Service.class.getResource("/tomcat7-web.xml"), new File(tmpFile.toFile(), "conf"));
+        globalWebXml.prepare();
+
+        // configuration of the contexts restored on the next starts if the applications are unchanged
+        if (descriptorCacheEnabled) {
+            File directory = bundleContext.getDataFile(DESCRIPTOR_CACHE_DIRECTORY);
+            if (directory == null) {
+                directory = new File(tmpFile.toFile(), "work" + File.separator + DESCRIPTOR_CACHE_DIRECTORY);
+            }
+            descriptorCache = new DescriptorCache(directory);
+        }
 
         // Create the digester for the parsing of the server.xml.
         Digester digester = initializeDigester();
@@ -173,6 +217,10 @@ public class PeergreenTomcat7Service implements Tomcat7Service, InternalTomcat7S
             server.stop();
         } catch (LifecycleException e) {
             throw new IllegalStateException("Unable to stop Tomcat", e);
+        } finally {
+            if (globalWebXml != null) {
+                globalWebXml.invalidate();
+            }
         }
 
     }
@@ -250,21 +298,20 @@ public class PeergreenTomcat7Service implements Tomcat7Service, InternalTomcat7S
     }
 
     @Bind(aggregate=true,optional=true)
-    public void bindServletContainerInitializer(final ServletContainerInitializer initializer) {
-        this.servletContainerInitializers.add(initializer);
+    public synchronized void bindServletContainerInitializer(final ServletContainerInitializer initializer) {
+        this.servletContainerInitializers = servletContainerInitializers.add(initializer);
     }
 
     @Unbind(aggregate=true,optional=true)
-    public void unbindServletContainerInitializer(final ServletContainerInitializer initializer) {
-        this.servletContainerInitializers.remove(initializer);
+    public synchronized void unbindServletContainerInitializer(final ServletContainerInitializer initializer) {
+        this.servletContainerInitializers = servletContainerInitializers.remove(initializer);
     }
 
     @Override
     public ContextConfig createContextConfig() {
-        PeergreenContextConfig contextConfig = new PeergreenContextConfig();
-        for (ServletContainerInitializer servletContainerInitializer : servletContainerInitializers) {
-            contextConfig.addServletContainerInitializer(servletContainerInitializer);
-        }
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig(globalWebXml);
+        contextConfig.addServletContainerInitializers(servletContainerInitializers);
+        contextConfig.setDescriptorCache(descriptorCache);
         return contextConfig;
     }
 
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal;
+
+import java.util.Dictionary;
+
+import javax.servlet.Servlet;
+
+import org.osgi.service.http.HttpContext;
+
+/**
+ * Servlet to register with the other servlets of a batch.
+ * @author Florent Benoit
+ */
+public class ServletRegistration {
+
+    /**
+     * Alias of the servlet.
+     */
+    private final String alias;
+
+    /**
+     * Servlet to register.
+     */
+    private final Servlet servlet;
+
+    /**
+     * Init parameters (may be null).
+     */
+    private final Dictionary<String, String> initparams;
+
+    /**
+     * HttpContext of the servlet.
+     */
+    private final HttpContext httpContext;
+
+    public ServletRegistration(String alias, Servlet servlet, Dictionary<String, String> initparams, HttpContext httpContext) {
+        this.alias = alias;
+        this.servlet = servlet;
+        this.initparams = initparams;
+        this.httpContext = httpContext;
+    }
+
+    /**
+     * @return the alias of the servlet.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the servlet to register.
+     */
+    public Servlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * @return the init parameters or null.
+     */
+    public Dictionary<String, String> getInitParams() {
+        return initparams;
+    }
+
+    /**
+     * @return the HttpContext of the servlet.
+     */
+    public HttpContext getHttpContext() {
+        return httpContext;
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Persistent cache of the context configurations. An entry is stored per
+ * application directory with the hash of the content of the application: the
+ * descriptors, the classes and the jars of WEB-INF, the global web.xml and
+ * the servlet container initializers. An entry is only restored if the hash
+ * still matches.
+ * @author Florent Benoit
+ */
+public class DescriptorCache {
+
+    /**
+     * Directory of the application descriptors, classes and jars.
+     */
+    private static final String WEB_INF = "WEB-INF";
+
+    /**
+     * Length of the names of the entries.
+     */
+    private static final int NAME_LENGTH = 16;
+
+    /**
+     * Size of the buffer used to hash the files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Directory of the entries.
+     */
+    private final File directory;
+
+    /**
+     * Build a cache storing its entries in the given directory.
+     * @param directory the directory of the entries
+     */
+    public DescriptorCache(File directory) {
+        if (directory == null) {
+            throw new IllegalArgumentException("No directory for the descriptor cache");
+        }
+        this.directory = directory;
+    }
+
+    /**
+     * @return the directory of the entries
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Computes the hash of the content of the given application.
+     * @param docBase the application directory
+     * @param globalWebXml the URL of the global web.xml (may be null)
+     * @param initializers the names of the servlet container initializers
+     * @return the hash
+     * @throws IOException if the content cannot be read
+     */
+    public String computeKey(File docBase, String globalWebXml, Collection<String> initializers) throws IOException {
+        MessageDigest digest = newDigest();
+        update(digest, docBase.getAbsolutePath());
+        if (globalWebXml != null) {
+            try (InputStream inputStream = new URL(globalWebXml).openStream()) {
+                update(digest, inputStream);
+            }
+        }
+        List<String> names = new ArrayList<>(initializers);
+        Collections.sort(names);
+        for (String name : names) {
+            update(digest, name);
+        }
+
+        File webInf = new File(docBase, WEB_INF);
+        List<String> paths = new ArrayList<>();
+        listFiles(webInf, "", paths);
+        Collections.sort(paths);
+        for (String path : paths) {
+            update(digest, path);
+            try (InputStream inputStream = Files.newInputStream(new File(webInf, path).toPath())) {
+                update(digest, inputStream);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Loads the entry of the given application.
+     * @param docBase the application directory
+     * @param key the current hash of the application
+     * @return the entry or null if there is none or if the application has changed
+     */
+    public DescriptorCacheEntry load(File docBase, String key) {
+        File file = getFile(docBase);
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(file.toPath())) {
+            properties.loadFromXML(inputStream);
+        } catch (IOException e) {
+            // unreadable entry, the context is configured again
+            return null;
+        }
+        DescriptorCacheEntry entry;
+        try {
+            entry = DescriptorCacheEntry.fromProperties(properties);
+        } catch (IllegalArgumentException e) {
+            // corrupted entry
+            return null;
+        }
+        if (!entry.getKey().equals(key)) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Stores the entry of the given application.
+     * @param docBase the application directory
+     * @param entry the entry to store
+     */
+    public void store(File docBase, DescriptorCacheEntry entry) {
+        File file = getFile(docBase);
+        try {
+            Path dir = directory.toPath();
+            Files.createDirectories(dir);
+
+            // write in a temporary file and then rename it so that an entry is always complete
+            Path tmpFile = Files.createTempFile(dir, file.getName(), ".tmp");
+            try {
+                try (OutputStream outputStream = Files.newOutputStream(tmpFile)) {
+                    entry.toProperties().storeToXML(outputStream, null, StandardCharsets.UTF_8.name());
+                }
+                Files.move(tmpFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            // best effort, the context is configured again on the next start
+        }
+    }
+
+    /**
+     * Removes the entry of the given application.
+     * @param docBase the application directory
+     */
+    public void invalidate(File docBase) {
+        getFile(docBase).delete();
+    }
+
+    /**
+     * Gets the file of the entry of the given application.
+     * @param docBase the application directory
+     * @return the file of the entry
+     */
+    protected File getFile(File docBase) {
+        MessageDigest digest = newDigest();
+        update(digest, docBase.getAbsolutePath());
+        return new File(directory, toHex(digest.digest()).substring(0, NAME_LENGTH) + ".xml");
+    }
+
+    /**
+     * Lists the files of the given directory and of its sub directories.
+     * @param dir the directory
+     * @param prefix the path of the directory
+     * @param paths the relative paths of the files
+     */
+    private static void listFiles(File dir, String prefix, List<String> paths) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            String path = prefix + file.getName();
+            if (file.isDirectory()) {
+                listFiles(file, path + "/", paths);
+            } else {
+                paths.add(path);
+            }
+        }
+    }
+
+    /**
+     * @return a new SHA-256 digest
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("No SHA-256 digest", e);
+        }
+    }
+
+    /**
+     * Adds the given value to the digest, followed by a separator.
+     * @param digest the digest
+     * @param value the value
+     */
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Adds the content of the given stream to the digest.
+     * @param digest the digest
+     * @param inputStream the stream
+     * @throws IOException if the stream cannot be read
+     */
+    private static void update(MessageDigest digest, InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long length = 0;
+        int read;
+        while ((read = inputStream.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+            length += read;
+        }
+        update(digest, String.valueOf(length));
+    }
+
+    /**
+     * Gets the hexadecimal representation of the given bytes.
+     * @param bytes the bytes
+     * @return the hexadecimal string
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
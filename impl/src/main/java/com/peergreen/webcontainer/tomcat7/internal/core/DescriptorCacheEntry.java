@@ -0,0 +1,328 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.catalina.deploy.WebXml;
+
+/**
+ * Result of the configuration of a context that can be restored on the next
+ * start of the same application: the effective merged descriptor, the
+ * fragments with their ordering, the classes matched by the servlet
+ * container initializers and the listeners of the TLDs.
+ * @author Florent Benoit
+ */
+public class DescriptorCacheEntry {
+
+    /**
+     * Separator of the values in a property.
+     */
+    private static final String SEPARATOR = "\n";
+
+    /**
+     * Prefix of the properties of the fragments.
+     */
+    private static final String FRAGMENT = "fragment.";
+
+    /**
+     * Prefix of the properties of the initializers.
+     */
+    private static final String INITIALIZER = "initializer.";
+
+    /**
+     * Hash of the content of the application.
+     */
+    private final String key;
+
+    /**
+     * Effective merged web.xml.
+     */
+    private final String webXml;
+
+    /**
+     * Annotations of the application ignored ?
+     */
+    private final boolean ignoreAnnotations;
+
+    /**
+     * Absolute ordering of the application descriptor (may be null).
+     */
+    private final Set<String> absoluteOrdering;
+
+    /**
+     * Fragments of the application (only their name, jar, URL and ordering).
+     */
+    private final List<WebXml> fragments;
+
+    /**
+     * Names of the classes matched by each initializer.
+     */
+    private final Map<String, Set<String>> initializerClasses;
+
+    /**
+     * Listeners declared by the TLDs.
+     */
+    private List<String> tldListeners;
+
+    /**
+     * Builds an entry.
+     * @param key the hash of the content of the application
+     * @param webXml the effective merged web.xml
+     * @param ignoreAnnotations true if the annotations are ignored
+     * @param absoluteOrdering the absolute ordering of the descriptor or null
+     * @param fragments the fragments of the application
+     * @param initializerClasses the names of the classes matched by each initializer
+     */
+    public DescriptorCacheEntry(String key, String webXml, boolean ignoreAnnotations, Set<String> absoluteOrdering,
+            Collection<WebXml> fragments, Map<String, Set<String>> initializerClasses) {
+        this.key = key;
+        this.webXml = webXml;
+        this.ignoreAnnotations = ignoreAnnotations;
+        this.absoluteOrdering = absoluteOrdering;
+        this.fragments = new ArrayList<>(fragments);
+        this.initializerClasses = initializerClasses;
+    }
+
+    /**
+     * @return the hash of the content of the application
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the effective merged web.xml
+     */
+    public String getWebXml() {
+        return webXml;
+    }
+
+    /**
+     * @return true if the annotations of the application are ignored
+     */
+    public boolean isIgnoreAnnotations() {
+        return ignoreAnnotations;
+    }
+
+    /**
+     * @return the absolute ordering of the application descriptor or null
+     */
+    public Set<String> getAbsoluteOrdering() {
+        return absoluteOrdering;
+    }
+
+    /**
+     * Gets new fragments, by name, with the name, the jar, the URL and the
+     * ordering of the cached fragments. They're enough to order the fragments
+     * and to find their resources and their initializers.
+     * @return the fragments by name
+     */
+    public Map<String, WebXml> getFragments() {
+        Map<String, WebXml> map = new LinkedHashMap<>();
+        for (WebXml fragment : fragments) {
+            WebXml copy = new WebXml();
+            copy.setName(fragment.getName());
+            copy.setJarName(fragment.getJarName());
+            copy.setURL(fragment.getURL());
+            for (String name : fragment.getBeforeOrdering()) {
+                copy.addBeforeOrdering(name);
+            }
+            for (String name : fragment.getAfterOrdering()) {
+                copy.addAfterOrdering(name);
+            }
+            map.put(copy.getName(), copy);
+        }
+        return map;
+    }
+
+    /**
+     * Gets the classes matched by the given initializer.
+     * @param initializer the name of the initializer class
+     * @return the names of the matched classes
+     */
+    public Set<String> getInitializerClasses(String initializer) {
+        Set<String> classes = initializerClasses.get(initializer);
+        if (classes == null) {
+            return Collections.emptySet();
+        }
+        return classes;
+    }
+
+    /**
+     * @return the listeners declared by the TLDs, null if they're unknown
+     */
+    public List<String> getTldListeners() {
+        return tldListeners;
+    }
+
+    /**
+     * Sets the listeners declared by the TLDs.
+     * @param tldListeners the class names of the listeners
+     */
+    public void setTldListeners(List<String> tldListeners) {
+        this.tldListeners = tldListeners;
+    }
+
+    /**
+     * @return the properties describing this entry
+     */
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("key", key);
+        properties.setProperty("web-xml", webXml);
+        properties.setProperty("ignore-annotations", String.valueOf(ignoreAnnotations));
+        if (absoluteOrdering != null) {
+            properties.setProperty("absolute-ordering", join(absoluteOrdering));
+        }
+        properties.setProperty("fragments", String.valueOf(fragments.size()));
+        for (int i = 0; i < fragments.size(); i++) {
+            WebXml fragment = fragments.get(i);
+            String prefix = FRAGMENT + i + ".";
+            if (fragment.getName() != null) {
+                properties.setProperty(prefix + "name", fragment.getName());
+            }
+            if (fragment.getJarName() != null) {
+                properties.setProperty(prefix + "jar-name", fragment.getJarName());
+            }
+            if (fragment.getURL() != null) {
+                properties.setProperty(prefix + "url", fragment.getURL().toExternalForm());
+            }
+            properties.setProperty(prefix + "before", join(fragment.getBeforeOrdering()));
+            properties.setProperty(prefix + "after", join(fragment.getAfterOrdering()));
+        }
+        for (Map.Entry<String, Set<String>> entry : initializerClasses.entrySet()) {
+            properties.setProperty(INITIALIZER + entry.getKey(), join(entry.getValue()));
+        }
+        if (tldListeners != null) {
+            properties.setProperty("tld-listeners", join(tldListeners));
+        }
+        return properties;
+    }
+
+    /**
+     * Builds an entry from its properties.
+     * @param properties the properties of the entry
+     * @return the entry
+     * @throws IllegalArgumentException if the properties are not valid
+     */
+    public static DescriptorCacheEntry fromProperties(Properties properties) {
+        String key = getRequiredProperty(properties, "key");
+        String webXml = getRequiredProperty(properties, "web-xml");
+        boolean ignoreAnnotations = Boolean.parseBoolean(properties.getProperty("ignore-annotations"));
+        Set<String> absoluteOrdering = null;
+        if (properties.getProperty("absolute-ordering") != null) {
+            absoluteOrdering = split(properties.getProperty("absolute-ordering"));
+        }
+
+        List<WebXml> fragments = new ArrayList<>();
+        int count;
+        try {
+            count = Integer.parseInt(getRequiredProperty(properties, "fragments"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number of fragments", e);
+        }
+        for (int i = 0; i < count; i++) {
+            String prefix = FRAGMENT + i + ".";
+            WebXml fragment = new WebXml();
+            fragment.setName(properties.getProperty(prefix + "name"));
+            fragment.setJarName(properties.getProperty(prefix + "jar-name"));
+            String url = properties.getProperty(prefix + "url");
+            if (url != null) {
+                try {
+                    fragment.setURL(new URL(url));
+                } catch (MalformedURLException e) {
+                    throw new IllegalArgumentException(String.format("Invalid URL %s", url), e);
+                }
+            }
+            for (String name : split(properties.getProperty(prefix + "before"))) {
+                fragment.addBeforeOrdering(name);
+            }
+            for (String name : split(properties.getProperty(prefix + "after"))) {
+                fragment.addAfterOrdering(name);
+            }
+            fragments.add(fragment);
+        }
+
+        Map<String, Set<String>> initializerClasses = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(INITIALIZER)) {
+                initializerClasses.put(name.substring(INITIALIZER.length()), split(properties.getProperty(name)));
+            }
+        }
+
+        DescriptorCacheEntry entry = new DescriptorCacheEntry(key, webXml, ignoreAnnotations, absoluteOrdering, fragments, initializerClasses);
+        if (properties.getProperty("tld-listeners") != null) {
+            entry.setTldListeners(new ArrayList<>(split(properties.getProperty("tld-listeners"))));
+        }
+        return entry;
+    }
+
+    /**
+     * Gets a property that has to be defined.
+     * @param properties the properties
+     * @param name the name of the property
+     * @return the value
+     * @throws IllegalArgumentException if the property is missing
+     */
+    private static String getRequiredProperty(Properties properties, String name) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            throw new IllegalArgumentException(String.format("Missing property %s", name));
+        }
+        return value;
+    }
+
+    /**
+     * Joins the given values.
+     * @param values the values
+     * @return the values separated by new lines
+     */
+    private static String join(Collection<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0) {
+                sb.append(SEPARATOR);
+            }
+            sb.append(value);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits the given values.
+     * @param value the joined values (may be null)
+     * @return the values, in their order
+     */
+    private static Set<String> split(String value) {
+        if (value == null || value.isEmpty()) {
+            return new LinkedHashSet<>();
+        }
+        return new LinkedHashSet<>(Arrays.asList(value.split(SEPARATOR)));
+    }
+}
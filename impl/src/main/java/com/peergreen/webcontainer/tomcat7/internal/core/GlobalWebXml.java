@@ -0,0 +1,114 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.xml.sax.InputSource;
+
+/**
+ * Global web.xml descriptor shared by all the contexts of a Tomcat service.
+ * The descriptor is copied once in a file so that its timestamp is stable and
+ * cheap to read: Tomcat then parses it once and shares the resulting default
+ * WebXml between all the contexts of a host, until the file changes.
+ * @author Florent Benoit
+ */
+public class GlobalWebXml {
+
+    /**
+     * Name of the copied descriptor.
+     */
+    private static final String FILE_NAME = "web.xml";
+
+    /**
+     * Location of the descriptor.
+     */
+    private final URL source;
+
+    /**
+     * Copy of the descriptor.
+     */
+    private final File file;
+
+    /**
+     * Build a global descriptor copied from the given source.
+     * @param source the location of the descriptor
+     * @param directory the directory of the copy
+     */
+    public GlobalWebXml(URL source, File directory) {
+        if (source == null) {
+            throw new IllegalArgumentException("No global web.xml descriptor");
+        }
+        this.source = source;
+        this.file = new File(directory, FILE_NAME);
+    }
+
+    /**
+     * Copies the descriptor in its file.
+     */
+    public synchronized void prepare() {
+        if (file.isFile()) {
+            return;
+        }
+        try {
+            Path directory = file.getParentFile().toPath();
+            Files.createDirectories(directory);
+
+            // copy in a temporary file and then rename it so that the file is always complete
+            Path tmpFile = Files.createTempFile(directory, FILE_NAME, ".tmp");
+            try {
+                try (InputStream inputStream = source.openStream()) {
+                    Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(tmpFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmpFile);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format("Unable to copy the global web.xml %s", source), e);
+        }
+    }
+
+    /**
+     * Gets the source of the descriptor to parse.
+     * @return the source of the copied descriptor
+     */
+    public InputSource getInputSource() {
+        prepare();
+        return new InputSource(file.toURI().toString());
+    }
+
+    /**
+     * @return the copied descriptor.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Removes the copy of the descriptor and the parsed default WebXml.
+     */
+    public synchronized void invalidate() {
+        PeergreenContextConfig.clearDefaultWebXmlCache();
+        file.delete();
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Immutable table of the MIME types by file extension, shared by the contexts
+ * so that resolving a MIME type is a lookup in an unsynchronized map.
+ * Extensions are case sensitive, like the mime mappings of a Tomcat context.
+ * @author Florent Benoit
+ */
+public final class MimeTable {
+
+    /**
+     * Empty table.
+     */
+    public static final MimeTable EMPTY = new MimeTable(Collections.<String, String>emptyMap());
+
+    /**
+     * MIME types by extension.
+     */
+    private final Map<String, String> mappings;
+
+    /**
+     * Builds a table with the given mappings.
+     * @param mappings the MIME types by extension
+     */
+    public MimeTable(Map<String, String> mappings) {
+        this.mappings = Collections.unmodifiableMap(new HashMap<>(mappings));
+    }
+
+    /**
+     * Gets the MIME type of the given file name or path.
+     * @param file the name or the path of the file
+     * @return the MIME type or null if the extension is unknown
+     */
+    public String getMimeType(String file) {
+        if (file == null) {
+            return null;
+        }
+        int dot = file.lastIndexOf('.');
+        if (dot < 0 || dot < file.lastIndexOf('/')) {
+            return null;
+        }
+        return getMimeMapping(file.substring(dot + 1));
+    }
+
+    /**
+     * Gets the MIME type of the given extension.
+     * @param extension the extension, without the dot
+     * @return the MIME type or null if the extension is unknown
+     */
+    public String getMimeMapping(String extension) {
+        if (extension == null) {
+            return null;
+        }
+        return mappings.get(extension);
+    }
+
+    /**
+     * @return the MIME types by extension.
+     */
+    public Map<String, String> getMappings() {
+        return mappings;
+    }
+
+    /**
+     * @return the number of extensions.
+     */
+    public int size() {
+        return mappings.size();
+    }
+
+    /**
+     * Reads the mime-mapping elements of the given web.xml.
+     * @param url the URL of the web.xml
+     * @return the table of the mappings
+     * @throws IOException if the file cannot be read
+     */
+    public static MimeTable parse(URL url) throws IOException {
+        Map<String, String> mappings = new HashMap<>();
+        try (InputStream inputStream = url.openStream()) {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            XMLStreamReader reader = factory.createXMLStreamReader(inputStream);
+            try {
+                String extension = null;
+                String mimeType = null;
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = reader.getLocalName();
+                        if ("mime-mapping".equals(element)) {
+                            extension = null;
+                            mimeType = null;
+                        } else if ("extension".equals(element)) {
+                            extension = reader.getElementText().trim();
+                        } else if ("mime-type".equals(element)) {
+                            mimeType = reader.getElementText().trim();
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && "mime-mapping".equals(reader.getLocalName())) {
+                        if (extension != null && mimeType != null) {
+                            mappings.put(extension, mimeType);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(String.format("Unable to parse the mime mappings of %s", url), e);
+        }
+        return new MimeTable(mappings);
+    }
+
+}
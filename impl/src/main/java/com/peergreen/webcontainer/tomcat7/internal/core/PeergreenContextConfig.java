@@ -15,13 +15,42 @@
  */
 package com.peergreen.webcontainer.tomcat7.internal.core;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import javax.servlet.DispatcherType;
 import javax.servlet.ServletContainerInitializer;
 import javax.servlet.annotation.HandlesTypes;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebInitParam;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.annotation.WebServlet;
 
+import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.deploy.ServletDef;
+import org.apache.catalina.deploy.WebXml;
 import org.apache.catalina.startup.ContextConfig;
+import org.apache.catalina.startup.TldConfig;
+import org.apache.tomcat.util.scan.Constants;
 import org.xml.sax.InputSource;
 
 /**
@@ -30,16 +59,143 @@ import org.xml.sax.InputSource;
  */
 public class PeergreenContextConfig extends ContextConfig {
 
+    /**
+     * Global descriptor shared by the contexts (may be null).
+     */
+    private final GlobalWebXml globalWebXml;
+
+    /**
+     * Origin of the classes of /WEB-INF/classes in the annotation index.
+     */
+    protected static final String WEB_INF_CLASSES = "";
+
+    /**
+     * Mime mappings of the default WebXml of each host, guarded by the lock
+     * of the cache of the default WebXml.
+     */
+    private static final Map<Host, MimeTable> hostMimeTableCache = new HashMap<>();
+
+    /**
+     * Names of the classes indexed by the metadata adapter (null if the
+     * classes are scanned by Tomcat).
+     */
+    private Collection<String> annotationIndex;
+
+    /**
+     * Indexed classes by origin (/WEB-INF/classes or name of the jar).
+     */
+    private Map<String, List<Class<?>>> indexedClasses;
+
+    /**
+     * Classes of /WEB-INF/classes already processed ?
+     */
+    private boolean webInfClassesProcessed;
+
+    /**
+     * Persistent cache of the configuration (may be null).
+     */
+    private DescriptorCache descriptorCache;
+
+    /**
+     * Names of the servlet container initializers bound to the service.
+     */
+    private Set<String> boundInitializers;
+
+    /**
+     * TLD configuration run by this configuration when the cache is used.
+     */
+    private TldConfig tldConfig;
+
+    /**
+     * Application directory of the cached configuration.
+     */
+    private File cacheDocBase;
+
+    /**
+     * Hash of the content of the application.
+     */
+    private String cacheKey;
+
+    /**
+     * Cached configuration restored by the current run.
+     */
+    private DescriptorCacheEntry restoredEntry;
+
+    /**
+     * Configuration to store once the TLDs are processed.
+     */
+    private DescriptorCacheEntry pendingEntry;
+
+    /**
+     * Context web.xml has been requested ?
+     */
+    private boolean contextWebXmlRequested;
 
     /**
-     * Gets the global Web XML source from the Bundle resources.
+     * Descriptor of the application, before its merge.
+     */
+    private WebXml applicationWebXml;
+
+    /**
+     * Default descriptor parsed by this run (null if the one of the host is reused).
+     */
+    private WebXml defaultWebXml;
+
+    /**
+     * Fragments found in the jars of the application.
+     */
+    private Map<String, WebXml> scannedFragments;
+
+    /**
+     * Configuration parsing the global descriptor from the Bundle resources.
+     */
+    public PeergreenContextConfig() {
+        this(null);
+    }
+
+    /**
+     * Configuration using the given shared global descriptor.
+     * @param globalWebXml the global descriptor
+     */
+    public PeergreenContextConfig(GlobalWebXml globalWebXml) {
+        this.globalWebXml = globalWebXml;
+    }
+
+    /**
+     * Gets the global Web XML source from the shared descriptor, or from the
+     * Bundle resources.
      */
     @Override
     protected InputSource getGlobalWebXmlSource() {
+        if (globalWebXml != null) {
+            return globalWebXml.getInputSource();
+        }
         //FIXME : should use the config repository to find the resource
         return new InputSource(PeergreenContextConfig.class.getResource("/tomcat7-web.xml").toExternalForm());
     }
 
+    /**
+     * Removes the default WebXml parsed for each host, they're parsed again
+     * by the next context.
+     */
+    public static void clearDefaultWebXmlCache() {
+        synchronized (hostWebXmlCache) {
+            hostWebXmlCache.clear();
+            hostMimeTableCache.clear();
+        }
+    }
+
+    /**
+     * Checks if a default WebXml has been parsed for the given host.
+     * @param host the host
+     * @return true if the contexts of the host share a default WebXml
+     */
+    public static boolean hasDefaultWebXml(Host host) {
+        synchronized (hostWebXmlCache) {
+            return hostWebXmlCache.containsKey(host);
+        }
+    }
+
 
     /**
      * Adds the given servlet container initializer.
@@ -71,4 +227,723 @@ public class PeergreenContextConfig extends ContextConfig {
         }
 
     }
+
+    /**
+     * Adds the servlet container initializers of the given index. The
+     * handled types are taken from the index without any reflection.
+     * @param index the snapshot of the initializers
+     */
+    public void addServletContainerInitializers(ServletContainerInitializerIndex index) {
+        for (ServletContainerInitializer sci : index.getInitializers()) {
+            initializerClassMap.put(sci, new HashSet<Class<?>>());
+        }
+        for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry : index.getTypeInitializers().entrySet()) {
+            // copied as Tomcat adds the initializers of the application to these sets
+            typeInitializerMap.put(entry.getKey(), new HashSet<ServletContainerInitializer>(entry.getValue()));
+        }
+        handlesTypesAnnotations |= index.isHandlesTypesAnnotations();
+        handlesTypesNonAnnotations |= index.isHandlesTypesNonAnnotations();
+    }
+
+    /**
+     * Gets the classes matched by the HandlesTypes of the given initializer.
+     * @param sci the servlet container initializer
+     * @return the matching classes or null if the initializer is unknown
+     */
+    public Set<Class<?>> getHandlesTypesClasses(ServletContainerInitializer sci) {
+        return initializerClassMap.get(sci);
+    }
+
+    /**
+     * Sets the classes of the application already indexed by the metadata
+     * adapter. Servlets, filters, listeners and HandlesTypes matches are then
+     * built from these classes instead of scanning the bytecode of
+     * /WEB-INF/classes and /WEB-INF/lib, unless an initializer handles a type
+     * that is not an annotation.
+     * @param classNames the names of the indexed classes, null to scan them
+     */
+    public void setAnnotationIndex(Collection<String> classNames) {
+        this.annotationIndex = classNames;
+    }
+
+    /**
+     * Sets the persistent cache of the configuration. The TLDs of the context
+     * are then processed by this configuration so that their listeners are
+     * cached too.
+     * @param descriptorCache the cache, null to configure each start
+     */
+    public void setDescriptorCache(DescriptorCache descriptorCache) {
+        this.descriptorCache = descriptorCache;
+    }
+
+    /**
+     * Handles the TLDs in place of the TldConfig of the context when the
+     * cache is used.
+     */
+    @Override
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (descriptorCache != null && Lifecycle.BEFORE_INIT_EVENT.equals(event.getType())
+                && event.getLifecycle() instanceof StandardContext) {
+            tldConfig = new TldConfig();
+            ((StandardContext) event.getLifecycle()).setProcessTlds(false);
+        }
+        super.lifecycleEvent(event);
+        if (tldConfig == null) {
+            return;
+        }
+
+        if (!Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+            tldConfig.lifecycleEvent(event);
+            return;
+        }
+        if (restoredEntry != null && restoredEntry.getTldListeners() != null) {
+            for (String listener : restoredEntry.getTldListeners()) {
+                context.addApplicationListener(listener);
+            }
+            return;
+        }
+        tldConfig.lifecycleEvent(event);
+        if (pendingEntry != null && ok) {
+            pendingEntry.setTldListeners(Arrays.asList(tldConfig.getTldListeners()));
+            descriptorCache.store(cacheDocBase, pendingEntry);
+        }
+        pendingEntry = null;
+    }
+
+    /**
+     * Processes the application descriptors, or restores them from the cache
+     * if the application has not changed. The indexed classes are resolved
+     * again for each run as the class loader changes on reload.
+     */
+    @Override
+    protected void webConfig() {
+        indexedClasses = null;
+        webInfClassesProcessed = false;
+        contextWebXmlRequested = false;
+        applicationWebXml = null;
+        defaultWebXml = null;
+        scannedFragments = null;
+        restoredEntry = null;
+        pendingEntry = null;
+        cacheKey = null;
+        if (descriptorCache != null) {
+            loadDescriptorCache();
+        }
+
+        super.webConfig();
+
+        if (restoredEntry != null) {
+            // cached descriptor is metadata complete, keep the setting of the application
+            context.setIgnoreAnnotations(restoredEntry.isIgnoreAnnotations());
+        } else if (cacheKey != null && ok) {
+            pendingEntry = createDescriptorCacheEntry();
+            if (pendingEntry != null && tldConfig == null) {
+                // TLDs are processed by the context
+                descriptorCache.store(cacheDocBase, pendingEntry);
+                pendingEntry = null;
+            }
+        }
+    }
+
+    /**
+     * Computes the hash of the application and loads the matching cached
+     * configuration if any.
+     */
+    protected void loadDescriptorCache() {
+        if (context.getDocBase() == null) {
+            return;
+        }
+        File docBase = new File(context.getDocBase());
+        if (!docBase.isAbsolute() || !docBase.isDirectory()) {
+            return;
+        }
+
+        // initializers of the application are added by each run, only keep the bound ones
+        if (boundInitializers == null) {
+            boundInitializers = new HashSet<>();
+            for (ServletContainerInitializer sci : initializerClassMap.keySet()) {
+                boundInitializers.add(sci.getClass().getName());
+            }
+        }
+        InputSource globalWebXmlSource = getGlobalWebXmlSource();
+        String globalWebXmlLocation = null;
+        if (globalWebXmlSource != null) {
+            globalWebXmlLocation = globalWebXmlSource.getSystemId();
+        }
+        try {
+            cacheKey = descriptorCache.computeKey(docBase, globalWebXmlLocation, boundInitializers);
+        } catch (IOException e) {
+            // not cached, the content of the application cannot be read
+            return;
+        }
+        cacheDocBase = docBase;
+        restoredEntry = descriptorCache.load(docBase, cacheKey);
+    }
+
+    /**
+     * Creates the cache entry of the configuration that has been done.
+     * @return the entry or null if the merged descriptor is unknown
+     */
+    protected DescriptorCacheEntry createDescriptorCacheEntry() {
+        String webXml = (String) context.getServletContext().getAttribute(Constants.MERGED_WEB_XML);
+        if (webXml == null) {
+            return null;
+        }
+        Set<String> absoluteOrdering = null;
+        if (applicationWebXml != null && applicationWebXml.getAbsoluteOrdering() != null) {
+            absoluteOrdering = new LinkedHashSet<>(applicationWebXml.getAbsoluteOrdering());
+        }
+        Collection<WebXml> fragments = new ArrayList<>();
+        if (scannedFragments != null) {
+            fragments.addAll(scannedFragments.values());
+        }
+        Map<String, Set<String>> initializerClasses = new HashMap<>();
+        for (Map.Entry<ServletContainerInitializer, Set<Class<?>>> entry : initializerClassMap.entrySet()) {
+            Set<String> classNames = new LinkedHashSet<>();
+            for (Class<?> clazz : entry.getValue()) {
+                classNames.add(clazz.getName());
+            }
+            initializerClasses.put(entry.getKey().getClass().getName(), classNames);
+        }
+        return new DescriptorCacheEntry(cacheKey, webXml, context.getIgnoreAnnotations(), absoluteOrdering, fragments, initializerClasses);
+    }
+
+    /**
+     * Gets the cached merged descriptor if the configuration is restored.
+     */
+    @Override
+    protected InputSource getContextWebXmlSource() {
+        // the default descriptor is complete, its mime mappings are not yet added to the context
+        configureBaseMimeTable();
+        contextWebXmlRequested = true;
+        if (restoredEntry == null) {
+            return super.getContextWebXmlSource();
+        }
+        InputSource source = new InputSource(descriptorCache.getFile(cacheDocBase).toURI().toString());
+        source.setByteStream(new ByteArrayInputStream(restoredEntry.getWebXml().getBytes(StandardCharsets.UTF_8)));
+        return source;
+    }
+
+    /**
+     * Keeps the descriptor of the application, the first one parsed after
+     * the defaults, and restores its absolute ordering that is not part of
+     * the merged descriptor.
+     */
+    @Override
+    protected void parseWebXml(InputSource source, WebXml dest, boolean fragment) {
+        super.parseWebXml(source, dest, fragment);
+        if (!fragment && !contextWebXmlRequested) {
+            // global and host descriptors
+            defaultWebXml = dest;
+        }
+        if (fragment || !contextWebXmlRequested || applicationWebXml != null) {
+            return;
+        }
+        applicationWebXml = dest;
+        if (restoredEntry != null && restoredEntry.getAbsoluteOrdering() != null) {
+            dest.createAbsoluteOrdering();
+            for (String name : restoredEntry.getAbsoluteOrdering()) {
+                dest.addAbsoluteOrdering(name);
+            }
+        }
+    }
+
+    /**
+     * Shares the mime mappings of the default descriptor between the contexts
+     * of the host. They're taken from the descriptor parsed by this run or
+     * from the previous run on the host when Tomcat reuses its descriptor.
+     */
+    protected void configureBaseMimeTable() {
+        if (!(context instanceof PeergreenStandardContext)) {
+            return;
+        }
+        Host host = null;
+        if (context.getParent() instanceof Host) {
+            host = (Host) context.getParent();
+        }
+        MimeTable mimeTable;
+        synchronized (hostWebXmlCache) {
+            if (defaultWebXml != null) {
+                mimeTable = new MimeTable(defaultWebXml.getMimeMappings());
+                if (host != null) {
+                    hostMimeTableCache.put(host, mimeTable);
+                }
+            } else {
+                mimeTable = hostMimeTableCache.get(host);
+            }
+        }
+        if (mimeTable != null) {
+            ((PeergreenStandardContext) context).setBaseMimeTable(mimeTable);
+        }
+    }
+
+    /**
+     * Uses the cached fragments if the configuration is restored.
+     */
+    @Override
+    protected Map<String, WebXml> processJarsForWebFragments() {
+        if (restoredEntry != null) {
+            return restoredEntry.getFragments();
+        }
+        scannedFragments = super.processJarsForWebFragments();
+        return scannedFragments;
+    }
+
+    /**
+     * Restores the classes matched by the initializers if the configuration
+     * is restored.
+     */
+    @Override
+    protected void processServletContainerInitializers(Set<WebXml> fragments) {
+        super.processServletContainerInitializers(fragments);
+        if (restoredEntry == null) {
+            return;
+        }
+        ClassLoader classLoader = getClassLoader();
+        for (Map.Entry<ServletContainerInitializer, Set<Class<?>>> entry : initializerClassMap.entrySet()) {
+            for (String className : restoredEntry.getInitializerClasses(entry.getKey().getClass().getName())) {
+                try {
+                    entry.getValue().add(Class.forName(className, false, classLoader));
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // Tomcat ignores the classes that cannot be loaded
+                }
+            }
+        }
+    }
+
+    /**
+     * Nothing to scan if the configuration is restored, uses the annotation
+     * index for /WEB-INF/classes if it can be used.
+     */
+    @Override
+    protected void processAnnotationsUrl(URL url, WebXml fragment, boolean handlesTypesOnly) {
+        if (restoredEntry != null) {
+            // classes of the initializers already restored
+            return;
+        }
+        if (!isAnnotationIndexUsed()) {
+            super.processAnnotationsUrl(url, fragment, handlesTypesOnly);
+            return;
+        }
+        processWebInfClasses(fragment, handlesTypesOnly);
+    }
+
+    /**
+     * Nothing to scan if the configuration is restored, uses the annotation
+     * index for /WEB-INF/classes if it can be used.
+     */
+    @Override
+    protected void processAnnotationsFile(File file, WebXml fragment, boolean handlesTypesOnly) {
+        if (restoredEntry != null) {
+            return;
+        }
+        if (!isAnnotationIndexUsed()) {
+            super.processAnnotationsFile(file, fragment, handlesTypesOnly);
+            return;
+        }
+        processWebInfClasses(fragment, handlesTypesOnly);
+    }
+
+    /**
+     * Nothing to scan if the configuration is restored, uses the annotation
+     * index for the jars of /WEB-INF/lib if it can be used.
+     */
+    @Override
+    protected void processAnnotations(Set<WebXml> fragments, boolean handlesTypesOnly) {
+        if (restoredEntry != null) {
+            return;
+        }
+        if (!isAnnotationIndexUsed()) {
+            super.processAnnotations(fragments, handlesTypesOnly);
+            return;
+        }
+        for (WebXml fragment : fragments) {
+            // same merge than Tomcat, annotations of a fragment are merged in the fragment
+            WebXml annotations = new WebXml();
+            annotations.setDistributable(true);
+            processIndexedClasses(getIndexedClasses(getJarName(fragment)), annotations, handlesTypesOnly || fragment.isMetadataComplete());
+            Set<WebXml> set = new HashSet<WebXml>();
+            set.add(annotations);
+            fragment.merge(set);
+        }
+    }
+
+    /**
+     * The index only contains the annotated classes: the bytecode is scanned
+     * when an initializer handles a type that is not an annotation as its
+     * subtypes may not be annotated.
+     * @return true if the annotation index replaces the scan of the classes
+     */
+    protected boolean isAnnotationIndexUsed() {
+        return annotationIndex != null && !handlesTypesNonAnnotations;
+    }
+
+    /**
+     * Processes the indexed classes of /WEB-INF/classes. Tomcat asks for each
+     * entry of the directory while the index is processed only once.
+     * @param fragment the descriptor of the application
+     * @param handlesTypesOnly true if only HandlesTypes have to be matched
+     */
+    protected void processWebInfClasses(WebXml fragment, boolean handlesTypesOnly) {
+        if (webInfClassesProcessed) {
+            return;
+        }
+        webInfClassesProcessed = true;
+        processIndexedClasses(getIndexedClasses(WEB_INF_CLASSES), fragment, handlesTypesOnly);
+    }
+
+    /**
+     * Processes the annotations of the given classes like Tomcat does for the
+     * bytecode of these classes.
+     * @param classes the classes to process
+     * @param fragment the descriptor receiving the definitions
+     * @param handlesTypesOnly true if only HandlesTypes have to be matched
+     */
+    protected void processIndexedClasses(Collection<Class<?>> classes, WebXml fragment, boolean handlesTypesOnly) {
+        for (Class<?> clazz : classes) {
+            matchHandlesTypes(clazz);
+            if (handlesTypesOnly) {
+                continue;
+            }
+            WebServlet webServlet = clazz.getAnnotation(WebServlet.class);
+            if (webServlet != null) {
+                processWebServlet(clazz.getName(), webServlet, fragment);
+            }
+            WebFilter webFilter = clazz.getAnnotation(WebFilter.class);
+            if (webFilter != null) {
+                processWebFilter(clazz.getName(), webFilter, fragment);
+            }
+            if (clazz.isAnnotationPresent(WebListener.class)) {
+                fragment.addListener(clazz.getName());
+            }
+        }
+    }
+
+    /**
+     * Adds the given class to the initializers handling one of its super types
+     * or one of its annotations.
+     * @param clazz the class to match
+     */
+    protected void matchHandlesTypes(Class<?> clazz) {
+        // Only process HandlesTypes if there is at least one SCI that needs it
+        if (typeInitializerMap.isEmpty() || clazz.isAnnotation()) {
+            return;
+        }
+
+        // types are compared by name, like Tomcat does with the bytecode
+        Set<String> superTypes = null;
+        if (handlesTypesNonAnnotations) {
+            superTypes = new HashSet<>();
+            addSuperTypes(clazz, superTypes);
+        }
+        Set<String> annotations = null;
+        if (handlesTypesAnnotations) {
+            annotations = new HashSet<>();
+            for (Annotation annotation : clazz.getDeclaredAnnotations()) {
+                annotations.add(annotation.annotationType().getName());
+            }
+        }
+
+        for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry : typeInitializerMap.entrySet()) {
+            Class<?> type = entry.getKey();
+            Set<String> names = type.isAnnotation() ? annotations : superTypes;
+            if (names == null || !names.contains(type.getName())) {
+                continue;
+            }
+            for (ServletContainerInitializer sci : entry.getValue()) {
+                Set<Class<?>> classes = initializerClassMap.get(sci);
+                if (classes == null) {
+                    classes = new HashSet<Class<?>>();
+                    initializerClassMap.put(sci, classes);
+                }
+                classes.add(clazz);
+            }
+        }
+    }
+
+    /**
+     * Adds the names of the super classes and interfaces of the given class.
+     * @param clazz the class
+     * @param names the names of the super types
+     */
+    private static void addSuperTypes(Class<?> clazz, Set<String> names) {
+        Class<?> superClass = clazz.getSuperclass();
+        if (superClass != null && names.add(superClass.getName())) {
+            addSuperTypes(superClass, names);
+        }
+        for (Class<?> itf : clazz.getInterfaces()) {
+            if (names.add(itf.getName())) {
+                addSuperTypes(itf, names);
+            }
+        }
+    }
+
+    /**
+     * Adds the servlet defined by the given annotation. Values of web.xml win
+     * over the annotation values (Servlet 3.0, 8.2.3).
+     * @param className the name of the annotated class
+     * @param webServlet the annotation
+     * @param fragment the descriptor receiving the definition
+     */
+    protected void processWebServlet(String className, WebServlet webServlet, WebXml fragment) {
+        String servletName = webServlet.name();
+        if (servletName.isEmpty()) {
+            // classname is default servletName as annotation has no name!
+            servletName = className;
+        }
+
+        String[] urlPatterns = getUrlPatterns(className, webServlet.value(), webServlet.urlPatterns());
+
+        ServletDef servletDef = fragment.getServlets().get(servletName);
+        boolean isWebXMLservletDef = servletDef != null;
+        if (!isWebXMLservletDef) {
+            servletDef = new ServletDef();
+            servletDef.setServletName(servletName);
+            servletDef.setServletClass(className);
+        }
+
+        if (servletDef.getDescription() == null && !webServlet.description().isEmpty()) {
+            servletDef.setDescription(webServlet.description());
+        }
+        if (servletDef.getDisplayName() == null && !webServlet.displayName().isEmpty()) {
+            servletDef.setDisplayName(webServlet.displayName());
+        }
+        if (servletDef.getLargeIcon() == null && !webServlet.largeIcon().isEmpty()) {
+            servletDef.setLargeIcon(webServlet.largeIcon());
+        }
+        if (servletDef.getSmallIcon() == null && !webServlet.smallIcon().isEmpty()) {
+            servletDef.setSmallIcon(webServlet.smallIcon());
+        }
+        if (servletDef.getAsyncSupported() == null && webServlet.asyncSupported()) {
+            servletDef.setAsyncSupported(Boolean.TRUE.toString());
+        }
+        if (servletDef.getLoadOnStartup() == null && webServlet.loadOnStartup() >= 0) {
+            servletDef.setLoadOnStartup(String.valueOf(webServlet.loadOnStartup()));
+        }
+        for (Map.Entry<String, String> entry : getInitParameters(webServlet.initParams(), servletDef.getParameterMap()).entrySet()) {
+            servletDef.addInitParameter(entry.getKey(), entry.getValue());
+        }
+
+        if (urlPatterns == null) {
+            return;
+        }
+        if (!isWebXMLservletDef) {
+            fragment.addServlet(servletDef);
+        }
+        // mappings of web.xml replace the annotation mappings
+        if (!fragment.getServletMappings().containsValue(servletName)) {
+            for (String urlPattern : urlPatterns) {
+                fragment.addServletMapping(urlPattern, servletName);
+            }
+        }
+    }
+
+    /**
+     * Adds the filter defined by the given annotation. Values of web.xml win
+     * over the annotation values (Servlet 3.0, 8.2.3).
+     * @param className the name of the annotated class
+     * @param webFilter the annotation
+     * @param fragment the descriptor receiving the definition
+     */
+    protected void processWebFilter(String className, WebFilter webFilter, WebXml fragment) {
+        String filterName = webFilter.filterName();
+        if (filterName.isEmpty()) {
+            filterName = className;
+        }
+
+        String[] urlPatterns = getUrlPatterns(className, webFilter.value(), webFilter.urlPatterns());
+        String[] servletNames = webFilter.servletNames();
+
+        FilterDef filterDef = fragment.getFilters().get(filterName);
+        boolean isWebXMLfilterDef = filterDef != null;
+        if (!isWebXMLfilterDef) {
+            filterDef = new FilterDef();
+            filterDef.setFilterName(filterName);
+            filterDef.setFilterClass(className);
+        }
+
+        if (filterDef.getDescription() == null && !webFilter.description().isEmpty()) {
+            filterDef.setDescription(webFilter.description());
+        }
+        if (filterDef.getDisplayName() == null && !webFilter.displayName().isEmpty()) {
+            filterDef.setDisplayName(webFilter.displayName());
+        }
+        if (filterDef.getLargeIcon() == null && !webFilter.largeIcon().isEmpty()) {
+            filterDef.setLargeIcon(webFilter.largeIcon());
+        }
+        if (filterDef.getSmallIcon() == null && !webFilter.smallIcon().isEmpty()) {
+            filterDef.setSmallIcon(webFilter.smallIcon());
+        }
+        if (filterDef.getAsyncSupported() == null && webFilter.asyncSupported()) {
+            filterDef.setAsyncSupported(Boolean.TRUE.toString());
+        }
+        for (Map.Entry<String, String> entry : getInitParameters(webFilter.initParams(), filterDef.getParameterMap()).entrySet()) {
+            filterDef.addInitParameter(entry.getKey(), entry.getValue());
+        }
+
+        if (!isWebXMLfilterDef) {
+            FilterMap filterMap = new FilterMap();
+            filterMap.setFilterName(filterName);
+            if (urlPatterns != null) {
+                for (String urlPattern : urlPatterns) {
+                    filterMap.addURLPattern(urlPattern);
+                }
+            }
+            for (String servletName : servletNames) {
+                filterMap.addServletName(servletName);
+            }
+            for (DispatcherType dispatcherType : webFilter.dispatcherTypes()) {
+                filterMap.setDispatcher(dispatcherType.name());
+            }
+            fragment.addFilter(filterDef);
+            fragment.addFilterMapping(filterMap);
+            return;
+        }
+
+        // mappings of web.xml are only completed by the annotation
+        FilterMap descMap = null;
+        for (FilterMap map : fragment.getFilterMappings()) {
+            if (filterName.equals(map.getFilterName())) {
+                descMap = map;
+                break;
+            }
+        }
+        if (descMap == null) {
+            return;
+        }
+        if (urlPatterns != null && descMap.getURLPatterns().length == 0) {
+            for (String urlPattern : urlPatterns) {
+                descMap.addURLPattern(urlPattern);
+            }
+        }
+        if (servletNames.length > 0 && descMap.getServletNames().length == 0) {
+            for (String servletName : servletNames) {
+                descMap.addServletName(servletName);
+            }
+        }
+    }
+
+    /**
+     * Gets the URL patterns of an annotation which may be set with value or
+     * with urlPatterns, but not both.
+     * @param className the name of the annotated class
+     * @param value the value attribute
+     * @param urlPatterns the urlPatterns attribute
+     * @return the patterns or null if there is none
+     */
+    private static String[] getUrlPatterns(String className, String[] value, String[] urlPatterns) {
+        if (value.length > 0 && urlPatterns.length > 0) {
+            throw new IllegalArgumentException(String.format("The annotation of the class %s defines both value and urlPatterns", className));
+        }
+        if (value.length > 0) {
+            return value;
+        }
+        if (urlPatterns.length > 0) {
+            return urlPatterns;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the init parameters of an annotation that are not already defined
+     * by web.xml.
+     * @param webInitParams the annotation parameters
+     * @param parameters the parameters of web.xml
+     * @return the parameters to add
+     */
+    private static Map<String, String> getInitParameters(WebInitParam[] webInitParams, Map<String, String> parameters) {
+        Map<String, String> initParameters = new HashMap<>();
+        for (WebInitParam webInitParam : webInitParams) {
+            if (parameters.get(webInitParam.name()) == null) {
+                initParameters.put(webInitParam.name(), webInitParam.value());
+            }
+        }
+        return initParameters;
+    }
+
+    /**
+     * Gets the indexed classes coming from the given origin.
+     * @param origin {@link #WEB_INF_CLASSES} or the name of a jar
+     * @return the loaded classes
+     */
+    protected List<Class<?>> getIndexedClasses(String origin) {
+        if (indexedClasses == null) {
+            indexedClasses = new HashMap<>();
+            ClassLoader classLoader = getClassLoader();
+            for (String className : annotationIndex) {
+                String resource = className.replace('.', '/').concat(".class");
+                String classOrigin = getOrigin(classLoader.getResource(resource));
+                if (classOrigin == null) {
+                    // not a class of the application
+                    continue;
+                }
+                Class<?> clazz;
+                try {
+                    clazz = Class.forName(className, false, classLoader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // Tomcat ignores the classes that cannot be loaded
+                    continue;
+                }
+                List<Class<?>> classes = indexedClasses.get(classOrigin);
+                if (classes == null) {
+                    classes = new ArrayList<>();
+                    indexedClasses.put(classOrigin, classes);
+                }
+                classes.add(clazz);
+            }
+        }
+        List<Class<?>> classes = indexedClasses.get(origin);
+        if (classes == null) {
+            return Collections.emptyList();
+        }
+        return classes;
+    }
+
+    /**
+     * @return the class loader of the application
+     */
+    protected ClassLoader getClassLoader() {
+        return context.getLoader().getClassLoader();
+    }
+
+    /**
+     * Gets the origin of the given class resource.
+     * @param url the URL of the .class resource
+     * @return {@link #WEB_INF_CLASSES}, the name of a jar or null
+     */
+    protected static String getOrigin(URL url) {
+        if (url == null) {
+            return null;
+        }
+        String path = url.toExternalForm();
+        int separator = path.indexOf("!/");
+        if (path.startsWith("jar:") && separator != -1) {
+            String jar = path.substring(0, separator);
+            return jar.substring(jar.lastIndexOf('/') + 1);
+        }
+        if (path.contains("/WEB-INF/classes/")) {
+            return WEB_INF_CLASSES;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the name of the jar of the given fragment.
+     * @param fragment the fragment
+     * @return the name of the jar
+     */
+    protected static String getJarName(WebXml fragment) {
+        if (fragment.getJarName() != null) {
+            return fragment.getJarName();
+        }
+        URL url = fragment.getURL();
+        if (url == null) {
+            return null;
+        }
+        String path = url.toExternalForm();
+        if (path.endsWith("!/")) {
+            path = path.substring(0, path.length() - 2);
+        }
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
 }
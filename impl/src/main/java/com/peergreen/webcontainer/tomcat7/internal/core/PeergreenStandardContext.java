@@ -18,7 +18,13 @@ package com.peergreen.webcontainer.tomcat7.internal.core;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.apache.catalina.Engine;
 import org.apache.catalina.Host;
@@ -36,8 +42,148 @@ import com.peergreen.webcontainer.tomcat7.PeergreenContext;
  */
 public class PeergreenStandardContext extends StandardContext implements PeergreenContext {
 
+    /**
+     * Mime mappings shared by all the contexts of the host (the ones of the
+     * default web.xml), empty until the context is configured.
+     */
+    private volatile MimeTable baseMimeTable;
+
+    /**
+     * Mime mappings of this context that are not in the shared table. Copied
+     * on each change so that lookups are not synchronized.
+     */
+    private volatile Map<String, String> mimeMappingOverlay;
+
+    /**
+     * Mime mappings of the shared table removed from this context.
+     */
+    private volatile Set<String> removedMimeMappings;
+
+    /**
+     * Lock of the changes of the mime mappings.
+     */
+    private final Object mimeMappingLock = new Object();
+
     public PeergreenStandardContext() {
         setDelegate(true);
+        this.baseMimeTable = MimeTable.EMPTY;
+        this.mimeMappingOverlay = Collections.emptyMap();
+        this.removedMimeMappings = Collections.emptySet();
+    }
+
+    /**
+     * Adds a mime mapping. Mappings already defined by the shared table are
+     * not copied in this context.
+     * @param extension the extension
+     * @param mimeType the mime type
+     */
+    @Override
+    public void addMimeMapping(String extension, String mimeType) {
+        synchronized (mimeMappingLock) {
+            Map<String, String> overlay = mimeMappingOverlay;
+            if (mimeType.equals(baseMimeTable.getMimeMapping(extension))) {
+                if (overlay.containsKey(extension)) {
+                    overlay = new HashMap<>(overlay);
+                    overlay.remove(extension);
+                    mimeMappingOverlay = Collections.unmodifiableMap(overlay);
+                }
+            } else if (!mimeType.equals(overlay.get(extension))) {
+                overlay = new HashMap<>(overlay);
+                overlay.put(extension, mimeType);
+                mimeMappingOverlay = Collections.unmodifiableMap(overlay);
+            }
+            if (removedMimeMappings.contains(extension)) {
+                Set<String> removed = new HashSet<>(removedMimeMappings);
+                removed.remove(extension);
+                removedMimeMappings = Collections.unmodifiableSet(removed);
+            }
+        }
+        fireContainerEvent("addMimeMapping", extension);
+    }
+
+    /**
+     * Gets the mime type of the given extension, from the mappings of this
+     * context and then from the shared table.
+     * @param extension the extension
+     * @return the mime type or null if there is no mapping
+     */
+    @Override
+    public String findMimeMapping(String extension) {
+        String mimeType = mimeMappingOverlay.get(extension);
+        if (mimeType != null) {
+            return mimeType;
+        }
+        if (removedMimeMappings.contains(extension)) {
+            return null;
+        }
+        return baseMimeTable.getMimeMapping(extension);
+    }
+
+    /**
+     * @return the extensions of all the mime mappings of this context.
+     */
+    @Override
+    public String[] findMimeMappings() {
+        Set<String> extensions = new LinkedHashSet<>(baseMimeTable.getMappings().keySet());
+        extensions.removeAll(removedMimeMappings);
+        extensions.addAll(mimeMappingOverlay.keySet());
+        return extensions.toArray(new String[extensions.size()]);
+    }
+
+    /**
+     * Removes a mime mapping of this context.
+     * @param extension the extension
+     */
+    @Override
+    public void removeMimeMapping(String extension) {
+        synchronized (mimeMappingLock) {
+            if (mimeMappingOverlay.containsKey(extension)) {
+                Map<String, String> overlay = new HashMap<>(mimeMappingOverlay);
+                overlay.remove(extension);
+                mimeMappingOverlay = Collections.unmodifiableMap(overlay);
+            }
+            if (baseMimeTable.getMimeMapping(extension) != null && !removedMimeMappings.contains(extension)) {
+                Set<String> removed = new HashSet<>(removedMimeMappings);
+                removed.add(extension);
+                removedMimeMappings = Collections.unmodifiableSet(removed);
+            }
+        }
+        fireContainerEvent("removeMimeMapping", extension);
+    }
+
+    /**
+     * Sets the shared table on top of which the mime mappings of this context
+     * are stored, when the default mappings are applied to the context. The
+     * mappings added to this context are kept and the removed ones come back
+     * with the table.
+     * @param mimeTable the mime mappings shared by the contexts
+     */
+    public void setBaseMimeTable(MimeTable mimeTable) {
+        synchronized (mimeMappingLock) {
+            Map<String, String> overlay = new HashMap<>();
+            for (Map.Entry<String, String> mapping : mimeMappingOverlay.entrySet()) {
+                if (!mapping.getValue().equals(mimeTable.getMimeMapping(mapping.getKey()))) {
+                    overlay.put(mapping.getKey(), mapping.getValue());
+                }
+            }
+            baseMimeTable = mimeTable;
+            mimeMappingOverlay = Collections.unmodifiableMap(overlay);
+            removedMimeMappings = Collections.emptySet();
+        }
+    }
+
+    /**
+     * @return the mime mappings shared by the contexts.
+     */
+    public MimeTable getBaseMimeTable() {
+        return baseMimeTable;
+    }
+
+    /**
+     * @return the number of mime mappings held by this context only.
+     */
+    public int getMimeMappingOverlaySize() {
+        return mimeMappingOverlay.size() + removedMimeMappings.size();
     }
 
 
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.annotation.HandlesTypes;
+
+/**
+ * Immutable index of the servlet container initializers with the types they
+ * handle. A new index is built when an initializer is added or removed so
+ * that each context configuration reuses a snapshot without reflecting on
+ * the HandlesTypes annotations again.
+ * @author Florent Benoit
+ */
+public final class ServletContainerInitializerIndex {
+
+    /**
+     * Index without any initializer.
+     */
+    public static final ServletContainerInitializerIndex EMPTY = new ServletContainerInitializerIndex(
+            Collections.<ServletContainerInitializer>emptyList(), Collections.<Class<?>, Set<ServletContainerInitializer>>emptyMap());
+
+    /**
+     * Initializers, in their registration order.
+     */
+    private final List<ServletContainerInitializer> initializers;
+
+    /**
+     * Initializers by handled type.
+     */
+    private final Map<Class<?>, Set<ServletContainerInitializer>> typeInitializers;
+
+    /**
+     * At least one handled type is an annotation ?
+     */
+    private final boolean handlesTypesAnnotations;
+
+    /**
+     * At least one handled type is a class or an interface ?
+     */
+    private final boolean handlesTypesNonAnnotations;
+
+    /**
+     * Builds an index with the given initializers.
+     * @param initializers the initializers
+     * @param typeInitializers the initializers by handled type
+     */
+    private ServletContainerInitializerIndex(List<ServletContainerInitializer> initializers, Map<Class<?>, Set<ServletContainerInitializer>> typeInitializers) {
+        this.initializers = Collections.unmodifiableList(initializers);
+        this.typeInitializers = Collections.unmodifiableMap(typeInitializers);
+        boolean annotations = false;
+        boolean nonAnnotations = false;
+        for (Class<?> type : typeInitializers.keySet()) {
+            if (type.isAnnotation()) {
+                annotations = true;
+            } else {
+                nonAnnotations = true;
+            }
+        }
+        this.handlesTypesAnnotations = annotations;
+        this.handlesTypesNonAnnotations = nonAnnotations;
+    }
+
+    /**
+     * Gets a new index including the given initializer.
+     * @param sci the initializer to add
+     * @return the new index or this index if the initializer is already there
+     */
+    public ServletContainerInitializerIndex add(ServletContainerInitializer sci) {
+        if (initializers.contains(sci)) {
+            return this;
+        }
+        List<ServletContainerInitializer> newInitializers = new ArrayList<>(initializers);
+        newInitializers.add(sci);
+        Map<Class<?>, Set<ServletContainerInitializer>> newTypeInitializers = new HashMap<>(typeInitializers);
+
+        HandlesTypes ht = sci.getClass().getAnnotation(HandlesTypes.class);
+        if (ht != null && ht.value() != null) {
+            for (Class<?> type : ht.value()) {
+                Set<ServletContainerInitializer> scis = new LinkedHashSet<>();
+                Set<ServletContainerInitializer> previous = newTypeInitializers.get(type);
+                if (previous != null) {
+                    scis.addAll(previous);
+                }
+                scis.add(sci);
+                newTypeInitializers.put(type, Collections.unmodifiableSet(scis));
+            }
+        }
+        return new ServletContainerInitializerIndex(newInitializers, newTypeInitializers);
+    }
+
+    /**
+     * Gets a new index without the given initializer.
+     * @param sci the initializer to remove
+     * @return the new index or this index if the initializer is not there
+     */
+    public ServletContainerInitializerIndex remove(ServletContainerInitializer sci) {
+        if (!initializers.contains(sci)) {
+            return this;
+        }
+        List<ServletContainerInitializer> newInitializers = new ArrayList<>(initializers);
+        newInitializers.remove(sci);
+        Map<Class<?>, Set<ServletContainerInitializer>> newTypeInitializers = new HashMap<>();
+        for (Map.Entry<Class<?>, Set<ServletContainerInitializer>> entry : typeInitializers.entrySet()) {
+            Set<ServletContainerInitializer> scis = entry.getValue();
+            if (scis.contains(sci)) {
+                if (scis.size() == 1) {
+                    // type no longer handled
+                    continue;
+                }
+                scis = new LinkedHashSet<>(scis);
+                scis.remove(sci);
+                scis = Collections.unmodifiableSet(scis);
+            }
+            newTypeInitializers.put(entry.getKey(), scis);
+        }
+        return new ServletContainerInitializerIndex(newInitializers, newTypeInitializers);
+    }
+
+    /**
+     * @return the initializers, in their registration order
+     */
+    public List<ServletContainerInitializer> getInitializers() {
+        return initializers;
+    }
+
+    /**
+     * @return the initializers by handled type
+     */
+    public Map<Class<?>, Set<ServletContainerInitializer>> getTypeInitializers() {
+        return typeInitializers;
+    }
+
+    /**
+     * @return true if at least one handled type is an annotation
+     */
+    public boolean isHandlesTypesAnnotations() {
+        return handlesTypesAnnotations;
+    }
+
+    /**
+     * @return true if at least one handled type is a class or an interface
+     */
+    public boolean isHandlesTypesNonAnnotations() {
+        return handlesTypesNonAnnotations;
+    }
+}
@@ -24,6 +24,8 @@ import javax.servlet.http.HttpServletResponse;
 import org.osgi.framework.Bundle;
 import org.osgi.service.http.HttpContext;
 
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleEntryIndex;
+
 /**
  * Implementation of {@link HttpContext} OSGi interface.
  * @author Florent Benoit
@@ -35,12 +37,34 @@ public class BasicHttpContext implements HttpContext {
      */
     private final Bundle bundle;
 
+    /**
+     * Index of the bundle entries (may be null).
+     */
+    private final BundleEntryIndex bundleEntryIndex;
+
     /**
      * Build a context on the given bundle.
      * @param bundle the bundle that obtains the HttpService reference
      */
     public BasicHttpContext(Bundle bundle) {
+        this(bundle, null);
+    }
+
+    /**
+     * Build a context on the given bundle using an index of its entries.
+     * @param bundle the bundle that obtains the HttpService reference
+     * @param bundleEntryIndex the index of the bundle entries
+     */
+    public BasicHttpContext(Bundle bundle, BundleEntryIndex bundleEntryIndex) {
         this.bundle = bundle;
+        this.bundleEntryIndex = bundleEntryIndex;
+    }
+
+    /**
+     * @return the index of the bundle entries or null.
+     */
+    public BundleEntryIndex getBundleEntryIndex() {
+        return bundleEntryIndex;
     }
 
 
@@ -126,6 +150,9 @@ public class BasicHttpContext implements HttpContext {
      */
     @Override
     public URL getResource(String name) {
+        if (bundleEntryIndex != null) {
+            return bundleEntryIndex.getResource(name);
+        }
         // redirect to the caller bundle
         return bundle.getResource(name);
     }
@@ -26,7 +26,15 @@ import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.HttpService;
 import org.osgi.service.http.NamespaceException;
 
+import com.peergreen.webcontainer.tomcat7.BatchHttpService;
+import com.peergreen.webcontainer.tomcat7.HttpServiceBatch;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleEntryIndex;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceStreamer;
 
 /**
  * Implementation of the {@link HttpService} interface. This component is not an
@@ -34,7 +42,7 @@ import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
  * {@link ServiceFactory} {@link BasicHttpServiceFactory}
  * @author Florent Benoit
  */
-public class BasicHttpService implements HttpService {
+public class BasicHttpService implements BatchHttpService {
 
     /**
      * Service (OSGi component) used to delegate operations.
@@ -46,14 +54,58 @@ public class BasicHttpService implements HttpService {
      */
     private final Bundle bundle;
 
+    /**
+     * Cache of the resources registered through this service.
+     */
+    private final ResourceCache resourceCache;
+
+    /**
+     * Cache of the large resources extracted on the disk.
+     */
+    private final ExtractedResourceCache extractedResourceCache;
+
+    /**
+     * Index of the entries of the bundle, used by the default HttpContext.
+     */
+    private final BundleEntryIndex bundleEntryIndex;
+
+    /**
+     * Caching policies of the registered resources.
+     */
+    private final CachePolicyManager cachePolicyManager;
+
+    /**
+     * Content hashes of the registered resources.
+     */
+    private final ResourceFingerprints resourceFingerprints;
+
+    /**
+     * Streamer of the large registered resources.
+     */
+    private final ResourceStreamer resourceStreamer;
+
     /**
      * New instance of the Http Service.
      * @param tomcat7HttpService delegatin service
      * @param bundle the bundle performing requests.
+     * @param resourceCache the cache used for the registered resources
+     * @param extractedResourceCache the on-disk cache used for the large registered resources
+     * @param bundleEntryIndex the index of the entries of the bundle
+     * @param cachePolicyManager the caching policies of the registered resources
+     * @param resourceFingerprints the content hashes of the registered resources
+     * @param resourceStreamer the streamer of the large registered resources
      */
-    public BasicHttpService(InternalTomcat7HttpService tomcat7HttpService, Bundle bundle) {
+    public BasicHttpService(InternalTomcat7HttpService tomcat7HttpService, Bundle bundle, ResourceCache resourceCache,
+            ExtractedResourceCache extractedResourceCache, BundleEntryIndex bundleEntryIndex, CachePolicyManager cachePolicyManager,
+            ResourceFingerprints resourceFingerprints, ResourceStreamer resourceStreamer) {
         this.tomcat7HttpService = tomcat7HttpService;
         this.bundle = bundle;
+        this.resourceCache = resourceCache;
+        this.extractedResourceCache = extractedResourceCache;
+        this.bundleEntryIndex = bundleEntryIndex;
+        this.cachePolicyManager = cachePolicyManager;
+        this.resourceFingerprints = resourceFingerprints;
+        this.resourceStreamer = resourceStreamer;
     }
 
     /**
@@ -154,8 +206,10 @@ public class BasicHttpService implements HttpService {
             context = createDefaultHttpContext();
         }
 
+        buildEntryIndex(context);
+
         // wrap the resource in a servlet
-        Servlet servlet = new WrappingResourceInServlet(name, context);
+        Servlet servlet = createResourceServlet(alias, name, context);
 
         // And register the servlet
         try {
@@ -163,6 +217,51 @@ public class BasicHttpService implements HttpService {
         } catch (ServletException e) {
             throw new NamespaceException("Unable to wrap resource in a servlet", e);
         }
+        registerFingerprints(alias, name, context);
+    }
+
+    /**
+     * Creates a new batch of registrations for the bundle of this service.
+     * @return a new empty batch
+     */
+    @Override
+    public HttpServiceBatch createBatch() {
+        return new BasicHttpServiceBatch(this, tomcat7HttpService, bundle);
+    }
+
+    /**
+     * Wraps the given resources in a servlet. The servlet asks the caching
+     * policy of the alias at each request, so that a new configuration of the
+     * policies applies to the resources already registered.
+     * @param alias the alias of the resources
+     * @param name the base name of the resources
+     * @param context the HttpContext of the resources
+     * @return the servlet serving the resources
+     */
+    protected Servlet createResourceServlet(String alias, String name, HttpContext context) {
+        return new WrappingResourceInServlet(name, context, bundle, resourceCache, extractedResourceCache, resourceFingerprints,
+                resourceStreamer, alias, cachePolicyManager);
+    }
+
+    /**
+     * Indexes the bundle entries of the given context now rather than on the
+     * first request.
+     * @param context the HttpContext of the resources
+     */
+    protected void buildEntryIndex(HttpContext context) {
+        if (context instanceof BasicHttpContext && ((BasicHttpContext) context).getBundleEntryIndex() != null) {
+            ((BasicHttpContext) context).getBundleEntryIndex().build();
+        }
+    }
+
+    /**
+     * Starts the computation of the content hashes of the registered resources.
+     * @param alias the alias of the resources
+     * @param name the base name of the resources
+     * @param context the HttpContext of the resources
+     */
+    protected void registerFingerprints(String alias, String name, HttpContext context) {
+        resourceFingerprints.register(alias, name, context, bundle);
     }
 
     /**
@@ -191,6 +290,7 @@ public class BasicHttpService implements HttpService {
     @Override
     public void unregister(String alias) {
         tomcat7HttpService.unregister(alias, bundle);
+        resourceFingerprints.unregister(alias);
     }
 
     /**
@@ -217,7 +317,7 @@ public class BasicHttpService implements HttpService {
     @Override
     public HttpContext createDefaultHttpContext() {
         // Default context load the resources in the bundle
-        return new BasicHttpContext(bundle);
+        return new BasicHttpContext(bundle, bundleEntryIndex);
     }
 
     /**
@@ -227,6 +327,7 @@ public class BasicHttpService implements HttpService {
     public void stop() {
         // unregister all aliases
         tomcat7HttpService.unregisterAll(bundle);
+        resourceFingerprints.unregister(bundle);
     }
 
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.NamespaceException;
+
+import com.peergreen.webcontainer.tomcat7.HttpServiceBatch;
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
+import com.peergreen.webcontainer.tomcat7.internal.ServletRegistration;
+
+/**
+ * Batch of registrations of a {@link BasicHttpService}. The registrations are
+ * given all at once to the {@link InternalTomcat7HttpService}.
+ * @author Florent Benoit
+ */
+public class BasicHttpServiceBatch implements HttpServiceBatch {
+
+    /**
+     * Http Service creating this batch.
+     */
+    private final BasicHttpService httpService;
+
+    /**
+     * Service (OSGi component) used to delegate operations.
+     */
+    private final InternalTomcat7HttpService tomcat7HttpService;
+
+    /**
+     * Bundle which is perfoming the registrations.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Registrations of the batch.
+     */
+    private final List<ServletRegistration> registrations;
+
+    /**
+     * Base names of the registered resources.
+     */
+    private final Map<ServletRegistration, String> resourceNames;
+
+    /**
+     * Batch already committed ?
+     */
+    private boolean committed = false;
+
+    public BasicHttpServiceBatch(BasicHttpService httpService, InternalTomcat7HttpService tomcat7HttpService, Bundle bundle) {
+        this.httpService = httpService;
+        this.tomcat7HttpService = tomcat7HttpService;
+        this.bundle = bundle;
+        this.registrations = new ArrayList<>();
+        this.resourceNames = new LinkedHashMap<>();
+    }
+
+    @Override
+    public HttpServiceBatch registerServlet(String alias, Servlet servlet, Dictionary<String, String> initparams, HttpContext context) {
+        checkNotCommitted();
+        if (servlet == null) {
+            throw new IllegalArgumentException(String.format("No servlet given for the alias %s", alias));
+        }
+
+        // Create a new context if there is none
+        if (context == null) {
+            context = httpService.createDefaultHttpContext();
+        }
+        registrations.add(new ServletRegistration(alias, servlet, initparams, context));
+        return this;
+    }
+
+    @Override
+    public HttpServiceBatch registerResources(String alias, String name, HttpContext context) {
+        checkNotCommitted();
+
+        // Create a new context if there is none
+        if (context == null) {
+            context = httpService.createDefaultHttpContext();
+        }
+        httpService.buildEntryIndex(context);
+        ServletRegistration registration = new ServletRegistration(alias, httpService.createResourceServlet(alias, name, context), null, context);
+        registrations.add(registration);
+        resourceNames.put(registration, name);
+        return this;
+    }
+
+    @Override
+    public void commit() throws ServletException, NamespaceException {
+        checkNotCommitted();
+        committed = true;
+        tomcat7HttpService.registerServlets(registrations, bundle);
+        for (Map.Entry<ServletRegistration, String> resource : resourceNames.entrySet()) {
+            httpService.registerFingerprints(resource.getKey().getAlias(), resource.getValue(), resource.getKey().getHttpContext());
+        }
+    }
+
+    /**
+     * Checks that the batch can still be modified.
+     */
+    private void checkNotCommitted() {
+        if (committed) {
+            throw new IllegalStateException("The batch has already been committed");
+        }
+    }
+
+}
@@ -30,7 +30,14 @@ import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.http.HttpService;
 
+import com.peergreen.webcontainer.tomcat7.BatchHttpService;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleEntryIndexManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceStreamer;
 
 @Component
 @Provides
@@ -48,6 +55,42 @@ public class BasicHttpServiceFactory implements ServiceFactory<HttpService> {
     @Requires
     private InternalTomcat7HttpService tomcat7httpService;
 
+    /**
+     * Cache of the resources registered through the Http Service.
+     */
+    @Requires
+    private ResourceCache resourceCache;
+
+    /**
+     * On-disk cache of the large resources registered through the Http Service.
+     */
+    @Requires
+    private ExtractedResourceCache extractedResourceCache;
+
+    /**
+     * Indexes of the entries of the bundles using the Http Service.
+     */
+    @Requires
+    private BundleEntryIndexManager bundleEntryIndexManager;
+
+    /**
+     * Caching policies of the resources registered through the Http Service.
+     */
+    @Requires
+    private CachePolicyManager cachePolicyManager;
+
+    /**
+     * Content hashes of the resources registered through the Http Service.
+     */
+    @Requires
+    private ResourceFingerprints resourceFingerprints;
+
+    /**
+     * Streamer of the large resources registered through the Http Service.
+     */
+    @Requires
+    private ResourceStreamer resourceStreamer;
+
     /**
      * Service Registration.
      */
@@ -69,7 +112,8 @@ public class BasicHttpServiceFactory implements ServiceFactory<HttpService> {
     @SuppressWarnings("unchecked")
     @Validate
     public void start() {
-        serviceRegistration = (ServiceRegistration<HttpService>) bundleContext.registerService(HttpService.class.getName(), this, null);
+        String[] interfaces = new String[] {HttpService.class.getName(), BatchHttpService.class.getName()};
+        serviceRegistration = (ServiceRegistration<HttpService>) bundleContext.registerService(interfaces, this, null);
     }
 
     /**
@@ -124,7 +168,8 @@ public class BasicHttpServiceFactory implements ServiceFactory<HttpService> {
      */
     @Override
     public HttpService getService(Bundle bundle, ServiceRegistration<HttpService> registration) {
-        return new BasicHttpService(tomcat7httpService, bundle);
+        return new BasicHttpService(tomcat7httpService, bundle, resourceCache, extractedResourceCache, bundleEntryIndexManager.getIndex(bundle),
+                cachePolicyManager, resourceFingerprints, resourceStreamer);
     }
 
 
@@ -18,17 +18,32 @@ package com.peergreen.webcontainer.tomcat7.internal.httpservice;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import javax.servlet.Filter;
 import javax.servlet.Servlet;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -41,6 +56,8 @@ import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.startup.ContextConfig;
 import org.apache.felix.ipojo.annotations.Component;
 import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
 import org.apache.felix.ipojo.annotations.Provides;
 import org.apache.felix.ipojo.annotations.Requires;
 import org.osgi.framework.Bundle;
@@ -53,7 +70,14 @@ import com.peergreen.deployment.facet.endpoint.Endpoints;
 import com.peergreen.deployment.model.BundleArtifactManager;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.ServletRegistration;
 import com.peergreen.webcontainer.tomcat7.internal.core.InstanceManagerLifeCycleListener;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenStandardContext;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher.AliasDispatcherServlet;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher.AliasRegistration;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher.AliasServletConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.Workspace;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.WorkspaceManager;
 
 /**
  * This class implements the specific part of HTTP service for Tomcat. Calls are
@@ -68,35 +92,188 @@ import com.peergreen.webcontainer.tomcat7.internal.core.InstanceManagerLifeCycle
 @Instantiate
 public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
 
+    /**
+     * Name of the dispatcher servlet of the shared context.
+     */
+    private static final String DISPATCHER_NAME = "httpservice-dispatcher";
+
+    /**
+     * Init parameter of a registration defining when the servlet is
+     * initialized (eager, lazy or background). It is not given to the servlet.
+     */
+    public static final String INIT_MODE_PARAMETER = "com.peergreen.httpservice.init";
+
+    /**
+     * Number of locks used for the contexts (power of two).
+     */
+    private static final int LOCK_STRIPES = 32;
+
     /**
      * Internal Tomcat7 service.
      */
     private final InternalTomcat7Service tomcat7Service;
 
     /**
-     * Lock when accessing wrappers
+     * Locks of the contexts, striped by context path so that registrations on
+     * different contexts are done concurrently.
      */
-    private final Lock wrapperLock;
+    private final Lock[] contextLocks;
 
     /**
      * Wrappers.
      */
-    private final Map<Bundle, List<Wrapper>> wrappersByBundle;
+    private final ConcurrentMap<Bundle, List<Wrapper>> wrappersByBundle;
 
     /**
      * Artifact manager for bundle
      */
     private final BundleArtifactManager bundleArtifactManager;
 
+    /**
+     * Manager of the directories of the contexts.
+     */
+    private final WorkspaceManager workspaceManager;
+
+    /**
+     * Register all the servlets in a single Tomcat context.
+     */
+    private boolean sharedContext = false;
+
+    /**
+     * Path of the shared context.
+     */
+    private String sharedContextPath = "";
+
+    /**
+     * Dispatcher of the shared context, created on the first registration.
+     */
+    private AliasDispatcherServlet dispatcher;
+
+    /**
+     * Default init mode of the servlets.
+     */
+    private InitMode initMode = InitMode.EAGER;
+
+    /**
+     * Number of threads initializing the servlets in background.
+     */
+    private int warmUpThreads = 2;
+
+    /**
+     * Executor initializing the servlets in background (created when needed).
+     */
+    private ExecutorService warmUpExecutor;
+
+    /**
+     * Servlet contexts of the shared context, one by HttpContext.
+     */
+    private final Map<HttpContext, HttpServiceServletContext> sharedServletContexts;
+
+    /**
+     * Aliases registered in the shared context by bundle.
+     */
+    private final Map<Bundle, List<String>> aliasesByBundle;
+
+    /**
+     * Filters registered through this service.
+     */
+    private final List<HttpServiceFilter> filters;
+
+    /**
+     * Counter used to name and order the filters.
+     */
+    private final AtomicLong filterCounter;
 
     /**
      * Instantiate http service.
      */
-    public BasicTomcat7HttpService(@Requires InternalTomcat7Service tomcat7Service, @Requires BundleArtifactManager bundleArtifactManager) {
+    public BasicTomcat7HttpService(@Requires InternalTomcat7Service tomcat7Service, @Requires BundleArtifactManager bundleArtifactManager,
+            @Requires WorkspaceManager workspaceManager) {
         this.tomcat7Service = tomcat7Service;
         this.bundleArtifactManager = bundleArtifactManager;
-        this.wrapperLock = new ReentrantReadWriteLock().writeLock();
+        this.workspaceManager = workspaceManager;
+        this.contextLocks = new Lock[LOCK_STRIPES];
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            contextLocks[i] = new ReentrantLock();
+        }
         this.wrappersByBundle = new ConcurrentHashMap<>();
+        this.sharedServletContexts = new HashMap<>();
+        this.aliasesByBundle = new HashMap<>();
+        this.filters = new CopyOnWriteArrayList<>();
+        this.filterCounter = new AtomicLong();
+    }
+
+    /**
+     * Gets the lock protecting the given context.
+     * @param contextPath the path of the context
+     * @return the lock of the context
+     */
+    protected Lock getContextLock(String contextPath) {
+        return contextLocks[getContextStripe(contextPath)];
+    }
+
+    /**
+     * Gets the index of the lock protecting the given context.
+     * @param contextPath the path of the context
+     * @return the index of the lock
+     */
+    private int getContextStripe(String contextPath) {
+        int hash = contextPath.hashCode();
+        hash ^= hash >>> 16;
+        return hash & (LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Sets when the servlets are initialized if their registration doesn't
+     * define it with the {@link #INIT_MODE_PARAMETER} init parameter.
+     * @param initMode eager, lazy or background
+     */
+    @Property(name = "servlet.init", value = "eager")
+    public void setInitMode(String initMode) {
+        this.initMode = InitMode.parse(initMode);
+    }
+
+    /**
+     * Sets the number of threads initializing the servlets in background.
+     * @param warmUpThreads the number of threads
+     */
+    @Property(name = "warmup.threads", value = "2")
+    public synchronized void setWarmUpThreads(int warmUpThreads) {
+        this.warmUpThreads = warmUpThreads;
+        if (warmUpExecutor != null) {
+            ThreadPoolExecutor executor = (ThreadPoolExecutor) warmUpExecutor;
+            if (warmUpThreads > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(warmUpThreads);
+                executor.setCorePoolSize(warmUpThreads);
+            } else {
+                executor.setCorePoolSize(warmUpThreads);
+                executor.setMaximumPoolSize(warmUpThreads);
+            }
+        }
+    }
+
+    /**
+     * Enables the shared mode: all the registrations are done in a single
+     * Tomcat context and the aliases are resolved by a dispatcher servlet
+     * instead of creating a Tomcat context by first segment of the aliases.
+     * @param sharedContext true to use a single context
+     */
+    @Property(name = "shared.context", value = "false")
+    public void setSharedContext(boolean sharedContext) {
+        this.sharedContext = sharedContext;
+    }
+
+    /**
+     * Sets the path of the shared context (the root context by default).
+     * @param sharedContextPath the context path (ie : /osgi)
+     */
+    @Property(name = "shared.context.path")
+    public void setSharedContextPath(String sharedContextPath) {
+        if (sharedContextPath == null || "/".equals(sharedContextPath)) {
+            this.sharedContextPath = "";
+        } else {
+            this.sharedContextPath = sharedContextPath;
+        }
     }
 
     /**
@@ -146,14 +323,14 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
             // name equals to the path so that findChild() method can use the path to search the context on the host
             httpServiceStandardContext.setName(aliasInfo.getContextPath());
 
-            //FIXME : use a service
-            Path tmpFile;
+            Workspace workspace;
             try {
-                tmpFile = Files.createTempDirectory("tomcat");
-                httpServiceStandardContext.setDocBase(tmpFile.toFile().getAbsolutePath());
+                workspace = workspaceManager.acquire(aliasInfo.getContextPath());
             } catch (IOException e) {
-                throw new ServletException(String.format("Unable to create a temporary directory"), e);
+                throw new ServletException(String.format("Unable to create the directories of the context %s", aliasInfo.getContextPath()), e);
             }
+            httpServiceStandardContext.setDocBase(workspace.getDocBase().getAbsolutePath());
+            httpServiceStandardContext.setWorkDir(workspace.getWorkDirectory().getAbsolutePath());
 
             // add the context config
             final ContextConfig config = tomcat7Service.createContextConfig();
@@ -167,6 +344,18 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
 
             // add the context
             host.addChild(httpServiceStandardContext);
+
+            // add the filters already registered
+            for (HttpServiceFilter filter : filters) {
+                String urlPattern = getFilterUrlPattern(filter, aliasInfo.getContextPath());
+                if (urlPattern != null) {
+                    try {
+                        httpServiceStandardContext.addHttpServiceFilter(filter, urlPattern);
+                    } catch (ServletException e) {
+                        // the context will try to initialize the filter again on the first request
+                    }
+                }
+            }
         }
         return httpServiceStandardContext;
     }
@@ -217,29 +406,33 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
         // Extract data from the alias
         AliasInfo aliasInfo = getAliasInfo(alias);
 
+        if (sharedContext) {
+            registerSharedServlet(alias, servlet, initparams, httpContext, callerBundle);
+            return;
+        }
+
+        // Registrations on other contexts are not blocked
+        Lock lock = getContextLock(aliasInfo.getContextPath());
+        lock.lock();
+        try {
+            registerWrapper(alias, aliasInfo, servlet, initparams, httpContext, callerBundle);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Register the servlet in a wrapper of the context of the alias. Needs to
+     * be called with the lock of this context.
+     */
+    protected void registerWrapper(String alias, AliasInfo aliasInfo, Servlet servlet, Dictionary<String, String> initparams,
+            HttpContext httpContext, Bundle callerBundle) throws ServletException, NamespaceException {
+
         // Gets the context for the given contextPath
         HttpServiceStandardContext httpServiceStandardContext = getStandardContext(aliasInfo, httpContext);
 
         // adds the servlet endpoint
-        Artifact artifact = bundleArtifactManager.getArtifact(callerBundle);
-        if (artifact != null) {
-            Endpoints endpoints = artifact.as(Endpoints.class);
-            for (URI uri : httpServiceStandardContext.getContextURIs()) {
-                try {
-                    // remove context from uri
-                    String rootUri = uri.toString().substring(0, uri.toString().length() - httpServiceStandardContext.getPath().length());
-                    String[] categories;
-                    if (servlet instanceof WrappingResourceInServlet) {
-                        categories = new String[] { "OSGi", "Resource" };
-                    } else {
-                        categories = new String[] { "OSGi", "Servlet" };
-                    }
-                    endpoints.register(new URI(rootUri.concat(alias)), categories);
-                } catch (URISyntaxException e) {
-                    throw new IllegalArgumentException("Unable to register endpoint", e);
-                }
-            }
-        }
+        registerEndpoints(callerBundle, httpServiceStandardContext, alias, servlet);
 
         // Check servlet path is unique
         if (httpServiceStandardContext.findChild(aliasInfo.getServletPath()) != null) {
@@ -247,29 +440,147 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
                     "Unable to register the given servlet as the path %s is already used", aliasInfo));
         }
 
-        // Creates the Tomcat wrapper for the given servlet
-        Wrapper wrapper = httpServiceStandardContext.createWrapper();
-        wrapper.setName(aliasInfo.getServletPath());
-        wrapper.setServlet(servlet);
+        // Creates and initializes the Tomcat wrapper for the given servlet
+        Wrapper wrapper = createWrapper(httpServiceStandardContext, aliasInfo, servlet, initparams, httpContext);
+
+        // adds the wrapper
+        trackWrapper(callerBundle, wrapper);
 
-        WebServlet webServlet = Servlet.class.getAnnotation(WebServlet.class);
-        if (webServlet != null && webServlet.asyncSupported()) {
-                wrapper.setAsyncSupported(true);
+        // Adds the servlet mapping
+        httpServiceStandardContext.addServletMapping(aliasInfo.getServletPath() + "/*", wrapper.getName(), true);
+    }
+
+    /**
+     * Register a set of servlets. All the aliases are checked before doing any
+     * registration, the wrappers of the servlets are then added and initialized
+     * and the servlet mappings are only added once all the servlets have been
+     * initialized. If a registration fails, all the registrations of the
+     * batch are removed.
+     */
+    @Override
+    public void registerServlets(List<ServletRegistration> registrations, Bundle callerBundle) throws ServletException, NamespaceException {
+        if (registrations.isEmpty()) {
+            return;
         }
-        wrapper.getPipeline().addValve(new HttpContextSecurityValve(httpContext));
 
-        // adds the wrapper
-        wrapperLock.lock();
+        // Validate all the aliases up front
+        Map<String, AliasInfo> aliasInfos = new LinkedHashMap<>();
+        for (ServletRegistration registration : registrations) {
+            AliasInfo aliasInfo = getAliasInfo(registration.getAlias());
+            if (aliasInfos.put(registration.getAlias(), aliasInfo) != null) {
+                throw new NamespaceException(String.format(
+                        "Unable to register the given servlets as the alias %s is used twice", registration.getAlias()));
+            }
+        }
+
+        if (sharedContext) {
+            registerSharedServlets(registrations, callerBundle);
+            return;
+        }
+
+        // Lock all the contexts of the batch (always in the same order)
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (AliasInfo aliasInfo : aliasInfos.values()) {
+            stripes.add(getContextStripe(aliasInfo.getContextPath()));
+        }
+        List<Lock> locks = new ArrayList<>(stripes.size());
+        for (Integer stripe : stripes) {
+            Lock lock = contextLocks[stripe];
+            lock.lock();
+            locks.add(lock);
+        }
+        try {
+            registerWrappers(registrations, aliasInfos, callerBundle);
+        } finally {
+            for (Lock lock : locks) {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Register the wrappers of a batch. Needs to be called with the locks of
+     * all the contexts of the batch.
+     * @param registrations the servlets to register
+     * @param aliasInfos the alias info of each alias of the batch
+     * @param callerBundle the bundle registering the servlets
+     */
+    protected void registerWrappers(List<ServletRegistration> registrations, Map<String, AliasInfo> aliasInfos, Bundle callerBundle) throws ServletException, NamespaceException {
+        // Check that no alias is already used
+        for (AliasInfo aliasInfo : aliasInfos.values()) {
+            HttpServiceStandardContext httpServiceStandardContext = getStandardContext(aliasInfo);
+            if (httpServiceStandardContext != null && httpServiceStandardContext.findChild(aliasInfo.getServletPath()) != null) {
+                throw new NamespaceException(String.format(
+                        "Unable to register the given servlet as the path %s is already used", aliasInfo));
+            }
+        }
+
+        List<HttpServiceStandardContext> createdContexts = new ArrayList<>();
+        List<Wrapper> wrappers = new ArrayList<>(registrations.size());
+        boolean done = false;
         try {
-            List<Wrapper> wrappers = wrappersByBundle.get(callerBundle);
-            if (wrappers == null) {
-                wrappers = new ArrayList<>();
-                wrappersByBundle.put(callerBundle, wrappers);
+            // Creates and initializes all the wrappers
+            for (ServletRegistration registration : registrations) {
+                AliasInfo aliasInfo = aliasInfos.get(registration.getAlias());
+                HttpServiceStandardContext httpServiceStandardContext = getStandardContext(aliasInfo);
+                if (httpServiceStandardContext == null) {
+                    httpServiceStandardContext = getStandardContext(aliasInfo, registration.getHttpContext());
+                    createdContexts.add(httpServiceStandardContext);
+                }
+                wrappers.add(createWrapper(httpServiceStandardContext, aliasInfo, registration.getServlet(),
+                        registration.getInitParams(), registration.getHttpContext()));
+            }
+
+            // Adds all the servlet mappings
+            for (Wrapper wrapper : wrappers) {
+                ((StandardContext) wrapper.getParent()).addServletMapping(wrapper.getName() + "/*", wrapper.getName(), true);
             }
-            wrappers.add(wrapper);
+            done = true;
         } finally {
-            wrapperLock.unlock();
+            if (!done) {
+                // Rollback
+                for (Wrapper wrapper : wrappers) {
+                    unregisterWrapper(wrapper);
+                }
+                for (HttpServiceStandardContext httpServiceStandardContext : createdContexts) {
+                    removeContext(httpServiceStandardContext);
+                }
+            }
+        }
+
+        // Track the wrappers and their endpoints
+        for (int i = 0; i < wrappers.size(); i++) {
+            Wrapper wrapper = wrappers.get(i);
+            trackWrapper(callerBundle, wrapper);
+            registerEndpoints(callerBundle, (PeergreenStandardContext) wrapper.getParent(), registrations.get(i).getAlias(), registrations.get(i).getServlet());
+        }
+    }
+
+    /**
+     * Creates the wrapper of the given servlet, adds it in the given context
+     * and initialize the servlet.
+     * @param httpServiceStandardContext the context of the servlet
+     * @param aliasInfo the context and servlet path
+     * @param servlet the servlet
+     * @param initparams the init parameters of the servlet
+     * @param httpContext the HttpContext of the servlet
+     * @return the wrapper of the servlet
+     * @throws ServletException if the servlet cannot be initialized
+     */
+    protected Wrapper createWrapper(HttpServiceStandardContext httpServiceStandardContext, AliasInfo aliasInfo, Servlet servlet,
+            Dictionary<String, String> initparams, HttpContext httpContext) throws ServletException {
+        InitMode servletInitMode = getInitMode(initparams);
+        initparams = getServletInitParams(initparams);
+
+        // Creates the Tomcat wrapper for the given servlet
+        Wrapper wrapper = httpServiceStandardContext.createWrapper();
+        wrapper.setName(aliasInfo.getServletPath());
+        wrapper.setServlet(servlet);
+
+        if (isAsyncSupported(servlet)) {
+            wrapper.setAsyncSupported(true);
         }
+        wrapper.getPipeline().addValve(new HttpContextSecurityValve(httpContext));
 
         // Sets the classloader
         wrapper.setParentClassLoader(servlet.getClass().getClassLoader());
@@ -287,13 +598,211 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
         // Adds the servlet in the given standard context
         httpServiceStandardContext.addChild(wrapper);
 
-        // initialize the servlet (use allocate and then deallocate to put object back into the pool)
-        // the allocate method allowing us to initialize the servlet
-        Servlet instance = wrapper.allocate();
-        wrapper.deallocate(instance);
+        switch (servletInitMode) {
+            case EAGER:
+                // initialize the servlet (use allocate and then deallocate to put object back into the pool)
+                // the allocate method allowing us to initialize the servlet
+                try {
+                    Servlet instance = wrapper.allocate();
+                    wrapper.deallocate(instance);
+                } catch (ServletException | RuntimeException e) {
+                    httpServiceStandardContext.removeChild(wrapper);
+                    throw e;
+                }
+                break;
+            case BACKGROUND:
+                warmUp(wrapper);
+                break;
+            default:
+                // the wrapper initializes the servlet on the first request
+                break;
+        }
+        return wrapper;
+    }
+
+    /**
+     * Checks if the given servlet supports asynchronous processing.
+     * @param servlet the servlet
+     * @return true if its class (or a parent class) is annotated with an
+     * asynchronous {@link WebServlet}
+     */
+    protected static boolean isAsyncSupported(Servlet servlet) {
+        WebServlet webServlet = getWebServlet(servlet.getClass());
+        return webServlet != null && webServlet.asyncSupported();
+    }
 
-        // Adds the servlet mapping
-        httpServiceStandardContext.addServletMapping(aliasInfo.getServletPath() + "/*", wrapper.getName(), true);
+    /**
+     * Gets the {@link WebServlet} annotation of the given servlet class or of
+     * its parent classes.
+     * @param servletClass the class of the servlet
+     * @return the annotation or null if there is none
+     */
+    protected static WebServlet getWebServlet(Class<?> servletClass) {
+        Class<?> current = servletClass;
+        while (current != null && current != Object.class) {
+            WebServlet webServlet = current.getAnnotation(WebServlet.class);
+            if (webServlet != null) {
+                return webServlet;
+            }
+            current = current.getSuperclass();
+        }
+        return null;
+    }
+
+    /**
+     * Gets the init mode of a servlet: the value of the init parameter
+     * {@link #INIT_MODE_PARAMETER} or the mode of this service.
+     * @param initparams the init parameters of the servlet (may be null)
+     * @return the init mode
+     */
+    protected InitMode getInitMode(Dictionary<String, String> initparams) {
+        if (initparams != null) {
+            String value = initparams.get(INIT_MODE_PARAMETER);
+            if (value != null) {
+                return InitMode.parse(value);
+            }
+        }
+        return initMode;
+    }
+
+    /**
+     * Gets the init parameters given to the servlet (without the init mode).
+     * @param initparams the init parameters of the registration (may be null)
+     * @return the init parameters of the servlet
+     */
+    private static Dictionary<String, String> getServletInitParams(Dictionary<String, String> initparams) {
+        if (initparams == null || initparams.get(INIT_MODE_PARAMETER) == null) {
+            return initparams;
+        }
+        Dictionary<String, String> servletInitParams = new Hashtable<>();
+        Enumeration<String> keys = initparams.keys();
+        while (keys.hasMoreElements()) {
+            String key = keys.nextElement();
+            if (!INIT_MODE_PARAMETER.equals(key)) {
+                servletInitParams.put(key, initparams.get(key));
+            }
+        }
+        return servletInitParams;
+    }
+
+    /**
+     * Gets the executor initializing the servlets in background.
+     * @return the warm-up executor
+     */
+    private synchronized ExecutorService getWarmUpExecutor() {
+        if (warmUpExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(warmUpThreads, warmUpThreads, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "HttpService-WarmUp-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            warmUpExecutor = executor;
+        }
+        return warmUpExecutor;
+    }
+
+    /**
+     * Initialize the servlet of the given wrapper in background.
+     * @param wrapper the wrapper
+     */
+    protected void warmUp(final Wrapper wrapper) {
+        getWarmUpExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Container container = wrapper.getParent();
+                if (container == null) {
+                    return;
+                }
+                // wait the end of the registration and ignore removed wrappers
+                Lock lock = getContextLock(container.getName());
+                if (!isRegistered(wrapper, container, lock)) {
+                    return;
+                }
+                // init() may be long, the wrapper synchronizes its own loading
+                try {
+                    Servlet instance = wrapper.allocate();
+                    wrapper.deallocate(instance);
+                } catch (ServletException e) {
+                    // the first request will retry and report the error
+                    return;
+                }
+                if (!isRegistered(wrapper, container, lock)) {
+                    // removed while loading, destroy the servlet loaded after the unload of the wrapper
+                    try {
+                        wrapper.unload();
+                    } catch (ServletException e) {
+                        // the servlet is released anyway
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks if the given wrapper is still an available child of the container.
+     * @param wrapper the wrapper
+     * @param container the container of the wrapper
+     * @param lock the lock of the container
+     * @return true if the wrapper has not been removed
+     */
+    private static boolean isRegistered(Wrapper wrapper, Container container, Lock lock) {
+        lock.lock();
+        try {
+            return wrapper.getParent() == container && !wrapper.isUnavailable();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Initialize the servlet of the given registration of the shared context in background.
+     * @param registration the registration
+     */
+    protected void warmUp(final AliasRegistration registration) {
+        getWarmUpExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    registration.init();
+                } catch (ServletException e) {
+                    // the first request will retry and report the error
+                }
+            }
+        });
+    }
+
+    /**
+     * Stops the background initialization of the servlets.
+     */
+    @Invalidate
+    public synchronized void stop() {
+        if (warmUpExecutor != null) {
+            warmUpExecutor.shutdownNow();
+            warmUpExecutor = null;
+        }
+    }
+
+    /**
+     * Keeps the given wrapper in the list of the wrappers of the bundle.
+     * @param callerBundle the bundle
+     * @param wrapper the wrapper registered by this bundle
+     */
+    private void trackWrapper(Bundle callerBundle, Wrapper wrapper) {
+        List<Wrapper> wrappers = wrappersByBundle.get(callerBundle);
+        if (wrappers == null) {
+            wrappers = new CopyOnWriteArrayList<>();
+            List<Wrapper> existing = wrappersByBundle.putIfAbsent(callerBundle, wrappers);
+            if (existing != null) {
+                wrappers = existing;
+            }
+        }
+        wrappers.add(wrapper);
     }
 
     /**
@@ -305,6 +814,25 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
         // Get alias
         AliasInfo aliasInfo = getAliasInfo(alias);
 
+        if (sharedContext) {
+            unregisterSharedServlet(alias);
+            return;
+        }
+
+        Lock lock = getContextLock(aliasInfo.getContextPath());
+        lock.lock();
+        try {
+            unregisterWrapper(alias, aliasInfo, callerBundle);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregister the wrapper of the given alias. Needs to be called with the
+     * lock of the context of the alias.
+     */
+    protected void unregisterWrapper(String alias, AliasInfo aliasInfo, Bundle callerBundle) {
         // Gets the Hosting context
         HttpServiceStandardContext httpServiceStandardContext = getStandardContext(aliasInfo);
         if (httpServiceStandardContext == null) {
@@ -319,23 +847,227 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
             throw new IllegalArgumentException(String.format(
                     "Unable to unregister alias %s as this alias is not a wrapper", alias));
         }
-        wrapperLock.lock();
-        try {
-            Wrapper wrapper = (Wrapper) container;
-            unregisterWrapper(wrapper);
-            List<Wrapper> wrappers = wrappersByBundle.get(callerBundle);
-            if (wrappers != null) {
-                wrappers.remove(wrapper);
+        Wrapper wrapper = (Wrapper) container;
+        unregisterWrapper(wrapper);
+        List<Wrapper> wrappers = wrappersByBundle.get(callerBundle);
+        if (wrappers != null) {
+            wrappers.remove(wrapper);
+        }
+
+        removeContextIfEmpty(httpServiceStandardContext);
+    }
+
+    /**
+     * Removes the given context if it only contains the jsp and default
+     * wrappers. Needs to be called with the lock of the context.
+     * @param httpServiceStandardContext the context to check
+     */
+    protected void removeContextIfEmpty(HttpServiceStandardContext httpServiceStandardContext) {
+        // If we only have jsp and default wrapper, remove the context itself
+        if (httpServiceStandardContext.getParent() != null && httpServiceStandardContext.findChildren().length == 2
+                && httpServiceStandardContext.findChild("default") != null && httpServiceStandardContext.findChild("jsp") != null) {
+            removeContext(httpServiceStandardContext);
+        }
+    }
+
+    /**
+     * Removes the given context from the host and deletes its directories.
+     * Needs to be called with the lock of the context.
+     * @param httpServiceStandardContext the context to remove
+     */
+    protected void removeContext(HttpServiceStandardContext httpServiceStandardContext) {
+        httpServiceStandardContext.getParent().removeChild(httpServiceStandardContext);
+        workspaceManager.release(httpServiceStandardContext.getName());
+    }
+
+    /**
+     * Register a filter for the requests matching the given pattern.
+     */
+    @Override
+    public void registerFilter(String pattern, Filter filter, int ranking, Dictionary<String, String> initparams,
+            HttpContext httpContext, Bundle callerBundle) throws ServletException, NamespaceException {
+        if (filter == null) {
+            throw new IllegalArgumentException("The filter cannot be null");
+        }
+        String prefix = getFilterPrefix(pattern);
+
+        synchronized (filters) {
+            HttpServiceFilter existing = findFilter(filter);
+            if (existing != null) {
+                if (!existing.getPrefix().equals(prefix)) {
+                    throw new NamespaceException(String.format("The filter is already registered with another pattern than %s", pattern));
+                }
+                // only the ranking can be updated
+                existing.setRanking(ranking);
+                for (HttpServiceStandardContext httpServiceStandardContext : getFilteredContexts(existing)) {
+                    httpServiceStandardContext.sortHttpServiceFilters();
+                }
+                return;
+            }
+
+            long order = filterCounter.incrementAndGet();
+            HttpServiceFilter httpServiceFilter = new HttpServiceFilter("httpservice-filter-" + order, prefix, filter, ranking, order,
+                    initparams, httpContext, callerBundle);
+            filters.add(httpServiceFilter);
+
+            // add the filter in the existing contexts
+            try {
+                if (sharedContext) {
+                    Lock lock = getContextLock(sharedContextPath);
+                    lock.lock();
+                    try {
+                        getSharedContext().addHttpServiceFilter(httpServiceFilter, getFilterUrlPattern(httpServiceFilter, sharedContextPath));
+                    } finally {
+                        lock.unlock();
+                    }
+                } else {
+                    for (HttpServiceStandardContext httpServiceStandardContext : getHttpServiceContexts()) {
+                        String contextPath = httpServiceStandardContext.getName();
+                        String urlPattern = getFilterUrlPattern(httpServiceFilter, contextPath);
+                        if (urlPattern == null) {
+                            continue;
+                        }
+                        Lock lock = getContextLock(contextPath);
+                        lock.lock();
+                        try {
+                            if (httpServiceStandardContext.getParent() != null) {
+                                httpServiceStandardContext.addHttpServiceFilter(httpServiceFilter, urlPattern);
+                            }
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+                }
+            } catch (ServletException | RuntimeException e) {
+                removeFilter(httpServiceFilter);
+                throw e;
             }
+        }
+    }
 
-            // If we only have jsp and default wrapper, remove the context itself
-            if (httpServiceStandardContext.findChildren().length == 2 && httpServiceStandardContext.findChild("default") != null && httpServiceStandardContext.findChild("jsp") != null) {
-                httpServiceStandardContext.getParent().removeChild(httpServiceStandardContext);
+    /**
+     * Unregister the given filter.
+     */
+    @Override
+    public void unregisterFilter(Filter filter, Bundle callerBundle) {
+        HttpServiceFilter httpServiceFilter;
+        synchronized (filters) {
+            httpServiceFilter = findFilter(filter);
+            if (httpServiceFilter == null || !httpServiceFilter.getBundle().equals(callerBundle)) {
+                throw new IllegalArgumentException("The filter has not been registered by this bundle");
             }
+            removeFilter(httpServiceFilter);
+        }
+    }
 
-        } finally {
-            wrapperLock.unlock();
+    /**
+     * Removes the given filter from the contexts and destroys it.
+     * @param httpServiceFilter the filter to remove
+     */
+    protected void removeFilter(HttpServiceFilter httpServiceFilter) {
+        filters.remove(httpServiceFilter);
+        for (HttpServiceStandardContext httpServiceStandardContext : getFilteredContexts(httpServiceFilter)) {
+            Lock lock = getContextLock(httpServiceStandardContext.getName());
+            lock.lock();
+            try {
+                httpServiceStandardContext.removeHttpServiceFilter(httpServiceFilter);
+            } finally {
+                lock.unlock();
+            }
+        }
+        httpServiceFilter.destroyFilter();
+    }
+
+    /**
+     * @param filter a registered filter
+     * @return the registration of the filter or null
+     */
+    private HttpServiceFilter findFilter(Filter filter) {
+        for (HttpServiceFilter httpServiceFilter : filters) {
+            if (httpServiceFilter.getFilter() == filter) {
+                return httpServiceFilter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the contexts of the default host created by this service.
+     */
+    protected List<HttpServiceStandardContext> getHttpServiceContexts() {
+        List<HttpServiceStandardContext> contexts = new ArrayList<>();
+        Container[] children = tomcat7Service.getDefaultHost().findChildren();
+        if (children != null) {
+            for (Container child : children) {
+                if (child instanceof HttpServiceStandardContext) {
+                    contexts.add((HttpServiceStandardContext) child);
+                }
+            }
+        }
+        return contexts;
+    }
+
+    /**
+     * @param httpServiceFilter a filter
+     * @return the contexts containing the given filter
+     */
+    private List<HttpServiceStandardContext> getFilteredContexts(HttpServiceFilter httpServiceFilter) {
+        List<HttpServiceStandardContext> contexts = getHttpServiceContexts();
+        Iterator<HttpServiceStandardContext> iterator = contexts.iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().hasHttpServiceFilter(httpServiceFilter)) {
+                iterator.remove();
+            }
+        }
+        return contexts;
+    }
+
+    /**
+     * Extract the path prefix of the requests to filter from the given pattern.
+     * The pattern is either /* for all the requests or a path optionally ending with /*.
+     * @param pattern the pattern of the filter
+     * @return the path prefix ("" for all the requests)
+     */
+    protected String getFilterPrefix(String pattern) {
+        if (pattern == null) {
+            throw new IllegalArgumentException("The pattern cannot be null");
+        }
+        String prefix = pattern;
+        if (prefix.endsWith("/*")) {
+            prefix = prefix.substring(0, prefix.length() - 2);
+        } else if ("/".equals(prefix)) {
+            prefix = "";
+        }
+        if (prefix.isEmpty()) {
+            return prefix;
+        }
+        if (!prefix.startsWith("/") || prefix.endsWith("/") || prefix.indexOf('*') >= 0) {
+            throw new IllegalArgumentException(String.format("The pattern needs to be /* or a path optionally followed by /*. Value found is %s",
+                    pattern));
+        }
+        return prefix;
+    }
+
+    /**
+     * Gets the URL pattern of the given filter in a context.
+     * @param httpServiceFilter the filter
+     * @param contextPath the path of the context
+     * @return the URL pattern or null if the filter doesn't apply to the context
+     */
+    protected String getFilterUrlPattern(HttpServiceFilter httpServiceFilter, String contextPath) {
+        String prefix = httpServiceFilter.getPrefix();
+        if (prefix.isEmpty()) {
+            return "/*";
+        }
+        if (sharedContext) {
+            // all the aliases are in the shared context
+            return prefix + "/*";
+        }
+        AliasInfo aliasInfo = getAliasInfo(prefix);
+        if (!aliasInfo.getContextPath().equals(contextPath)) {
+            return null;
         }
+        return aliasInfo.getServletPath() + "/*";
     }
 
     /**
@@ -343,17 +1075,45 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
      */
     @Override
     public void unregisterAll(Bundle callerBundle) {
-        wrapperLock.lock();
+        for (HttpServiceFilter httpServiceFilter : filters) {
+            if (httpServiceFilter.getBundle().equals(callerBundle)) {
+                synchronized (filters) {
+                    removeFilter(httpServiceFilter);
+                }
+            }
+        }
+
+        List<Wrapper> wrappers = wrappersByBundle.remove(callerBundle);
+        if (wrappers != null) {
+            for (Wrapper wrapper : wrappers) {
+                Container container = wrapper.getParent();
+                unregisterWrapper(wrapper);
+                if (container instanceof HttpServiceStandardContext) {
+                    Lock lock = getContextLock(container.getName());
+                    lock.lock();
+                    try {
+                        removeContextIfEmpty((HttpServiceStandardContext) container);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        }
+
+        Lock lock = getContextLock(sharedContextPath);
+        lock.lock();
         try {
-            List<Wrapper> wrappers = wrappersByBundle.get(callerBundle);
-            if (wrappers != null) {
-                for (Wrapper wrapper : wrappers) {
-                    unregisterWrapper(wrapper);
+            List<String> aliases = aliasesByBundle.remove(callerBundle);
+            if (aliases != null) {
+                for (String alias : aliases) {
+                    AliasRegistration registration = dispatcher.remove(alias);
+                    if (registration != null) {
+                        destroy(registration);
+                    }
                 }
             }
-            wrappers.clear();
         } finally {
-            wrapperLock.unlock();
+            lock.unlock();
         }
     }
 
@@ -362,9 +1122,17 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
      * @param wrapper the wrapper to unregister
      */
     protected void unregisterWrapper(Wrapper wrapper) {
-        wrapperLock.lock();
+        Container container = wrapper.getParent();
+        if (container == null) {
+            // already removed
+            return;
+        }
+        Lock lock = getContextLock(container.getName());
+        lock.lock();
         try {
-            Container container = wrapper.getParent();
+            if (wrapper.getParent() != container) {
+                return;
+            }
             StandardContext standardContext = (StandardContext) container;
 
             // Remove the mapping
@@ -374,8 +1142,202 @@ public class BasicTomcat7HttpService implements InternalTomcat7HttpService {
             container.removeChild(wrapper);
         } finally {
             // unlock
-            wrapperLock.unlock();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Register the endpoint of the given servlet on the artifact of the bundle.
+     * @param callerBundle the bundle registering the servlet
+     * @param context the context of the servlet
+     * @param path the path of the servlet from the root of the host
+     * @param servlet the servlet
+     */
+    protected void registerEndpoints(Bundle callerBundle, PeergreenStandardContext context, String path, Servlet servlet) {
+        Artifact artifact = bundleArtifactManager.getArtifact(callerBundle);
+        if (artifact == null) {
+            return;
+        }
+        Endpoints endpoints = artifact.as(Endpoints.class);
+        for (URI uri : context.getContextURIs()) {
+            try {
+                // remove context from uri
+                String rootUri = uri.toString().substring(0, uri.toString().length() - context.getPath().length());
+                String[] categories;
+                if (servlet instanceof WrappingResourceInServlet) {
+                    categories = new String[] { "OSGi", "Resource" };
+                } else {
+                    categories = new String[] { "OSGi", "Servlet" };
+                }
+                endpoints.register(new URI(rootUri.concat(path)), categories);
+            } catch (URISyntaxException e) {
+                throw new IllegalArgumentException("Unable to register endpoint", e);
+            }
+        }
+    }
+
+    /**
+     * Gets the shared context, creating it with its dispatcher servlet if needed.
+     * Needs to be called with the lock of the shared context.
+     * @return the shared context
+     * @throws ServletException if the context cannot be created
+     */
+    protected HttpServiceStandardContext getSharedContext() throws ServletException {
+        AliasInfo aliasInfo = new AliasInfo(sharedContextPath, "");
+        HttpServiceStandardContext httpServiceStandardContext = getStandardContext(aliasInfo, null);
+        if (dispatcher == null || httpServiceStandardContext.findChild(DISPATCHER_NAME) == null) {
+            AliasDispatcherServlet aliasDispatcherServlet = new AliasDispatcherServlet();
+            Wrapper wrapper = httpServiceStandardContext.createWrapper();
+            wrapper.setName(DISPATCHER_NAME);
+            wrapper.setServlet(aliasDispatcherServlet);
+            // async requests are rejected by the dispatcher for the aliases not supporting them
+            wrapper.setAsyncSupported(true);
+            httpServiceStandardContext.addChild(wrapper);
+            httpServiceStandardContext.addServletMapping("/*", DISPATCHER_NAME, true);
+            dispatcher = aliasDispatcherServlet;
+        }
+        return httpServiceStandardContext;
+    }
+
+    /**
+     * Register the servlet in the shared context.
+     */
+    protected void registerSharedServlet(String alias, Servlet servlet, Dictionary<String, String> initparams,
+            HttpContext httpContext, Bundle callerBundle) throws ServletException, NamespaceException {
+        registerSharedServlets(Collections.singletonList(new ServletRegistration(alias, servlet, initparams, httpContext)), callerBundle);
+    }
+
+    /**
+     * Register a set of servlets in the shared context. If a servlet cannot be
+     * initialized, the servlets of the batch already initialized are destroyed
+     * and none of them is added.
+     */
+    protected void registerSharedServlets(List<ServletRegistration> registrations, Bundle callerBundle) throws ServletException, NamespaceException {
+        Lock lock = getContextLock(sharedContextPath);
+        lock.lock();
+        try {
+            HttpServiceStandardContext httpServiceStandardContext = getSharedContext();
+
+            // Check aliases are unique
+            for (ServletRegistration registration : registrations) {
+                if (dispatcher.get(registration.getAlias()) != null) {
+                    throw new NamespaceException(String.format(
+                            "Unable to register the given servlet as the alias %s is already used", registration.getAlias()));
+                }
+            }
+
+            // initialize all the servlets
+            List<AliasRegistration> aliasRegistrations = new ArrayList<>(registrations.size());
+            boolean done = false;
+            try {
+                for (ServletRegistration registration : registrations) {
+                    HttpContext httpContext = registration.getHttpContext();
+                    HttpServiceServletContext servletContext = sharedServletContexts.get(httpContext);
+                    if (servletContext == null) {
+                        servletContext = new HttpServiceServletContext(httpServiceStandardContext, httpContext);
+                        sharedServletContexts.put(httpContext, servletContext);
+                    }
+                    AliasRegistration aliasRegistration = new AliasRegistration(registration.getAlias(), registration.getServlet(),
+                            httpContext, callerBundle, servletContext.getServletContextFacade());
+                    aliasRegistration.setServletConfig(new AliasServletConfig(registration.getAlias(),
+                            aliasRegistration.getServletContext(), getServletInitParams(registration.getInitParams())));
+                    aliasRegistration.setAsyncSupported(isAsyncSupported(registration.getServlet()));
+                    aliasRegistrations.add(aliasRegistration);
+                    if (getInitMode(registration.getInitParams()) == InitMode.EAGER) {
+                        aliasRegistration.init();
+                    }
+                }
+                done = true;
+            } finally {
+                if (!done) {
+                    // Rollback
+                    for (AliasRegistration aliasRegistration : aliasRegistrations) {
+                        aliasRegistration.destroy();
+                    }
+                    for (ServletRegistration registration : registrations) {
+                        releaseServletContext(registration.getHttpContext());
+                    }
+                }
+            }
+
+            // and make them available
+            List<String> aliases = aliasesByBundle.get(callerBundle);
+            if (aliases == null) {
+                aliases = new ArrayList<>();
+                aliasesByBundle.put(callerBundle, aliases);
+            }
+            for (int i = 0; i < aliasRegistrations.size(); i++) {
+                AliasRegistration aliasRegistration = aliasRegistrations.get(i);
+                dispatcher.add(aliasRegistration);
+                aliases.add(aliasRegistration.getAlias());
+                registerEndpoints(callerBundle, httpServiceStandardContext,
+                        httpServiceStandardContext.getPath().concat(aliasRegistration.getAlias()), aliasRegistration.getServlet());
+                if (getInitMode(registrations.get(i).getInitParams()) == InitMode.BACKGROUND) {
+                    warmUp(aliasRegistration);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Unregister the servlet of the given alias from the shared context.
+     * @param alias the alias
+     */
+    protected void unregisterSharedServlet(String alias) {
+        Lock lock = getContextLock(sharedContextPath);
+        lock.lock();
+        try {
+            AliasRegistration registration = null;
+            if (dispatcher != null) {
+                registration = dispatcher.remove(alias);
+            }
+            if (registration == null) {
+                throw new IllegalArgumentException(String.format(
+                        "Unable to unregister alias %s as this alias is not registered", alias));
+            }
+            List<String> aliases = aliasesByBundle.get(registration.getBundle());
+            if (aliases != null) {
+                aliases.remove(alias);
+                if (aliases.isEmpty()) {
+                    aliasesByBundle.remove(registration.getBundle());
+                }
+            }
+            destroy(registration);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Destroy the servlet of a registration removed from the shared context.
+     * Needs to be called with the lock of the shared context.
+     * @param registration the removed registration
+     */
+    protected void destroy(AliasRegistration registration) {
+        try {
+            registration.destroy();
+        } finally {
+            releaseServletContext(registration.getHttpContext());
+        }
+    }
+
+    /**
+     * Remove the servlet context of the given HttpContext if it is no longer
+     * used by a registration of the shared context.
+     * @param httpContext the HttpContext
+     */
+    private void releaseServletContext(HttpContext httpContext) {
+        for (List<String> aliases : aliasesByBundle.values()) {
+            for (String alias : aliases) {
+                AliasRegistration registration = dispatcher.get(alias);
+                if (registration != null && registration.getHttpContext() == httpContext) {
+                    return;
+                }
+            }
         }
+        sharedServletContexts.remove(httpContext);
     }
 
 }
@@ -0,0 +1,215 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import java.io.IOException;
+import java.util.Dictionary;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+/**
+ * Filter registered through the HttpService. It is given to each Tomcat
+ * context matching its pattern but the registered filter is only initialized
+ * once (with the config of the first context) and destroyed when it is
+ * unregistered. The HttpContext of the registration checks the security of
+ * the requests before the filter, like for the servlets.
+ * @author Florent Benoit
+ */
+public class HttpServiceFilter implements Filter, Comparable<HttpServiceFilter> {
+
+    /**
+     * Name of the filter in the Tomcat contexts.
+     */
+    private final String name;
+
+    /**
+     * Path prefix of the requests to filter ("" for all the requests).
+     */
+    private final String prefix;
+
+    /**
+     * Registered filter.
+     */
+    private final Filter filter;
+
+    /**
+     * Registration order, used when filters have the same ranking.
+     */
+    private final long order;
+
+    /**
+     * Init parameters (may be null).
+     */
+    private final Dictionary<String, String> initparams;
+
+    /**
+     * HttpContext of the registration (may be null).
+     */
+    private final HttpContext httpContext;
+
+    /**
+     * Bundle that has registered the filter.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Ranking, highest ranking filters are called first.
+     */
+    private volatile int ranking;
+
+    /**
+     * Filter has been initialized ?
+     */
+    private boolean initialized = false;
+
+    public HttpServiceFilter(String name, String prefix, Filter filter, int ranking, long order, Dictionary<String, String> initparams,
+            HttpContext httpContext, Bundle bundle) {
+        this.name = name;
+        this.prefix = prefix;
+        this.filter = filter;
+        this.ranking = ranking;
+        this.order = order;
+        this.initparams = initparams;
+        this.httpContext = httpContext;
+        this.bundle = bundle;
+    }
+
+    /**
+     * Initialize the registered filter the first time.
+     */
+    @Override
+    public synchronized void init(FilterConfig filterConfig) throws ServletException {
+        if (!initialized) {
+            filter.init(filterConfig);
+            initialized = true;
+        }
+    }
+
+    /**
+     * Calls the registered filter if the HttpContext accepts the request.
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (httpContext != null && request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
+            if (!httpContext.handleSecurity((HttpServletRequest) request, (HttpServletResponse) response)) {
+                return;
+            }
+        }
+        filter.doFilter(request, response, chain);
+    }
+
+    /**
+     * The registered filter is destroyed by {@link #destroyFilter()} once it
+     * has been removed from all the contexts.
+     */
+    @Override
+    public void destroy() {
+
+    }
+
+    /**
+     * Destroy the registered filter if it has been initialized.
+     */
+    public synchronized void destroyFilter() {
+        if (initialized) {
+            initialized = false;
+            filter.destroy();
+        }
+    }
+
+    /**
+     * @return the name of the filter in the Tomcat contexts.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the path prefix of the filtered requests ("" for all).
+     */
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return the registered filter.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return the init parameters or null.
+     */
+    public Dictionary<String, String> getInitParams() {
+        return initparams;
+    }
+
+    /**
+     * @return the HttpContext of the registration or null.
+     */
+    public HttpContext getHttpContext() {
+        return httpContext;
+    }
+
+    /**
+     * @return the bundle that has registered the filter.
+     */
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * @return the ranking of the filter.
+     */
+    public int getRanking() {
+        return ranking;
+    }
+
+    /**
+     * Sets the ranking of the filter.
+     * @param ranking the new ranking
+     */
+    public void setRanking(int ranking) {
+        this.ranking = ranking;
+    }
+
+    /**
+     * Highest ranking first, then registration order.
+     */
+    @Override
+    public int compareTo(HttpServiceFilter other) {
+        int otherRanking = other.ranking;
+        if (ranking != otherRanking) {
+            return ranking > otherRanking ? -1 : 1;
+        }
+        if (order != other.order) {
+            return order < other.order ? -1 : 1;
+        }
+        return 0;
+    }
+
+}
@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import javax.servlet.ServletContext;
+
 import org.apache.catalina.core.ApplicationContext;
 import org.osgi.service.http.HttpContext;
 
@@ -36,8 +38,26 @@ public class HttpServiceServletContext extends ApplicationContext {
     private final HttpContext httpContext;
 
     public HttpServiceServletContext(final HttpServiceStandardContext standardContext) {
+        this(standardContext, standardContext.getHttpContext());
+    }
+
+    /**
+     * Builds a servlet context on the given Tomcat context but for a specific
+     * HttpContext. It is used when several HttpContext share the same Tomcat
+     * context.
+     * @param standardContext the Tomcat context
+     * @param httpContext the HttpContext to wrap (may be null)
+     */
+    public HttpServiceServletContext(final HttpServiceStandardContext standardContext, final HttpContext httpContext) {
         super(standardContext);
-        this.httpContext = standardContext.getHttpContext();
+        this.httpContext = httpContext;
+    }
+
+    /**
+     * @return the facade of this servlet context, given to the servlets.
+     */
+    public ServletContext getServletContextFacade() {
+        return getFacade();
     }
 
     /**
@@ -45,15 +65,17 @@ public class HttpServiceServletContext extends ApplicationContext {
      * not known. The MIME type is determined by calling
      * {@link HttpContext#getMimeType(String)}. If this method returns
      * <code>null</code>, the {@link ApplicationContext#getMimeType(String)}
-     * method is called.
+     * method is called, using the mime mappings of the Tomcat context.
      * @param file a String specifying the name of a file
      * @return a String specifying the file's MIME type
      */
     @Override
     public String getMimeType(final String file) {
-        final String mime = this.httpContext.getMimeType(file);
-        if (mime != null) {
-            return mime;
+        if (this.httpContext != null) {
+            final String mime = this.httpContext.getMimeType(file);
+            if (mime != null) {
+                return mime;
+            }
         }
 
         return super.getMimeType(file);
@@ -97,6 +119,9 @@ public class HttpServiceServletContext extends ApplicationContext {
      */
     @Override
     public URL getResource(final String path) throws MalformedURLException {
+        if (this.httpContext == null) {
+            return super.getResource(path);
+        }
         return this.httpContext.getResource(path);
     }
 
@@ -15,8 +15,25 @@
  */
 package com.peergreen.webcontainer.tomcat7.internal.httpservice;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.FilterConfig;
 import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.core.ApplicationFilterConfig;
+import org.apache.catalina.deploy.FilterDef;
+import org.apache.catalina.deploy.FilterMap;
 import org.osgi.service.http.HttpContext;
 
 import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenStandardContext;
@@ -32,9 +49,39 @@ public class HttpServiceStandardContext extends PeergreenStandardContext {
      */
     private final HttpContext httpContext;
 
+    /**
+     * Filters registered through the HttpService, by name.
+     */
+    private final Map<String, HttpServiceFilter> httpServiceFilters;
+
+    /**
+     * Definitions of the HttpService filters.
+     */
+    private final Map<String, FilterDef> httpServiceFilterDefs;
+
+    /**
+     * Configs of the HttpService filters (created once the context is started).
+     */
+    private final Map<String, FilterConfig> httpServiceFilterConfigs;
+
+    /**
+     * Mappings of the HttpService filters, by name.
+     */
+    private final Map<String, FilterMap> httpServiceFilterMappings;
+
+    /**
+     * Mappings of the HttpService filters sorted by ranking.
+     */
+    private volatile FilterMap[] httpServiceFilterMaps;
+
     public HttpServiceStandardContext(HttpContext httpContext) {
         super();
         this.httpContext = httpContext;
+        this.httpServiceFilters = new ConcurrentHashMap<>();
+        this.httpServiceFilterDefs = new ConcurrentHashMap<>();
+        this.httpServiceFilterConfigs = new ConcurrentHashMap<>();
+        this.httpServiceFilterMappings = new ConcurrentHashMap<>();
+        this.httpServiceFilterMaps = new FilterMap[0];
     }
 
     /**
@@ -55,4 +102,218 @@ public class HttpServiceStandardContext extends PeergreenStandardContext {
         return httpContext;
     }
 
+    /**
+     * Adds a filter registered through the HttpService. These filters are
+     * called before the filters of the context, by ranking. If the context is
+     * started, the filter is initialized now.
+     * @param filter the filter
+     * @param urlPattern the URL pattern of the filter in this context
+     * @throws ServletException if the filter cannot be initialized
+     */
+    public synchronized void addHttpServiceFilter(HttpServiceFilter filter, String urlPattern) throws ServletException {
+        if (httpServiceFilters.containsKey(filter.getName())) {
+            return;
+        }
+        FilterDef filterDef = new FilterDef();
+        filterDef.setFilterName(filter.getName());
+        filterDef.setFilter(filter);
+        filterDef.setFilterClass(filter.getFilter().getClass().getName());
+        filterDef.setAsyncSupported("true");
+        if (filter.getInitParams() != null) {
+            Enumeration<String> keys = filter.getInitParams().keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                filterDef.addInitParameter(key, filter.getInitParams().get(key));
+            }
+        }
+
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(filter.getName());
+        filterMap.addURLPattern(urlPattern);
+
+        httpServiceFilterDefs.put(filter.getName(), filterDef);
+        httpServiceFilterMappings.put(filter.getName(), filterMap);
+        httpServiceFilters.put(filter.getName(), filter);
+        if (getState().isAvailable()) {
+            try {
+                httpServiceFilterConfigs.put(filter.getName(), createFilterConfig(filterDef));
+            } catch (ServletException | RuntimeException e) {
+                removeHttpServiceFilter(filter);
+                throw e;
+            }
+        }
+        sortHttpServiceFilters();
+    }
+
+    /**
+     * Removes a filter registered through the HttpService.
+     * @param filter the filter
+     * @return true if the filter was in this context
+     */
+    public synchronized boolean removeHttpServiceFilter(HttpServiceFilter filter) {
+        if (httpServiceFilters.remove(filter.getName()) == null) {
+            return false;
+        }
+        httpServiceFilterMappings.remove(filter.getName());
+        sortHttpServiceFilters();
+        httpServiceFilterDefs.remove(filter.getName());
+        FilterConfig filterConfig = httpServiceFilterConfigs.remove(filter.getName());
+        if (filterConfig != null) {
+            releaseFilterConfig(filterConfig);
+        }
+        return true;
+    }
+
+    /**
+     * @param filter a filter registered through the HttpService
+     * @return true if the filter is in this context
+     */
+    public boolean hasHttpServiceFilter(HttpServiceFilter filter) {
+        return httpServiceFilters.containsKey(filter.getName());
+    }
+
+    /**
+     * Sorts the mappings of the HttpService filters by ranking. Needs to be
+     * called when the ranking of a filter is changed.
+     */
+    public synchronized void sortHttpServiceFilters() {
+        List<HttpServiceFilter> filters = new ArrayList<>(httpServiceFilters.values());
+        Collections.sort(filters);
+        List<FilterMap> filterMaps = new ArrayList<>(filters.size());
+        for (HttpServiceFilter filter : filters) {
+            FilterMap filterMap = httpServiceFilterMappings.get(filter.getName());
+            if (filterMap != null) {
+                filterMaps.add(filterMap);
+            }
+        }
+        httpServiceFilterMaps = filterMaps.toArray(new FilterMap[filterMaps.size()]);
+    }
+
+    /**
+     * Also returns the definitions of the HttpService filters.
+     */
+    @Override
+    public FilterDef findFilterDef(String filterName) {
+        FilterDef filterDef = httpServiceFilterDefs.get(filterName);
+        if (filterDef != null) {
+            return filterDef;
+        }
+        return super.findFilterDef(filterName);
+    }
+
+    /**
+     * HttpService filters are called before the filters of the context.
+     */
+    @Override
+    public FilterMap[] findFilterMaps() {
+        FilterMap[] filterMaps = httpServiceFilterMaps;
+        FilterMap[] contextFilterMaps = super.findFilterMaps();
+        if (filterMaps.length == 0) {
+            return contextFilterMaps;
+        }
+        if (contextFilterMaps.length == 0) {
+            return filterMaps;
+        }
+        FilterMap[] all = new FilterMap[filterMaps.length + contextFilterMaps.length];
+        System.arraycopy(filterMaps, 0, all, 0, filterMaps.length);
+        System.arraycopy(contextFilterMaps, 0, all, filterMaps.length, contextFilterMaps.length);
+        return all;
+    }
+
+    /**
+     * Gets the config of an HttpService filter, creating it if the filter has
+     * been added before the start of the context.
+     */
+    @Override
+    public FilterConfig findFilterConfig(String name) {
+        FilterDef filterDef = httpServiceFilterDefs.get(name);
+        if (filterDef == null) {
+            return super.findFilterConfig(name);
+        }
+        FilterConfig filterConfig = httpServiceFilterConfigs.get(name);
+        if (filterConfig == null) {
+            synchronized (this) {
+                filterConfig = httpServiceFilterConfigs.get(name);
+                if (filterConfig == null && httpServiceFilterDefs.containsKey(name)) {
+                    try {
+                        filterConfig = createFilterConfig(filterDef);
+                    } catch (ServletException e) {
+                        throw new IllegalStateException(String.format("Unable to initialize the filter %s", name), e);
+                    }
+                    httpServiceFilterConfigs.put(name, filterConfig);
+                }
+            }
+        }
+        return filterConfig;
+    }
+
+    /**
+     * Also releases the configs of the HttpService filters, they are created
+     * again if the context starts again.
+     */
+    @Override
+    public boolean filterStop() {
+        boolean ok = super.filterStop();
+        releaseHttpServiceFilterConfigs();
+        return ok;
+    }
+
+    /**
+     * Releases the configs of the HttpService filters if the context is
+     * destroyed without having been stopped.
+     */
+    @Override
+    protected void destroyInternal() throws LifecycleException {
+        releaseHttpServiceFilterConfigs();
+        super.destroyInternal();
+    }
+
+    /**
+     * Releases the configs of all the HttpService filters of this context.
+     */
+    protected synchronized void releaseHttpServiceFilterConfigs() {
+        for (String name : new ArrayList<>(httpServiceFilterConfigs.keySet())) {
+            FilterConfig filterConfig = httpServiceFilterConfigs.remove(name);
+            if (filterConfig != null) {
+                releaseFilterConfig(filterConfig);
+            }
+        }
+    }
+
+    /**
+     * Creates the Tomcat config of a filter, which initializes the filter.
+     * Tomcat only creates these configs when the context is starting.
+     * @param filterDef the definition of the filter
+     * @return the config of the filter
+     * @throws ServletException if the filter cannot be initialized
+     */
+    protected FilterConfig createFilterConfig(FilterDef filterDef) throws ServletException {
+        try {
+            Constructor<ApplicationFilterConfig> constructor = ApplicationFilterConfig.class.getDeclaredConstructor(Context.class, FilterDef.class);
+            constructor.setAccessible(true);
+            return constructor.newInstance(this, filterDef);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof ServletException) {
+                throw (ServletException) e.getCause();
+            }
+            throw new ServletException(String.format("Unable to initialize the filter %s", filterDef.getFilterName()), e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create the filter config", e);
+        }
+    }
+
+    /**
+     * Releases the Tomcat config of a filter.
+     * @param filterConfig the config of the filter
+     */
+    protected void releaseFilterConfig(FilterConfig filterConfig) {
+        try {
+            Method release = ApplicationFilterConfig.class.getDeclaredMethod("release");
+            release.setAccessible(true);
+            release.invoke(filterConfig);
+        } catch (ReflectiveOperationException e) {
+            // the config is dropped anyway
+        }
+    }
+
 }
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import java.util.Locale;
+
+/**
+ * Defines when the servlets registered through the HttpService are
+ * initialized.
+ * @author Florent Benoit
+ */
+public enum InitMode {
+
+    /**
+     * The servlet is initialized before the registration returns (default).
+     */
+    EAGER,
+
+    /**
+     * The servlet is initialized by the first request.
+     */
+    LAZY,
+
+    /**
+     * The servlet is initialized by a background thread after the
+     * registration, or by the first request if it comes before.
+     */
+    BACKGROUND;
+
+    /**
+     * Gets the init mode of the given name (eager, lazy or background).
+     * @param name the name of the mode
+     * @return the init mode
+     */
+    public static InitMode parse(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid servlet init mode %s, expecting eager, lazy or background", name), e);
+        }
+    }
+}
@@ -15,23 +15,61 @@
  */
 package com.peergreen.webcontainer.tomcat7.internal.httpservice;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.catalina.Globals;
+import org.osgi.framework.Bundle;
 import org.osgi.service.http.HttpContext;
 
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BufferPool;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleResource;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ByteRange;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicy;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachedResource;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResource;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceKey;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceStreamer;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.SingleFlight;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.URLResource;
+
 /**
  * This class allows to wrap HttpService resources in a servlet.
  * @author Florent Benoit
  */
+@WebServlet(asyncSupported = true)
 public class WrappingResourceInServlet extends HttpServlet {
 
     /**
@@ -39,15 +77,162 @@ public class WrappingResourceInServlet extends HttpServlet {
      */
     private static final long serialVersionUID = 4740539360592241634L;
 
-    private static final int BUFFER = 4096;
+    /**
+     * Buffers used to copy the resources.
+     */
+    private static final BufferPool BUFFER_POOL = new BufferPool(64);
+
+    /**
+     * Loads in progress of the resources that are not yet cached.
+     */
+    private static final SingleFlight<ResourceKey, BundleResource> LOADS = new SingleFlight<>();
+
+    /**
+     * Boundary of the parts when sending multiple ranges.
+     */
+    private static final String MIME_BOUNDARY = "PEERGREEN_MIME_BOUNDARY";
+
+    /**
+     * Gzip content coding.
+     */
+    private static final String GZIP = "gzip";
+
+    /**
+     * Supported content codings, by order of preference.
+     */
+    private static final String[] CODINGS = {"br", GZIP};
+
+    /**
+     * Extensions of the precompressed siblings for each content coding.
+     */
+    private static final String[] EXTENSIONS = {".br", ".gz"};
+
+    /**
+     * Separator between the path and the coding in the key of the variants.
+     */
+    private static final char VARIANT_SEPARATOR = '\0';
+
+    /**
+     * Resources smaller than this size are not compressed.
+     */
+    private static final int MIN_COMPRESSION_SIZE = 256;
+
+    /**
+     * Compressible types (in addition to text/*, *+xml and *+json).
+     */
+    private static final Set<String> COMPRESSIBLE_TYPES = new HashSet<>(Arrays.asList("application/javascript",
+            "application/x-javascript", "application/json", "application/xml", "application/xhtml+xml",
+            "image/svg+xml", "image/x-icon", "application/vnd.ms-fontobject", "application/x-font-ttf", "font/opentype"));
 
     private final String name;
 
     private final HttpContext httpContext;
 
-    public WrappingResourceInServlet(String name, HttpContext httpContext) {
+    /**
+     * Bundle which has registered the resources.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Cache of the loaded resources.
+     */
+    private final ResourceCache resourceCache;
+
+    /**
+     * Cache of the large resources extracted on the disk.
+     */
+    private final ExtractedResourceCache extractedResourceCache;
+
+    /**
+     * Paths of the compressed variants that are not available.
+     */
+    private final Set<String> missingVariants;
+
+    /**
+     * Last modification date of the bundle when the missing variants have
+     * been looked up.
+     */
+    private volatile long variantsLastModified;
+
+    /**
+     * Caching policy given by the {@link CachePolicy#INIT_PARAMETER} init
+     * parameter, overriding the one of the manager (null if there is none).
+     */
+    private volatile CachePolicy cachePolicyOverride;
+
+    /**
+     * Alias of the resources, used to find their policy (may be null).
+     */
+    private final String alias;
+
+    /**
+     * Manager of the caching policies, asked at each request so that a new
+     * configuration applies to the registered resources (may be null).
+     */
+    private final CachePolicyManager cachePolicyManager;
+
+    /**
+     * Content hashes of the resources, used to serve the fingerprinted names (may be null).
+     */
+    private final ResourceFingerprints resourceFingerprints;
+
+    /**
+     * Streamer of the large resources (may be null).
+     */
+    private final ResourceStreamer resourceStreamer;
+
+    public WrappingResourceInServlet(String name, HttpContext httpContext, Bundle bundle, ResourceCache resourceCache, ExtractedResourceCache extractedResourceCache) {
+        this(name, httpContext, bundle, resourceCache, extractedResourceCache, null, null);
+    }
+
+    public WrappingResourceInServlet(String name, HttpContext httpContext, Bundle bundle, ResourceCache resourceCache, ExtractedResourceCache extractedResourceCache,
+            ResourceFingerprints resourceFingerprints, ResourceStreamer resourceStreamer) {
+        this(name, httpContext, bundle, resourceCache, extractedResourceCache, resourceFingerprints, resourceStreamer, null, null);
+    }
+
+    public WrappingResourceInServlet(String name, HttpContext httpContext, Bundle bundle, ResourceCache resourceCache, ExtractedResourceCache extractedResourceCache,
+            ResourceFingerprints resourceFingerprints, ResourceStreamer resourceStreamer, String alias, CachePolicyManager cachePolicyManager) {
         this.name = name;
         this.httpContext = httpContext;
+        this.bundle = bundle;
+        this.resourceCache = resourceCache;
+        this.extractedResourceCache = extractedResourceCache;
+        this.missingVariants = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        this.resourceFingerprints = resourceFingerprints;
+        this.resourceStreamer = resourceStreamer;
+        this.alias = alias;
+        this.cachePolicyManager = cachePolicyManager;
+    }
+
+    /**
+     * Reads the caching policy overriding the one of the manager from the
+     * {@link CachePolicy#INIT_PARAMETER} init parameter.
+     * @throws ServletException if the policy is invalid
+     */
+    @Override
+    public void init() throws ServletException {
+        String value = getInitParameter(CachePolicy.INIT_PARAMETER);
+        try {
+            cachePolicyOverride = value == null ? null : CachePolicy.parse(value);
+        } catch (IllegalArgumentException e) {
+            throw new ServletException(String.format("Invalid cache policy for the resources %s", name), e);
+        }
+    }
+
+    /**
+     * @return the caching policy of the resources: the one of the init
+     * parameter, else the one currently configured in the manager for the
+     * alias.
+     */
+    public CachePolicy getCachePolicy() {
+        CachePolicy policy = cachePolicyOverride;
+        if (policy != null) {
+            return policy;
+        }
+        if (cachePolicyManager != null) {
+            return cachePolicyManager.getPolicy(alias);
+        }
+        return CachePolicy.NONE;
     }
 
     /**
@@ -101,6 +286,31 @@ public class WrappingResourceInServlet extends HttpServlet {
      */
     @Override
     protected void doGet(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        serve(req, resp, false);
+    }
+
+    /**
+     * Answers a HEAD request with the headers that a GET request would send.
+     * Only the metadata of the resource is used: the content of a resource
+     * that is not yet cached is not read, unless it has to be gzipped to know
+     * the headers of its compressed variant.
+     * @param req the request
+     * @param resp the response
+     * @throws IOException if the metadata of the resource cannot be read
+     */
+    @Override
+    protected void doHead(final HttpServletRequest req, final HttpServletResponse resp) throws IOException {
+        serve(req, resp, true);
+    }
+
+    /**
+     * Finds the requested resource and sends it, or only its headers.
+     * @param req the request
+     * @param resp the response
+     * @param headersOnly true if the content is not sent
+     * @throws IOException if the resource cannot be sent
+     */
+    protected void serve(HttpServletRequest req, HttpServletResponse resp, boolean headersOnly) throws IOException {
         String requestedName = req.getPathInfo();
         if (requestedName == null) {
             requestedName = "";
@@ -109,43 +319,793 @@ public class WrappingResourceInServlet extends HttpServlet {
         }
 
         String resourcePath = this.name.concat("/").concat(requestedName);
+        CachePolicy policy = getCachePolicy();
 
-        URL url = this.httpContext.getResource(resourcePath);
-
-        if (url == null) {
+        BundleResource resource = headersOnly ? getResourceMetadata(resourcePath) : getResource(resourcePath);
+        if (resource == null && resourceFingerprints != null && resourceFingerprints.isEnabled()) {
+            // fingerprinted name of a resource: its content never changes
+            String logicalPath = resourceFingerprints.getLogicalPath(httpContext, resourcePath);
+            if (logicalPath != null) {
+                resourcePath = logicalPath;
+                resource = headersOnly ? getResourceMetadata(resourcePath) : getResource(resourcePath);
+                policy = CachePolicy.IMMUTABLE;
+            }
+        }
+        if (resource == null) {
             // Send error
             resp.sendError(HttpServletResponse.SC_NOT_FOUND);
             return;
         }
 
+        BundleResource selected = resource;
+        try {
+            selected = negotiateEncoding(req, resp, resourcePath, resource, headersOnly);
+            if (headersOnly) {
+                if (sendHeaders(req, resp, selected, policy)) {
+                    setContentLength(resp, selected.getContentLength());
+                }
+                return;
+            }
+            serveResource(req, resp, selected, policy);
+        } finally {
+            // connections opened but not read (not modified, unsatisfiable range, variant sent, ...)
+            if (selected != resource) {
+                release(resource);
+            }
+            // the streaming thread owns the resource sent asynchronously
+            if (!req.isAsyncStarted()) {
+                release(selected);
+            }
+        }
+    }
+
+    /**
+     * Releases the connection of the given resource if it has been opened
+     * from its URL and not read.
+     * @param resource the resource
+     */
+    protected static void release(BundleResource resource) {
+        if (resource instanceof URLResource) {
+            ((URLResource) resource).release();
+        }
+    }
+
+    /**
+     * Selects the compressed variant of the resource accepted by the client,
+     * if any. A precompressed sibling shipped in the bundle (.br or .gz) is
+     * preferred, otherwise compressible resources are gzipped once and kept in
+     * the resource cache. The headers of a HEAD request are the ones of a GET
+     * request, so a HEAD request may compress the resource too.
+     * @param req the request
+     * @param resp the response
+     * @param resourcePath the path of the resource
+     * @param resource the identity resource
+     * @param headersOnly true if the content is not sent
+     * @return the variant to send
+     * @throws IOException if a variant cannot be read
+     */
+    protected BundleResource negotiateEncoding(HttpServletRequest req, HttpServletResponse resp, String resourcePath, BundleResource resource,
+            boolean headersOnly) throws IOException {
+        if (resource.getContentLength() < 0) {
+            return resource;
+        }
+
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        // byte ranges are only served on the identity
+        boolean ranged = req.getHeader("Range") != null;
+
+        BundleResource selected = resource;
+        boolean vary = false;
+        for (int i = 0; i < CODINGS.length; i++) {
+            BundleResource variant = getVariant(resourcePath, resource, CODINGS[i], EXTENSIONS[i], headersOnly);
+            if (variant == null) {
+                continue;
+            }
+            vary = true;
+            if (selected == resource && !ranged && acceptsEncoding(acceptEncoding, CODINGS[i])) {
+                resp.setHeader("Content-Encoding", CODINGS[i]);
+                selected = variant;
+            } else {
+                release(variant);
+            }
+        }
+        if (vary) {
+            resp.addHeader("Vary", "Accept-Encoding");
+        }
+        return selected;
+    }
+
+    /**
+     * Gets the variant of a resource for the given content coding. If only the
+     * metadata is needed, the precompressed siblings are not read, but the
+     * resource is still gzipped as for a GET request since the length and the
+     * entity tag of the compressed content are only known once compressed.
+     * @param resourcePath the path of the resource
+     * @param resource the identity resource
+     * @param coding the content coding
+     * @param extension the extension of the precompressed siblings
+     * @param headersOnly true if only the metadata of the variant is needed
+     * @return the variant or null if there is no variant for this coding
+     * @throws IOException if the variant cannot be read
+     */
+    protected BundleResource getVariant(String resourcePath, BundleResource resource, String coding, String extension, boolean headersOnly) throws IOException {
+        // variants are cached with a key that cannot be requested
+        String variantKey = resourcePath + VARIANT_SEPARATOR + coding;
+        long lastModified = bundle.getLastModified();
+        if (lastModified != variantsLastModified) {
+            // bundle has been updated, its variants may have changed
+            missingVariants.clear();
+            variantsLastModified = lastModified;
+        }
+        if (missingVariants.contains(variantKey)) {
+            return null;
+        }
+
+        CachedResource cachedVariant = resourceCache.get(httpContext, variantKey);
+        if (cachedVariant != null) {
+            return cachedVariant;
+        }
+
+        String eTag = null;
+        if (resource.getETag() != null) {
+            eTag = resource.getETag().substring(0, resource.getETag().length() - 1).concat("-").concat(coding).concat("\"");
+        }
+
+        // precompressed sibling
+        URL url = this.httpContext.getResource(resourcePath.concat(extension));
+        if (url != null) {
+            URLConnection urlConnection = url.openConnection();
+            urlConnection.setUseCaches(false);
+            int contentLength = urlConnection.getContentLength();
+            if (!headersOnly && resourceCache.isCacheable(contentLength)) {
+                byte[] content;
+                try (InputStream inputStream = urlConnection.getInputStream()) {
+                    content = readContent(inputStream, contentLength);
+                }
+                cachedVariant = new CachedResource(content, resource.getContentType(), resource.getContentEncoding(), resource.getLastModified(), eTag, resource.getBundleId());
+                resourceCache.put(httpContext, variantKey, cachedVariant);
+                return cachedVariant;
+            }
+            if (contentLength >= 0) {
+                return new URLResource(urlConnection, resource.getContentType(), resource.getLastModified(), eTag, resource.getBundleId());
+            }
+            try {
+                urlConnection.getInputStream().close();
+            } catch (IOException e) {
+                // nothing to release
+            }
+        }
+
+        // compress once the small compressible resources
+        if (GZIP.equals(coding) && isCompressible(resource)) {
+            BundleResource identity = resource;
+            if (headersOnly && !(identity instanceof CachedResource) && resourceCache.isCacheable(identity.getContentLength())) {
+                // only the metadata is known: load the content in the cache as a GET request would do
+                identity = getResource(resourcePath);
+            }
+            if (identity instanceof CachedResource) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream((int) identity.getContentLength() / 2);
+                try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed)) {
+                    gzipOutputStream.write(((CachedResource) identity).getContent());
+                }
+                if (compressed.size() < identity.getContentLength()) {
+                    cachedVariant = new CachedResource(compressed.toByteArray(), identity.getContentType(), identity.getContentEncoding(),
+                            identity.getLastModified(), eTag, identity.getBundleId());
+                    if (resourceCache.put(httpContext, variantKey, cachedVariant)) {
+                        return cachedVariant;
+                    }
+                }
+            }
+        }
+
+        missingVariants.add(variantKey);
+        return null;
+    }
+
+    /**
+     * Checks if the resource is worth compressing.
+     * @param resource the resource
+     * @return true if the type of the resource is compressible
+     */
+    protected static boolean isCompressible(BundleResource resource) {
+        String contentType = resource.getContentType();
+        if (contentType == null || resource.getContentLength() < MIN_COMPRESSION_SIZE) {
+            return false;
+        }
+        int parameters = contentType.indexOf(';');
+        if (parameters >= 0) {
+            contentType = contentType.substring(0, parameters);
+        }
+        contentType = contentType.trim().toLowerCase(Locale.ENGLISH);
+        return contentType.startsWith("text/") || contentType.endsWith("+xml") || contentType.endsWith("+json")
+                || COMPRESSIBLE_TYPES.contains(contentType);
+    }
+
+    /**
+     * Checks if the given coding is acceptable for the client.
+     * @param acceptEncoding the Accept-Encoding header
+     * @param coding the content coding
+     * @return true if the coding is listed with a non zero quality
+     */
+    protected static boolean acceptsEncoding(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean accepted = false;
+        for (String value : acceptEncoding.split(",")) {
+            String[] parameters = value.split(";");
+            String name = parameters[0].trim();
+            boolean matching = name.equalsIgnoreCase(coding) || (GZIP.equals(coding) && "x-gzip".equalsIgnoreCase(name));
+            if (!matching && !"*".equals(name)) {
+                continue;
+            }
+            boolean zeroQuality = false;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        zeroQuality = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (NumberFormatException e) {
+                        zeroQuality = true;
+                    }
+                }
+            }
+            if (matching) {
+                // an explicit value takes precedence over *
+                return !zeroQuality;
+            }
+            accepted = !zeroQuality;
+        }
+        return accepted;
+    }
+
+    /**
+     * Gets the resource for the given path, from the cache or from the http context.
+     * @param resourcePath the path of the resource
+     * @return the resource or null if there is no resource at this path
+     * @throws IOException if the resource cannot be read
+     */
+    protected BundleResource getResource(final String resourcePath) throws IOException {
+        BundleResource resource = getLoadedResource(resourcePath);
+        if (resource != null) {
+            return resource;
+        }
+
+        // only one request loads a cold resource, the concurrent requests share its result
+        return LOADS.load(new ResourceKey(httpContext, resourcePath), new Callable<BundleResource>() {
+            @Override
+            public BundleResource call() throws IOException {
+                // may have been loaded just before this load started
+                BundleResource resource = getLoadedResource(resourcePath);
+                if (resource != null) {
+                    return resource;
+                }
+                return loadResource(resourcePath);
+            }
+        });
+    }
+
+    /**
+     * Gets the resource for the given path if it has already been loaded.
+     * @param resourcePath the path of the resource
+     * @return the cached or extracted resource, or null if it is not loaded
+     */
+    protected BundleResource getLoadedResource(String resourcePath) {
+        // Resource already loaded ?
+        CachedResource cachedResource = resourceCache.get(httpContext, resourcePath);
+        if (cachedResource != null) {
+            return cachedResource;
+        }
+
+        // Resource already extracted ?
+        return extractedResourceCache.get(httpContext, resourcePath);
+    }
+
+    /**
+     * Loads the resource for the given path from the http context.
+     * @param resourcePath the path of the resource
+     * @return the resource or null if there is no resource at this path
+     * @throws IOException if the resource cannot be read
+     */
+    protected BundleResource loadResource(String resourcePath) throws IOException {
+        URLResource urlResource = openResource(resourcePath);
+        if (urlResource == null) {
+            return null;
+        }
+
+        // Small resources are kept in the cache
+        long contentlength = urlResource.getContentLength();
+        if (resourceCache.isCacheable(contentlength)) {
+            byte[] content;
+            try (InputStream inputStream = urlResource.openStream()) {
+                content = readContent(inputStream, (int) contentlength);
+            }
+            CachedResource cachedResource = new CachedResource(content, urlResource.getContentType(), urlResource.getContentEncoding(),
+                    urlResource.getLastModified(), urlResource.getETag(), urlResource.getBundleId());
+            resourceCache.put(httpContext, resourcePath, cachedResource);
+            return cachedResource;
+        }
+
+        // Large resources are extracted on the disk
+        if (extractedResourceCache.isExtractable(contentlength)) {
+            return extractedResourceCache.extract(httpContext, resourcePath, urlResource);
+        }
+        return urlResource;
+    }
+
+    /**
+     * Gets the metadata of the resource for the given path, without reading
+     * its content if it is not yet loaded.
+     * @param resourcePath the path of the resource
+     * @return the resource or null if there is no resource at this path
+     * @throws IOException if the metadata of the resource cannot be read
+     */
+    protected BundleResource getResourceMetadata(String resourcePath) throws IOException {
+        BundleResource resource = getLoadedResource(resourcePath);
+        if (resource != null) {
+            return resource;
+        }
+        return openResource(resourcePath);
+    }
+
+    /**
+     * Opens a connection on the resource for the given path to read its
+     * metadata. Its content is only read when the resource is opened.
+     * @param resourcePath the path of the resource
+     * @return the resource or null if there is no resource at this path
+     * @throws IOException if the connection cannot be opened
+     */
+    protected URLResource openResource(String resourcePath) throws IOException {
+        URL url = this.httpContext.getResource(resourcePath);
+        if (url == null) {
+            return null;
+        }
+
         // open the connection
         URLConnection urlConnection = url.openConnection();
         urlConnection.setDefaultUseCaches(false);
+        String contentType = getContentType(resourcePath);
 
-        // Encoding
-        String contentEncoding = urlConnection.getContentEncoding();
-        resp.setCharacterEncoding(contentEncoding);
+        // Validators
+        int contentlength = urlConnection.getContentLength();
+        long lastModified = bundle.getLastModified();
+        String eTag = null;
+        if (contentlength >= 0) {
+            eTag = buildETag(contentlength, lastModified);
+        }
+        return new URLResource(urlConnection, contentType, lastModified, eTag, bundle.getBundleId());
+    }
 
-        // Content type
-        String contentType = urlConnection.getContentType();
-        resp.setContentType(contentType);
+    /**
+     * Gets the content type of a resource from its name: the HttpContext can
+     * define it, else the mime mappings of the servlet context are used. The
+     * content of the resource is never sniffed.
+     * @param resourcePath the path of the resource
+     * @return the content type or null if it is unknown
+     */
+    protected String getContentType(String resourcePath) {
+        String contentType = httpContext.getMimeType(resourcePath);
+        ServletConfig servletConfig = getServletConfig();
+        if (contentType == null && servletConfig != null && servletConfig.getServletContext() != null) {
+            contentType = servletConfig.getServletContext().getMimeType(resourcePath);
+        }
+        return contentType;
+    }
 
-        // COntent length
-        int contentlength = urlConnection.getContentLength();
-        resp.setContentLength(contentlength);
+    /**
+     * Sends the given resource with the caching policy of the resources.
+     * @param req the request
+     * @param resp the response
+     * @param resource the resource to send
+     * @throws IOException if the resource cannot be sent
+     */
+    protected void serveResource(HttpServletRequest req, HttpServletResponse resp, BundleResource resource) throws IOException {
+        serveResource(req, resp, resource, getCachePolicy());
+    }
 
-        // deliver resource content if there is content
-        if (contentlength >= 0) {
-            try (InputStream inputStream = urlConnection.getInputStream();
-                    OutputStream outputStream = resp.getOutputStream()) {
-                byte buffer[] = new byte[BUFFER];
-                int read;
-                while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
-                    outputStream.write(buffer, 0, read);
-                    outputStream.flush();
+    /**
+     * Sends the given resource, or the requested ranges of the resource.
+     * @param req the request
+     * @param resp the response
+     * @param resource the resource to send
+     * @param policy the caching policy of the resource
+     * @throws IOException if the resource cannot be sent
+     */
+    protected void serveResource(HttpServletRequest req, HttpServletResponse resp, BundleResource resource, CachePolicy policy) throws IOException {
+        if (!sendHeaders(req, resp, resource, policy)) {
+            return;
+        }
+
+        long contentLength = resource.getContentLength();
+
+        List<ByteRange> ranges = getRanges(req, resource);
+        if (ranges == null) {
+            if (isStreamedAsync(req, resource, contentLength)) {
+                setContentLength(resp, contentLength);
+                streamAsync(req, resource, new ByteRange(0, contentLength - 1));
+                return;
+            }
+            if (resource instanceof ExtractedResource) {
+                sendFile(req, resp, (ExtractedResource) resource, 0, contentLength);
+                return;
+            }
+            setContentLength(resp, contentLength);
+            try (OutputStream outputStream = resp.getOutputStream()) {
+                copyRange(resource, new ByteRange(0, contentLength - 1), outputStream);
+            }
+            return;
+        }
+
+        if (ranges.isEmpty()) {
+            resp.setHeader("Content-Range", "bytes */" + contentLength);
+            resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        }
+
+        resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            resp.setHeader("Content-Range", range.toContentRange(contentLength));
+            if (isStreamedAsync(req, resource, range.getLength())) {
+                setContentLength(resp, range.getLength());
+                streamAsync(req, resource, range);
+                return;
+            }
+            if (resource instanceof ExtractedResource) {
+                sendFile(req, resp, (ExtractedResource) resource, range.getStart(), range.getLength());
+                return;
+            }
+            setContentLength(resp, range.getLength());
+            try (OutputStream outputStream = resp.getOutputStream()) {
+                copyRange(resource, range, outputStream);
+            }
+            return;
+        }
+
+        // multiple ranges
+        resp.setContentType("multipart/byteranges; boundary=" + MIME_BOUNDARY);
+        try (ServletOutputStream outputStream = resp.getOutputStream()) {
+            for (ByteRange range : ranges) {
+                outputStream.println();
+                outputStream.println("--" + MIME_BOUNDARY);
+                if (resource.getContentType() != null) {
+                    outputStream.println("Content-Type: " + resource.getContentType());
+                }
+                outputStream.println("Content-Range: " + range.toContentRange(contentLength));
+                outputStream.println();
+                copyRange(resource, range, outputStream);
+            }
+            outputStream.println();
+            outputStream.print("--" + MIME_BOUNDARY + "--");
+        }
+    }
+
+    /**
+     * Sends a part of an extracted resource with the sendfile support of the
+     * connector or by transferring the file to the response.
+     * @param req the request
+     * @param resp the response
+     * @param resource the extracted resource
+     * @param start the first byte to send
+     * @param length the number of bytes to send
+     * @throws IOException if the file cannot be sent
+     */
+    protected void sendFile(HttpServletRequest req, HttpServletResponse resp, ExtractedResource resource, long start, long length) throws IOException {
+        setContentLength(resp, length);
+
+        // Let the connector send the file
+        if (Boolean.TRUE.equals(req.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            req.setAttribute(Globals.SENDFILE_FILENAME_ATTR, resource.getFile().getAbsolutePath());
+            req.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(start));
+            req.setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(start + length));
+            return;
+        }
+
+        try (FileChannel fileChannel = FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ);
+                OutputStream outputStream = resp.getOutputStream()) {
+            WritableByteChannel channel = Channels.newChannel(outputStream);
+            long position = start;
+            long remaining = length;
+            while (remaining > 0) {
+                long written = fileChannel.transferTo(position, remaining, channel);
+                if (written <= 0) {
+                    throw new EOFException(String.format("Unable to send the file %s", resource.getFile()));
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+    }
+
+    /**
+     * Gets the ranges requested by the client.
+     * @param req the request
+     * @param resource the requested resource
+     * @return null if the whole content has to be sent, an empty list if the
+     * ranges cannot be satisfied or the list of ranges to send
+     */
+    protected List<ByteRange> getRanges(HttpServletRequest req, BundleResource resource) {
+        String range = req.getHeader("Range");
+        if (range == null || !"GET".equals(req.getMethod())) {
+            return null;
+        }
+
+        // The ranges are only valid if the resource is still the same
+        String ifRange = req.getHeader("If-Range");
+        if (ifRange != null) {
+            ifRange = ifRange.trim();
+            if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+                // strong comparison (RFC 7233 3.2): weak tags do not guarantee identical bytes
+                String eTag = resource.getETag();
+                if (ifRange.startsWith("W/") || eTag == null || eTag.startsWith("W/") || !ifRange.equals(eTag)) {
+                    return null;
+                }
+            } else {
+                long date;
+                try {
+                    date = req.getDateHeader("If-Range");
+                } catch (IllegalArgumentException e) {
+                    return null;
+                }
+                if (date == -1 || resource.getLastModified() / 1000 > date / 1000) {
+                    return null;
                 }
             }
         }
+
+        return ByteRange.parse(range, resource.getContentLength());
+    }
+
+    /**
+     * Sets the headers describing the given resource (except its length).
+     * @param req the request
+     * @param resp the response
+     * @param resource the resource to send
+     * @param policy the caching policy of the resource
+     * @return true if there is a content to send, false if the client already
+     * has the resource or if the resource has no content
+     * @throws IOException if the response cannot be sent
+     */
+    protected boolean sendHeaders(HttpServletRequest req, HttpServletResponse resp, BundleResource resource, CachePolicy policy) throws IOException {
+        // also sent with the 304 responses
+        policy.apply(resp);
+
+        if (checkIfNotModified(req, resp, resource.getETag(), resource.getLastModified())) {
+            return false;
+        }
+
+        resp.setCharacterEncoding(resource.getContentEncoding());
+        resp.setContentType(resource.getContentType());
+
+        // nothing to deliver if there is no content
+        if (resource.getContentLength() < 0) {
+            resp.setContentLength((int) resource.getContentLength());
+            return false;
+        }
+        resp.setHeader("Accept-Ranges", "bytes");
+        return true;
+    }
+
+    /**
+     * Checks if the resource needs to be copied outside of the container thread.
+     * Resources in memory and resources sent with sendfile are always sent directly.
+     * @param req the request
+     * @param resource the resource to send
+     * @param length the number of bytes to send
+     * @return true if the resource is large enough and the request can be made asynchronous
+     */
+    protected boolean isStreamedAsync(HttpServletRequest req, BundleResource resource, long length) {
+        if (resourceStreamer == null || resource instanceof CachedResource || !req.isAsyncSupported()) {
+            return false;
+        }
+        if (resource instanceof ExtractedResource && Boolean.TRUE.equals(req.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR))) {
+            return false;
+        }
+        return resourceStreamer.isStreamed(length);
+    }
+
+    /**
+     * Copies the given range of the resource on a streaming thread. The
+     * request is put in asynchronous mode so that the container thread is
+     * released at once.
+     * @param req the request
+     * @param resource the resource to send
+     * @param range the range of the resource to send
+     * @throws IOException if the resource cannot be sent
+     */
+    protected void streamAsync(HttpServletRequest req, final BundleResource resource, final ByteRange range) throws IOException {
+        final AsyncContext asyncContext = req.startAsync();
+        // large resources sent to slow clients may take a long time
+        asyncContext.setTimeout(0);
+        Runnable copy = new Runnable() {
+            @Override
+            public void run() {
+                try (OutputStream outputStream = asyncContext.getResponse().getOutputStream()) {
+                    copyRange(resource, range, outputStream);
+                } catch (IOException e) {
+                    // client has closed the connection
+                } finally {
+                    release(resource);
+                    asyncContext.complete();
+                }
+            }
+        };
+        try {
+            resourceStreamer.execute(copy);
+        } catch (RejectedExecutionException e) {
+            // streamer is stopping, copy on the container thread
+            copy.run();
+        }
+    }
+
+    /**
+     * Sets the content length, even if it doesn't fit in an int.
+     * @param resp the response
+     * @param contentLength the length of the content
+     */
+    protected static void setContentLength(HttpServletResponse resp, long contentLength) {
+        if (contentLength <= Integer.MAX_VALUE) {
+            resp.setContentLength((int) contentLength);
+        } else {
+            resp.setHeader("Content-Length", String.valueOf(contentLength));
+        }
+    }
+
+    /**
+     * Copy the given range of the resource to the output stream.
+     * @param resource the resource to read
+     * @param range the range to copy
+     * @param outputStream the stream to write
+     * @throws IOException if the range cannot be copied
+     */
+    protected static void copyRange(BundleResource resource, ByteRange range, OutputStream outputStream) throws IOException {
+        if (resource instanceof CachedResource) {
+            outputStream.write(((CachedResource) resource).getContent(), (int) range.getStart(), (int) range.getLength());
+            return;
+        }
+        try (InputStream inputStream = resource.openStream()) {
+            long toSkip = range.getStart();
+            while (toSkip > 0) {
+                long skipped = inputStream.skip(toSkip);
+                if (skipped <= 0) {
+                    throw new EOFException("Unable to skip to the start of the range");
+                }
+                toSkip -= skipped;
+            }
+            copy(inputStream, outputStream, range.getLength());
+        }
+    }
+
+    /**
+     * Copy at most the given number of bytes from the input stream to the output stream.
+     * @param inputStream the stream to read
+     * @param outputStream the stream to write
+     * @param length the number of bytes to copy
+     * @throws IOException if the content cannot be copied
+     */
+    protected static void copy(InputStream inputStream, OutputStream outputStream, long length) throws IOException {
+        // the buffer is sized from the length and data is only flushed at the end
+        byte buffer[] = BUFFER_POOL.acquire(length);
+        try {
+            long remaining = length;
+            int read;
+            while (remaining > 0 && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                outputStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            BUFFER_POOL.release(buffer);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * Builds a weak entity tag from the length and the last modification date of a resource.
+     * @param contentLength the length of the resource
+     * @param lastModified the last modification date of the resource
+     * @return the entity tag
+     */
+    protected static String buildETag(long contentLength, long lastModified) {
+        return "W/\"" + contentLength + "-" + lastModified + "\"";
+    }
+
+    /**
+     * Sends the validators of the resource and checks the conditional headers
+     * of the request. If the client copy is still valid, a 304 status is sent
+     * without any body.
+     * @param req the request
+     * @param resp the response
+     * @param eTag the entity tag of the resource (may be null)
+     * @param lastModified the last modification date of the resource
+     * @return true if the not modified status has been sent
+     */
+    protected boolean checkIfNotModified(HttpServletRequest req, HttpServletResponse resp, String eTag, long lastModified) {
+        if (eTag != null) {
+            resp.setHeader("ETag", eTag);
+        }
+        if (lastModified > 0) {
+            resp.setDateHeader("Last-Modified", lastModified);
+        }
+
+        boolean notModified = false;
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            notModified = eTag != null && matchETag(ifNoneMatch, eTag);
+        } else if (lastModified > 0) {
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = req.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1;
+            }
+            // HTTP dates are only precise to the second
+            notModified = ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+        }
+
+        if (notModified) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        }
+        return notModified;
+    }
+
+    /**
+     * Weak comparison of the given entity tag with a list of entity tags.
+     * @param eTags the list of entity tags of an If-None-Match header
+     * @param eTag the entity tag of the resource
+     * @return true if one of the entity tags is matching
+     */
+    protected static boolean matchETag(String eTags, String eTag) {
+        String opaqueTag = opaqueTag(eTag);
+        for (String value : eTags.split(",")) {
+            value = value.trim();
+            if ("*".equals(value) || opaqueTag.equals(opaqueTag(value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param eTag an entity tag
+     * @return the entity tag without its weak indicator
+     */
+    private static String opaqueTag(String eTag) {
+        if (eTag.startsWith("W/")) {
+            return eTag.substring(2);
+        }
+        return eTag;
+    }
+
+    /**
+     * Reads the content of a resource with the given expected length.
+     * @param inputStream the stream of the resource
+     * @param contentLength the expected length
+     * @return the bytes of the resource
+     * @throws IOException if the resource cannot be read
+     */
+    protected static byte[] readContent(InputStream inputStream, int contentLength) throws IOException {
+        byte[] content = new byte[contentLength];
+        int offset = 0;
+        int read;
+        while (offset < contentLength && (read = inputStream.read(content, offset, contentLength - offset)) != -1) {
+            offset += read;
+        }
+        if (offset < contentLength) {
+            return Arrays.copyOf(content, offset);
+        }
+        return content;
+    }
+
+    /**
+     * Drop the cached resources when the servlet is unregistered.
+     */
+    @Override
+    public void destroy() {
+        resourceCache.invalidate(httpContext);
+        extractedResourceCache.invalidate(httpContext);
+        missingVariants.clear();
+        super.destroy();
     }
 
     /**
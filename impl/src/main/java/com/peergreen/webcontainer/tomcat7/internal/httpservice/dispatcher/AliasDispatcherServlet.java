@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import java.io.IOException;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet of the shared HttpService context. It resolves the alias of each
+ * request with an {@link AliasTree}, checks the security through the
+ * HttpContext of the registration and calls the registered servlet.
+ * @author Florent Benoit
+ */
+public class AliasDispatcherServlet extends HttpServlet {
+
+    /**
+     * Serial version UID.
+     */
+    private static final long serialVersionUID = 5218345472716367393L;
+
+    /**
+     * Registered aliases.
+     */
+    private final AliasTree<AliasRegistration> aliases;
+
+    public AliasDispatcherServlet() {
+        this.aliases = new AliasTree<>();
+    }
+
+    /**
+     * Adds the given registration.
+     * @param registration the registration
+     * @return false if the alias is already used
+     */
+    public boolean add(AliasRegistration registration) {
+        return aliases.add(registration.getAlias(), registration);
+    }
+
+    /**
+     * Removes the registration of the given alias.
+     * @param alias the alias
+     * @return the removed registration or null
+     */
+    public AliasRegistration remove(String alias) {
+        return aliases.remove(alias);
+    }
+
+    /**
+     * @param alias the alias
+     * @return the registration of exactly the given alias or null
+     */
+    public AliasRegistration get(String alias) {
+        return aliases.get(alias);
+    }
+
+    /**
+     * @return the number of registered aliases.
+     */
+    public int size() {
+        return aliases.size();
+    }
+
+    /**
+     * Dispatch the request to the servlet matching the longest alias.
+     */
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        String path = request.getPathInfo();
+        if (path == null) {
+            path = "/";
+        }
+
+        AliasRegistration registration = aliases.lookup(path);
+        if (registration == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // Servlet may be initialized lazily and is not destroyed while in use
+        registration.enter();
+        try {
+            // Check the security
+            if (!registration.getHttpContext().handleSecurity(request, response)) {
+                return;
+            }
+
+            String pathInfo = null;
+            String servletPath = registration.getServletPath();
+            if (path.length() > servletPath.length()) {
+                pathInfo = path.substring(servletPath.length());
+            }
+
+            registration.getServlet().service(new AliasRequestWrapper(request, servletPath, pathInfo, registration.getServletContext(),
+                    registration.isAsyncSupported()), response);
+        } finally {
+            registration.exit();
+        }
+    }
+
+}
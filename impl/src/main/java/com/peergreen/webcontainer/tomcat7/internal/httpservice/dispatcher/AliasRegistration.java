@@ -0,0 +1,245 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.UnavailableException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+/**
+ * Servlet registered on an alias of the shared HttpService context.
+ * @author Florent Benoit
+ */
+public class AliasRegistration {
+
+    /**
+     * Alias of the registration.
+     */
+    private final String alias;
+
+    /**
+     * Registered servlet.
+     */
+    private final Servlet servlet;
+
+    /**
+     * HttpContext of the registration.
+     */
+    private final HttpContext httpContext;
+
+    /**
+     * Bundle that has registered the servlet.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Servlet context given to the servlet.
+     */
+    private final ServletContext servletContext;
+
+    /**
+     * Servlet config given to the init method of the servlet.
+     */
+    private ServletConfig servletConfig;
+
+    /**
+     * Servlet supports asynchronous processing ?
+     */
+    private boolean asyncSupported = false;
+
+    /**
+     * Servlet has been initialized ?
+     */
+    private volatile boolean initialized = false;
+
+    /**
+     * Servlet has been destroyed ?
+     */
+    private volatile boolean destroyed = false;
+
+    /**
+     * Number of requests being serviced by the servlet.
+     */
+    private final AtomicInteger activeRequests = new AtomicInteger();
+
+    public AliasRegistration(String alias, Servlet servlet, HttpContext httpContext, Bundle bundle, ServletContext servletContext) {
+        this.alias = alias;
+        this.servlet = servlet;
+        this.httpContext = httpContext;
+        this.bundle = bundle;
+        this.servletContext = servletContext;
+    }
+
+    /**
+     * Sets the config used to initialize the servlet.
+     * @param servletConfig the servlet config
+     */
+    public void setServletConfig(ServletConfig servletConfig) {
+        this.servletConfig = servletConfig;
+    }
+
+    /**
+     * Sets if the servlet supports asynchronous processing.
+     * @param asyncSupported true if asynchronous processing is supported
+     */
+    public void setAsyncSupported(boolean asyncSupported) {
+        this.asyncSupported = asyncSupported;
+    }
+
+    /**
+     * @return true if the servlet supports asynchronous processing.
+     */
+    public boolean isAsyncSupported() {
+        return asyncSupported;
+    }
+
+    /**
+     * @return true if the servlet has been initialized.
+     */
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Initialize the servlet if it is not yet done.
+     * @throws ServletException if the servlet cannot be initialized
+     * @throws UnavailableException if the registration has been destroyed
+     */
+    public synchronized void init() throws ServletException {
+        if (destroyed) {
+            throw new UnavailableException(String.format("The servlet of the alias %s has been unregistered", alias));
+        }
+        if (!initialized) {
+            servlet.init(servletConfig);
+            initialized = true;
+        }
+    }
+
+    /**
+     * Marks the start of a request serviced by the servlet, initializing it if
+     * needed. Each call needs to be followed by a call to {@link #exit()}.
+     * @throws ServletException if the servlet cannot be initialized
+     * @throws UnavailableException if the registration has been destroyed
+     */
+    public void enter() throws ServletException {
+        activeRequests.incrementAndGet();
+        boolean done = false;
+        try {
+            if (destroyed) {
+                throw new UnavailableException(String.format("The servlet of the alias %s has been unregistered", alias));
+            }
+            if (!initialized) {
+                init();
+            }
+            done = true;
+        } finally {
+            if (!done) {
+                exit();
+            }
+        }
+    }
+
+    /**
+     * Marks the end of a request serviced by the servlet. The last request
+     * destroys the servlet if the registration has been destroyed meanwhile.
+     */
+    public void exit() {
+        if (activeRequests.decrementAndGet() == 0 && destroyed) {
+            destroyServlet();
+        }
+    }
+
+    /**
+     * @return the number of requests being serviced by the servlet.
+     */
+    public int getActiveRequests() {
+        return activeRequests.get();
+    }
+
+    /**
+     * Destroy the registration. It will no longer be initialized and its
+     * servlet is destroyed once the requests being serviced are completed.
+     */
+    public void destroy() {
+        destroyed = true;
+        if (activeRequests.get() == 0) {
+            destroyServlet();
+        }
+    }
+
+    /**
+     * Destroy the servlet if it has been initialized.
+     */
+    private synchronized void destroyServlet() {
+        if (initialized) {
+            initialized = false;
+            servlet.destroy();
+        }
+    }
+
+    /**
+     * @return the alias of the registration.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the servlet path seen by the servlet ("" for the root alias).
+     */
+    public String getServletPath() {
+        if ("/".equals(alias)) {
+            return "";
+        }
+        return alias;
+    }
+
+    /**
+     * @return the registered servlet.
+     */
+    public Servlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * @return the HttpContext of the registration.
+     */
+    public HttpContext getHttpContext() {
+        return httpContext;
+    }
+
+    /**
+     * @return the bundle that has registered the servlet.
+     */
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * @return the servlet context given to the servlet.
+     */
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+}
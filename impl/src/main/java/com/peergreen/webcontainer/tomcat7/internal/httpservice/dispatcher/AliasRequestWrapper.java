@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * Request given to a servlet of the shared HttpService context: the servlet
+ * path is the alias of the servlet and the path info is the remaining part of
+ * the path. Asynchronous processing is only available if the servlet supports
+ * it.
+ * @author Florent Benoit
+ */
+public class AliasRequestWrapper extends HttpServletRequestWrapper {
+
+    /**
+     * Servlet path.
+     */
+    private final String servletPath;
+
+    /**
+     * Path info.
+     */
+    private final String pathInfo;
+
+    /**
+     * Servlet context of the registration.
+     */
+    private final ServletContext servletContext;
+
+    /**
+     * Servlet of the registration supports asynchronous processing ?
+     */
+    private final boolean asyncSupported;
+
+    public AliasRequestWrapper(HttpServletRequest request, String servletPath, String pathInfo, ServletContext servletContext,
+            boolean asyncSupported) {
+        super(request);
+        this.servletPath = servletPath;
+        this.pathInfo = pathInfo;
+        this.servletContext = servletContext;
+        this.asyncSupported = asyncSupported;
+    }
+
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return pathInfo;
+    }
+
+    @Override
+    public String getPathTranslated() {
+        return null;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public boolean isAsyncSupported() {
+        return asyncSupported && super.isAsyncSupported();
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        checkAsyncSupported();
+        return super.startAsync();
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        checkAsyncSupported();
+        return super.startAsync(servletRequest, servletResponse);
+    }
+
+    /**
+     * Checks that the servlet of the registration supports asynchronous processing.
+     * @throws IllegalStateException if it is not supported
+     */
+    private void checkAsyncSupported() {
+        if (!asyncSupported) {
+            throw new IllegalStateException(String.format("The servlet of the alias %s does not support asynchronous processing", servletPath));
+        }
+    }
+
+}
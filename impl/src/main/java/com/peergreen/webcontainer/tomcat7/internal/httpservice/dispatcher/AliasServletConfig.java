@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+
+/**
+ * Servlet config of a servlet registered on the shared HttpService context.
+ * @author Florent Benoit
+ */
+public class AliasServletConfig implements ServletConfig {
+
+    /**
+     * Name of the servlet.
+     */
+    private final String servletName;
+
+    /**
+     * Servlet context given to the servlet.
+     */
+    private final ServletContext servletContext;
+
+    /**
+     * Init parameters.
+     */
+    private final Map<String, String> initParameters;
+
+    public AliasServletConfig(String servletName, ServletContext servletContext, Dictionary<String, String> initparams) {
+        this.servletName = servletName;
+        this.servletContext = servletContext;
+        this.initParameters = new HashMap<>();
+        if (initparams != null) {
+            Enumeration<String> keys = initparams.keys();
+            while (keys.hasMoreElements()) {
+                String key = keys.nextElement();
+                initParameters.put(key, initparams.get(key));
+            }
+        }
+    }
+
+    @Override
+    public String getServletName() {
+        return servletName;
+    }
+
+    @Override
+    public ServletContext getServletContext() {
+        return servletContext;
+    }
+
+    @Override
+    public String getInitParameter(String name) {
+        return initParameters.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getInitParameterNames() {
+        return Collections.enumeration(initParameters.keySet());
+    }
+
+}
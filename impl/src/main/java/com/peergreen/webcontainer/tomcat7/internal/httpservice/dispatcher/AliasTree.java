@@ -0,0 +1,215 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Radix tree of the HttpService aliases, split on the '/' separators. A
+ * request path is resolved to the longest registered alias which is a
+ * prefix of this path on a segment boundary, as required by the HttpService
+ * specification (/a matches /a and /a/b but not /ab). Lookups are lock-free
+ * and only cost one map access per segment of the path.
+ * @param <T> the type of the values registered for the aliases
+ * @author Florent Benoit
+ */
+public class AliasTree<T> {
+
+    /**
+     * Root node, holding the value of the "/" alias.
+     */
+    private final Node<T> root = new Node<>();
+
+    /**
+     * Number of registered aliases.
+     */
+    private volatile int size;
+
+    /**
+     * Adds a value for the given alias.
+     * @param alias the alias (/ or /a/b)
+     * @param value the value to register
+     * @return false if the alias is already registered
+     */
+    public synchronized boolean add(String alias, T value) {
+        Node<T> node = root;
+        for (String segment : segments(alias)) {
+            Node<T> child = node.getChild(segment);
+            if (child == null) {
+                child = new Node<>();
+                node.putChild(segment, child);
+            }
+            node = child;
+        }
+        if (node.value != null) {
+            return false;
+        }
+        node.value = value;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes the value of the given alias.
+     * @param alias the alias
+     * @return the removed value or null if the alias was not registered
+     */
+    public synchronized T remove(String alias) {
+        List<String> segments = segments(alias);
+        List<Node<T>> nodes = new ArrayList<>(segments.size() + 1);
+        Node<T> node = root;
+        nodes.add(node);
+        for (String segment : segments) {
+            node = node.getChild(segment);
+            if (node == null) {
+                return null;
+            }
+            nodes.add(node);
+        }
+        T value = node.value;
+        if (value == null) {
+            return null;
+        }
+        node.value = null;
+        size--;
+
+        // prune the nodes that are no longer used
+        for (int i = segments.size(); i > 0; i--) {
+            Node<T> current = nodes.get(i);
+            if (current.value != null || current.hasChildren()) {
+                break;
+            }
+            nodes.get(i - 1).removeChild(segments.get(i - 1));
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value registered for exactly the given alias.
+     * @param alias the alias
+     * @return the value or null
+     */
+    public T get(String alias) {
+        Node<T> node = root;
+        for (String segment : segments(alias)) {
+            node = node.getChild(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Finds the value of the longest alias matching the given request path.
+     * @param path the path of the request (starting with a /)
+     * @return the value or null if no alias is matching
+     */
+    public T lookup(String path) {
+        Node<T> node = root;
+        T found = node.value;
+        int start = 1;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                node = node.getChild(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.value != null) {
+                    found = node.value;
+                }
+            }
+            start = end + 1;
+        }
+        return found;
+    }
+
+    /**
+     * @return the number of registered aliases.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Split the given alias in segments.
+     * @param alias the alias
+     * @return the non empty segments
+     */
+    private static List<String> segments(String alias) {
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+        int length = alias.length();
+        while (start < length) {
+            int end = alias.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                segments.add(alias.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    /**
+     * Node of the tree. Children are only allocated for the inner nodes.
+     * @param <T> the type of the values
+     */
+    private static final class Node<T> {
+
+        private volatile ConcurrentMap<String, Node<T>> children;
+
+        private volatile T value;
+
+        private Node<T> getChild(String segment) {
+            ConcurrentMap<String, Node<T>> map = children;
+            if (map == null) {
+                return null;
+            }
+            return map.get(segment);
+        }
+
+        private void putChild(String segment, Node<T> child) {
+            if (children == null) {
+                children = new ConcurrentHashMap<>(4);
+            }
+            children.put(segment, child);
+        }
+
+        private void removeChild(String segment) {
+            if (children != null) {
+                children.remove(segment);
+                if (children.isEmpty()) {
+                    children = null;
+                }
+            }
+        }
+
+        private boolean hasChildren() {
+            return children != null && !children.isEmpty();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of byte buffers used to copy the resources. Buffers are grouped by
+ * size classes so that small resources don't hold large buffers and large
+ * resources are copied with few writes.
+ * @author Florent Benoit
+ */
+public class BufferPool {
+
+    /**
+     * Size of the smallest buffers.
+     */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+
+    /**
+     * Size of the largest buffers.
+     */
+    public static final int MAX_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Pooled buffers for each size class (4k, 8k, 16k, 32k, 64k).
+     */
+    private final Queue<byte[]>[] buffers;
+
+    /**
+     * Number of pooled buffers for each size class.
+     */
+    private final AtomicInteger[] counts;
+
+    /**
+     * Maximum number of pooled buffers for each size class.
+     */
+    private final int maxBuffers;
+
+    /**
+     * Build a pool keeping at most the given number of buffers per size class.
+     * @param maxBuffers the maximum number of idle buffers per size class
+     */
+    @SuppressWarnings("unchecked")
+    public BufferPool(int maxBuffers) {
+        this.maxBuffers = maxBuffers;
+        int classes = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE / MIN_BUFFER_SIZE) + 1;
+        this.buffers = new Queue[classes];
+        this.counts = new AtomicInteger[classes];
+        for (int i = 0; i < classes; i++) {
+            buffers[i] = new ConcurrentLinkedQueue<>();
+            counts[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Gets a buffer adapted to the given content length.
+     * @param contentLength the length of the content to copy or -1 if unknown
+     * @return a buffer that needs to be given back with {@link #release(byte[])}
+     */
+    public byte[] acquire(long contentLength) {
+        int sizeClass = getSizeClass(contentLength);
+        byte[] buffer = buffers[sizeClass].poll();
+        if (buffer != null) {
+            counts[sizeClass].decrementAndGet();
+            return buffer;
+        }
+        return new byte[MIN_BUFFER_SIZE << sizeClass];
+    }
+
+    /**
+     * Gives back a buffer to the pool.
+     * @param buffer the buffer obtained with {@link #acquire(long)}
+     */
+    public void release(byte[] buffer) {
+        int sizeClass = Integer.numberOfTrailingZeros(buffer.length / MIN_BUFFER_SIZE);
+        if (sizeClass >= buffers.length || (MIN_BUFFER_SIZE << sizeClass) != buffer.length) {
+            // not coming from this pool
+            return;
+        }
+        if (counts[sizeClass].incrementAndGet() <= maxBuffers) {
+            buffers[sizeClass].offer(buffer);
+        } else {
+            counts[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * @param contentLength the length of the content to copy or -1 if unknown
+     * @return the index of the smallest size class holding the content, or the largest class
+     */
+    private int getSizeClass(long contentLength) {
+        if (contentLength < 0 || contentLength >= MAX_BUFFER_SIZE) {
+            return buffers.length - 1;
+        }
+        int sizeClass = 0;
+        while ((MIN_BUFFER_SIZE << sizeClass) < contentLength) {
+            sizeClass++;
+        }
+        return sizeClass;
+    }
+}
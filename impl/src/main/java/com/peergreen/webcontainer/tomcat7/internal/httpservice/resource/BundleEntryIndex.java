@@ -0,0 +1,259 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+
+/**
+ * Index of the entries of a bundle (including its fragments) so that looking
+ * up a resource is a hash probe instead of a search of the bundle classpath.
+ * Names that are not entries of the bundle are searched once with
+ * {@link Bundle#getResource(String)} and the result, found or not, is kept in
+ * a bounded table.
+ * <p>
+ * {@link Bundle#getResource(String)} searches the imported packages before the
+ * bundle classpath: the index is not used for the names of the imported
+ * packages (or of the java packages), they are searched like the names that are
+ * not entries of the bundle. The bundles requiring other bundles are not
+ * indexed as the packages of the required bundles are not known.
+ * @author Florent Benoit
+ */
+public class BundleEntryIndex {
+
+    /**
+     * Default maximum number of names searched on the bundle classpath that are kept.
+     */
+    public static final int DEFAULT_MAX_LOOKUPS = 1024;
+
+    /**
+     * Marker of a name that is not found.
+     */
+    private static final Object MISSING = new Object();
+
+    /**
+     * Indexed bundle.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Maximum number of names kept in the lookups.
+     */
+    private final int maxLookups;
+
+    /**
+     * Results of the names searched on the bundle classpath (URL or MISSING).
+     */
+    private final ConcurrentMap<String, Object> lookups;
+
+    /**
+     * Entries of the bundle, null if they need to be (re)built.
+     */
+    private volatile Map<String, URL> entries;
+
+    /**
+     * Imported packages of the bundle, built with the entries.
+     */
+    private volatile Set<String> importedPackages;
+
+    public BundleEntryIndex(Bundle bundle) {
+        this(bundle, DEFAULT_MAX_LOOKUPS);
+    }
+
+    public BundleEntryIndex(Bundle bundle, int maxLookups) {
+        this.bundle = bundle;
+        this.maxLookups = maxLookups;
+        this.lookups = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Gets the URL of the given resource, like {@link Bundle#getResource(String)}.
+     * @param name the name of the resource
+     * @return the URL of the resource or null if it is not found
+     */
+    public URL getResource(String name) {
+        String path = name;
+        if (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+
+        Map<String, URL> current = entries;
+        if (current == null) {
+            current = build();
+        }
+        URL url = null;
+        if (!isImported(path)) {
+            url = current.get(path);
+        }
+        if (url != null) {
+            return url;
+        }
+
+        Object lookup = lookups.get(path);
+        if (lookup == MISSING) {
+            return null;
+        }
+        if (lookup != null) {
+            return (URL) lookup;
+        }
+        url = bundle.getResource(name);
+        if (lookups.size() >= maxLookups) {
+            // probes of random names should not grow the table
+            lookups.clear();
+        }
+        if (url == null) {
+            lookups.put(path, MISSING);
+        } else {
+            lookups.put(path, url);
+        }
+        return url;
+    }
+
+    /**
+     * Builds the index of the entries if needed.
+     * @return the entries of the bundle
+     */
+    public synchronized Map<String, URL> build() {
+        Map<String, URL> current = entries;
+        if (current != null) {
+            return current;
+        }
+        current = new HashMap<>();
+        importedPackages = getImportedPackages();
+        if (isIndexable()) {
+            Enumeration<URL> urls = bundle.findEntries("/", "*", true);
+            if (urls != null) {
+                while (urls.hasMoreElements()) {
+                    URL url = urls.nextElement();
+                    String path = url.getPath();
+                    if (path.startsWith("/")) {
+                        path = path.substring(1);
+                    }
+                    // host entries come before the fragment entries
+                    if (!path.isEmpty() && !current.containsKey(path)) {
+                        current.put(path, url);
+                    }
+                }
+            }
+        }
+        current = Collections.unmodifiableMap(current);
+        entries = current;
+        return current;
+    }
+
+    /**
+     * Drops the index, it is built again on the next lookup.
+     */
+    public void invalidate() {
+        entries = null;
+        lookups.clear();
+    }
+
+    /**
+     * @return the number of indexed entries (0 if the index is not built)
+     */
+    public int size() {
+        Map<String, URL> current = entries;
+        if (current == null) {
+            return 0;
+        }
+        return current.size();
+    }
+
+    /**
+     * Entries are the resources of the bundle only if the bundle classpath is
+     * the root of the bundle and if no bundle is required.
+     * @return true if the entries of the bundle can be indexed
+     */
+    protected boolean isIndexable() {
+        Dictionary<String, String> headers = bundle.getHeaders("");
+        if (headers == null) {
+            return true;
+        }
+        if (headers.get(Constants.REQUIRE_BUNDLE) != null) {
+            return false;
+        }
+        String classpath = headers.get(Constants.BUNDLE_CLASSPATH);
+        return classpath == null || ".".equals(classpath.trim());
+    }
+
+    /**
+     * Checks if the package of the given path is searched before the bundle
+     * classpath.
+     * @param path the path of the resource (without leading slash)
+     * @return true if the package is imported or is a java package
+     */
+    protected boolean isImported(String path) {
+        int slash = path.lastIndexOf('/');
+        if (slash == -1) {
+            // the default package cannot be imported
+            return false;
+        }
+        String packageName = path.substring(0, slash).replace('/', '.');
+        if (packageName.equals("java") || packageName.startsWith("java.")) {
+            return true;
+        }
+        Set<String> packages = importedPackages;
+        return packages != null && packages.contains(packageName);
+    }
+
+    /**
+     * @return the packages of the Import-Package header of the bundle
+     */
+    protected Set<String> getImportedPackages() {
+        Set<String> packages = new HashSet<>();
+        Dictionary<String, String> headers = bundle.getHeaders("");
+        if (headers == null) {
+            return packages;
+        }
+        String header = headers.get(Constants.IMPORT_PACKAGE);
+        if (header == null) {
+            return packages;
+        }
+        // clauses are separated by commas and their elements by semicolons,
+        // both may be part of a quoted value (version range)
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= header.length(); i++) {
+            char c = ',';
+            if (i < header.length()) {
+                c = header.charAt(i);
+            }
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (c == ',' || c == ';')) {
+                String element = header.substring(start, i).trim();
+                // attributes and directives are not package names
+                if (!element.isEmpty() && element.indexOf('=') == -1) {
+                    packages.add(element);
+                }
+                start = i + 1;
+            }
+        }
+        return packages;
+    }
+}
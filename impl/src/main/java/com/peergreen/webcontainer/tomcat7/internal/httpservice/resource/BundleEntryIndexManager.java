@@ -0,0 +1,39 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import org.osgi.framework.Bundle;
+
+/**
+ * Gives the {@link BundleEntryIndex} of the bundles registering resources.
+ * The index of a bundle is built again after an update of the bundle.
+ * @author Florent Benoit
+ */
+public interface BundleEntryIndexManager {
+
+    /**
+     * Gets the index of the given bundle.
+     * @param bundle the bundle
+     * @return the index of the bundle
+     */
+    BundleEntryIndex getIndex(Bundle bundle);
+
+    /**
+     * Drops the index of the given bundle.
+     * @param bundle the bundle
+     */
+    void invalidate(Bundle bundle);
+}
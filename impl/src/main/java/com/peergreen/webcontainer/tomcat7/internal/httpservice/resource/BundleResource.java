@@ -0,0 +1,124 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Metadata of a resource served through the HttpService, with the way to
+ * read its content.
+ * @author Florent Benoit
+ */
+public abstract class BundleResource {
+
+    /**
+     * Content type.
+     */
+    private final String contentType;
+
+    /**
+     * Content encoding.
+     */
+    private final String contentEncoding;
+
+    /**
+     * Length of the content or -1 if unknown.
+     */
+    private final long contentLength;
+
+    /**
+     * Last modification date of the resource.
+     */
+    private final long lastModified;
+
+    /**
+     * Entity tag of the resource.
+     */
+    private final String eTag;
+
+    /**
+     * Id of the bundle owning this resource.
+     */
+    private final long bundleId;
+
+    /**
+     * Build a new resource.
+     * @param contentType the content type (may be null)
+     * @param contentEncoding the content encoding (may be null)
+     * @param contentLength the length of the content or -1 if unknown
+     * @param lastModified the last modification date of the resource
+     * @param eTag the entity tag of the resource
+     * @param bundleId the id of the bundle owning this resource
+     */
+    protected BundleResource(String contentType, String contentEncoding, long contentLength, long lastModified, String eTag, long bundleId) {
+        this.contentType = contentType;
+        this.contentEncoding = contentEncoding;
+        this.contentLength = contentLength;
+        this.lastModified = lastModified;
+        this.eTag = eTag;
+        this.bundleId = bundleId;
+    }
+
+    /**
+     * Opens a new stream on the content of the resource.
+     * @return the stream to read
+     * @throws IOException if the content cannot be read
+     */
+    public abstract InputStream openStream() throws IOException;
+
+    /**
+     * @return the content type.
+     */
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @return the content encoding.
+     */
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return the length of the content or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * @return the last modification date of the resource.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the entity tag of the resource.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * @return the id of the bundle owning this resource.
+     */
+    public long getBundleId() {
+        return bundleId;
+    }
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Range of bytes requested through the Range header.
+ * @author Florent Benoit
+ */
+public class ByteRange {
+
+    /**
+     * Unit of the ranges.
+     */
+    private static final String BYTES_UNIT = "bytes=";
+
+    /**
+     * Maximum number of ranges accepted in a single request.
+     */
+    private static final int MAX_RANGES = 32;
+
+    /**
+     * First byte of the range.
+     */
+    private final long start;
+
+    /**
+     * Last byte (included) of the range.
+     */
+    private final long end;
+
+    /**
+     * Build a new range.
+     * @param start the first byte
+     * @param end the last byte (included)
+     */
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the first byte of the range.
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * @return the last byte (included) of the range.
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * @return the number of bytes of the range.
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * @param contentLength the length of the whole resource
+     * @return the value of the Content-Range header for this range
+     */
+    public String toContentRange(long contentLength) {
+        return "bytes " + start + "-" + end + "/" + contentLength;
+    }
+
+    /**
+     * Parse the value of a Range header.
+     * @param header the Range header
+     * @param contentLength the length of the resource
+     * @return null if the header is invalid and needs to be ignored, an empty
+     * list if none of the ranges can be satisfied or the list of ranges
+     */
+    public static List<ByteRange> parse(String header, long contentLength) {
+        if (header == null || !header.startsWith(BYTES_UNIT)) {
+            return null;
+        }
+
+        String[] values = header.substring(BYTES_UNIT.length()).split(",");
+        if (values.length > MAX_RANGES) {
+            return null;
+        }
+
+        List<ByteRange> ranges = new ArrayList<>(values.length);
+        for (String value : values) {
+            value = value.trim();
+            int dash = value.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            try {
+                if (dash == 0) {
+                    // suffix range: last n bytes
+                    long suffix = Long.parseLong(value.substring(1));
+                    if (suffix <= 0) {
+                        continue;
+                    }
+                    start = Math.max(0, contentLength - suffix);
+                    end = contentLength - 1;
+                } else {
+                    start = Long.parseLong(value.substring(0, dash));
+                    if (dash == value.length() - 1) {
+                        end = contentLength - 1;
+                    } else {
+                        long last = Long.parseLong(value.substring(dash + 1));
+                        if (last < start) {
+                            return null;
+                        }
+                        end = Math.min(last, contentLength - 1);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (start < 0) {
+                return null;
+            }
+            // ignore unsatisfiable ranges
+            if (start < contentLength) {
+                ranges.add(new ByteRange(start, end));
+            }
+        }
+        return ranges;
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Caching policy of the resources of an alias, sent with the Cache-Control
+ * and Expires headers. A policy is written like a Cache-Control header, for
+ * example "max-age=3600", "max-age=31536000, immutable" or "no-cache".
+ * @author Florent Benoit
+ */
+public final class CachePolicy {
+
+    /**
+     * Init parameter of the resource servlets defining their policy.
+     */
+    public static final String INIT_PARAMETER = "com.peergreen.httpservice.cache";
+
+    /**
+     * Max age used for an immutable resource without max-age (one year).
+     */
+    public static final long IMMUTABLE_MAX_AGE = 31536000L;
+
+    /**
+     * No caching header is sent.
+     */
+    public static final CachePolicy NONE = new CachePolicy(-1, false, false, false, null);
+
+    /**
+     * Far-future caching of the resources that never change (fingerprinted names).
+     */
+    public static final CachePolicy IMMUTABLE = parse("public, immutable");
+
+    /**
+     * Max age in seconds (-1 if not defined).
+     */
+    private final long maxAge;
+
+    /**
+     * The resources never change ?
+     */
+    private final boolean immutable;
+
+    /**
+     * The resources always need to be revalidated ?
+     */
+    private final boolean noCache;
+
+    /**
+     * The resources should not be stored ?
+     */
+    private final boolean noStore;
+
+    /**
+     * Value of the Cache-Control header (null if no header is sent).
+     */
+    private final String cacheControl;
+
+    private CachePolicy(long maxAge, boolean immutable, boolean noCache, boolean noStore, String cacheControl) {
+        this.maxAge = maxAge;
+        this.immutable = immutable;
+        this.noCache = noCache;
+        this.noStore = noStore;
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * Builds a policy from its Cache-Control form.
+     * @param value the directives (ie : max-age=3600, immutable)
+     * @return the policy
+     * @throws IllegalArgumentException if a directive is not supported
+     */
+    public static CachePolicy parse(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return NONE;
+        }
+        long maxAge = -1;
+        boolean immutable = false;
+        boolean noCache = false;
+        boolean noStore = false;
+        List<String> directives = new ArrayList<>();
+        for (String item : value.split(",")) {
+            String directive = item.trim().toLowerCase(Locale.ENGLISH);
+            if (directive.isEmpty()) {
+                continue;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(String.format("Invalid max-age in the cache policy %s", value), e);
+                }
+                if (maxAge < 0) {
+                    throw new IllegalArgumentException(String.format("Invalid max-age in the cache policy %s", value));
+                }
+                continue;
+            }
+            switch (directive) {
+                case "immutable":
+                    immutable = true;
+                    break;
+                case "no-cache":
+                    noCache = true;
+                    break;
+                case "no-store":
+                    noStore = true;
+                    break;
+                case "public":
+                case "private":
+                case "must-revalidate":
+                case "proxy-revalidate":
+                    break;
+                default:
+                    throw new IllegalArgumentException(String.format("Unsupported directive %s in the cache policy %s", directive, value));
+            }
+            directives.add(directive);
+        }
+        if (noCache || noStore) {
+            if (immutable || maxAge > 0) {
+                throw new IllegalArgumentException(String.format("The cache policy %s cannot both allow and forbid caching", value));
+            }
+        } else if (immutable && maxAge < 0) {
+            maxAge = IMMUTABLE_MAX_AGE;
+        }
+
+        StringBuilder cacheControl = new StringBuilder();
+        if (maxAge >= 0) {
+            cacheControl.append("max-age=").append(maxAge);
+        }
+        for (String directive : directives) {
+            if (cacheControl.length() > 0) {
+                cacheControl.append(", ");
+            }
+            cacheControl.append(directive);
+        }
+        return new CachePolicy(maxAge, immutable, noCache, noStore, cacheControl.toString());
+    }
+
+    /**
+     * Sets the caching headers of the given response.
+     * @param resp the response
+     */
+    public void apply(HttpServletResponse resp) {
+        if (cacheControl == null) {
+            return;
+        }
+        resp.setHeader("Cache-Control", cacheControl);
+        if (noCache || noStore) {
+            resp.setDateHeader("Expires", 0);
+        } else if (maxAge >= 0) {
+            resp.setDateHeader("Expires", System.currentTimeMillis() + maxAge * 1000);
+        }
+    }
+
+    /**
+     * @return the max age in seconds or -1.
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return true if the resources never change.
+     */
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    /**
+     * @return true if the resources need to be revalidated or not stored.
+     */
+    public boolean isNoCache() {
+        return noCache || noStore;
+    }
+
+    /**
+     * @return the value of the Cache-Control header or null.
+     */
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    @Override
+    public String toString() {
+        return cacheControl == null ? "none" : cacheControl;
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+/**
+ * Content and metadata of a bundle resource kept in the {@link ResourceCache}.
+ * @author Florent Benoit
+ */
+public class CachedResource extends BundleResource {
+
+    /**
+     * Content of the resource.
+     */
+    private final byte[] content;
+
+    /**
+     * Build a new cached resource.
+     * @param content the bytes of the resource
+     * @param contentType the content type (may be null)
+     * @param contentEncoding the content encoding (may be null)
+     * @param lastModified the last modification date of the resource
+     * @param eTag the entity tag of the resource
+     * @param bundleId the id of the bundle owning this resource
+     */
+    public CachedResource(byte[] content, String contentType, String contentEncoding, long lastModified, String eTag, long bundleId) {
+        super(contentType, contentEncoding, content.length, lastModified, eTag, bundleId);
+        this.content = content;
+    }
+
+    /**
+     * @return the bytes of the resource.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    @Override
+    public InputStream openStream() {
+        return new ByteArrayInputStream(content);
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+
+/**
+ * Default implementation of the {@link BundleEntryIndexManager}. The index of
+ * a bundle is rebuilt lazily after the bundle is updated or unresolved and it
+ * is dropped when the bundle is uninstalled.
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultBundleEntryIndexManager implements BundleEntryIndexManager, SynchronousBundleListener {
+
+    /**
+     * Bundle Context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Index by bundle.
+     */
+    private final ConcurrentMap<Bundle, BundleEntryIndex> indexes;
+
+    /**
+     * Maximum number of names searched on the classpath kept by each index.
+     */
+    private int maxLookups = BundleEntryIndex.DEFAULT_MAX_LOOKUPS;
+
+    /**
+     * Default constructor with the given bundle context.
+     * @param bundleContext used to track the bundle updates
+     */
+    public DefaultBundleEntryIndexManager(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.indexes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Sets the maximum number of names searched on the bundle classpath (found
+     * or not) that are kept by the index of a bundle.
+     * @param maxLookups the maximum number of names
+     */
+    @Property(name = "max.lookups", value = "1024")
+    public void setMaxLookups(int maxLookups) {
+        this.maxLookups = maxLookups;
+    }
+
+    /**
+     * Track the bundles.
+     */
+    @Validate
+    public void start() {
+        bundleContext.addBundleListener(this);
+    }
+
+    /**
+     * Stop to track the bundles and drop the indexes.
+     */
+    @Invalidate
+    public void stop() {
+        bundleContext.removeBundleListener(this);
+        indexes.clear();
+    }
+
+    @Override
+    public BundleEntryIndex getIndex(Bundle bundle) {
+        BundleEntryIndex index = indexes.get(bundle);
+        if (index == null) {
+            index = new BundleEntryIndex(bundle, maxLookups);
+            BundleEntryIndex previous = indexes.putIfAbsent(bundle, index);
+            if (previous != null) {
+                index = previous;
+            }
+        }
+        return index;
+    }
+
+    @Override
+    public void invalidate(Bundle bundle) {
+        BundleEntryIndex index = indexes.get(bundle);
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Rebuild the index of the bundles that are updated and drop the index of
+     * the uninstalled bundles.
+     */
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNRESOLVED:
+                invalidate(event.getBundle());
+                break;
+            case BundleEvent.UNINSTALLED:
+                BundleEntryIndex index = indexes.remove(event.getBundle());
+                if (index != null) {
+                    index.invalidate();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+}
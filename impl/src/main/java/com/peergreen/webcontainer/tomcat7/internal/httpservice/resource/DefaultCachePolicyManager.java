@@ -0,0 +1,101 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+
+/**
+ * Default implementation of the {@link CachePolicyManager}. The policies are
+ * configured by alias (ie : /static=max-age=31536000, immutable) and apply to
+ * the aliases under them. The policy of the longest configured alias is used.
+ * The resource servlets ask their policy at each request, so a new
+ * configuration applies to the aliases already registered without registering
+ * them again, unless the policy is overridden by an init parameter.
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultCachePolicyManager implements CachePolicyManager {
+
+    /**
+     * Policies by alias.
+     */
+    private volatile Map<String, CachePolicy> policies = Collections.emptyMap();
+
+    /**
+     * Policy of the aliases without a configured policy.
+     */
+    private volatile CachePolicy defaultPolicy = CachePolicy.NONE;
+
+    /**
+     * Sets the policies, each one is written alias=policy.
+     * @param values the policies
+     */
+    @Property(name = "policies")
+    public void setPolicies(String[] values) {
+        Map<String, CachePolicy> newPolicies = new HashMap<>();
+        if (values != null) {
+            for (String value : values) {
+                int equals = value.indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException(String.format("The cache policy %s needs to be written alias=policy", value));
+                }
+                String alias = value.substring(0, equals).trim();
+                if (alias.length() > 1 && alias.endsWith("/")) {
+                    alias = alias.substring(0, alias.length() - 1);
+                }
+                newPolicies.put(alias, CachePolicy.parse(value.substring(equals + 1)));
+            }
+        }
+        this.policies = newPolicies;
+    }
+
+    /**
+     * Sets the policy of the aliases without a configured policy.
+     * @param value the policy (ie : max-age=60)
+     */
+    @Property(name = "default.policy")
+    public void setDefaultPolicy(String value) {
+        this.defaultPolicy = CachePolicy.parse(value);
+    }
+
+    @Override
+    public CachePolicy getPolicy(String alias) {
+        Map<String, CachePolicy> current = policies;
+        String path = alias;
+        while (path != null) {
+            CachePolicy policy = current.get(path);
+            if (policy != null) {
+                return policy;
+            }
+            if ("/".equals(path)) {
+                path = null;
+            } else {
+                int slash = path.lastIndexOf('/');
+                path = slash > 0 ? path.substring(0, slash) : "/";
+            }
+        }
+        return defaultPolicy;
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.service.http.HttpContext;
+
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.FileUtils;
+
+/**
+ * Default implementation of the {@link ExtractedResourceCache}. Resources are
+ * extracted in a directory per bundle, which is deleted when the bundle is
+ * updated or uninstalled. Extraction is disabled by default.
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultExtractedResourceCache implements ExtractedResourceCache, SynchronousBundleListener {
+
+    /**
+     * Name of the directory of the extracted resources, in the bundle storage
+     * area or in the configured directory.
+     */
+    private static final String DEFAULT_DIRECTORY = "extracted-resources";
+
+    /**
+     * Bundle Context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Extracted resources.
+     */
+    private final ConcurrentMap<ResourceKey, ExtractedResource> resources;
+
+    /**
+     * Counter used to build unique file names.
+     */
+    private final AtomicLong counter;
+
+    /**
+     * Extraction enabled ?
+     */
+    private volatile boolean enabled = false;
+
+    /**
+     * Minimum size of the resources to extract.
+     */
+    private volatile long threshold = 48 * 1024;
+
+    /**
+     * Directory configured for the extracted resources.
+     */
+    private String directory;
+
+    /**
+     * Root directory of the extracted resources.
+     */
+    private volatile File rootDirectory;
+
+    /**
+     * Default constructor with the given bundle context.
+     * @param bundleContext used to track the bundle updates
+     */
+    public DefaultExtractedResourceCache(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.resources = new ConcurrentHashMap<>();
+        this.counter = new AtomicLong();
+    }
+
+    /**
+     * Prepare the directory and track the bundles.
+     */
+    @Validate
+    public void start() {
+        File root;
+        if (directory != null) {
+            // the configured directory may be shared, only the sub directory is owned
+            root = new File(directory, DEFAULT_DIRECTORY);
+        } else {
+            root = bundleContext.getDataFile(DEFAULT_DIRECTORY);
+            if (root == null) {
+                try {
+                    root = Files.createTempDirectory(DEFAULT_DIRECTORY).toFile();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to create a directory for the extracted resources", e);
+                }
+            }
+        }
+
+        // remove content of a previous run
+        FileUtils.delete(root);
+        if (!root.mkdirs() && !root.isDirectory()) {
+            throw new IllegalStateException(String.format("Unable to create the directory %s", root));
+        }
+        this.rootDirectory = root;
+        bundleContext.addBundleListener(this);
+    }
+
+    /**
+     * Stop to track the bundles and remove the extracted resources.
+     */
+    @Invalidate
+    public void stop() {
+        bundleContext.removeBundleListener(this);
+        resources.clear();
+        FileUtils.delete(rootDirectory);
+    }
+
+    /**
+     * Enables or disables the extraction of resources.
+     * @param enabled true to extract the large resources
+     */
+    @Property(name = "enabled", value = "false")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the minimum size in bytes of the resources to extract.
+     * @param threshold the minimum size
+     */
+    @Property(name = "threshold", value = "49152")
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets the directory in which the extracted resources are stored (a tmpfs
+     * for example). Resources are in a dedicated sub directory, the other
+     * files of the directory are left untouched. Bundle storage area is used
+     * by default.
+     * @param directory the path of the directory
+     */
+    @Property(name = "directory")
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public boolean isExtractable(long contentLength) {
+        return enabled && rootDirectory != null && contentLength >= threshold;
+    }
+
+    @Override
+    public ExtractedResource get(HttpContext httpContext, String path) {
+        if (resources.isEmpty()) {
+            return null;
+        }
+        ExtractedResource resource = resources.get(new ResourceKey(httpContext, path));
+        if (resource != null && !resource.getFile().isFile()) {
+            resources.remove(new ResourceKey(httpContext, path), resource);
+            return null;
+        }
+        return resource;
+    }
+
+    @Override
+    public ExtractedResource extract(HttpContext httpContext, String path, BundleResource resource) throws IOException {
+        ResourceKey key = new ResourceKey(httpContext, path);
+        ExtractedResource extractedResource = resources.get(key);
+        if (extractedResource != null) {
+            return extractedResource;
+        }
+
+        Path bundleDirectory = new File(rootDirectory, String.valueOf(resource.getBundleId())).toPath();
+        Files.createDirectories(bundleDirectory);
+
+        // copy in a temporary file and then rename it so that a file is always complete
+        Path tmpFile = Files.createTempFile(bundleDirectory, "extract", ".tmp");
+        try {
+            try (InputStream inputStream = resource.openStream()) {
+                Files.copy(inputStream, tmpFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            Path file = bundleDirectory.resolve(counter.incrementAndGet() + "-" + getFileName(path));
+            Files.move(tmpFile, file, StandardCopyOption.ATOMIC_MOVE);
+            extractedResource = new ExtractedResource(file.toFile(), resource);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+
+        ExtractedResource previous = resources.putIfAbsent(key, extractedResource);
+        if (previous != null) {
+            // extracted concurrently by another request
+            Files.deleteIfExists(extractedResource.getFile().toPath());
+            return previous;
+        }
+        return extractedResource;
+    }
+
+    @Override
+    public void invalidate(HttpContext httpContext) {
+        Iterator<Map.Entry<ResourceKey, ExtractedResource>> iterator = resources.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<ResourceKey, ExtractedResource> entry = iterator.next();
+            if (entry.getKey().getHttpContext() == httpContext) {
+                iterator.remove();
+                entry.getValue().getFile().delete();
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(Bundle bundle) {
+        long bundleId = bundle.getBundleId();
+        Iterator<ExtractedResource> iterator = resources.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getBundleId() == bundleId) {
+                iterator.remove();
+            }
+        }
+        if (rootDirectory != null) {
+            FileUtils.delete(new File(rootDirectory, String.valueOf(bundleId)));
+        }
+    }
+
+    /**
+     * Drop the resources of the bundles that are updated or uninstalled.
+     */
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNINSTALLED:
+            case BundleEvent.UNRESOLVED:
+                invalidate(event.getBundle());
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (ExtractedResource resource : resources.values()) {
+            size += resource.getContentLength();
+        }
+        return size;
+    }
+
+    /**
+     * Gets a file name for the given resource path, keeping its extension.
+     * @param path the path of the resource
+     * @return a name that can be used on any file system
+     */
+    protected static String getFileName(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.service.http.HttpContext;
+
+/**
+ * LRU implementation of the {@link ResourceCache}. The least recently used
+ * resources are evicted when the total size of the cached content goes over
+ * the maximum size. Resources of a bundle are dropped when this bundle is
+ * updated or uninstalled.
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultResourceCache implements ResourceCache, SynchronousBundleListener {
+
+    /**
+     * Default maximum size of the cache (16 MB).
+     */
+    public static final long DEFAULT_MAX_SIZE = 16L * 1024 * 1024;
+
+    /**
+     * Default maximum size of a single entry (1 MB).
+     */
+    public static final long DEFAULT_MAX_ENTRY_SIZE = 1024L * 1024;
+
+    /**
+     * Bundle Context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Cached resources, ordered from the least recently used to the most recently used.
+     */
+    private final LinkedHashMap<ResourceKey, CachedResource> resources;
+
+    /**
+     * Hits.
+     */
+    private final AtomicLong hits;
+
+    /**
+     * Misses.
+     */
+    private final AtomicLong misses;
+
+    /**
+     * Evictions.
+     */
+    private final AtomicLong evictions;
+
+    /**
+     * Total size of the cached content (guarded by the resources map).
+     */
+    private long size;
+
+    /**
+     * Maximum size of the cache.
+     */
+    private volatile long maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Maximum size of a single entry.
+     */
+    private volatile long maxEntrySize = DEFAULT_MAX_ENTRY_SIZE;
+
+    /**
+     * Default constructor with the given bundle context.
+     * @param bundleContext used to track the bundle updates
+     */
+    public DefaultResourceCache(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.resources = new LinkedHashMap<>(64, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+    }
+
+    /**
+     * Track the bundles.
+     */
+    @Validate
+    public void start() {
+        bundleContext.addBundleListener(this);
+    }
+
+    /**
+     * Stop to track the bundles and flush the cache.
+     */
+    @Invalidate
+    public void stop() {
+        bundleContext.removeBundleListener(this);
+        synchronized (resources) {
+            resources.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * Sets the maximum size in bytes of the cache.
+     * @param maxSize the maximum size
+     */
+    @Property(name = "max.size", value = "16777216")
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+        synchronized (resources) {
+            evict();
+        }
+    }
+
+    /**
+     * Sets the maximum size in bytes of a single entry.
+     * @param maxEntrySize the maximum size of an entry
+     */
+    @Property(name = "max.entry.size", value = "1048576")
+    public void setMaxEntrySize(long maxEntrySize) {
+        this.maxEntrySize = maxEntrySize;
+    }
+
+    @Override
+    public CachedResource get(HttpContext httpContext, String path) {
+        CachedResource resource;
+        synchronized (resources) {
+            resource = resources.get(new ResourceKey(httpContext, path));
+        }
+        if (resource == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return resource;
+    }
+
+    @Override
+    public boolean isCacheable(long contentLength) {
+        return contentLength >= 0 && contentLength <= maxEntrySize && contentLength <= maxSize;
+    }
+
+    @Override
+    public boolean put(HttpContext httpContext, String path, CachedResource resource) {
+        if (!isCacheable(resource.getContentLength())) {
+            return false;
+        }
+        synchronized (resources) {
+            CachedResource previous = resources.put(new ResourceKey(httpContext, path), resource);
+            if (previous != null) {
+                size -= previous.getContentLength();
+            }
+            size += resource.getContentLength();
+            evict();
+        }
+        return true;
+    }
+
+    @Override
+    public void invalidate(HttpContext httpContext) {
+        synchronized (resources) {
+            Iterator<Map.Entry<ResourceKey, CachedResource>> iterator = resources.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<ResourceKey, CachedResource> entry = iterator.next();
+                if (entry.getKey().getHttpContext() == httpContext) {
+                    size -= entry.getValue().getContentLength();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void invalidate(Bundle bundle) {
+        long bundleId = bundle.getBundleId();
+        synchronized (resources) {
+            Iterator<CachedResource> iterator = resources.values().iterator();
+            while (iterator.hasNext()) {
+                CachedResource resource = iterator.next();
+                if (resource.getBundleId() == bundleId) {
+                    size -= resource.getContentLength();
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the resources of the bundles that are updated or uninstalled.
+     */
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+            case BundleEvent.UNINSTALLED:
+            case BundleEvent.UNRESOLVED:
+                invalidate(event.getBundle());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Removes the least recently used resources until the cache fits in its
+     * maximum size. Needs to be called with the lock on the resources.
+     */
+    private void evict() {
+        Iterator<CachedResource> iterator = resources.values().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            CachedResource resource = iterator.next();
+            size -= resource.getContentLength();
+            iterator.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public long getSize() {
+        synchronized (resources) {
+            return size;
+        }
+    }
+
+    @Override
+    public int getEntries() {
+        synchronized (resources) {
+            return resources.size();
+        }
+    }
+}
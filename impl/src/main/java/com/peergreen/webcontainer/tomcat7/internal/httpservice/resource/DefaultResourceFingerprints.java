@@ -0,0 +1,490 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.service.http.HttpContext;
+
+import com.peergreen.webcontainer.tomcat7.ResourceFingerprintResolver;
+
+/**
+ * Default implementation of the {@link ResourceFingerprints}. The entries of
+ * the bundle under the registered name are hashed (SHA-256) one by one by a
+ * background thread. The hashes of a bundle are computed again when the bundle
+ * is updated. Fingerprinted names are disabled by default.
+ * @author Florent Benoit
+ */
+@Component
+@Provides(specifications = {ResourceFingerprints.class, ResourceFingerprintResolver.class})
+@Instantiate
+public class DefaultResourceFingerprints implements ResourceFingerprints, SynchronousBundleListener {
+
+    /**
+     * Number of hexadecimal characters of the hash kept in the names.
+     */
+    public static final int HASH_LENGTH = 16;
+
+    /**
+     * Fingerprint in the last segment of a path (before the extension if any).
+     */
+    private static final Pattern FINGERPRINT = Pattern.compile("\\.([0-9a-f]{" + HASH_LENGTH + "})(\\.[^./]*)?$");
+
+    /**
+     * Hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Bundle Context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Registered resources by alias.
+     */
+    private final ConcurrentMap<String, Registration> registrations;
+
+    /**
+     * Hashes of the resources.
+     */
+    private final ConcurrentMap<ResourceKey, String> hashes;
+
+    /**
+     * Resources waiting for their hash.
+     */
+    private final Set<ResourceKey> pending;
+
+    /**
+     * Fingerprinted names enabled ?
+     */
+    private volatile boolean enabled = false;
+
+    /**
+     * Executor computing the hashes.
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * Default constructor with the given bundle context.
+     * @param bundleContext used to track the bundle updates
+     */
+    public DefaultResourceFingerprints(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.registrations = new ConcurrentHashMap<>();
+        this.hashes = new ConcurrentHashMap<>();
+        this.pending = Collections.newSetFromMap(new ConcurrentHashMap<ResourceKey, Boolean>());
+    }
+
+    /**
+     * Enables or disables the fingerprinted names.
+     * @param enabled true to serve the resources under their fingerprinted names
+     */
+    @Property(name = "enabled", value = "false")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Start the background thread and track the bundles.
+     */
+    @Validate
+    public void start() {
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HttpService-Fingerprint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        bundleContext.addBundleListener(this);
+    }
+
+    /**
+     * Stop the background thread and drop the hashes.
+     */
+    @Invalidate
+    public void stop() {
+        bundleContext.removeBundleListener(this);
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        registrations.clear();
+        hashes.clear();
+        pending.clear();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void register(String alias, String name, HttpContext httpContext, Bundle bundle) {
+        if (!enabled) {
+            return;
+        }
+        final Registration registration = new Registration(alias, name, httpContext, bundle);
+        registrations.put(alias, registration);
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                scan(registration);
+            }
+        });
+    }
+
+    @Override
+    public void unregister(String alias) {
+        Registration registration = registrations.remove(alias);
+        if (registration != null) {
+            drop(registration);
+        }
+    }
+
+    @Override
+    public void unregister(Bundle bundle) {
+        Iterator<Registration> iterator = registrations.values().iterator();
+        while (iterator.hasNext()) {
+            Registration registration = iterator.next();
+            if (registration.bundle.equals(bundle)) {
+                iterator.remove();
+                drop(registration);
+            }
+        }
+    }
+
+    @Override
+    public String resolve(String path) {
+        if (!enabled || registrations.isEmpty()) {
+            return path;
+        }
+        Registration registration = findRegistration(path);
+        if (registration == null) {
+            return path;
+        }
+        String relative = path.substring(registration.alias.length());
+        if (relative.startsWith("/")) {
+            relative = relative.substring(1);
+        }
+        if (relative.isEmpty()) {
+            return path;
+        }
+        ResourceKey key = new ResourceKey(registration.httpContext, registration.name.concat("/").concat(relative));
+        String hash = hashes.get(key);
+        if (hash == null) {
+            schedule(key);
+            return path;
+        }
+        return fingerprint(path, hash);
+    }
+
+    @Override
+    public String getLogicalPath(HttpContext httpContext, String resourcePath) {
+        if (!enabled) {
+            return null;
+        }
+        Matcher matcher = FINGERPRINT.matcher(resourcePath);
+        if (!matcher.find()) {
+            return null;
+        }
+        String logicalPath = resourcePath.substring(0, matcher.start());
+        if (matcher.group(2) != null) {
+            logicalPath = logicalPath.concat(matcher.group(2));
+        }
+
+        String hash = hashes.get(new ResourceKey(httpContext, logicalPath));
+        if (hash == null && isRegistered(httpContext, logicalPath)) {
+            // may be requested before the background computation (after a restart for example)
+            hash = getHash(httpContext, logicalPath);
+        }
+        if (matcher.group(1).equals(hash)) {
+            return logicalPath;
+        }
+        return null;
+    }
+
+    /**
+     * Gets the hash of a resource, computing it if it is not yet known.
+     * @param httpContext the http context used to load the resource
+     * @param resourcePath the path of the resource in the http context
+     * @return the hash or null if the resource cannot be read
+     */
+    public String getHash(HttpContext httpContext, String resourcePath) {
+        ResourceKey key = new ResourceKey(httpContext, resourcePath);
+        String hash = hashes.get(key);
+        if (hash == null) {
+            hash = computeHash(key);
+        }
+        return hash;
+    }
+
+    /**
+     * Computes again the hashes of the updated bundles.
+     */
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        switch (event.getType()) {
+            case BundleEvent.UPDATED:
+                for (final Registration registration : registrations.values()) {
+                    if (registration.bundle.equals(event.getBundle())) {
+                        drop(registration);
+                        execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                scan(registration);
+                            }
+                        });
+                    }
+                }
+                break;
+            case BundleEvent.UNINSTALLED:
+                unregister(event.getBundle());
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return the number of computed hashes.
+     */
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Inserts the hash in the last segment of the path, before its extension.
+     * @param path the path
+     * @param hash the hash
+     * @return the fingerprinted path
+     */
+    protected static String fingerprint(String path, String hash) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/') + 1) {
+            return path.concat(".").concat(hash);
+        }
+        return path.substring(0, dot).concat(".").concat(hash).concat(path.substring(dot));
+    }
+
+    /**
+     * Schedules the computation of the hashes of the entries of a registration.
+     * Each entry is hashed by its own task so that the other work of the
+     * executor is not delayed by a large bundle.
+     * @param registration the registration
+     */
+    protected void scan(Registration registration) {
+        String prefix = registration.name.endsWith("/") ? registration.name : registration.name.concat("/");
+        Enumeration<URL> entries = registration.bundle.findEntries(prefix, "*", true);
+        if (entries == null) {
+            return;
+        }
+        while (entries.hasMoreElements()) {
+            String entryPath = entries.nextElement().getPath();
+            if (entryPath.endsWith("/") || !entryPath.startsWith(prefix)) {
+                continue;
+            }
+            String relative = entryPath.substring(prefix.length());
+            schedule(new ResourceKey(registration.httpContext, registration.name.concat("/").concat(relative)));
+        }
+    }
+
+    /**
+     * Schedules the computation of the hash of a resource.
+     * @param key the resource
+     */
+    protected void schedule(final ResourceKey key) {
+        if (hashes.containsKey(key) || !pending.add(key)) {
+            return;
+        }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    computeHash(key);
+                } finally {
+                    pending.remove(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes and keeps the hash of the given resource.
+     * @param key the resource
+     * @return the hash or null if the resource cannot be read
+     */
+    protected String computeHash(ResourceKey key) {
+        URL url = key.getHttpContext().getResource(key.getPath());
+        if (url == null) {
+            return null;
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = url.openStream()) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            // not readable, no fingerprint
+            return null;
+        }
+        byte[] bytes = digest.digest();
+        char[] hash = new char[HASH_LENGTH];
+        for (int i = 0; i < HASH_LENGTH / 2; i++) {
+            hash[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            hash[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        String value = new String(hash);
+        hashes.put(key, value);
+        return value;
+    }
+
+    /**
+     * Finds the registration of the longest alias matching the given path.
+     * @param path the path
+     * @return the registration or null
+     */
+    private Registration findRegistration(String path) {
+        String alias = path;
+        while (!alias.isEmpty()) {
+            Registration registration = registrations.get(alias);
+            if (registration != null) {
+                return registration;
+            }
+            int slash = alias.lastIndexOf('/');
+            if (slash == 0 && alias.length() > 1) {
+                alias = "/";
+            } else {
+                alias = alias.substring(0, Math.max(slash, 0));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks if a resource is registered, so that its hash can be computed
+     * on the request thread. The hashes of the other paths are never
+     * computed, as anyone could request them.
+     * @param httpContext the http context used to load the resource
+     * @param resourcePath the path of the resource in the http context
+     * @return true if the resource is under a registered name of the http context
+     */
+    private boolean isRegistered(HttpContext httpContext, String resourcePath) {
+        for (Registration registration : registrations.values()) {
+            if (registration.contains(httpContext, resourcePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops the hashes of the resources of a registration.
+     * @param registration the registration
+     */
+    private void drop(Registration registration) {
+        Iterator<Map.Entry<ResourceKey, String>> iterator = hashes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            ResourceKey key = iterator.next().getKey();
+            if (registration.contains(key.getHttpContext(), key.getPath())) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Runs the given task in the background.
+     * @param task the task
+     */
+    private void execute(Runnable task) {
+        ExecutorService current = executor;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.execute(task);
+        } catch (RejectedExecutionException e) {
+            // stopping
+        }
+    }
+
+    /**
+     * Resources registered on an alias.
+     */
+    protected static final class Registration {
+
+        private final String alias;
+
+        private final String name;
+
+        private final HttpContext httpContext;
+
+        private final Bundle bundle;
+
+        private Registration(String alias, String name, HttpContext httpContext, Bundle bundle) {
+            this.alias = alias;
+            this.name = name;
+            this.httpContext = httpContext;
+            this.bundle = bundle;
+        }
+
+        /**
+         * @param httpContext the http context of the resource
+         * @param resourcePath the path of the resource in the http context
+         * @return true if the resource is under the name of this registration
+         * (and not only a sibling name such as /resources for /res)
+         */
+        private boolean contains(HttpContext httpContext, String resourcePath) {
+            return httpContext == this.httpContext && resourcePath.startsWith(name.concat("/"));
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+
+/**
+ * Default implementation of the {@link ResourceStreamer}. Resources larger
+ * than the threshold (1MB by default) are copied by a fixed pool of daemon
+ * threads (2 by default).
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultResourceStreamer implements ResourceStreamer {
+
+    /**
+     * Streaming enabled ?
+     */
+    private volatile boolean enabled = true;
+
+    /**
+     * Minimum size of the resources to stream.
+     */
+    private volatile long threshold = 1024 * 1024;
+
+    /**
+     * Number of streaming threads.
+     */
+    private int threads = 2;
+
+    /**
+     * Executor of the copies.
+     */
+    private volatile ExecutorService executor;
+
+    /**
+     * Enables or disables the asynchronous streaming of resources.
+     * @param enabled true to stream the large resources asynchronously
+     */
+    @Property(name = "enabled", value = "true")
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Sets the minimum size in bytes of the resources to stream.
+     * @param threshold the minimum size
+     */
+    @Property(name = "threshold", value = "1048576")
+    public void setThreshold(long threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Sets the number of threads copying the resources.
+     * @param threads the number of threads
+     */
+    @Property(name = "threads", value = "2")
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException(String.format("Invalid number of streaming threads %d", threads));
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Start the streaming threads.
+     */
+    @Validate
+    public void start() {
+        final AtomicInteger counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "HttpService-Streaming-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Stop the streaming threads. Pending copies are interrupted.
+     */
+    @Invalidate
+    public void stop() {
+        ExecutorService current = executor;
+        executor = null;
+        if (current != null) {
+            current.shutdownNow();
+        }
+    }
+
+    @Override
+    public boolean isStreamed(long contentLength) {
+        return enabled && executor != null && contentLength >= threshold;
+    }
+
+    @Override
+    public void execute(Runnable task) throws RejectedExecutionException {
+        ExecutorService current = executor;
+        if (current == null) {
+            throw new RejectedExecutionException("The resource streamer is stopped");
+        }
+        current.execute(task);
+    }
+}
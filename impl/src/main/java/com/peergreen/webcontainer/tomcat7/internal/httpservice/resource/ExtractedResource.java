@@ -0,0 +1,57 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Resource that has been extracted from its bundle into a file of the
+ * {@link ExtractedResourceCache}, so that it can be sent without going
+ * through the Java heap.
+ * @author Florent Benoit
+ */
+public class ExtractedResource extends BundleResource {
+
+    /**
+     * File containing the content of the resource.
+     */
+    private final File file;
+
+    /**
+     * Build a new extracted resource.
+     * @param file the file containing the content
+     * @param resource the metadata of the original resource
+     */
+    public ExtractedResource(File file, BundleResource resource) {
+        super(resource.getContentType(), resource.getContentEncoding(), file.length(), resource.getLastModified(), resource.getETag(), resource.getBundleId());
+        this.file = file;
+    }
+
+    /**
+     * @return the file containing the content of the resource.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        return new FileInputStream(file);
+    }
+}
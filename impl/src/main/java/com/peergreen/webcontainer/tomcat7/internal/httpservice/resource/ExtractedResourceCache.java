@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.IOException;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+/**
+ * On-disk cache of the large resources served through the HttpService
+ * registerResources() aliases. Once extracted, the resources can be sent
+ * with sendfile or {@link java.nio.channels.FileChannel#transferTo}.
+ * @author Florent Benoit
+ */
+public interface ExtractedResourceCache {
+
+    /**
+     * Checks if a resource with the given length needs to be extracted.
+     * @param contentLength the length of the resource
+     * @return true if the extraction is enabled and the resource is large enough
+     */
+    boolean isExtractable(long contentLength);
+
+    /**
+     * Gets the extracted resource for the given context and path.
+     * @param httpContext the http context used to load the resource
+     * @param path the path of the resource in the http context
+     * @return the extracted resource or null if it has not been extracted
+     */
+    ExtractedResource get(HttpContext httpContext, String path);
+
+    /**
+     * Extracts the content of the given resource.
+     * @param httpContext the http context used to load the resource
+     * @param path the path of the resource in the http context
+     * @param resource the resource to extract
+     * @return the extracted resource
+     * @throws IOException if the resource cannot be extracted
+     */
+    ExtractedResource extract(HttpContext httpContext, String path, BundleResource resource) throws IOException;
+
+    /**
+     * Removes all the resources that have been extracted through the given http context.
+     * @param httpContext the http context
+     */
+    void invalidate(HttpContext httpContext);
+
+    /**
+     * Removes all the resources that are owned by the given bundle.
+     * @param bundle the owning bundle
+     */
+    void invalidate(Bundle bundle);
+
+    /**
+     * @return the total size in bytes of the extracted resources
+     */
+    long getSize();
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+/**
+ * In-memory cache of the resources served through the HttpService
+ * registerResources() aliases. Entries are keyed by the {@link HttpContext}
+ * and the resource path and are bounded by their total size in bytes.
+ * @author Florent Benoit
+ */
+public interface ResourceCache {
+
+    /**
+     * Gets the cached resource for the given context and path.
+     * @param httpContext the http context used to load the resource
+     * @param path the path of the resource in the http context
+     * @return the cached resource or null if it is not in the cache
+     */
+    CachedResource get(HttpContext httpContext, String path);
+
+    /**
+     * Adds the given resource in the cache.
+     * @param httpContext the http context used to load the resource
+     * @param path the path of the resource in the http context
+     * @param resource the resource to cache
+     * @return true if the resource has been cached
+     */
+    boolean put(HttpContext httpContext, String path, CachedResource resource);
+
+    /**
+     * Checks if a resource with the given length can be stored in the cache.
+     * @param contentLength the length of the resource
+     * @return true if the resource is small enough to be cached
+     */
+    boolean isCacheable(long contentLength);
+
+    /**
+     * Removes all the resources that have been loaded through the given http context.
+     * @param httpContext the http context
+     */
+    void invalidate(HttpContext httpContext);
+
+    /**
+     * Removes all the resources that are owned by the given bundle.
+     * @param bundle the owning bundle
+     */
+    void invalidate(Bundle bundle);
+
+    /**
+     * @return the number of requests served from the cache
+     */
+    long getHits();
+
+    /**
+     * @return the number of requests that were not found in the cache
+     */
+    long getMisses();
+
+    /**
+     * @return the number of resources removed to keep the cache under its maximum size
+     */
+    long getEvictions();
+
+    /**
+     * @return the total size in bytes of the cached resources
+     */
+    long getSize();
+
+    /**
+     * @return the number of cached resources
+     */
+    int getEntries();
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import org.osgi.framework.Bundle;
+import org.osgi.service.http.HttpContext;
+
+import com.peergreen.webcontainer.tomcat7.ResourceFingerprintResolver;
+
+/**
+ * Content hashes of the resources registered through the HttpService. A
+ * resource is also served under a fingerprinted name containing its hash (ie
+ * /static/app.js is served as /static/app.0123456789abcdef.js) with far-future
+ * immutable caching, so that its URL changes with its content.
+ * @author Florent Benoit
+ */
+public interface ResourceFingerprints extends ResourceFingerprintResolver {
+
+    /**
+     * @return true if the fingerprinted names are enabled.
+     */
+    boolean isEnabled();
+
+    /**
+     * Registers the resources of an alias. Their hashes are computed in the
+     * background.
+     * @param alias the alias of the resources
+     * @param name the base name of the resources in the http context
+     * @param httpContext the http context used to load the resources
+     * @param bundle the bundle that has registered the resources
+     */
+    void register(String alias, String name, HttpContext httpContext, Bundle bundle);
+
+    /**
+     * Unregisters the resources of an alias.
+     * @param alias the alias of the resources
+     */
+    void unregister(String alias);
+
+    /**
+     * Unregisters all the resources registered by the given bundle.
+     * @param bundle the bundle
+     */
+    void unregister(Bundle bundle);
+
+    /**
+     * Gets the logical path of a fingerprinted resource path.
+     * @param httpContext the http context used to load the resource
+     * @param resourcePath the fingerprinted path of the resource in the http context
+     * @return the logical path or null if the path is not a fingerprint of
+     * the current content of a resource
+     */
+    String getLogicalPath(HttpContext httpContext, String resourcePath);
+}
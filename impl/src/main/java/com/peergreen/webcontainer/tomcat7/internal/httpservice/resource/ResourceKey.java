@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import org.osgi.service.http.HttpContext;
+
+/**
+ * Key of a resource: the http context (by identity) and the resource path.
+ * @author Florent Benoit
+ */
+public final class ResourceKey {
+
+    /**
+     * Http context used to load the resource.
+     */
+    private final HttpContext httpContext;
+
+    /**
+     * Path of the resource in the http context.
+     */
+    private final String path;
+
+    /**
+     * Build a new key.
+     * @param httpContext the http context used to load the resource
+     * @param path the path of the resource
+     */
+    public ResourceKey(HttpContext httpContext, String path) {
+        this.httpContext = httpContext;
+        this.path = path;
+    }
+
+    /**
+     * @return the http context used to load the resource.
+     */
+    public HttpContext getHttpContext() {
+        return httpContext;
+    }
+
+    /**
+     * @return the path of the resource.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * System.identityHashCode(httpContext) + path.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (!(object instanceof ResourceKey)) {
+            return false;
+        }
+        ResourceKey other = (ResourceKey) object;
+        return httpContext == other.httpContext && path.equals(other.path);
+    }
+}
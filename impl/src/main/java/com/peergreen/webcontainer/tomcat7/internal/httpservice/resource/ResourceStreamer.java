@@ -0,0 +1,42 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Streams the large resources served through the HttpService
+ * registerResources() aliases outside of the container threads. The requests
+ * are put in asynchronous mode and the content is copied by a small dedicated
+ * pool of threads, so that slow clients do not hold the connector threads.
+ * @author Florent Benoit
+ */
+public interface ResourceStreamer {
+
+    /**
+     * Checks if a resource with the given length needs to be streamed asynchronously.
+     * @param contentLength the length of the resource
+     * @return true if the streaming is enabled and the resource is large enough
+     */
+    boolean isStreamed(long contentLength);
+
+    /**
+     * Runs the given copy of a resource on a streaming thread.
+     * @param task the copy of the resource
+     * @throws RejectedExecutionException if the task cannot be accepted
+     */
+    void execute(Runnable task) throws RejectedExecutionException;
+}
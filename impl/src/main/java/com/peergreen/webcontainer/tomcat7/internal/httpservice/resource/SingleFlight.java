@@ -0,0 +1,91 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces the concurrent loads of the same resource: the first thread
+ * loads it while the other threads asking for the same key wait for this
+ * load and share its result. Nothing is kept once the load is done.
+ * @param <K> the type of the keys
+ * @param <V> the type of the loaded values
+ * @author Florent Benoit
+ */
+public class SingleFlight<K, V> {
+
+    /**
+     * Loads in progress.
+     */
+    private final ConcurrentMap<K, FutureTask<V>> loads;
+
+    public SingleFlight() {
+        this.loads = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Loads the value of the given key, or waits for the load already in
+     * progress for this key.
+     * @param key the key of the value
+     * @param loader the loader called if no load is in progress
+     * @return the loaded value
+     * @throws IOException if the value cannot be loaded
+     */
+    public V load(K key, Callable<V> loader) throws IOException {
+        FutureTask<V> task = new FutureTask<>(loader);
+        FutureTask<V> current = loads.putIfAbsent(key, task);
+        if (current == null) {
+            current = task;
+            try {
+                task.run();
+            } finally {
+                loads.remove(key, task);
+            }
+        }
+
+        try {
+            return current.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(String.format("Interrupted while waiting for the load of %s", key));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(String.format("Unable to load %s", key), cause);
+        }
+    }
+
+    /**
+     * @return the number of loads in progress.
+     */
+    public int size() {
+        return loads.size();
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+
+/**
+ * Resource which is not cached and which is read from its bundle URL.
+ * @author Florent Benoit
+ */
+public class URLResource extends BundleResource {
+
+    /**
+     * URL of the resource.
+     */
+    private final URL url;
+
+    /**
+     * Connection opened to get the metadata, its stream is used by the first read.
+     */
+    private URLConnection urlConnection;
+
+    /**
+     * Build a new resource on the given connection.
+     * @param urlConnection the connection used to read the metadata
+     * @param contentType the content type of the resource
+     * @param lastModified the last modification date of the resource
+     * @param eTag the entity tag of the resource
+     * @param bundleId the id of the bundle owning this resource
+     */
+    public URLResource(URLConnection urlConnection, String contentType, long lastModified, String eTag, long bundleId) {
+        super(contentType, urlConnection.getContentEncoding(), urlConnection.getContentLength(), lastModified, eTag, bundleId);
+        this.url = urlConnection.getURL();
+        this.urlConnection = urlConnection;
+    }
+
+    /**
+     * @return the URL of the resource.
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+        // reuse the connection already opened for the first read (the resource may be shared by coalesced requests)
+        URLConnection connection;
+        synchronized (this) {
+            connection = urlConnection;
+            urlConnection = null;
+        }
+        if (connection != null) {
+            return connection.getInputStream();
+        }
+        connection = url.openConnection();
+        connection.setUseCaches(false);
+        return connection.getInputStream();
+    }
+
+    /**
+     * Releases the connection opened to get the metadata if the content has
+     * not been read.
+     */
+    public void release() {
+        URLConnection connection;
+        synchronized (this) {
+            connection = urlConnection;
+            urlConnection = null;
+        }
+        if (connection != null) {
+            try {
+                connection.getInputStream().close();
+            } catch (IOException e) {
+                // nothing to release
+            }
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.servlet.Filter;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Requires;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.NamespaceException;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.BasicHttpContext;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.WrappingResourceInServlet;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleEntryIndexManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceStreamer;
+
+/**
+ * Registers the Servlet, Filter and resource services published with the
+ * whiteboard properties (see {@link WhiteboardConstants}) on the HttpService
+ * of Tomcat.
+ * <br/>
+ * The changes are applied asynchronously, in order, by a single thread so
+ * that the bundles publishing the services are not blocked. Each change only
+ * updates the aliases of the changed service: when several services claim the
+ * same alias, only this alias is registered again if the service with the
+ * highest ranking changes.
+ * @author Florent Benoit
+ */
+@Component
+@Instantiate
+public class HttpWhiteboard implements ServiceTrackerCustomizer<Object, WhiteboardService> {
+
+    /**
+     * Logger.
+     */
+    private static final Log LOGGER = LogFactory.getLog(HttpWhiteboard.class);
+
+    /**
+     * Bundle context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Service used to register the servlets.
+     */
+    private final InternalTomcat7HttpService tomcat7HttpService;
+
+    /**
+     * Cache of the registered resources.
+     */
+    private final ResourceCache resourceCache;
+
+    /**
+     * On-disk cache of the large registered resources.
+     */
+    private final ExtractedResourceCache extractedResourceCache;
+
+    /**
+     * Indexes of the entries of the bundles publishing resources.
+     */
+    private final BundleEntryIndexManager bundleEntryIndexManager;
+
+    /**
+     * Caching policies of the resources.
+     */
+    private final CachePolicyManager cachePolicyManager;
+
+    /**
+     * Content hashes of the resources.
+     */
+    private final ResourceFingerprints resourceFingerprints;
+
+    /**
+     * Streamer of the large resources.
+     */
+    private final ResourceStreamer resourceStreamer;
+
+    /**
+     * Entries claiming each alias, sorted by ranking.
+     */
+    private final Map<String, List<WhiteboardEntry>> entriesByAlias;
+
+    /**
+     * Entry registered for each alias.
+     */
+    private final Map<String, WhiteboardEntry> registeredEntries;
+
+    /**
+     * HttpContext used for the services of each bundle.
+     */
+    private final Map<Bundle, HttpContext> httpContexts;
+
+    /**
+     * Filter services.
+     */
+    private final Set<WhiteboardService> filterServices;
+
+    /**
+     * Executor applying the changes.
+     */
+    private Executor executor;
+
+    /**
+     * Executor created by this component.
+     */
+    private ExecutorService ownExecutor;
+
+    /**
+     * Tracker of the whiteboard services.
+     */
+    private ServiceTracker<Object, WhiteboardService> tracker;
+
+    public HttpWhiteboard(BundleContext bundleContext, @Requires InternalTomcat7HttpService tomcat7HttpService,
+            @Requires ResourceCache resourceCache, @Requires ExtractedResourceCache extractedResourceCache,
+            @Requires BundleEntryIndexManager bundleEntryIndexManager, @Requires CachePolicyManager cachePolicyManager,
+            @Requires ResourceFingerprints resourceFingerprints, @Requires ResourceStreamer resourceStreamer) {
+        this.bundleContext = bundleContext;
+        this.tomcat7HttpService = tomcat7HttpService;
+        this.resourceCache = resourceCache;
+        this.extractedResourceCache = extractedResourceCache;
+        this.bundleEntryIndexManager = bundleEntryIndexManager;
+        this.cachePolicyManager = cachePolicyManager;
+        this.resourceFingerprints = resourceFingerprints;
+        this.resourceStreamer = resourceStreamer;
+        this.entriesByAlias = new HashMap<>();
+        this.registeredEntries = new HashMap<>();
+        this.httpContexts = new HashMap<>();
+        this.filterServices = new LinkedHashSet<>();
+    }
+
+    /**
+     * Sets the executor applying the changes (a single thread is used by default).
+     * The executor needs to run the tasks in order.
+     * @param executor the executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Starts to track the whiteboard services.
+     * @throws InvalidSyntaxException if the filter is invalid
+     */
+    @Validate
+    public void start() throws InvalidSyntaxException {
+        if (executor == null) {
+            ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "HttpService-Whiteboard");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor = ownExecutor;
+        }
+        tracker = new ServiceTracker<>(bundleContext, bundleContext.createFilter(WhiteboardConstants.WHITEBOARD_FILTER), this);
+        tracker.open();
+    }
+
+    /**
+     * Stops the tracking, all the registrations are removed.
+     */
+    @Invalidate
+    public void stop() {
+        if (tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+        if (ownExecutor != null) {
+            // pending changes are still applied
+            ownExecutor.shutdown();
+            ownExecutor = null;
+            executor = null;
+        }
+    }
+
+    @Override
+    public WhiteboardService addingService(ServiceReference<Object> reference) {
+        final WhiteboardService service = new WhiteboardService(reference);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                add(service);
+            }
+        });
+        return service;
+    }
+
+    @Override
+    public void modifiedService(ServiceReference<Object> reference, final WhiteboardService service) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                update(service);
+            }
+        });
+    }
+
+    @Override
+    public void removedService(ServiceReference<Object> reference, final WhiteboardService service) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                remove(service);
+            }
+        });
+    }
+
+    /**
+     * Adds the aliases of a new service.
+     * @param service the service
+     */
+    protected void add(WhiteboardService service) {
+        if (service.isFilter()) {
+            Object object = bundleContext.getService(service.getReference());
+            if (!(object instanceof Filter)) {
+                if (object != null) {
+                    bundleContext.ungetService(service.getReference());
+                }
+                return;
+            }
+            service.setFilter((Filter) object);
+            filterServices.add(service);
+            updateFilter(service);
+            return;
+        }
+        if (service.isServlet()) {
+            Object object = bundleContext.getService(service.getReference());
+            if (!(object instanceof Servlet)) {
+                if (object != null) {
+                    bundleContext.ungetService(service.getReference());
+                }
+                return;
+            }
+            service.setServlet((Servlet) object);
+        }
+        update(service);
+    }
+
+    /**
+     * Updates the aliases of a service after a change of its properties. Only
+     * the aliases of the service are checked.
+     * @param service the service
+     */
+    protected void update(WhiteboardService service) {
+        if (service.getFilter() != null) {
+            updateFilter(service);
+            return;
+        }
+        if (service.isServlet() && service.getServlet() == null) {
+            // not a valid servlet
+            return;
+        }
+        List<WhiteboardEntry> oldEntries = service.getEntries();
+        List<WhiteboardEntry> newEntries = service.buildEntries();
+        service.setEntries(newEntries);
+
+        Set<String> aliases = new LinkedHashSet<>();
+        for (WhiteboardEntry entry : oldEntries) {
+            List<WhiteboardEntry> entries = entriesByAlias.get(entry.getAlias());
+            if (entries != null) {
+                entries.remove(entry);
+            }
+            aliases.add(entry.getAlias());
+        }
+        for (WhiteboardEntry entry : newEntries) {
+            List<WhiteboardEntry> entries = entriesByAlias.get(entry.getAlias());
+            if (entries == null) {
+                entries = new ArrayList<>();
+                entriesByAlias.put(entry.getAlias(), entries);
+            }
+            entries.add(entry);
+            Collections.sort(entries);
+            aliases.add(entry.getAlias());
+        }
+        for (String alias : aliases) {
+            reconcile(alias);
+        }
+    }
+
+    /**
+     * Removes the aliases of a service which is gone.
+     * @param service the service
+     */
+    protected void remove(WhiteboardService service) {
+        if (service.getFilter() != null) {
+            unregisterFilter(service);
+            filterServices.remove(service);
+            service.setFilter(null);
+            bundleContext.ungetService(service.getReference());
+        }
+        List<WhiteboardEntry> oldEntries = service.getEntries();
+        service.setEntries(new ArrayList<WhiteboardEntry>());
+        for (WhiteboardEntry entry : oldEntries) {
+            List<WhiteboardEntry> entries = entriesByAlias.get(entry.getAlias());
+            if (entries != null) {
+                entries.remove(entry);
+            }
+            reconcile(entry.getAlias());
+        }
+        if (service.getServlet() != null) {
+            service.setServlet(null);
+            bundleContext.ungetService(service.getReference());
+        }
+
+        // Drop the HttpContext of the bundle if it has no more services
+        for (List<WhiteboardEntry> entries : entriesByAlias.values()) {
+            for (WhiteboardEntry entry : entries) {
+                if (entry.getService().getBundle() == service.getBundle()) {
+                    return;
+                }
+            }
+        }
+        for (WhiteboardService filterService : filterServices) {
+            if (filterService.getBundle() == service.getBundle()) {
+                return;
+            }
+        }
+        httpContexts.remove(service.getBundle());
+    }
+
+    /**
+     * Registers the filter of the service with its current properties, once
+     * for each pattern. A change of ranking only reorders the filter, a change
+     * of patterns or of init parameters registers the filter again.
+     * @param service the filter service
+     */
+    protected void updateFilter(WhiteboardService service) {
+        List<String> patterns = service.getFilterPatterns();
+        Dictionary<String, String> initparams = service.getFilterInitParams();
+        if (!service.getRegisteredFilters().isEmpty() && (!patterns.equals(service.getRegisteredFilterPatterns())
+                || !initparams.equals(service.getRegisteredFilterInitParams()))) {
+            unregisterFilter(service);
+        }
+        if (service.getRegisteredFilters().isEmpty()) {
+            List<WhiteboardFilter> filters = new ArrayList<>();
+            for (int i = 0; i < patterns.size(); i++) {
+                filters.add(new WhiteboardFilter(service, service.getFilter()));
+            }
+            service.setRegisteredFilters(patterns, filters, initparams);
+        }
+        List<WhiteboardFilter> filters = service.getRegisteredFilters();
+        for (int i = 0; i < patterns.size(); i++) {
+            try {
+                tomcat7HttpService.registerFilter(patterns.get(i), filters.get(i), service.getRanking(), initparams,
+                        getHttpContext(service.getBundle()), bundleContext.getBundle());
+                filters.get(i).setRegistered(true);
+            } catch (ServletException | NamespaceException | RuntimeException e) {
+                // invalid pattern or filter, the pattern is ignored until the service is modified
+                LOGGER.warn(String.format("Unable to register the filter service %d with the pattern %s",
+                        service.getServiceId(), patterns.get(i)), e);
+            }
+        }
+    }
+
+    /**
+     * Unregisters the filters of the service from the HttpService.
+     * @param service the filter service
+     */
+    protected void unregisterFilter(WhiteboardService service) {
+        List<WhiteboardFilter> filters = service.getRegisteredFilters();
+        service.setRegisteredFilters(Collections.<String>emptyList(), Collections.<WhiteboardFilter>emptyList(), null);
+        for (WhiteboardFilter filter : filters) {
+            if (!filter.isRegistered()) {
+                continue;
+            }
+            try {
+                tomcat7HttpService.unregisterFilter(filter, bundleContext.getBundle());
+            } catch (RuntimeException e) {
+                // already removed (the HttpService may be stopping)
+                LOGGER.warn(String.format("Unable to unregister the filter service %d", service.getServiceId()), e);
+            }
+        }
+    }
+
+    /**
+     * Registers the entry with the highest ranking for the given alias if it
+     * is not the one already registered.
+     * @param alias the alias
+     */
+    protected void reconcile(String alias) {
+        List<WhiteboardEntry> entries = entriesByAlias.get(alias);
+        if (entries == null) {
+            entries = Collections.emptyList();
+        }
+        WhiteboardEntry current = registeredEntries.get(alias);
+        for (WhiteboardEntry candidate : new ArrayList<>(entries)) {
+            if (current != null && current.isSameRegistration(candidate)) {
+                // still the same registration, nothing to do
+                if (current != candidate) {
+                    candidate.setRegisteredServlet(current.getRegisteredServlet());
+                    current.setRegisteredServlet(null);
+                    registeredEntries.put(alias, candidate);
+                }
+                return;
+            }
+            if (current != null) {
+                unregister(current);
+                current = null;
+            }
+            if (register(candidate)) {
+                return;
+            }
+        }
+        if (current != null) {
+            unregister(current);
+        }
+        if (entries.isEmpty()) {
+            entriesByAlias.remove(alias);
+        }
+    }
+
+    /**
+     * Registers the given entry on the HttpService.
+     * @param entry the entry
+     * @return true if the registration has been done
+     */
+    protected boolean register(WhiteboardEntry entry) {
+        WhiteboardService service = entry.getService();
+        HttpContext httpContext = getHttpContext(service.getBundle());
+        Servlet servlet;
+        Dictionary<String, String> initparams;
+        if (service.isServlet()) {
+            servlet = service.getServlet();
+            initparams = service.getInitParams();
+        } else {
+            bundleEntryIndexManager.getIndex(service.getBundle()).build();
+            servlet = new WrappingResourceInServlet(entry.getName(), httpContext, service.getBundle(), resourceCache, extractedResourceCache,
+                    resourceFingerprints, resourceStreamer, entry.getAlias(), cachePolicyManager);
+            // policy of the service properties, else the servlet asks the manager at each request
+            initparams = service.getResourceInitParams();
+        }
+        try {
+            tomcat7HttpService.registerServlet(entry.getAlias(), servlet, initparams, httpContext, bundleContext.getBundle());
+        } catch (ServletException | NamespaceException | RuntimeException e) {
+            // alias already used or invalid servlet, the next candidate is used
+            LOGGER.warn(String.format("Unable to register the service %d with the alias %s", service.getServiceId(), entry.getAlias()), e);
+            return false;
+        }
+        entry.setRegisteredServlet(servlet);
+        registeredEntries.put(entry.getAlias(), entry);
+        if (!service.isServlet()) {
+            resourceFingerprints.register(entry.getAlias(), entry.getName(), httpContext, service.getBundle());
+        }
+        return true;
+    }
+
+    /**
+     * Unregisters the given entry from the HttpService.
+     * @param entry the entry
+     */
+    protected void unregister(WhiteboardEntry entry) {
+        registeredEntries.remove(entry.getAlias());
+        entry.setRegisteredServlet(null);
+        resourceFingerprints.unregister(entry.getAlias());
+        try {
+            tomcat7HttpService.unregister(entry.getAlias(), bundleContext.getBundle());
+        } catch (RuntimeException e) {
+            // already removed (the HttpService may be stopping)
+            LOGGER.warn(String.format("Unable to unregister the service %d from the alias %s", entry.getService().getServiceId(),
+                    entry.getAlias()), e);
+        }
+    }
+
+    /**
+     * Gets the HttpContext of the services of the given bundle.
+     * @param bundle the bundle
+     * @return the HttpContext
+     */
+    private HttpContext getHttpContext(Bundle bundle) {
+        HttpContext httpContext = httpContexts.get(bundle);
+        if (httpContext == null) {
+            httpContext = new BasicHttpContext(bundle, bundleEntryIndexManager.getIndex(bundle));
+            httpContexts.put(bundle, httpContext);
+        }
+        return httpContext;
+    }
+
+}
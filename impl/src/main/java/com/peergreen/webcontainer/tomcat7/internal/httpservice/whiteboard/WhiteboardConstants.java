@@ -0,0 +1,68 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+/**
+ * Service properties used to register servlets, filters and resources with the
+ * whiteboard pattern. The names are the ones of the OSGi Http Whiteboard
+ * specification.
+ * @author Florent Benoit
+ */
+public final class WhiteboardConstants {
+
+    /**
+     * Pattern(s) of a servlet service (ie : /myservlet or /myservlet/*).
+     */
+    public static final String SERVLET_PATTERN = "osgi.http.whiteboard.servlet.pattern";
+
+    /**
+     * Prefix of the service properties given as init parameters to a servlet.
+     */
+    public static final String SERVLET_INIT_PARAM_PREFIX = "servlet.init.";
+
+    /**
+     * Pattern(s) of a resource service.
+     */
+    public static final String RESOURCE_PATTERN = "osgi.http.whiteboard.resource.pattern";
+
+    /**
+     * Prefix of the resources in the bundle of a resource service.
+     */
+    public static final String RESOURCE_PREFIX = "osgi.http.whiteboard.resource.prefix";
+
+    /**
+     * Pattern of a filter service (ie : /* or /myservlet/*).
+     */
+    public static final String FILTER_PATTERN = "osgi.http.whiteboard.filter.pattern";
+
+    /**
+     * Prefix of the service properties given as init parameters to a filter.
+     */
+    public static final String FILTER_INIT_PARAM_PREFIX = "filter.init.";
+
+    /**
+     * Filter selecting the services handled by the whiteboard.
+     */
+    public static final String WHITEBOARD_FILTER = "(|(&(objectClass=javax.servlet.Servlet)(" + SERVLET_PATTERN + "=*))("
+            + RESOURCE_PATTERN + "=*)(&(objectClass=javax.servlet.Filter)(" + FILTER_PATTERN + "=*)))";
+
+    /**
+     * Utility class.
+     */
+    private WhiteboardConstants() {
+
+    }
+}
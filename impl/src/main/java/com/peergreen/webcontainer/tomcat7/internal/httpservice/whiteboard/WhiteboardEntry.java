@@ -0,0 +1,138 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+import java.util.Dictionary;
+
+import javax.servlet.Servlet;
+
+/**
+ * Alias claimed by a whiteboard service. When several services claim the
+ * same alias, the one with the highest ranking (and then the lowest service
+ * id) is registered.
+ * @author Florent Benoit
+ */
+public class WhiteboardEntry implements Comparable<WhiteboardEntry> {
+
+    /**
+     * Service claiming the alias.
+     */
+    private final WhiteboardService service;
+
+    /**
+     * Alias.
+     */
+    private final String alias;
+
+    /**
+     * Ranking of the service when this entry was built.
+     */
+    private final int ranking;
+
+    /**
+     * Name of the resources in the bundle (null for a servlet).
+     */
+    private final String name;
+
+    /**
+     * Init parameters defined by the service properties (the caching policy
+     * for resources).
+     */
+    private final Dictionary<String, String> initParams;
+
+    /**
+     * Servlet registered for this entry (null if not registered).
+     */
+    private Servlet registeredServlet;
+
+    public WhiteboardEntry(WhiteboardService service, String alias, int ranking, String name, Dictionary<String, String> initParams) {
+        this.service = service;
+        this.alias = alias;
+        this.ranking = ranking;
+        this.name = name;
+        this.initParams = initParams;
+    }
+
+    /**
+     * @return the service claiming the alias.
+     */
+    public WhiteboardService getService() {
+        return service;
+    }
+
+    /**
+     * @return the alias.
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the name of the resources in the bundle (null for a servlet).
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Checks if the given entry leads to the same registration than this
+     * entry (same service, same resources and same init parameters), so that
+     * a change of ranking doesn't need a new registration.
+     * @param other the other entry
+     * @return true if the registration of this entry can be kept for the other entry
+     */
+    public boolean isSameRegistration(WhiteboardEntry other) {
+        if (service != other.service || !initParams.equals(other.initParams)) {
+            return false;
+        }
+        if (name == null) {
+            return other.name == null;
+        }
+        return name.equals(other.name);
+    }
+
+    /**
+     * @return the servlet registered for this entry or null.
+     */
+    public Servlet getRegisteredServlet() {
+        return registeredServlet;
+    }
+
+    /**
+     * Sets the servlet registered for this entry.
+     * @param registeredServlet the servlet or null if it is no longer registered
+     */
+    public void setRegisteredServlet(Servlet registeredServlet) {
+        this.registeredServlet = registeredServlet;
+    }
+
+    /**
+     * Highest ranking first, then the oldest service.
+     */
+    @Override
+    public int compareTo(WhiteboardEntry other) {
+        if (ranking != other.ranking) {
+            return ranking > other.ranking ? -1 : 1;
+        }
+        long serviceId = service.getServiceId();
+        long otherServiceId = other.service.getServiceId();
+        if (serviceId != otherServiceId) {
+            return serviceId < otherServiceId ? -1 : 1;
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Filter of a whiteboard service registered for one of its patterns. The
+ * HttpService registers a filter object for a single pattern: a filter
+ * service with several patterns is registered once per pattern with these
+ * filters, and the filter of the service is only initialized by the first of
+ * these registrations and destroyed with the last one.
+ * @author Florent Benoit
+ */
+public class WhiteboardFilter implements Filter {
+
+    /**
+     * Service of the filter.
+     */
+    private final WhiteboardService service;
+
+    /**
+     * Filter of the service.
+     */
+    private final Filter filter;
+
+    /**
+     * Registered on the HttpService ?
+     */
+    private volatile boolean registered;
+
+    public WhiteboardFilter(WhiteboardService service, Filter filter) {
+        this.service = service;
+        this.filter = filter;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        service.initFilter(filter, filterConfig);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        filter.doFilter(request, response, chain);
+    }
+
+    @Override
+    public void destroy() {
+        service.destroyFilter(filter);
+    }
+
+    /**
+     * @return the filter of the service.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return true if this filter is registered on the HttpService.
+     */
+    public boolean isRegistered() {
+        return registered;
+    }
+
+    /**
+     * @param registered true if this filter is registered on the HttpService
+     */
+    public void setRegistered(boolean registered) {
+        this.registered = registered;
+    }
+
+}
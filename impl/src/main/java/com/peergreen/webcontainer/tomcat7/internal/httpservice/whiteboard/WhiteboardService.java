@@ -0,0 +1,384 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterConfig;
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicy;
+
+/**
+ * Servlet, filter or resource service tracked by the whiteboard.
+ * @author Florent Benoit
+ */
+public class WhiteboardService {
+
+    /**
+     * Logger.
+     */
+    private static final Log LOGGER = LogFactory.getLog(WhiteboardService.class);
+
+    /**
+     * Reference of the service.
+     */
+    private final ServiceReference<Object> reference;
+
+    /**
+     * Id of the service.
+     */
+    private final long serviceId;
+
+    /**
+     * Bundle that has registered the service.
+     */
+    private final Bundle bundle;
+
+    /**
+     * Service object, only got for the servlets.
+     */
+    private Servlet servlet;
+
+    /**
+     * Service object, only got for the filters.
+     */
+    private Filter filter;
+
+    /**
+     * Patterns with which the filter is registered (empty if not registered).
+     */
+    private List<String> registeredFilterPatterns;
+
+    /**
+     * Filters registered for each pattern.
+     */
+    private List<WhiteboardFilter> registeredFilters;
+
+    /**
+     * Init parameters with which the filter is registered.
+     */
+    private Dictionary<String, String> registeredFilterInitParams;
+
+    /**
+     * Number of registrations that have initialized the filter.
+     */
+    private int filterInitializations;
+
+    /**
+     * Entries (one by alias) of the current properties of the service.
+     */
+    private List<WhiteboardEntry> entries;
+
+    public WhiteboardService(ServiceReference<Object> reference) {
+        this.reference = reference;
+        this.serviceId = (Long) reference.getProperty(Constants.SERVICE_ID);
+        this.bundle = reference.getBundle();
+        this.entries = new ArrayList<>();
+        this.registeredFilterPatterns = Collections.emptyList();
+        this.registeredFilters = Collections.emptyList();
+    }
+
+    /**
+     * @return the reference of the service.
+     */
+    public ServiceReference<Object> getReference() {
+        return reference;
+    }
+
+    /**
+     * @return the id of the service.
+     */
+    public long getServiceId() {
+        return serviceId;
+    }
+
+    /**
+     * @return the bundle that has registered the service.
+     */
+    public Bundle getBundle() {
+        return bundle;
+    }
+
+    /**
+     * @return true if the service is a servlet (else it defines resources).
+     */
+    public boolean isServlet() {
+        return reference.getProperty(WhiteboardConstants.SERVLET_PATTERN) != null;
+    }
+
+    /**
+     * @return true if the service is a filter.
+     */
+    public boolean isFilter() {
+        return !isServlet() && reference.getProperty(WhiteboardConstants.FILTER_PATTERN) != null;
+    }
+
+    /**
+     * @return the servlet object or null if not yet got.
+     */
+    public Servlet getServlet() {
+        return servlet;
+    }
+
+    /**
+     * Sets the servlet object of the service.
+     * @param servlet the servlet
+     */
+    public void setServlet(Servlet servlet) {
+        this.servlet = servlet;
+    }
+
+    /**
+     * @return the filter object or null if not yet got.
+     */
+    public Filter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the filter object of the service.
+     * @param filter the filter
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @return the patterns with which the filter is registered.
+     */
+    public List<String> getRegisteredFilterPatterns() {
+        return registeredFilterPatterns;
+    }
+
+    /**
+     * @return the filters registered for each pattern.
+     */
+    public List<WhiteboardFilter> getRegisteredFilters() {
+        return registeredFilters;
+    }
+
+    /**
+     * @return the init parameters with which the filter is registered.
+     */
+    public Dictionary<String, String> getRegisteredFilterInitParams() {
+        return registeredFilterInitParams;
+    }
+
+    /**
+     * Sets the registrations of the filter.
+     * @param patterns the patterns, empty if the filter is no longer registered
+     * @param filters the filters registered for each pattern
+     * @param initparams the init parameters
+     */
+    public void setRegisteredFilters(List<String> patterns, List<WhiteboardFilter> filters, Dictionary<String, String> initparams) {
+        this.registeredFilterPatterns = patterns;
+        this.registeredFilters = filters;
+        this.registeredFilterInitParams = initparams;
+    }
+
+    /**
+     * Initialize the filter for the first of its registrations.
+     * @param filter the filter of the service
+     * @param filterConfig the config of the registration
+     * @throws ServletException if the filter cannot be initialized
+     */
+    public synchronized void initFilter(Filter filter, FilterConfig filterConfig) throws ServletException {
+        if (filterInitializations == 0) {
+            filter.init(filterConfig);
+        }
+        filterInitializations++;
+    }
+
+    /**
+     * Destroy the filter with the last of its registrations.
+     * @param filter the filter of the service
+     */
+    public synchronized void destroyFilter(Filter filter) {
+        if (filterInitializations > 0) {
+            filterInitializations--;
+            if (filterInitializations == 0) {
+                filter.destroy();
+            }
+        }
+    }
+
+    /**
+     * @return the patterns of the filter.
+     */
+    public List<String> getFilterPatterns() {
+        return getStrings(WhiteboardConstants.FILTER_PATTERN);
+    }
+
+    /**
+     * @return the ranking of the service.
+     */
+    public int getRanking() {
+        Object value = reference.getProperty(Constants.SERVICE_RANKING);
+        if (value instanceof Integer) {
+            return (Integer) value;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the entries of the service.
+     */
+    public List<WhiteboardEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Sets the entries of the service.
+     * @param entries the new entries
+     */
+    public void setEntries(List<WhiteboardEntry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Builds the entries matching the current properties of the service.
+     * Only the first pattern is used for a servlet as a servlet object is
+     * initialized for a single alias, the other ones are reported.
+     * @return the entries
+     */
+    public List<WhiteboardEntry> buildEntries() {
+        int ranking = getRanking();
+        List<WhiteboardEntry> newEntries = new ArrayList<>();
+        if (isServlet()) {
+            List<String> patterns = getStrings(WhiteboardConstants.SERVLET_PATTERN);
+            if (patterns.size() > 1) {
+                LOGGER.warn(String.format("Only the pattern %s of the servlet service %d is registered, the patterns %s are ignored",
+                        patterns.get(0), serviceId, patterns.subList(1, patterns.size())));
+            }
+            if (!patterns.isEmpty()) {
+                newEntries.add(new WhiteboardEntry(this, toAlias(patterns.get(0)), ranking, null, getInitParams()));
+            }
+        } else if (!isFilter()) {
+            String name = getResourcePrefix();
+            Dictionary<String, String> initParams = getResourceInitParams();
+            for (String pattern : getStrings(WhiteboardConstants.RESOURCE_PATTERN)) {
+                newEntries.add(new WhiteboardEntry(this, toAlias(pattern), ranking, name, initParams));
+            }
+        }
+        return newEntries;
+    }
+
+    /**
+     * @return the prefix of the resources in the bundle of the service.
+     */
+    public String getResourcePrefix() {
+        Object prefix = reference.getProperty(WhiteboardConstants.RESOURCE_PREFIX);
+        if (prefix == null) {
+            return "/";
+        }
+        String name = prefix.toString();
+        if (name.length() > 1 && name.endsWith("/")) {
+            name = name.substring(0, name.length() - 1);
+        }
+        return name;
+    }
+
+    /**
+     * @return the init parameters of the servlet, defined by the service
+     * properties starting with servlet.init.
+     */
+    public Dictionary<String, String> getInitParams() {
+        return getInitParams(WhiteboardConstants.SERVLET_INIT_PARAM_PREFIX);
+    }
+
+    /**
+     * @return the init parameters of the resources: the caching policy
+     * defined by the service properties, if any.
+     */
+    public Dictionary<String, String> getResourceInitParams() {
+        Dictionary<String, String> initparams = new Hashtable<>();
+        Object cachePolicy = reference.getProperty(CachePolicy.INIT_PARAMETER);
+        if (cachePolicy != null) {
+            initparams.put(CachePolicy.INIT_PARAMETER, cachePolicy.toString());
+        }
+        return initparams;
+    }
+
+    /**
+     * @return the init parameters of the filter, defined by the service
+     * properties starting with filter.init.
+     */
+    public Dictionary<String, String> getFilterInitParams() {
+        return getInitParams(WhiteboardConstants.FILTER_INIT_PARAM_PREFIX);
+    }
+
+    /**
+     * Gets the init parameters defined by the properties with the given prefix.
+     * @param prefix the prefix of the properties
+     * @return the init parameters
+     */
+    private Dictionary<String, String> getInitParams(String prefix) {
+        Dictionary<String, String> initparams = new Hashtable<>();
+        for (String key : reference.getPropertyKeys()) {
+            if (key.startsWith(prefix)) {
+                initparams.put(key.substring(prefix.length()), String.valueOf(reference.getProperty(key)));
+            }
+        }
+        return initparams;
+    }
+
+    /**
+     * Gets the values of a String or String[] property.
+     * @param key the key of the property
+     * @return the values
+     */
+    private List<String> getStrings(String key) {
+        List<String> values = new ArrayList<>();
+        Object value = reference.getProperty(key);
+        if (value instanceof String[]) {
+            for (String item : (String[]) value) {
+                values.add(item);
+            }
+        } else if (value != null) {
+            values.add(value.toString());
+        }
+        return values;
+    }
+
+    /**
+     * Converts a whiteboard pattern in an HttpService alias (/a/* gives /a).
+     * @param pattern the pattern
+     * @return the alias
+     */
+    protected static String toAlias(String pattern) {
+        String alias = pattern;
+        if (alias.endsWith("/*")) {
+            alias = alias.substring(0, alias.length() - 2);
+        }
+        if (alias.isEmpty()) {
+            return "/";
+        }
+        return alias;
+    }
+}
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.felix.ipojo.annotations.Component;
+import org.apache.felix.ipojo.annotations.Instantiate;
+import org.apache.felix.ipojo.annotations.Invalidate;
+import org.apache.felix.ipojo.annotations.Property;
+import org.apache.felix.ipojo.annotations.Provides;
+import org.apache.felix.ipojo.annotations.Validate;
+import org.osgi.framework.BundleContext;
+
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.FileUtils;
+
+/**
+ * Default implementation of the {@link WorkspaceManager}. The workspaces are
+ * in a single root directory (the bundle storage area by default, a tmpfs can
+ * be configured) with a docbase and a work directory per context path. The
+ * content of a previous run is removed on startup.
+ * @author Florent Benoit
+ */
+@Component
+@Provides
+@Instantiate
+public class DefaultWorkspaceManager implements WorkspaceManager {
+
+    /**
+     * Name of the directory of the workspaces, in the bundle storage area or
+     * in the configured directory.
+     */
+    private static final String DEFAULT_DIRECTORY = "httpservice-workspaces";
+
+    /**
+     * Name of the directory of the document bases.
+     */
+    private static final String DOCBASE_DIRECTORY = "docbase";
+
+    /**
+     * Name of the directory of the work directories.
+     */
+    private static final String WORK_DIRECTORY = "work";
+
+    /**
+     * Name of the directory of the root context.
+     */
+    private static final String ROOT_NAME = "ROOT";
+
+    /**
+     * Bundle Context.
+     */
+    private final BundleContext bundleContext;
+
+    /**
+     * Workspaces by context path.
+     */
+    private final Map<String, Workspace> workspaces;
+
+    /**
+     * Names of the directories in use.
+     */
+    private final Set<String> names;
+
+    /**
+     * Directory configured for the workspaces.
+     */
+    private String directory;
+
+    /**
+     * Root directory of the workspaces.
+     */
+    private File rootDirectory;
+
+    /**
+     * Default constructor with the given bundle context.
+     * @param bundleContext used to get the storage area
+     */
+    public DefaultWorkspaceManager(BundleContext bundleContext) {
+        this.bundleContext = bundleContext;
+        this.workspaces = new HashMap<>();
+        this.names = new HashSet<>();
+    }
+
+    /**
+     * Sets the parent directory of the workspaces. Workspaces are created in
+     * its own sub directory so that the directory can be shared with other
+     * components.
+     * @param directory the path of the directory
+     */
+    @Property(name = "directory")
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Prepare the root directory.
+     */
+    @Validate
+    public synchronized void start() {
+        File root;
+        if (directory != null) {
+            // only the sub directory is owned and cleaned
+            root = new File(directory, DEFAULT_DIRECTORY);
+        } else {
+            root = bundleContext.getDataFile(DEFAULT_DIRECTORY);
+            if (root == null) {
+                try {
+                    root = Files.createTempDirectory(DEFAULT_DIRECTORY).toFile();
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to create a directory for the workspaces", e);
+                }
+            }
+        }
+
+        // remove content of a previous run
+        FileUtils.delete(root);
+        if (!root.mkdirs() && !root.isDirectory()) {
+            throw new IllegalStateException(String.format("Unable to create the directory %s", root));
+        }
+        this.rootDirectory = root;
+    }
+
+    /**
+     * Remove all the workspaces.
+     */
+    @Invalidate
+    public synchronized void stop() {
+        workspaces.clear();
+        names.clear();
+        FileUtils.delete(rootDirectory);
+    }
+
+    @Override
+    public synchronized Workspace acquire(String contextPath) throws IOException {
+        Workspace workspace = workspaces.get(contextPath);
+        if (workspace != null) {
+            return workspace;
+        }
+        if (rootDirectory == null) {
+            throw new IllegalStateException("The workspace manager is not started");
+        }
+
+        // same name for the same path, unless an other path gives the same name
+        String name = getName(contextPath);
+        String uniqueName = name;
+        int index = 1;
+        while (names.contains(uniqueName)) {
+            uniqueName = name + "-" + index++;
+        }
+
+        File docBase = new File(new File(rootDirectory, DOCBASE_DIRECTORY), uniqueName);
+        File workDirectory = new File(new File(rootDirectory, WORK_DIRECTORY), uniqueName);
+        // content of a previous context with the same path
+        FileUtils.delete(docBase);
+        FileUtils.delete(workDirectory);
+        Files.createDirectories(docBase.toPath());
+        Files.createDirectories(workDirectory.toPath());
+
+        workspace = new Workspace(contextPath, docBase, workDirectory);
+        workspaces.put(contextPath, workspace);
+        names.add(uniqueName);
+        return workspace;
+    }
+
+    @Override
+    public synchronized void release(String contextPath) {
+        Workspace workspace = workspaces.remove(contextPath);
+        if (workspace == null) {
+            return;
+        }
+        names.remove(workspace.getDocBase().getName());
+        FileUtils.delete(workspace.getDocBase());
+        FileUtils.delete(workspace.getWorkDirectory());
+    }
+
+    @Override
+    public synchronized int getWorkspaceCount() {
+        return workspaces.size();
+    }
+
+    @Override
+    public long getDiskUsage() {
+        File root;
+        synchronized (this) {
+            root = rootDirectory;
+        }
+        if (root == null || !root.exists()) {
+            return 0;
+        }
+        final long[] size = new long[1];
+        try {
+            Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path path, BasicFileAttributes attrs) {
+                    size[0] += attrs.size();
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path path, IOException e) {
+                    // removed during the walk
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // partial size
+        }
+        return size[0];
+    }
+
+    /**
+     * Gets a directory name for the given context path.
+     * @param contextPath the path of the context
+     * @return a name that can be used on any file system
+     */
+    protected static String getName(String contextPath) {
+        String name = contextPath;
+        if (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        if (name.isEmpty()) {
+            return ROOT_NAME;
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace;
+
+import java.io.File;
+
+/**
+ * Directories given to an HttpService context.
+ * @author Florent Benoit
+ */
+public class Workspace {
+
+    /**
+     * Path of the context.
+     */
+    private final String contextPath;
+
+    /**
+     * Document base of the context.
+     */
+    private final File docBase;
+
+    /**
+     * Work directory of the context.
+     */
+    private final File workDirectory;
+
+    public Workspace(String contextPath, File docBase, File workDirectory) {
+        this.contextPath = contextPath;
+        this.docBase = docBase;
+        this.workDirectory = workDirectory;
+    }
+
+    /**
+     * @return the path of the context.
+     */
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    /**
+     * @return the document base of the context.
+     */
+    public File getDocBase() {
+        return docBase;
+    }
+
+    /**
+     * @return the work directory of the context.
+     */
+    public File getWorkDirectory() {
+        return workDirectory;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace;
+
+import java.io.IOException;
+
+/**
+ * Manages the docBase and work directories of the HttpService contexts. The
+ * directories of a context path are always the same ones and they are
+ * removed when the context is removed.
+ * @author Florent Benoit
+ */
+public interface WorkspaceManager {
+
+    /**
+     * Gets the workspace of the given context, creating its directories if needed.
+     * @param contextPath the path of the context
+     * @return the workspace of the context
+     * @throws IOException if the directories cannot be created
+     */
+    Workspace acquire(String contextPath) throws IOException;
+
+    /**
+     * Removes the workspace of the given context with all its content.
+     * @param contextPath the path of the context
+     */
+    void release(String contextPath);
+
+    /**
+     * @return the number of workspaces in use
+     */
+    int getWorkspaceCount();
+
+    /**
+     * @return the total size in bytes of the files in the workspaces
+     */
+    long getDiskUsage();
+}
@@ -17,6 +17,7 @@ package com.peergreen.webcontainer.tomcat7.internal.processor;
 
 import java.net.URL;
 import java.util.Collection;
+import java.util.Map;
 
 import org.apache.catalina.startup.ContextConfig;
 import org.apache.felix.ipojo.annotations.Requires;
@@ -30,6 +31,7 @@ import com.peergreen.webcontainer.tomcat7.TomcatWebApplication;
 import com.peergreen.webcontainer.tomcat7.internal.DefaultTomcatWebApplication;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
 import com.peergreen.webcontainer.tomcat7.internal.core.InstanceManagerLifeCycleListener;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
 import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenStandardContext;
 import com.peergreen.webcontainer.tomcat7.internal.core.tld.PeergreenTldListener;
 
@@ -68,6 +70,12 @@ public class WebApplicationDeployerProcessor {
         ContextConfig contextConfig = tomcat7Service.createContextConfig();
         context.addLifecycleListener(contextConfig);
 
+        // Classes already indexed by the metadata adapter are not scanned again by Tomcat
+        Map<String, ?> annotatedClasses = webApplication.getAnnotatedClasses();
+        if (annotatedClasses != null && contextConfig instanceof PeergreenContextConfig) {
+            ((PeergreenContextConfig) contextConfig).setAnnotationIndex(annotatedClasses.keySet());
+        }
+
         // Sets PG Tld Listener
         Collection<URL> tldUrls = webApplication.getExtraTlds();
         if (tldUrls != null && tldUrls.size() > 0) {
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.Filter;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.annotation.HandlesTypes;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.annotation.WebServlet;
+
+import org.testng.annotations.Test;
+
+/**
+ * In-JVM benchmark comparing the creation of context configurations with 24
+ * bound initializers: each initializer added one by one (HandlesTypes read by
+ * reflection for each context) or a snapshot of the index.
+ * It is not run by the default test suite, use
+ * -Dtest=ServletContainerInitializerBenchmark.
+ * @author Florent Benoit
+ */
+public class ServletContainerInitializerBenchmark {
+
+    private static final int INITIALIZERS = 24;
+
+    private static final int ITERATIONS = 200000;
+
+    @Test
+    public void benchmark() {
+        List<ServletContainerInitializer> initializers = new ArrayList<>();
+        ServletContainerInitializerIndex index = ServletContainerInitializerIndex.EMPTY;
+        for (int i = 0; i < INITIALIZERS; i++) {
+            ServletContainerInitializer sci;
+            switch (i % 3) {
+                case 0:
+                    sci = new ServletInitializer();
+                    break;
+                case 1:
+                    sci = new FilterInitializer();
+                    break;
+                default:
+                    sci = new ListenerInitializer();
+                    break;
+            }
+            initializers.add(sci);
+            index = index.add(sci);
+        }
+        assertEquals(index.getInitializers().size(), INITIALIZERS);
+
+        // warm up
+        run(initializers, index, true);
+        run(initializers, index, false);
+
+        long legacy = run(initializers, index, true);
+        long snapshot = run(initializers, index, false);
+
+        System.out.println(String.format("%d initializers: legacy %6d ns/context | snapshot %6d ns/context",
+                INITIALIZERS, legacy / ITERATIONS, snapshot / ITERATIONS));
+    }
+
+    private long run(List<ServletContainerInitializer> initializers, ServletContainerInitializerIndex index, boolean legacy) {
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            PeergreenContextConfig contextConfig = new PeergreenContextConfig();
+            if (legacy) {
+                for (ServletContainerInitializer sci : initializers) {
+                    contextConfig.addServletContainerInitializer(sci);
+                }
+            } else {
+                contextConfig.addServletContainerInitializers(index);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    @HandlesTypes({Servlet.class, WebServlet.class})
+    public static class ServletInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+    @HandlesTypes({Filter.class, WebFilter.class})
+    public static class FilterInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+    @HandlesTypes(WebListener.class)
+    public static class ListenerInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.catalina.deploy.WebXml;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks the persistent cache of the context configurations.
+ * @author Florent Benoit
+ */
+public class TestDescriptorCache {
+
+    private static final String WEB_XML = "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"3.0\">"
+            + "<servlet><servlet-name>my</servlet-name><servlet-class>a.MyServlet</servlet-class></servlet>"
+            + "<servlet-mapping><servlet-name>my</servlet-name><url-pattern>/my/*</url-pattern></servlet-mapping>"
+            + "<servlet><servlet-name>page</servlet-name><jsp-file>/page.jsp</jsp-file></servlet>"
+            + "<filter><filter-name>filter</filter-name><filter-class>a.MyFilter</filter-class></filter>"
+            + "<filter-mapping><filter-name>filter</filter-name><url-pattern>/*</url-pattern></filter-mapping>"
+            + "<listener><listener-class>a.MyListener</listener-class></listener>"
+            + "</web-app>";
+
+    private File docBase;
+
+    private File directory;
+
+    @BeforeMethod
+    public void createApplication() throws IOException {
+        docBase = Files.createTempDirectory("app").toFile();
+        File lib = new File(docBase, "WEB-INF/lib");
+        lib.mkdirs();
+        Files.write(new File(docBase, "WEB-INF/web.xml").toPath(), WEB_XML.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(lib, "a.jar").toPath(), new byte[] {1, 2, 3});
+        directory = Files.createTempDirectory("cache").toFile();
+    }
+
+    @AfterMethod
+    public void deleteApplication() {
+        delete(docBase);
+        delete(directory);
+    }
+
+    @Test
+    public void testKey() throws IOException {
+        DescriptorCache cache = new DescriptorCache(directory);
+        String key = cache.computeKey(docBase, null, Collections.singleton("a.Initializer"));
+        assertEquals(cache.computeKey(docBase, null, Collections.singleton("a.Initializer")), key);
+
+        // another initializer
+        assertNotEquals(cache.computeKey(docBase, null, Collections.<String>emptySet()), key);
+
+        // same size, other content
+        Files.write(new File(docBase, "WEB-INF/lib/a.jar").toPath(), new byte[] {1, 2, 4});
+        assertNotEquals(cache.computeKey(docBase, null, Collections.singleton("a.Initializer")), key);
+    }
+
+    @Test
+    public void testStoreLoad() throws IOException {
+        DescriptorCache cache = new DescriptorCache(directory);
+        String key = cache.computeKey(docBase, null, Collections.<String>emptySet());
+
+        WebXml fragment = new WebXml();
+        fragment.setName("fragment");
+        fragment.setJarName("a.jar");
+        fragment.setURL(new URL("jar:" + new File(docBase, "WEB-INF/lib/a.jar").toURI() + "!/"));
+        fragment.addAfterOrderingOthers();
+        Map<String, Set<String>> initializerClasses = new HashMap<>();
+        initializerClasses.put("a.Initializer", new LinkedHashSet<>(Arrays.asList("a.MyServlet", "a.MyFilter")));
+        DescriptorCacheEntry entry = new DescriptorCacheEntry(key, WEB_XML, true, new LinkedHashSet<>(Arrays.asList("fragment")),
+                Collections.singleton(fragment), initializerClasses);
+        entry.setTldListeners(Arrays.asList("a.TldListener"));
+        cache.store(docBase, entry);
+
+        DescriptorCacheEntry loaded = cache.load(docBase, key);
+        assertNotNull(loaded);
+        assertEquals(loaded.getWebXml(), WEB_XML);
+        assertEquals(loaded.isIgnoreAnnotations(), true);
+        assertEquals(loaded.getAbsoluteOrdering(), Collections.singleton("fragment"));
+        assertEquals(loaded.getInitializerClasses("a.Initializer"), initializerClasses.get("a.Initializer"));
+        assertEquals(loaded.getInitializerClasses("a.Other"), Collections.emptySet());
+        assertEquals(loaded.getTldListeners(), Arrays.asList("a.TldListener"));
+        WebXml loadedFragment = loaded.getFragments().get("fragment");
+        assertEquals(loadedFragment.getJarName(), "a.jar");
+        assertEquals(loadedFragment.getURL(), fragment.getURL());
+        assertEquals(loadedFragment.getAfterOrdering(), fragment.getAfterOrdering());
+
+        // application has changed
+        assertNull(cache.load(docBase, "other"));
+
+        // corrupted entry
+        Files.write(cache.getFile(docBase).toPath(), new byte[] {'<'});
+        assertNull(cache.load(docBase, key));
+    }
+
+    /**
+     * The restored descriptor is merged again with the defaults: it has to
+     * give the same effective descriptor.
+     */
+    @Test
+    public void testRestoredWebXml() {
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig();
+        contextConfig.createWebXmlDigester(false, false);
+
+        WebXml webXml = new WebXml();
+        contextConfig.parseWebXml(new InputSource(new ByteArrayInputStream(WEB_XML.getBytes(StandardCharsets.UTF_8))), webXml, false);
+        webXml.merge(Collections.singleton(getDefaults(contextConfig)));
+        String merged = webXml.toXml();
+
+        WebXml restored = new WebXml();
+        contextConfig.parseWebXml(new InputSource(new ByteArrayInputStream(merged.getBytes(StandardCharsets.UTF_8))), restored, false);
+        restored.merge(Collections.singleton(getDefaults(contextConfig)));
+        assertEquals(restored.toXml(), merged);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Parses the global web.xml like Tomcat does for the defaults.
+     */
+    private static WebXml getDefaults(PeergreenContextConfig contextConfig) {
+        WebXml defaults = new WebXml();
+        defaults.setOverridable(true);
+        defaults.setDistributable(true);
+        defaults.setAlwaysAddWelcomeFiles(false);
+        contextConfig.parseWebXml(contextConfig.getGlobalWebXmlSource(), defaults, false);
+        defaults.setReplaceWelcomeFiles(true);
+        return defaults;
+    }
+
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.testng.annotations.Test;
+import org.xml.sax.InputSource;
+
+/**
+ * Checks the global web.xml shared by the contexts.
+ * @author Florent Benoit
+ */
+public class TestGlobalWebXml {
+
+    @Test
+    public void testSharedSource() throws IOException {
+        URL source = GlobalWebXml.class.getResource("/tomcat7-web.xml");
+        File directory = Files.createTempDirectory("conf").toFile();
+        GlobalWebXml globalWebXml = new GlobalWebXml(source, directory);
+
+        InputSource first = globalWebXml.getInputSource();
+        File file = new File(URI.create(first.getSystemId()));
+        long lastModified = file.lastModified();
+        Path copy = Files.createTempFile("web", ".xml");
+        try (InputStream inputStream = source.openStream()) {
+            Files.copy(inputStream, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+        assertEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(copy));
+        Files.delete(copy);
+
+        // same file, not copied again: Tomcat keeps its parsed default WebXml
+        InputSource second = new PeergreenContextConfig(globalWebXml).getGlobalWebXmlSource();
+        assertEquals(second.getSystemId(), first.getSystemId());
+        assertEquals(file.lastModified(), lastModified);
+
+        globalWebXml.invalidate();
+        assertFalse(file.exists());
+
+        // copied again when needed
+        globalWebXml.getInputSource();
+        assertTrue(file.isFile());
+        globalWebXml.invalidate();
+    }
+
+}
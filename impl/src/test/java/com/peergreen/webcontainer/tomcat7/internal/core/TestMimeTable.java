@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks the MIME table read from tomcat7-web.xml.
+ * @author Florent Benoit
+ */
+public class TestMimeTable {
+
+    @Test
+    public void testParse() throws IOException {
+        MimeTable mimeTable = load();
+        assertTrue(mimeTable.size() > 100);
+        assertEquals(mimeTable.getMimeType("/web/style.css"), "text/css");
+    }
+
+    @Test
+    public void testCaseSensitive() throws IOException {
+        // like the mime mappings of a Tomcat context
+        MimeTable mimeTable = load();
+        assertEquals(mimeTable.getMimeType("index.html"), "text/html");
+        assertNull(mimeTable.getMimeType("INDEX.HTML"));
+        assertNull(mimeTable.getMimeMapping("PDF"));
+    }
+
+    @Test
+    public void testNoExtension() throws IOException {
+        MimeTable mimeTable = load();
+        assertNull(mimeTable.getMimeType("/web.d/README"));
+        assertNull(mimeTable.getMimeType("/web/file.unknownextension"));
+        assertNull(mimeTable.getMimeType(null));
+    }
+
+    /**
+     * @return the table of tomcat7-web.xml.
+     */
+    static MimeTable load() throws IOException {
+        return MimeTable.parse(MimeTable.class.getResource("/tomcat7-web.xml"));
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.annotation.HandlesTypes;
+import javax.servlet.annotation.WebFilter;
+import javax.servlet.annotation.WebInitParam;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.catalina.Loader;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.deploy.ServletDef;
+import org.apache.catalina.deploy.WebXml;
+import org.testng.annotations.Test;
+
+/**
+ * Checks that the annotation index replaces the scan of the classes.
+ * @author Florent Benoit
+ */
+public class TestPeergreenContextConfig {
+
+    @Test
+    public void testServletFilterListener() {
+        WebXml webXml = new WebXml();
+        new PeergreenContextConfig().processIndexedClasses(Arrays.<Class<?>>asList(MyServlet.class, MyFilter.class, MyListener.class), webXml, false);
+
+        ServletDef servletDef = webXml.getServlets().get("my");
+        assertEquals(servletDef.getServletClass(), MyServlet.class.getName());
+        assertEquals(servletDef.getLoadOnStartup(), Integer.valueOf(1));
+        assertEquals(servletDef.getParameterMap().get("key"), "value");
+        assertEquals(webXml.getServletMappings().get("/my/*"), "my");
+
+        assertEquals(webXml.getFilters().get(MyFilter.class.getName()).getFilterClass(), MyFilter.class.getName());
+        FilterMap filterMap = webXml.getFilterMappings().iterator().next();
+        assertEquals(filterMap.getURLPatterns(), new String[] {"/*"});
+        assertEquals(filterMap.getServletNames(), new String[] {"my"});
+
+        assertTrue(webXml.getListeners().contains(MyListener.class.getName()));
+    }
+
+    @Test
+    public void testWebXmlWins() {
+        WebXml webXml = new WebXml();
+        ServletDef servletDef = new ServletDef();
+        servletDef.setServletName("my");
+        servletDef.setServletClass(MyServlet.class.getName());
+        servletDef.addInitParameter("key", "web.xml");
+        webXml.addServlet(servletDef);
+        webXml.addServletMapping("/descriptor", "my");
+
+        new PeergreenContextConfig().processIndexedClasses(Collections.<Class<?>>singletonList(MyServlet.class), webXml, false);
+
+        assertEquals(servletDef.getParameterMap().get("key"), "web.xml");
+        assertEquals(webXml.getServletMappings().size(), 1);
+        assertEquals(webXml.getServletMappings().get("/descriptor"), "my");
+    }
+
+    @Test
+    public void testHandlesTypes() {
+        ServletContainerInitializer byType = new ByTypeInitializer();
+        ServletContainerInitializer byAnnotation = new ByAnnotationInitializer();
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig();
+        contextConfig.addServletContainerInitializer(byType);
+        contextConfig.addServletContainerInitializer(byAnnotation);
+
+        WebXml webXml = new WebXml();
+        contextConfig.processIndexedClasses(Arrays.<Class<?>>asList(MyServlet.class, MyFilter.class, MyListener.class), webXml, true);
+
+        // only HandlesTypes are matched
+        assertTrue(webXml.getServlets().isEmpty());
+        assertEquals(contextConfig.getHandlesTypesClasses(byType), Collections.singleton(MyServlet.class));
+        assertEquals(contextConfig.getHandlesTypesClasses(byAnnotation), Collections.singleton(MyFilter.class));
+    }
+
+    @Test
+    public void testHandlesTypesOfNonAnnotatedClasses() throws Exception {
+        // bytecode of a class that is not in the annotation index
+        File classes = Files.createTempDirectory("classes").toFile();
+        String entry = PlainServlet.class.getName().replace('.', '/') + ".class";
+        File classFile = new File(classes, entry);
+        classFile.getParentFile().mkdirs();
+        try (InputStream is = PlainServlet.class.getResourceAsStream("/" + entry)) {
+            Files.copy(is, classFile.toPath());
+        }
+
+        final StandardContext standardContext = new StandardContext();
+        Loader loader = mock(Loader.class);
+        when(loader.getClassLoader()).thenReturn(getClass().getClassLoader());
+        standardContext.setLoader(loader);
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig() {
+            {
+                context = standardContext;
+            }
+        };
+        ServletContainerInitializer byType = new ByTypeInitializer();
+        contextConfig.addServletContainerInitializer(byType);
+        contextConfig.setAnnotationIndex(Collections.singleton(MyServlet.class.getName()));
+
+        // the bytecode is scanned as the index only contains annotated classes
+        assertFalse(contextConfig.isAnnotationIndexUsed());
+        contextConfig.processAnnotationsFile(classes, new WebXml(), true);
+        assertEquals(contextConfig.getHandlesTypesClasses(byType), Collections.singleton(PlainServlet.class));
+    }
+
+    @Test
+    public void testBaseMimeTableFromDefaultWebXml() {
+        StandardHost host = new StandardHost();
+        final PeergreenStandardContext first = new PeergreenStandardContext();
+        final PeergreenStandardContext second = new PeergreenStandardContext();
+        first.setName("/first");
+        second.setName("/second");
+        host.addChild(first);
+        host.addChild(second);
+        try {
+            // the default descriptor is parsed for the first context
+            PeergreenContextConfig contextConfig = new PeergreenContextConfig() {
+                {
+                    context = first;
+                }
+            };
+            WebXml defaultWebXml = new WebXml();
+            contextConfig.parseWebXml(null, defaultWebXml, false);
+            defaultWebXml.addMimeMapping("foo", "application/x-foo");
+            contextConfig.configureBaseMimeTable();
+            assertEquals(first.getBaseMimeTable().getMimeMapping("foo"), "application/x-foo");
+            assertEquals(first.findMimeMapping("foo"), "application/x-foo");
+            assertNull(first.findMimeMapping("css"));
+
+            // and reused by Tomcat for the other contexts of the host
+            new PeergreenContextConfig() {
+                {
+                    context = second;
+                }
+            }.configureBaseMimeTable();
+            assertEquals(second.getBaseMimeTable(), first.getBaseMimeTable());
+        } finally {
+            PeergreenContextConfig.clearDefaultWebXmlCache();
+        }
+    }
+
+    @Test
+    public void testFragments() {
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig() {
+            @Override
+            protected List<Class<?>> getIndexedClasses(String origin) {
+                if ("lib.jar".equals(origin)) {
+                    return Collections.<Class<?>>singletonList(MyServlet.class);
+                }
+                return Collections.emptyList();
+            }
+        };
+        contextConfig.setAnnotationIndex(Collections.singleton(MyServlet.class.getName()));
+
+        WebXml fragment = new WebXml();
+        fragment.setJarName("lib.jar");
+        WebXml metadataComplete = new WebXml();
+        metadataComplete.setJarName("lib.jar");
+        metadataComplete.setMetadataComplete(true);
+        WebXml other = new WebXml();
+        other.setJarName("other.jar");
+        Set<WebXml> fragments = new HashSet<>(Arrays.asList(fragment, metadataComplete, other));
+        contextConfig.processAnnotations(fragments, false);
+
+        assertEquals(fragment.getServlets().get("my").getServletClass(), MyServlet.class.getName());
+        assertTrue(metadataComplete.getServlets().isEmpty());
+        assertTrue(other.getServlets().isEmpty());
+    }
+
+    @Test
+    public void testOrigin() throws MalformedURLException {
+        assertEquals(PeergreenContextConfig.getOrigin(new URL("jar:file:/app/WEB-INF/lib/lib.jar!/a/B.class")), "lib.jar");
+        assertEquals(PeergreenContextConfig.getOrigin(new URL("file:/app/WEB-INF/classes/a/B.class")), PeergreenContextConfig.WEB_INF_CLASSES);
+        assertNull(PeergreenContextConfig.getOrigin(new URL("file:/lib/a/B.class")));
+        assertNull(PeergreenContextConfig.getOrigin(null));
+    }
+
+    @WebServlet(name = "my", urlPatterns = "/my/*", loadOnStartup = 1, initParams = @WebInitParam(name = "key", value = "value"))
+    public static class MyServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+    }
+
+    public static class PlainServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @WebFilter(value = "/*", servletNames = "my", dispatcherTypes = DispatcherType.FORWARD)
+    public static class MyFilter {
+    }
+
+    @WebListener
+    public static class MyListener {
+    }
+
+    @HandlesTypes(HttpServlet.class)
+    public static class ByTypeInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+    @HandlesTypes(WebFilter.class)
+    public static class ByAnnotationInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the mime mappings of the {@link PeergreenStandardContext}, stored on
+ * top of the shared table.
+ * @author Florent Benoit
+ */
+public class TestPeergreenStandardContext {
+
+    private static MimeTable defaultTable;
+
+    @BeforeClass
+    public static void loadDefaultTable() throws IOException {
+        defaultTable = TestMimeTable.load();
+    }
+
+    @Test
+    public void testNoMappingsBeforeConfiguration() {
+        PeergreenStandardContext context = new PeergreenStandardContext();
+        assertNull(context.findMimeMapping("css"));
+        assertEquals(context.findMimeMappings().length, 0);
+    }
+
+    @Test
+    public void testDefaultMappingsAreShared() {
+        PeergreenStandardContext context = newContext();
+        for (Map.Entry<String, String> mapping : defaultTable.getMappings().entrySet()) {
+            context.addMimeMapping(mapping.getKey(), mapping.getValue());
+        }
+        assertEquals(context.getMimeMappingOverlaySize(), 0);
+        assertEquals(context.findMimeMapping("css"), "text/css");
+        assertEquals(context.findMimeMappings().length, defaultTable.size());
+    }
+
+    @Test
+    public void testContextMappings() {
+        PeergreenStandardContext context = newContext();
+        context.addMimeMapping("foo", "application/x-foo");
+        context.addMimeMapping("css", "text/plain");
+        assertEquals(context.getMimeMappingOverlaySize(), 2);
+        assertEquals(context.findMimeMapping("foo"), "application/x-foo");
+        assertEquals(context.findMimeMapping("css"), "text/plain");
+
+        // other contexts are not changed
+        assertEquals(newContext().findMimeMapping("css"), "text/css");
+        assertNull(newContext().findMimeMapping("foo"));
+    }
+
+    @Test
+    public void testCaseSensitive() {
+        PeergreenStandardContext context = newContext();
+        assertEquals(context.findMimeMapping("pdf"), "application/pdf");
+        assertNull(context.findMimeMapping("PDF"));
+
+        context.addMimeMapping("PDF", "application/x-pdf");
+        assertEquals(context.findMimeMapping("PDF"), "application/x-pdf");
+        assertEquals(context.findMimeMapping("pdf"), "application/pdf");
+    }
+
+    @Test
+    public void testSetBaseMimeTableKeepsMappings() {
+        PeergreenStandardContext context = new PeergreenStandardContext();
+        context.addMimeMapping("css", "text/css");
+        context.addMimeMapping("foo", "application/x-foo");
+        assertEquals(context.getMimeMappingOverlaySize(), 2);
+
+        // mappings of the table are no longer held by the context
+        Map<String, String> mappings = new HashMap<>();
+        mappings.put("css", "text/css");
+        mappings.put("html", "text/html");
+        context.setBaseMimeTable(new MimeTable(mappings));
+        assertEquals(context.findMimeMapping("css"), "text/css");
+        assertEquals(context.findMimeMapping("foo"), "application/x-foo");
+        assertEquals(context.findMimeMapping("html"), "text/html");
+        assertEquals(context.getMimeMappingOverlaySize(), 1);
+    }
+
+    @Test
+    public void testRemoveMapping() {
+        PeergreenStandardContext context = newContext();
+        context.removeMimeMapping("css");
+        assertNull(context.findMimeMapping("css"));
+        List<String> extensions = Arrays.asList(context.findMimeMappings());
+        assertFalse(extensions.contains("css"));
+        assertTrue(extensions.contains("html"));
+
+        context.addMimeMapping("css", "text/css");
+        assertEquals(context.findMimeMapping("css"), "text/css");
+        assertEquals(context.getMimeMappingOverlaySize(), 0);
+    }
+
+    /**
+     * @return a context sharing the mappings of tomcat7-web.xml, as once configured.
+     */
+    private static PeergreenStandardContext newContext() {
+        PeergreenStandardContext context = new PeergreenStandardContext();
+        context.setBaseMimeTable(defaultTable);
+        return context;
+    }
+
+}
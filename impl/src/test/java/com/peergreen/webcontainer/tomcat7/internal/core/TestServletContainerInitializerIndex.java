@@ -0,0 +1,112 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.core;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EventListener;
+import java.util.Set;
+
+import javax.servlet.ServletContainerInitializer;
+import javax.servlet.ServletContext;
+import javax.servlet.annotation.HandlesTypes;
+import javax.servlet.annotation.WebListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.catalina.deploy.WebXml;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the index of the servlet container initializers.
+ * @author Florent Benoit
+ */
+public class TestServletContainerInitializerIndex {
+
+    @Test
+    public void testAddRemove() {
+        ServletContainerInitializer servlets = new ServletInitializer();
+        ServletContainerInitializer listeners = new ListenerInitializer();
+
+        ServletContainerInitializerIndex index = ServletContainerInitializerIndex.EMPTY.add(servlets).add(listeners);
+        assertSame(index.add(servlets), index);
+        assertEquals(index.getInitializers(), Arrays.asList(servlets, listeners));
+        assertEquals(index.getTypeInitializers().get(HttpServlet.class), Collections.singleton(servlets));
+        assertEquals(index.getTypeInitializers().get(WebServlet.class), Collections.singleton(servlets));
+        assertEquals(index.getTypeInitializers().get(EventListener.class), Collections.singleton(listeners));
+        assertTrue(index.isHandlesTypesAnnotations());
+        assertTrue(index.isHandlesTypesNonAnnotations());
+
+        ServletContainerInitializerIndex removed = index.remove(servlets);
+        assertEquals(removed.getInitializers(), Collections.singletonList(listeners));
+        assertFalse(removed.getTypeInitializers().containsKey(HttpServlet.class));
+        assertFalse(removed.isHandlesTypesAnnotations());
+        assertTrue(removed.isHandlesTypesNonAnnotations());
+        assertSame(removed.remove(servlets), removed);
+
+        // snapshots are not changed
+        assertEquals(index.getInitializers().size(), 2);
+        assertEquals(ServletContainerInitializerIndex.EMPTY.getInitializers().size(), 0);
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testImmutable() {
+        ServletContainerInitializerIndex.EMPTY.add(new ServletInitializer()).getTypeInitializers().get(HttpServlet.class).clear();
+    }
+
+    @Test
+    public void testContextConfig() {
+        ServletContainerInitializer servlets = new ServletInitializer();
+        ServletContainerInitializer listeners = new ListenerInitializer();
+        ServletContainerInitializerIndex index = ServletContainerInitializerIndex.EMPTY.add(servlets).add(listeners);
+
+        PeergreenContextConfig contextConfig = new PeergreenContextConfig();
+        contextConfig.addServletContainerInitializers(index);
+        contextConfig.processIndexedClasses(Arrays.<Class<?>>asList(MyServlet.class, MyListener.class), new WebXml(), true);
+
+        assertEquals(contextConfig.getHandlesTypesClasses(servlets), Collections.singleton(MyServlet.class));
+        assertEquals(contextConfig.getHandlesTypesClasses(listeners), Collections.singleton(MyListener.class));
+    }
+
+    @WebServlet("/my")
+    public static class MyServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+    }
+
+    @WebListener
+    public static class MyListener implements EventListener {
+    }
+
+    @HandlesTypes({HttpServlet.class, WebServlet.class})
+    public static class ServletInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+    @HandlesTypes(EventListener.class)
+    public static class ListenerInitializer implements ServletContainerInitializer {
+        @Override
+        public void onStartup(Set<Class<?>> classes, ServletContext servletContext) {
+        }
+    }
+
+}
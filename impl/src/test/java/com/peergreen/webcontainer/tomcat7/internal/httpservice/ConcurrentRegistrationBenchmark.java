@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.catalina.Host;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.startup.ContextConfig;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.deployment.model.BundleArtifactManager;
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.DefaultWorkspaceManager;
+
+/**
+ * In-JVM benchmark registering servlets from several threads (one bundle and
+ * one context by thread) and reporting the registration throughput as the
+ * number of threads grows. Registrations on different contexts are not
+ * serialized. It is not run by the default test suite, use
+ * -Dtest=ConcurrentRegistrationBenchmark.
+ * @author Florent Benoit
+ */
+public class ConcurrentRegistrationBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    private static final int REGISTRATIONS = 100;
+
+    private StandardHost host;
+
+    private DefaultWorkspaceManager workspaceManager;
+
+    private BasicTomcat7HttpService tomcat7HttpService;
+
+    @BeforeMethod
+    public void setup() {
+        // Service -> Engine -> Host, nothing is started
+        StandardService service = new StandardService();
+        StandardEngine engine = new StandardEngine();
+        engine.setName("MyEngineName");
+        service.setContainer(engine);
+        host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+
+        InternalTomcat7Service internalTomcat7Service = new InternalTomcat7Service() {
+            @Override
+            public Host getDefaultHost() {
+                return host;
+            }
+
+            @Override
+            public ContextConfig createContextConfig() {
+                return new PeergreenContextConfig();
+            }
+        };
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.start();
+        tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, mock(BundleArtifactManager.class), workspaceManager);
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        // warm up
+        run(1);
+
+        for (int threads : THREADS) {
+            setup();
+            long elapsed = run(threads);
+            System.out.println(String.format("%d thread(s): %d registrations in %d ms, %.0f registrations/s",
+                    threads, threads * REGISTRATIONS, elapsed / 1000000L, threads * REGISTRATIONS * 1.0E9 / elapsed));
+        }
+    }
+
+    private long run(final int threads) throws Exception {
+        final HttpContext httpContext = mock(HttpContext.class);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            final Bundle[] bundles = new Bundle[threads];
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final String contextPath = "/context" + t;
+                final Bundle bundle = mock(Bundle.class);
+                bundles[t] = bundle;
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < REGISTRATIONS; i++) {
+                            tomcat7HttpService.registerServlet(contextPath + "/servlet" + i, new MyServlet(), null, httpContext, bundle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            // all the servlets are there
+            for (int t = 0; t < threads; t++) {
+                HttpServiceStandardContext context = tomcat7HttpService.getStandardContext(new AliasInfo("/context" + t, ""));
+                assertNotNull(context);
+                assertEquals(context.findChildren().length, REGISTRATIONS);
+            }
+
+            // and can be unregistered concurrently
+            List<Future<Void>> unregistrations = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final String contextPath = "/context" + t;
+                final Bundle bundle = bundles[t];
+                unregistrations.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < REGISTRATIONS; i++) {
+                            tomcat7HttpService.unregister(contextPath + "/servlet" + i, bundle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : unregistrations) {
+                future.get();
+            }
+            for (int t = 0; t < threads; t++) {
+                HttpServiceStandardContext context = tomcat7HttpService.getStandardContext(new AliasInfo("/context" + t, ""));
+                assertNotNull(context);
+                assertEquals(context.findChildren().length, 0);
+                delete(new File(context.getDocBase()));
+                host.removeChild(context);
+                assertNull(tomcat7HttpService.getStandardContext(new AliasInfo("/context" + t, "")));
+            }
+            return elapsed;
+        } finally {
+            executorService.shutdown();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.testng.annotations.Test;
+
+/**
+ * In-JVM benchmark comparing the legacy copy loop of the resource servlet
+ * (4 KB buffer and a flush after each chunk) with the pooled copy. The
+ * response is simulated by an 8 KB buffered stream, like the Tomcat output
+ * buffer, on top of a sink counting the writes reaching the "socket". Each
+ * of these writes is a real write() system call on the null device.
+ * It is not run by the default test suite, use -Dtest=ResourceCopyBenchmark.
+ * @author Florent Benoit
+ */
+public class ResourceCopyBenchmark {
+
+    private static final int RESPONSE_BUFFER = 8192;
+
+    private static final int[] SIZES = {1024, 100 * 1024, 10 * 1024 * 1024};
+
+    @Test
+    public void benchmark() throws IOException {
+        for (int size : SIZES) {
+            byte[] content = new byte[size];
+            int iterations = Math.max(10, 200 * 1024 * 1024 / size / 10);
+
+            // warm up
+            run(content, iterations, true);
+            run(content, iterations, false);
+
+            Result legacy = run(content, iterations, true);
+            Result pooled = run(content, iterations, false);
+
+            System.out.println(String.format("%9d bytes: legacy %6d writes/resp %8.1f MB/s | pooled %6d writes/resp %8.1f MB/s",
+                    size, legacy.writes, legacy.throughput(size, iterations), pooled.writes, pooled.throughput(size, iterations)));
+
+            assertTrue(pooled.writes <= legacy.writes);
+        }
+    }
+
+    private Result run(byte[] content, int iterations, boolean legacy) throws IOException {
+        try (CountingSink sink = new CountingSink()) {
+            return run(content, iterations, legacy, sink);
+        }
+    }
+
+    private Result run(byte[] content, int iterations, boolean legacy, CountingSink sink) throws IOException {
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink.writes = 0;
+            sink.bytes = 0;
+            OutputStream response = new BufferedOutputStream(sink, RESPONSE_BUFFER);
+            InputStream inputStream = new ByteArrayInputStream(content);
+            if (legacy) {
+                legacyCopy(inputStream, response);
+            } else {
+                WrappingResourceInServlet.copy(inputStream, response, content.length);
+            }
+            response.flush();
+            assertEquals(sink.bytes, content.length);
+        }
+        return new Result(sink.writes, System.nanoTime() - start);
+    }
+
+    /**
+     * Copy loop used before the buffer pool.
+     */
+    private static void legacyCopy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        byte buffer[] = new byte[4096];
+        int read;
+        while ((read = inputStream.read(buffer, 0, buffer.length)) != -1) {
+            outputStream.write(buffer, 0, read);
+            outputStream.flush();
+        }
+    }
+
+    private static final class Result {
+
+        private final long writes;
+
+        private final long duration;
+
+        private Result(long writes, long duration) {
+            this.writes = writes;
+            this.duration = duration;
+        }
+
+        private double throughput(int size, int iterations) {
+            return ((double) size * iterations / (1024 * 1024)) / (duration / 1000000000d);
+        }
+    }
+
+    /**
+     * Counts the writes, each one being a socket write for the connector.
+     */
+    private static final class CountingSink extends OutputStream {
+
+        private final OutputStream nullDevice;
+
+        private long writes;
+
+        private long bytes;
+
+        private CountingSink() throws IOException {
+            String device = "/dev/null";
+            if (System.getProperty("os.name").startsWith("Windows")) {
+                device = "NUL";
+            }
+            this.nullDevice = new FileOutputStream(device);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            nullDevice.write(b);
+            writes++;
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            nullDevice.write(b, off, len);
+            writes++;
+            bytes += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            nullDevice.close();
+        }
+    }
+}
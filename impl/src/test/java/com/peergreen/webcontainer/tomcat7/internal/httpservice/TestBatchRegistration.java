@@ -0,0 +1,210 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Host;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.startup.ContextConfig;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.NamespaceException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.deployment.model.BundleArtifactManager;
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.ServletRegistration;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleEntryIndex;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultCachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceStreamer;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.DefaultWorkspaceManager;
+
+/**
+ * Checks that a batch of servlets is registered entirely or not at all.
+ * @author Florent Benoit
+ */
+public class TestBatchRegistration {
+
+    private StandardHost host;
+
+    private HttpContext httpContext;
+
+    private Bundle bundle;
+
+    private DefaultWorkspaceManager workspaceManager;
+
+    private BasicTomcat7HttpService tomcat7HttpService;
+
+    @BeforeMethod
+    public void setup() {
+        // Service -> Engine -> Host, nothing is started
+        StandardService service = new StandardService();
+        StandardEngine engine = new StandardEngine();
+        engine.setName("MyEngineName");
+        service.setContainer(engine);
+        host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+
+        InternalTomcat7Service internalTomcat7Service = new InternalTomcat7Service() {
+            @Override
+            public Host getDefaultHost() {
+                return host;
+            }
+
+            @Override
+            public ContextConfig createContextConfig() {
+                return new PeergreenContextConfig();
+            }
+        };
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.start();
+        tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, mock(BundleArtifactManager.class), workspaceManager);
+        httpContext = mock(HttpContext.class);
+        bundle = mock(Bundle.class);
+    }
+
+    @Test
+    public void testRegisterBatch() throws Exception {
+        MyServlet first = new MyServlet();
+        MyServlet second = new MyServlet();
+        MyServlet third = new MyServlet();
+        tomcat7HttpService.registerServlets(Arrays.asList(
+                new ServletRegistration("/batch/first", first, null, httpContext),
+                new ServletRegistration("/batch/second", second, null, httpContext),
+                new ServletRegistration("/other", third, null, httpContext)), bundle);
+
+        HttpServiceStandardContext batchContext = tomcat7HttpService.getStandardContext(new AliasInfo("/batch", ""));
+        assertNotNull(batchContext);
+        assertEquals(batchContext.findChildren().length, 2);
+        assertEquals(batchContext.findServletMapping("/first/*"), "/first");
+        assertEquals(batchContext.findServletMapping("/second/*"), "/second");
+        assertNotNull(tomcat7HttpService.getStandardContext(new AliasInfo("/other", "")));
+
+        // servlets are initialized
+        assertNotNull(first.getServletConfig());
+        assertNotNull(third.getServletConfig());
+
+        // and tracked for the bundle
+        tomcat7HttpService.unregisterAll(bundle);
+        assertEquals(batchContext.findChildren().length, 0);
+    }
+
+    @Test
+    public void testRollbackOnInitFailure() throws Exception {
+        MyServlet first = new MyServlet();
+        try {
+            tomcat7HttpService.registerServlets(Arrays.asList(
+                    new ServletRegistration("/batch/first", first, null, httpContext),
+                    new ServletRegistration("/batch/failing", new FailingServlet(), null, httpContext)), bundle);
+            fail("The batch should fail");
+        } catch (ServletException e) {
+            // expected
+        }
+
+        // the context created by the batch has been removed
+        assertNull(tomcat7HttpService.getStandardContext(new AliasInfo("/batch", "")));
+
+        // and the aliases can be used again
+        tomcat7HttpService.registerServlet("/batch/first", new MyServlet(), null, httpContext, bundle);
+    }
+
+    @Test
+    public void testAliasAlreadyUsed() throws Exception {
+        tomcat7HttpService.registerServlet("/batch/used", new MyServlet(), null, httpContext, bundle);
+        MyServlet servlet = new MyServlet();
+        try {
+            tomcat7HttpService.registerServlets(Arrays.asList(
+                    new ServletRegistration("/batch/free", servlet, null, httpContext),
+                    new ServletRegistration("/batch/used", new MyServlet(), null, httpContext)), bundle);
+            fail("The batch should fail");
+        } catch (NamespaceException e) {
+            // expected
+        }
+
+        // nothing has been done
+        assertNull(servlet.getServletConfig());
+        assertEquals(tomcat7HttpService.getStandardContext(new AliasInfo("/batch", "")).findChildren().length, 1);
+    }
+
+    @Test
+    public void testUnregisterAllRemovesEmptyContexts() throws Exception {
+        tomcat7HttpService.registerServlet("/batch/first", new MyServlet(), null, httpContext, bundle);
+        HttpServiceStandardContext batchContext = tomcat7HttpService.getStandardContext(new AliasInfo("/batch", ""));
+        // wrappers added by the default web.xml when the context is started
+        for (String name : Arrays.asList("default", "jsp")) {
+            StandardWrapper wrapper = new StandardWrapper();
+            wrapper.setName(name);
+            batchContext.addChild(wrapper);
+        }
+        assertEquals(workspaceManager.getWorkspaceCount(), 1);
+
+        tomcat7HttpService.unregisterAll(bundle);
+        assertNull(host.findChild("/batch"));
+        assertEquals(workspaceManager.getWorkspaceCount(), 0);
+    }
+
+    @Test
+    public void testBatchIndexesResources() throws Exception {
+        BundleEntryIndex bundleEntryIndex = mock(BundleEntryIndex.class);
+        BasicHttpService httpService = new BasicHttpService(tomcat7HttpService, bundle, mock(ResourceCache.class),
+                mock(ExtractedResourceCache.class), bundleEntryIndex, new DefaultCachePolicyManager(),
+                mock(ResourceFingerprints.class), mock(ResourceStreamer.class));
+
+        // the entries are indexed when the resources are added, as without a batch
+        httpService.createBatch().registerResources("/www", "/www", null);
+        verify(bundleEntryIndex).build();
+    }
+
+    @Test(expectedExceptions = NamespaceException.class)
+    public void testDuplicateAliasInBatch() throws Exception {
+        tomcat7HttpService.registerServlets(Arrays.asList(
+                new ServletRegistration("/batch/same", new MyServlet(), null, httpContext),
+                new ServletRegistration("/batch/same", new MyServlet(), null, httpContext)), bundle);
+    }
+
+    /**
+     * Servlet that cannot be initialized.
+     */
+    private static class FailingServlet extends MyServlet {
+
+        @Override
+        public void init(ServletConfig servletConfig) {
+            throw new IllegalStateException("Unable to initialize");
+        }
+    }
+
+}
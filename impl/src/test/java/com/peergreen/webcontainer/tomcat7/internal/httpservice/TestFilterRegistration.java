@@ -0,0 +1,254 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Host;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.core.StandardWrapper;
+import org.apache.catalina.deploy.FilterMap;
+import org.apache.catalina.startup.ContextConfig;
+import org.apache.tomcat.InstanceManager;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.deployment.model.BundleArtifactManager;
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.DefaultWorkspaceManager;
+
+/**
+ * Checks the registration of filters on the HttpService contexts.
+ * @author Florent Benoit
+ */
+public class TestFilterRegistration {
+
+    private StandardHost host;
+
+    private HttpContext httpContext;
+
+    private Bundle bundle;
+
+    private DefaultWorkspaceManager workspaceManager;
+
+    private BasicTomcat7HttpService tomcat7HttpService;
+
+    @BeforeMethod
+    public void setup() {
+        // Service -> Engine -> Host, nothing is started
+        StandardService service = new StandardService();
+        StandardEngine engine = new StandardEngine();
+        engine.setName("MyEngineName");
+        service.setContainer(engine);
+        host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+
+        InternalTomcat7Service internalTomcat7Service = new InternalTomcat7Service() {
+            @Override
+            public Host getDefaultHost() {
+                return host;
+            }
+
+            @Override
+            public ContextConfig createContextConfig() {
+                return new PeergreenContextConfig();
+            }
+        };
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.start();
+        tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, mock(BundleArtifactManager.class), workspaceManager);
+        httpContext = mock(HttpContext.class);
+        bundle = mock(Bundle.class);
+    }
+
+    @AfterMethod
+    public void stop() {
+        tomcat7HttpService.stop();
+        workspaceManager.stop();
+    }
+
+    @Test
+    public void testFilterOrder() throws Exception {
+        tomcat7HttpService.registerServlet("/a/servlet", new MyServlet(), null, httpContext, bundle);
+        HttpServiceStandardContext context = getContext("/a");
+
+        CountingFilter prefixFilter = new CountingFilter();
+        CountingFilter globalFilter = new CountingFilter();
+        tomcat7HttpService.registerFilter("/a/servlet/*", prefixFilter, 1, null, httpContext, bundle);
+        tomcat7HttpService.registerFilter("/*", globalFilter, 5, null, httpContext, bundle);
+
+        FilterMap[] filterMaps = context.findFilterMaps();
+        assertEquals(filterMaps.length, 2);
+        assertEquals(getFilter(context, filterMaps[0]), globalFilter);
+        assertEquals(getFilter(context, filterMaps[1]), prefixFilter);
+        assertEquals(filterMaps[1].getURLPatterns()[0], "/servlet/*");
+
+        // only the ranking is updated
+        tomcat7HttpService.registerFilter("/a/servlet/*", prefixFilter, 10, null, httpContext, bundle);
+        filterMaps = context.findFilterMaps();
+        assertEquals(getFilter(context, filterMaps[0]), prefixFilter);
+        assertEquals(getFilter(context, filterMaps[1]), globalFilter);
+        assertEquals(prefixFilter.inits, 1);
+    }
+
+    @Test
+    public void testFilterSharedByContexts() throws Exception {
+        CountingFilter filter = new CountingFilter();
+        tomcat7HttpService.registerFilter("/*", filter, 0, null, httpContext, bundle);
+
+        // added to the contexts created after the registration
+        tomcat7HttpService.registerServlet("/a/servlet", new MyServlet(), null, httpContext, bundle);
+        tomcat7HttpService.registerServlet("/b/servlet", new MyServlet(), null, httpContext, bundle);
+        HttpServiceStandardContext contextA = getContext("/a");
+        HttpServiceStandardContext contextB = getContext("/b");
+        assertEquals(getFilter(contextA, contextA.findFilterMaps()[0]), filter);
+        assertEquals(getFilter(contextB, contextB.findFilterMaps()[0]), filter);
+
+        // initialized once, destroyed once
+        assertEquals(filter.inits, 1);
+        tomcat7HttpService.unregisterFilter(filter, bundle);
+        assertEquals(filter.destroys, 1);
+        assertEquals(contextA.findFilterMaps().length, 0);
+        assertEquals(contextB.findFilterMaps().length, 0);
+    }
+
+    @Test
+    public void testUnregisterAll() throws Exception {
+        tomcat7HttpService.registerServlet("/a/servlet", new MyServlet(), null, httpContext, bundle);
+        CountingFilter filter = new CountingFilter();
+        tomcat7HttpService.registerFilter("/a/*", filter, 0, null, httpContext, bundle);
+        HttpServiceStandardContext context = getContext("/a");
+        assertNotNull(getFilter(context, context.findFilterMaps()[0]));
+
+        tomcat7HttpService.unregisterAll(bundle);
+        assertEquals(context.findFilterMaps().length, 0);
+        assertEquals(filter.destroys, 1);
+    }
+
+    @Test
+    public void testRemoveFilteredContext() throws Exception {
+        tomcat7HttpService.registerServlet("/a/servlet", new MyServlet(), null, httpContext, bundle);
+        CountingFilter filter = new CountingFilter();
+        tomcat7HttpService.registerFilter("/*", filter, 0, null, httpContext, bundle);
+        HttpServiceStandardContext context = getContext("/a");
+        FilterMap filterMap = context.findFilterMaps()[0];
+        getFilter(context, filterMap);
+        Object httpServiceFilter = context.findFilterDef(filterMap.getFilterName()).getFilter();
+        // wrappers added by the default web.xml when the context is started
+        for (String name : Arrays.asList("default", "jsp")) {
+            StandardWrapper wrapper = new StandardWrapper();
+            wrapper.setName(name);
+            context.addChild(wrapper);
+        }
+
+        // the config of the filter is released with the context
+        tomcat7HttpService.unregister("/a/servlet", bundle);
+        assertNull(tomcat7HttpService.getStandardContext(new AliasInfo("/a", "")));
+        verify(context.getInstanceManager()).destroyInstance(httpServiceFilter);
+
+        // the filter is still registered for the other contexts
+        assertEquals(filter.destroys, 0);
+    }
+
+    @Test
+    public void testFilterSecurity() throws Exception {
+        CountingFilter filter = new CountingFilter();
+        HttpContext securedContext = mock(HttpContext.class);
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        FilterChain chain = mock(FilterChain.class);
+        HttpServiceFilter httpServiceFilter = new HttpServiceFilter("filter", "", filter, 0, 0, null, securedContext, bundle);
+
+        // refused by the HttpContext of the filter
+        httpServiceFilter.doFilter(request, response, chain);
+        verify(securedContext).handleSecurity(request, response);
+        verify(chain, never()).doFilter(request, response);
+
+        doReturn(true).when(securedContext).handleSecurity(request, response);
+        httpServiceFilter.doFilter(request, response, chain);
+        verify(chain).doFilter(request, response);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPattern() throws Exception {
+        tomcat7HttpService.registerFilter("*.jsp", new CountingFilter(), 0, null, httpContext, bundle);
+    }
+
+    private HttpServiceStandardContext getContext(String path) {
+        HttpServiceStandardContext context = tomcat7HttpService.getStandardContext(new AliasInfo(path, ""));
+        // the context is not started
+        context.setInstanceManager(mock(InstanceManager.class));
+        return context;
+    }
+
+    private Filter getFilter(HttpServiceStandardContext context, FilterMap filterMap) throws Exception {
+        // done by Tomcat when building the filter chain of a request
+        assertNotNull(context.findFilterConfig(filterMap.getFilterName()));
+        return ((HttpServiceFilter) context.findFilterDef(filterMap.getFilterName()).getFilter()).getFilter();
+    }
+
+    /**
+     * Filter counting the calls to init and destroy.
+     */
+    private static class CountingFilter implements Filter {
+
+        private int inits = 0;
+
+        private int destroys = 0;
+
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException {
+            inits++;
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+            destroys++;
+        }
+    }
+
+}
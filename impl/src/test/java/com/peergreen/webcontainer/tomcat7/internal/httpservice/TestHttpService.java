@@ -17,6 +17,7 @@ package com.peergreen.webcontainer.tomcat7.internal.httpservice;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertFalse;
@@ -54,6 +55,7 @@ import org.apache.tomcat.util.http.mapper.MappingData;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
 import org.osgi.service.http.HttpContext;
 import org.osgi.service.http.NamespaceException;
 import org.testng.annotations.BeforeClass;
@@ -62,6 +64,7 @@ import org.testng.annotations.Test;
 import com.peergreen.deployment.model.BundleArtifactManager;
 import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
 import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.DefaultWorkspaceManager;
 
 public class TestHttpService {
 
@@ -106,6 +109,8 @@ public class TestHttpService {
     @Mock
     private BundleArtifactManager bundleArtifactManager;
 
+    private DefaultWorkspaceManager workspaceManager;
+
     private BasicTomcat7HttpService tomcat7HttpService;
 
     @BeforeClass
@@ -113,7 +118,9 @@ public class TestHttpService {
 
         // Init Tomcat
         MockitoAnnotations.initMocks(this);
-        this.tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, bundleArtifactManager);
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.start();
+        this.tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, bundleArtifactManager, workspaceManager);
 
         // setup PG service
         doReturn(defaultHost).when(internalTomcat7Service).getDefaultHost();
@@ -30,7 +30,7 @@ public class TestHttpServiceAliases {
 
     @BeforeClass
     public void setup() {
-        tomcat7HttpService = new BasicTomcat7HttpService(null, null);
+        tomcat7HttpService = new BasicTomcat7HttpService(null, null, null);
     }
 
 
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the resolution of the MIME types by the {@link HttpServiceServletContext}.
+ * @author Florent Benoit
+ */
+public class TestHttpServiceServletContext {
+
+    @Test
+    public void testContextMappings() {
+        HttpContext httpContext = mock(HttpContext.class);
+        HttpServiceStandardContext standardContext = new HttpServiceStandardContext(httpContext);
+        standardContext.setName("/mime");
+        standardContext.setPath("/mime");
+        standardContext.addMimeMapping("js", "text/x-js");
+
+        // Service -> Engine -> Host -> Context, nothing is started
+        StandardService service = new StandardService();
+        StandardEngine engine = new StandardEngine();
+        engine.setName("MyEngineName");
+        service.setContainer(engine);
+        StandardHost host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+        host.addChild(standardContext);
+
+        HttpServiceServletContext servletContext = new HttpServiceServletContext(standardContext);
+
+        // the mappings of the context are used when the HttpContext doesn't know the type
+        assertEquals(servletContext.getMimeType("/a.js"), "text/x-js");
+        assertNull(servletContext.getMimeType("/a.unknown"));
+
+        // the HttpContext has the precedence
+        doReturn("application/javascript").when(httpContext).getMimeType("/b.js");
+        assertEquals(servletContext.getMimeType("/b.js"), "application/javascript");
+    }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.core.StandardEngine;
+import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardService;
+import org.apache.catalina.startup.ContextConfig;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.http.HttpContext;
+import org.osgi.service.http.NamespaceException;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.deployment.model.BundleArtifactManager;
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7Service;
+import com.peergreen.webcontainer.tomcat7.internal.core.PeergreenContextConfig;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace.DefaultWorkspaceManager;
+
+/**
+ * Checks the lazy and background initialization of the servlets.
+ * @author Florent Benoit
+ */
+public class TestLazyInit {
+
+    private StandardHost host;
+
+    private HttpContext httpContext;
+
+    private Bundle bundle;
+
+    private DefaultWorkspaceManager workspaceManager;
+
+    private BasicTomcat7HttpService tomcat7HttpService;
+
+    @BeforeMethod
+    public void setup() {
+        // Service -> Engine -> Host, nothing is started
+        StandardService service = new StandardService();
+        StandardEngine engine = new StandardEngine();
+        engine.setName("MyEngineName");
+        service.setContainer(engine);
+        host = new StandardHost();
+        host.setName("localhost");
+        engine.addChild(host);
+
+        InternalTomcat7Service internalTomcat7Service = new InternalTomcat7Service() {
+            @Override
+            public Host getDefaultHost() {
+                return host;
+            }
+
+            @Override
+            public ContextConfig createContextConfig() {
+                return new PeergreenContextConfig();
+            }
+        };
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.start();
+        tomcat7HttpService = new BasicTomcat7HttpService(internalTomcat7Service, mock(BundleArtifactManager.class), workspaceManager);
+        httpContext = mock(HttpContext.class);
+        bundle = mock(Bundle.class);
+    }
+
+    @AfterMethod
+    public void stop() {
+        tomcat7HttpService.stop();
+        workspaceManager.stop();
+    }
+
+    @Test
+    public void testLazyInitParameter() throws Exception {
+        LifecycleServlet servlet = new LifecycleServlet();
+        Dictionary<String, String> initparams = new Hashtable<>();
+        initparams.put(BasicTomcat7HttpService.INIT_MODE_PARAMETER, "lazy");
+        initparams.put("key", "value");
+        tomcat7HttpService.registerServlet("/lazy/servlet", servlet, initparams, httpContext, bundle);
+
+        // not yet initialized
+        assertNull(servlet.getServletConfig());
+
+        // initialized by the first allocation (first request)
+        HttpServiceStandardContext context = tomcat7HttpService.getStandardContext(new AliasInfo("/lazy", ""));
+        Wrapper wrapper = (Wrapper) context.findChild("/servlet");
+        Servlet instance = wrapper.allocate();
+        wrapper.deallocate(instance);
+        assertEquals(servlet.inits, 1);
+        assertEquals(servlet.getInitParameter("key"), "value");
+        assertNull(servlet.getInitParameter(BasicTomcat7HttpService.INIT_MODE_PARAMETER));
+    }
+
+    @Test
+    public void testBackgroundInit() throws Exception {
+        tomcat7HttpService.setInitMode("background");
+        LifecycleServlet servlet = new LifecycleServlet();
+        tomcat7HttpService.registerServlet("/background/servlet", servlet, null, httpContext, bundle);
+        assertTrue(servlet.initialized.await(5, TimeUnit.SECONDS));
+        assertEquals(servlet.inits, 1);
+    }
+
+    @Test
+    public void testBackgroundInitDoesNotBlockRegistrations() throws Exception {
+        tomcat7HttpService.setInitMode("background");
+        final CountDownLatch release = new CountDownLatch(1);
+        LifecycleServlet slow = new LifecycleServlet() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void init(ServletConfig config) throws ServletException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.init(config);
+            }
+        };
+        tomcat7HttpService.registerServlet("/background/slow", slow, null, httpContext, bundle);
+        try {
+            // the context of the slow servlet is not locked during its init
+            final CountDownLatch registered = new CountDownLatch(1);
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        tomcat7HttpService.registerServlet("/background/other", new LifecycleServlet(), null, httpContext, bundle);
+                        registered.countDown();
+                    } catch (ServletException | NamespaceException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            thread.start();
+            assertTrue(registered.await(5, TimeUnit.SECONDS));
+            assertEquals(slow.inits, 0);
+        } finally {
+            release.countDown();
+        }
+        assertTrue(slow.initialized.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSharedLazyInit() throws Exception {
+        tomcat7HttpService.setSharedContext(true);
+        tomcat7HttpService.setInitMode("lazy");
+
+        // never used, never initialized nor destroyed
+        LifecycleServlet unused = new LifecycleServlet();
+        tomcat7HttpService.registerServlet("/unused", unused, null, httpContext, bundle);
+        tomcat7HttpService.unregister("/unused", bundle);
+        assertEquals(unused.inits, 0);
+        assertEquals(unused.destroys, 0);
+
+        // eager registration still initialize the servlet
+        Dictionary<String, String> initparams = new Hashtable<>();
+        initparams.put(BasicTomcat7HttpService.INIT_MODE_PARAMETER, "eager");
+        LifecycleServlet eager = new LifecycleServlet();
+        tomcat7HttpService.registerServlet("/eager", eager, initparams, httpContext, bundle);
+        assertEquals(eager.inits, 1);
+        tomcat7HttpService.unregister("/eager", bundle);
+        assertEquals(eager.destroys, 1);
+    }
+
+    /**
+     * Servlet counting the calls to init and destroy.
+     */
+    private static class LifecycleServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final CountDownLatch initialized = new CountDownLatch(1);
+
+        private volatile int inits = 0;
+
+        private volatile int destroys = 0;
+
+        @Override
+        public void init(ServletConfig config) throws ServletException {
+            super.init(config);
+            inits++;
+            initialized.countDown();
+        }
+
+        @Override
+        public void destroy() {
+            destroys++;
+        }
+    }
+
+}
@@ -0,0 +1,817 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.catalina.Globals;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.webcontainer.tomcat7.internal.core.MimeTable;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.BundleResource;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicy;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachedResource;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultCachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultResourceStreamer;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+
+/**
+ * Checks the resources served by the {@link WrappingResourceInServlet}.
+ * @author Florent Benoit
+ */
+public class TestWrappingResourceInServlet {
+
+    private static final long LAST_MODIFIED = 1380000000000L;
+
+    private static final String CONTENT = "function hello() { return 'hello'; }";
+
+    @Mock
+    private Bundle bundle;
+
+    @Mock
+    private BundleContext bundleContext;
+
+    @Mock
+    private HttpContext httpContext;
+
+    @Mock
+    private HttpServletRequest request;
+
+    @Mock
+    private HttpServletResponse response;
+
+    private ByteArrayOutputStream body;
+
+    private DefaultExtractedResourceCache extractedResourceCache;
+
+    private WrappingResourceInServlet servlet;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        doReturn(LAST_MODIFIED).when(bundle).getLastModified();
+
+        Path file = Files.createTempFile("resource", ".js");
+        file.toFile().deleteOnExit();
+        Files.write(file, CONTENT.getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/hello.js");
+
+        body = new ByteArrayOutputStream();
+        doReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+        }).when(response).getOutputStream();
+        doReturn("/hello.js").when(request).getPathInfo();
+        doReturn("GET").when(request).getMethod();
+        doReturn(-1L).when(request).getDateHeader(anyString());
+
+        doReturn(Files.createTempDirectory("extracted").toFile()).when(bundleContext).getDataFile(anyString());
+        extractedResourceCache = new DefaultExtractedResourceCache(bundleContext);
+        extractedResourceCache.start();
+
+        servlet = newServlet(new DefaultResourceCache(bundleContext));
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        extractedResourceCache.stop();
+    }
+
+    private WrappingResourceInServlet newServlet(ResourceCache resourceCache) {
+        WrappingResourceInServlet servlet = new WrappingResourceInServlet("/web", httpContext, bundle, resourceCache, extractedResourceCache);
+        try {
+            servlet.init(newServletConfig());
+        } catch (ServletException e) {
+            throw new IllegalStateException(e);
+        }
+        return servlet;
+    }
+
+    /**
+     * @return a config whose servlet context has the mime mappings of tomcat7-web.xml, like a configured context.
+     */
+    private ServletConfig newServletConfig() throws ServletException {
+        final MimeTable mimeTable;
+        try {
+            mimeTable = MimeTable.parse(MimeTable.class.getResource("/tomcat7-web.xml"));
+        } catch (IOException e) {
+            throw new ServletException(e);
+        }
+        ServletContext servletContext = mock(ServletContext.class);
+        doAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return mimeTable.getMimeType((String) invocation.getArguments()[0]);
+            }
+        }).when(servletContext).getMimeType(anyString());
+        ServletConfig config = mock(ServletConfig.class);
+        doReturn(servletContext).when(config).getServletContext();
+        return config;
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        servlet.doGet(request, response);
+        assertEquals(body.toString("UTF-8"), CONTENT);
+        verify(response).setHeader("ETag", WrappingResourceInServlet.buildETag(CONTENT.length(), LAST_MODIFIED));
+        verify(response).setDateHeader("Last-Modified", LAST_MODIFIED);
+    }
+
+    @Test
+    public void testContentType() throws IOException {
+        servlet.doGet(request, response);
+        verify(response).setContentType("application/javascript");
+
+        // defined by the HttpContext
+        doReturn("text/x-custom").when(httpContext).getMimeType("/web/hello.js");
+        newServlet(new DefaultResourceCache(bundleContext)).doGet(request, response);
+        verify(response).setContentType("text/x-custom");
+    }
+
+    @Test
+    public void testCachePolicy() throws IOException, ServletException {
+        ServletConfig config = newServletConfig();
+        doReturn("max-age=600, public").when(config).getInitParameter(CachePolicy.INIT_PARAMETER);
+        servlet.init(config);
+
+        servlet.doGet(request, response);
+        verify(response).setHeader("Cache-Control", "max-age=600, public");
+        verify(response).setDateHeader(eq("Expires"), anyLong());
+    }
+
+    @Test
+    public void testCachePolicyReconfiguration() throws IOException, ServletException {
+        DefaultCachePolicyManager cachePolicyManager = new DefaultCachePolicyManager();
+        cachePolicyManager.setPolicies(new String[] {"/static=max-age=60"});
+        servlet = new WrappingResourceInServlet("/web", httpContext, bundle, new DefaultResourceCache(bundleContext), extractedResourceCache,
+                null, null, "/static", cachePolicyManager);
+        servlet.init(newServletConfig());
+        assertEquals(servlet.getCachePolicy().getCacheControl(), "max-age=60");
+
+        // the new configuration applies to the registered resources
+        cachePolicyManager.setPolicies(new String[] {"/static=max-age=600"});
+        servlet.doGet(request, response);
+        verify(response).setHeader("Cache-Control", "max-age=600");
+
+        // the init parameter overrides the manager
+        ServletConfig config = newServletConfig();
+        doReturn("no-cache").when(config).getInitParameter(CachePolicy.INIT_PARAMETER);
+        servlet.init(config);
+        assertEquals(servlet.getCachePolicy().getCacheControl(), "no-cache");
+    }
+
+    @Test
+    public void testFingerprintedName() throws IOException {
+        DefaultResourceFingerprints resourceFingerprints = new DefaultResourceFingerprints(bundleContext);
+        resourceFingerprints.setEnabled(true);
+        servlet = new WrappingResourceInServlet("/web", httpContext, bundle, new DefaultResourceCache(bundleContext), extractedResourceCache,
+                resourceFingerprints, null);
+        String hash = resourceFingerprints.getHash(httpContext, "/web/hello.js");
+
+        doReturn("/hello." + hash + ".js").when(request).getPathInfo();
+        servlet.doGet(request, response);
+        assertEquals(body.toString("UTF-8"), CONTENT);
+        verify(response).setHeader("Cache-Control", CachePolicy.IMMUTABLE.getCacheControl());
+    }
+
+    @Test
+    public void testOutdatedFingerprintedName() throws IOException {
+        DefaultResourceFingerprints resourceFingerprints = new DefaultResourceFingerprints(bundleContext);
+        resourceFingerprints.setEnabled(true);
+        servlet = new WrappingResourceInServlet("/web", httpContext, bundle, new DefaultResourceCache(bundleContext), extractedResourceCache,
+                resourceFingerprints, null);
+
+        doReturn("/hello.0123456789abcdef.js").when(request).getPathInfo();
+        servlet.doGet(request, response);
+        verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void testAsyncStreaming() throws IOException {
+        DefaultResourceStreamer resourceStreamer = new DefaultResourceStreamer();
+        resourceStreamer.setThreshold(CONTENT.length());
+        resourceStreamer.start();
+        try {
+            // not kept in memory
+            ResourceCache resourceCache = mock(ResourceCache.class);
+            servlet = new WrappingResourceInServlet("/web", httpContext, bundle, resourceCache, extractedResourceCache, null, resourceStreamer);
+            AsyncContext asyncContext = mock(AsyncContext.class);
+            doReturn(response).when(asyncContext).getResponse();
+            doReturn(true).when(request).isAsyncSupported();
+            doReturn(asyncContext).when(request).startAsync();
+
+            servlet.doGet(request, response);
+            verify(asyncContext, timeout(5000)).complete();
+            assertEquals(body.toString("UTF-8"), CONTENT);
+            verify(response).setContentLength(CONTENT.length());
+        } finally {
+            resourceStreamer.stop();
+        }
+    }
+
+    @Test
+    public void testCoalescedLoads() throws Exception {
+        final URL url = httpContext.getResource("/web/hello.js");
+        final AtomicInteger loads = new AtomicInteger();
+        doAnswer(new Answer<URL>() {
+            @Override
+            public URL answer(InvocationOnMock invocation) throws InterruptedException {
+                loads.incrementAndGet();
+                // slow bundle
+                Thread.sleep(200L);
+                return url;
+            }
+        }).when(httpContext).getResource("/web/hello.js");
+
+        int threads = 8;
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<BundleResource>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executorService.submit(new Callable<BundleResource>() {
+                    @Override
+                    public BundleResource call() throws IOException {
+                        return servlet.getResource("/web/hello.js");
+                    }
+                }));
+            }
+            BundleResource first = results.get(0).get();
+            for (Future<BundleResource> result : results) {
+                assertSame(result.get(), first);
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertEquals(loads.get(), 1);
+    }
+
+    @Test
+    public void testAsyncSupported() {
+        assertTrue(BasicTomcat7HttpService.getWebServlet(WrappingResourceInServlet.class).asyncSupported());
+        assertNull(BasicTomcat7HttpService.getWebServlet(HttpServlet.class));
+    }
+
+    @Test(expectedExceptions = ServletException.class)
+    public void testInvalidCachePolicy() throws ServletException {
+        ServletConfig config = newServletConfig();
+        doReturn("max-age=forever").when(config).getInitParameter(CachePolicy.INIT_PARAMETER);
+        servlet.init(config);
+    }
+
+    @Test
+    public void testHead() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        servlet = newServlet(resourceCache);
+        doReturn("HEAD").when(request).getMethod();
+
+        servlet.doHead(request, response);
+        verify(response).setContentLength(CONTENT.length());
+        verify(response).setContentType("application/javascript");
+        verify(response).setHeader("ETag", WrappingResourceInServlet.buildETag(CONTENT.length(), LAST_MODIFIED));
+        verify(response, never()).getOutputStream();
+
+        // content has not been loaded
+        assertNull(resourceCache.get(httpContext, "/web/hello.js"));
+    }
+
+    @Test
+    public void testHeadNotModified() throws IOException {
+        doReturn("HEAD").when(request).getMethod();
+        doReturn(WrappingResourceInServlet.buildETag(CONTENT.length(), LAST_MODIFIED)).when(request).getHeader("If-None-Match");
+        servlet.doHead(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).setContentLength(CONTENT.length());
+    }
+
+    @Test
+    public void testNotFound() throws IOException {
+        doReturn("/missing.js").when(request).getPathInfo();
+        servlet.doGet(request, response);
+        verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void testIfNoneMatch() throws IOException {
+        String eTag = WrappingResourceInServlet.buildETag(CONTENT.length(), LAST_MODIFIED);
+        doReturn("\"other\", " + eTag).when(request).getHeader("If-None-Match");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testIfModifiedSince() throws IOException {
+        doReturn(LAST_MODIFIED + 500).when(request).getDateHeader("If-Modified-Since");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(body.size(), 0);
+    }
+
+    @Test
+    public void testModifiedSince() throws IOException {
+        doReturn(LAST_MODIFIED - 5000).when(request).getDateHeader("If-Modified-Since");
+        servlet.doGet(request, response);
+        verify(response, never()).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(body.toString("UTF-8"), CONTENT);
+    }
+
+    @Test
+    public void testServedFromCache() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        servlet = newServlet(resourceCache);
+        servlet.doGet(request, response);
+        servlet.doGet(request, response);
+        assertEquals(body.toString("UTF-8"), CONTENT.concat(CONTENT));
+        assertEquals(resourceCache.getHits(), 1);
+        assertTrue(resourceCache.getSize() > 0);
+        verify(httpContext).getResource("/web/hello.js");
+    }
+
+    @Test
+    public void testSingleRange() throws IOException {
+        doReturn("bytes=9-13").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setHeader("Content-Range", "bytes 9-13/" + CONTENT.length());
+        assertEquals(body.toString("UTF-8"), "hello");
+    }
+
+    @Test
+    public void testSuffixRange() throws IOException {
+        doReturn("bytes=-3").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertEquals(body.toString("UTF-8"), "; }");
+    }
+
+    @Test
+    public void testMultipleRanges() throws IOException {
+        doReturn("bytes=0-7,9-13").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setContentType("multipart/byteranges; boundary=PEERGREEN_MIME_BOUNDARY");
+        String multipart = body.toString("UTF-8");
+        assertTrue(multipart.contains("Content-Range: bytes 0-7/" + CONTENT.length()));
+        assertTrue(multipart.contains("function"));
+        assertTrue(multipart.contains("Content-Range: bytes 9-13/" + CONTENT.length()));
+        assertTrue(multipart.endsWith("--PEERGREEN_MIME_BOUNDARY--"));
+    }
+
+    @Test
+    public void testUnsatisfiableRange() throws IOException {
+        doReturn("bytes=1000-").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        verify(response).setHeader("Content-Range", "bytes */" + CONTENT.length());
+        verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+    }
+
+    @Test
+    public void testReleaseUnreadConnections() throws IOException {
+        AtomicInteger connections = new AtomicInteger();
+        Path file = Files.createTempFile("resource", ".js");
+        file.toFile().deleteOnExit();
+        Files.write(file, CONTENT.getBytes("UTF-8"));
+        doReturn(getTrackedURL(file, connections)).when(httpContext).getResource("/web/hello.js");
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        servlet = newServlet(resourceCache);
+
+        // not modified
+        doReturn(WrappingResourceInServlet.buildETag(CONTENT.length(), LAST_MODIFIED)).when(request).getHeader("If-None-Match");
+        servlet.doGet(request, response);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        assertEquals(connections.get(), 0);
+
+        // unsatisfiable range
+        doReturn(null).when(request).getHeader("If-None-Match");
+        doReturn("bytes=1000-").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        verify(response).sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertEquals(connections.get(), 0);
+
+        // head
+        doReturn(null).when(request).getHeader("Range");
+        servlet.doHead(request, response);
+        assertEquals(connections.get(), 0);
+    }
+
+    /**
+     * Gets an URL of the given file counting the connections that are opened
+     * and not closed.
+     * @param file the file
+     * @param connections the number of open connections
+     * @return the URL
+     */
+    private static URL getTrackedURL(final Path file, final AtomicInteger connections) throws IOException {
+        return new URL(null, file.toUri().toString(), new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) throws IOException {
+                final URLConnection fileConnection = file.toUri().toURL().openConnection();
+                return new URLConnection(url) {
+                    private boolean connected;
+
+                    private boolean closed;
+
+                    @Override
+                    public synchronized void connect() throws IOException {
+                        if (!connected) {
+                            // the file is opened to get the metadata
+                            fileConnection.connect();
+                            connections.incrementAndGet();
+                            connected = true;
+                        }
+                    }
+
+                    @Override
+                    public int getContentLength() {
+                        try {
+                            connect();
+                        } catch (IOException e) {
+                            return -1;
+                        }
+                        return fileConnection.getContentLength();
+                    }
+
+                    @Override
+                    public InputStream getInputStream() throws IOException {
+                        connect();
+                        return new FilterInputStream(fileConnection.getInputStream()) {
+                            @Override
+                            public void close() throws IOException {
+                                synchronized (connections) {
+                                    if (!closed) {
+                                        closed = true;
+                                        connections.decrementAndGet();
+                                    }
+                                }
+                                super.close();
+                            }
+                        };
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void testIfRangeChanged() throws IOException {
+        doReturn("bytes=9-13").when(request).getHeader("Range");
+        doReturn("\"old\"").when(request).getHeader("If-Range");
+        servlet.doGet(request, response);
+        verify(response, never()).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertEquals(body.toString("UTF-8"), CONTENT);
+    }
+
+    @Test
+    public void testIfRangeWeakETag() throws IOException {
+        // the current (weak) ETag cannot validate a range
+        doReturn("bytes=9-13").when(request).getHeader("Range");
+        doReturn("W/\"" + CONTENT.length() + "-" + LAST_MODIFIED + "\"").when(request).getHeader("If-Range");
+        servlet.doGet(request, response);
+        verify(response, never()).setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        verify(response).setHeader("ETag", "W/\"" + CONTENT.length() + "-" + LAST_MODIFIED + "\"");
+        assertEquals(body.toString("UTF-8"), CONTENT);
+    }
+
+    @Test
+    public void testRangeOfLargeResource() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        servlet = newServlet(resourceCache);
+        doReturn("bytes=9-13,-3").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+        String multipart = body.toString("UTF-8");
+        assertTrue(multipart.contains("hello"));
+        assertTrue(multipart.contains("; }"));
+        assertEquals(resourceCache.getEntries(), 0);
+    }
+
+    @Test
+    public void testTransferExtractedResource() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        extractedResourceCache.setEnabled(true);
+        extractedResourceCache.setThreshold(10);
+        servlet = newServlet(resourceCache);
+
+        servlet.doGet(request, response);
+        assertEquals(body.toString("UTF-8"), CONTENT);
+        assertEquals(extractedResourceCache.getSize(), CONTENT.length());
+
+        // second request is using the extracted file
+        servlet.doGet(request, response);
+        assertEquals(body.toString("UTF-8"), CONTENT.concat(CONTENT));
+        verify(httpContext).getResource("/web/hello.js");
+    }
+
+    @Test
+    public void testSendFileExtractedResource() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        extractedResourceCache.setEnabled(true);
+        extractedResourceCache.setThreshold(10);
+        servlet = newServlet(resourceCache);
+
+        doReturn(Boolean.TRUE).when(request).getAttribute(Globals.SENDFILE_SUPPORTED_ATTR);
+        doReturn("bytes=9-13").when(request).getHeader("Range");
+        servlet.doGet(request, response);
+
+        assertEquals(body.size(), 0);
+        verify(request).setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(9));
+        verify(request).setAttribute(Globals.SENDFILE_FILE_END_ATTR, Long.valueOf(14));
+        verify(response).setContentLength(5);
+    }
+
+    @Test
+    public void testInvalidateExtractedResourcesOnBundleUpdate() throws IOException {
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        extractedResourceCache.setEnabled(true);
+        extractedResourceCache.setThreshold(10);
+        servlet = newServlet(resourceCache);
+
+        servlet.doGet(request, response);
+        assertNotNull(extractedResourceCache.get(httpContext, "/web/hello.js"));
+        extractedResourceCache.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        assertNull(extractedResourceCache.get(httpContext, "/web/hello.js"));
+        assertEquals(extractedResourceCache.getSize(), 0);
+    }
+
+    @Test
+    public void testConfiguredExtractionDirectoryIsShared() throws IOException {
+        File shared = Files.createTempDirectory("shared").toFile();
+        File other = new File(shared, "other");
+        Files.write(other.toPath(), new byte[] {1});
+        DefaultExtractedResourceCache cache = new DefaultExtractedResourceCache(bundleContext);
+        cache.setDirectory(shared.getPath());
+        cache.start();
+        cache.stop();
+
+        // only the dedicated sub directory is removed
+        assertTrue(other.isFile());
+        assertFalse(new File(shared, "extracted-resources").exists());
+        other.delete();
+        shared.delete();
+    }
+
+    @Test
+    public void testCompressedOnTheFly() throws IOException {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append(".item").append(i).append(" { color: red; }\n");
+        }
+        Path file = Files.createTempFile("style", ".css");
+        file.toFile().deleteOnExit();
+        Files.write(file, css.toString().getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/style.css");
+        doReturn("/style.css").when(request).getPathInfo();
+        doReturn("deflate, gzip;q=0.8").when(request).getHeader("Accept-Encoding");
+
+        servlet.doGet(request, response);
+        verify(response).setHeader("Content-Encoding", "gzip");
+        verify(response).addHeader("Vary", "Accept-Encoding");
+        assertTrue(body.size() < css.length());
+        try (InputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(body.toByteArray()))) {
+            ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+            int read;
+            while ((read = inputStream.read()) != -1) {
+                uncompressed.write(read);
+            }
+            assertEquals(uncompressed.toString("UTF-8"), css.toString());
+        }
+    }
+
+    @Test
+    public void testPrecompressedSibling() throws IOException {
+        Path file = Files.createTempFile("resource", ".js.br");
+        file.toFile().deleteOnExit();
+        Files.write(file, "brotli".getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/hello.js.br");
+        doReturn("gzip, br").when(request).getHeader("Accept-Encoding");
+
+        servlet.doGet(request, response);
+        verify(response).setHeader("Content-Encoding", "br");
+        verify(response).addHeader("Vary", "Accept-Encoding");
+        verify(response).setHeader("ETag", "W/\"" + CONTENT.length() + "-" + LAST_MODIFIED + "-br\"");
+        assertEquals(body.toString("UTF-8"), "brotli");
+    }
+
+    @Test
+    public void testIdentityWhenNotAccepted() throws IOException {
+        Path file = Files.createTempFile("resource", ".js.gz");
+        file.toFile().deleteOnExit();
+        Files.write(file, "gzip".getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/hello.js.gz");
+        doReturn("gzip;q=0, identity").when(request).getHeader("Accept-Encoding");
+
+        servlet.doGet(request, response);
+        verify(response, never()).setHeader(eq("Content-Encoding"), anyString());
+        verify(response).addHeader("Vary", "Accept-Encoding");
+        assertEquals(body.toString("UTF-8"), CONTENT);
+    }
+
+    @Test
+    public void testHeadOfPrecompressedSibling() throws IOException {
+        AtomicInteger connections = new AtomicInteger();
+        Path file = Files.createTempFile("resource", ".js.br");
+        file.toFile().deleteOnExit();
+        Files.write(file, "brotli".getBytes("UTF-8"));
+        doReturn(getTrackedURL(file, connections)).when(httpContext).getResource("/web/hello.js.br");
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        servlet = newServlet(resourceCache);
+        doReturn("HEAD").when(request).getMethod();
+        doReturn("br").when(request).getHeader("Accept-Encoding");
+
+        servlet.doHead(request, response);
+        verify(response).setHeader("Content-Encoding", "br");
+        verify(response).addHeader("Vary", "Accept-Encoding");
+        verify(response).setContentLength("brotli".length());
+
+        // sibling has been neither read nor cached
+        assertEquals(resourceCache.getEntries(), 0);
+        assertEquals(connections.get(), 0);
+    }
+
+    @Test
+    public void testHeadOfCompressedVariant() throws IOException {
+        StringBuilder css = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            css.append(".item").append(i).append(" { color: red; }\n");
+        }
+        Path file = Files.createTempFile("style", ".css");
+        file.toFile().deleteOnExit();
+        Files.write(file, css.toString().getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/style.css");
+        doReturn("/style.css").when(request).getPathInfo();
+        doReturn("gzip").when(request).getHeader("Accept-Encoding");
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        servlet = newServlet(resourceCache);
+
+        // neither the identity nor its variant is cached
+        List<String> headHeaders = new ArrayList<>();
+        doReturn("HEAD").when(request).getMethod();
+        servlet.doHead(request, newRecordingResponse(headHeaders));
+        assertTrue(headHeaders.contains("Content-Encoding: gzip"), headHeaders.toString());
+        assertTrue(headHeaders.contains("Vary: Accept-Encoding"), headHeaders.toString());
+
+        // same headers as a GET request
+        List<String> getHeaders = new ArrayList<>();
+        doReturn("GET").when(request).getMethod();
+        servlet.doGet(request, newRecordingResponse(getHeaders));
+        assertEquals(headHeaders, getHeaders);
+        assertEquals(resourceCache.getEntries(), 2);
+    }
+
+    /**
+     * @param headers the headers set on the response, written name: value
+     * @return a response recording its headers
+     */
+    private HttpServletResponse newRecordingResponse(final List<String> headers) throws IOException {
+        HttpServletResponse recordingResponse = mock(HttpServletResponse.class);
+        Answer<Void> recorder = new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                Object[] arguments = invocation.getArguments();
+                headers.add(arguments.length == 1 ? "Content-Length: " + arguments[0] : arguments[0] + ": " + arguments[1]);
+                return null;
+            }
+        };
+        doAnswer(recorder).when(recordingResponse).setHeader(anyString(), anyString());
+        doAnswer(recorder).when(recordingResponse).addHeader(anyString(), anyString());
+        doAnswer(recorder).when(recordingResponse).setDateHeader(anyString(), anyLong());
+        doAnswer(recorder).when(recordingResponse).setContentLength(anyInt());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                headers.add("Content-Type: " + invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(recordingResponse).setContentType(anyString());
+        doReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                // body is not checked
+            }
+        }).when(recordingResponse).getOutputStream();
+        return recordingResponse;
+    }
+
+    @Test
+    public void testReleaseUnselectedVariant() throws IOException {
+        AtomicInteger connections = new AtomicInteger();
+        Path file = Files.createTempFile("resource", ".js.br");
+        file.toFile().deleteOnExit();
+        Files.write(file, "brotli".getBytes("UTF-8"));
+        doReturn(getTrackedURL(file, connections)).when(httpContext).getResource("/web/hello.js.br");
+        // variants are not kept in memory
+        DefaultResourceCache resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxEntrySize(0);
+        servlet = newServlet(resourceCache);
+        doReturn("gzip").when(request).getHeader("Accept-Encoding");
+
+        servlet.doGet(request, response);
+        verify(response, never()).setHeader("Content-Encoding", "br");
+        assertEquals(connections.get(), 0);
+    }
+
+    @Test
+    public void testMissingVariantsOfUpdatedBundle() throws IOException {
+        doReturn("br").when(request).getHeader("Accept-Encoding");
+        servlet.doGet(request, response);
+        verify(response, never()).setHeader("Content-Encoding", "br");
+
+        // the updated bundle ships a precompressed sibling
+        Path file = Files.createTempFile("resource", ".js.br");
+        file.toFile().deleteOnExit();
+        Files.write(file, "brotli".getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/hello.js.br");
+        servlet.doGet(request, response);
+        verify(response, never()).setHeader("Content-Encoding", "br");
+
+        doReturn(LAST_MODIFIED + 1).when(bundle).getLastModified();
+        servlet.doGet(request, response);
+        verify(response).setHeader("Content-Encoding", "br");
+    }
+
+    @Test
+    public void testAcceptsEncoding() {
+        assertTrue(WrappingResourceInServlet.acceptsEncoding("gzip, deflate", "gzip"));
+        assertTrue(WrappingResourceInServlet.acceptsEncoding("*", "br"));
+        assertTrue(WrappingResourceInServlet.acceptsEncoding("x-gzip", "gzip"));
+        assertFalse(WrappingResourceInServlet.acceptsEncoding("*, br;q=0", "br"));
+        assertFalse(WrappingResourceInServlet.acceptsEncoding(null, "gzip"));
+        assertFalse(WrappingResourceInServlet.acceptsEncoding("deflate", "gzip"));
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.dispatcher;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the resolution of the aliases in the shared context.
+ * @author Florent Benoit
+ */
+public class TestAliasTree {
+
+    @Test
+    public void testLongestPrefix() {
+        AliasTree<String> tree = new AliasTree<>();
+        assertTrue(tree.add("/", "root"));
+        assertTrue(tree.add("/a", "a"));
+        assertTrue(tree.add("/a/b", "ab"));
+
+        assertEquals(tree.lookup("/"), "root");
+        assertEquals(tree.lookup("/a"), "a");
+        assertEquals(tree.lookup("/a/c.html"), "a");
+        assertEquals(tree.lookup("/a/b"), "ab");
+        assertEquals(tree.lookup("/a/b/c/d.html"), "ab");
+        // prefix needs to match a whole segment
+        assertEquals(tree.lookup("/ab"), "root");
+        assertEquals(tree.size(), 3);
+    }
+
+    @Test
+    public void testNoRoot() {
+        AliasTree<String> tree = new AliasTree<>();
+        tree.add("/a/b", "ab");
+        assertNull(tree.lookup("/a"));
+        assertNull(tree.lookup("/a/bc"));
+        assertEquals(tree.lookup("/a/b/"), "ab");
+    }
+
+    @Test
+    public void testAddRemove() {
+        AliasTree<String> tree = new AliasTree<>();
+        assertTrue(tree.add("/a/b", "ab"));
+        assertFalse(tree.add("/a/b", "other"));
+        assertEquals(tree.get("/a/b"), "ab");
+        assertNull(tree.get("/a"));
+
+        assertNull(tree.remove("/a"));
+        assertEquals(tree.remove("/a/b"), "ab");
+        assertNull(tree.lookup("/a/b"));
+        assertEquals(tree.size(), 0);
+
+        assertTrue(tree.add("/a/b", "again"));
+        assertEquals(tree.lookup("/a/b/c"), "again");
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        Servlet servlet = mock(Servlet.class);
+        HttpContext httpContext = mock(HttpContext.class);
+        when(httpContext.handleSecurity(any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+
+        AliasDispatcherServlet dispatcher = new AliasDispatcherServlet();
+        dispatcher.add(new AliasRegistration("/my/alias", servlet, httpContext, null, null));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn("/my/alias/file.txt");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        dispatcher.service(request, response);
+
+        ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+        verify(servlet).service(captor.capture(), any(HttpServletResponse.class));
+        HttpServletRequest dispatched = (HttpServletRequest) captor.getValue();
+        assertEquals(dispatched.getServletPath(), "/my/alias");
+        assertEquals(dispatched.getPathInfo(), "/file.txt");
+    }
+
+    @Test
+    public void testDispatchNotFound() throws Exception {
+        AliasDispatcherServlet dispatcher = new AliasDispatcherServlet();
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getPathInfo()).thenReturn("/missing");
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        dispatcher.service(request, response);
+        verify(response).sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+
+    @Test
+    public void testDestroyDeferredWhileServicing() throws Exception {
+        final Servlet servlet = mock(Servlet.class);
+        HttpContext httpContext = mock(HttpContext.class);
+        when(httpContext.handleSecurity(any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+
+        final AliasDispatcherServlet dispatcher = new AliasDispatcherServlet();
+        final AliasRegistration registration = new AliasRegistration("/my/alias", servlet, httpContext, null, null);
+        dispatcher.add(registration);
+
+        // unregistered while the request is serviced
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) {
+                dispatcher.remove("/my/alias");
+                registration.destroy();
+                verify(servlet, never()).destroy();
+                return null;
+            }
+        }).when(servlet).service(any(ServletRequest.class), any(ServletResponse.class));
+
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getPathInfo()).thenReturn("/my/alias");
+        dispatcher.service(request, mock(HttpServletResponse.class));
+
+        // destroyed by the end of the request
+        verify(servlet).destroy();
+        assertEquals(registration.getActiveRequests(), 0);
+        assertFalse(registration.isInitialized());
+    }
+
+    @Test
+    public void testAsyncSupportedByAlias() throws Exception {
+        Servlet servlet = mock(Servlet.class);
+        Servlet asyncServlet = mock(Servlet.class);
+        HttpContext httpContext = mock(HttpContext.class);
+        when(httpContext.handleSecurity(any(HttpServletRequest.class), any(HttpServletResponse.class))).thenReturn(true);
+
+        AliasDispatcherServlet dispatcher = new AliasDispatcherServlet();
+        dispatcher.add(new AliasRegistration("/sync", servlet, httpContext, null, null));
+        AliasRegistration asyncRegistration = new AliasRegistration("/async", asyncServlet, httpContext, null, null);
+        asyncRegistration.setAsyncSupported(true);
+        dispatcher.add(asyncRegistration);
+
+        // the dispatcher wrapper supports async requests
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("GET");
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.getPathInfo()).thenReturn("/sync");
+        dispatcher.service(request, mock(HttpServletResponse.class));
+        when(request.getPathInfo()).thenReturn("/async");
+        dispatcher.service(request, mock(HttpServletResponse.class));
+
+        ArgumentCaptor<ServletRequest> captor = ArgumentCaptor.forClass(ServletRequest.class);
+        verify(servlet).service(captor.capture(), any(HttpServletResponse.class));
+        ServletRequest dispatched = captor.getValue();
+        assertFalse(dispatched.isAsyncSupported());
+        try {
+            dispatched.startAsync();
+            fail("Async is not supported by the servlet");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        verify(request, never()).startAsync();
+
+        verify(asyncServlet).service(captor.capture(), any(HttpServletResponse.class));
+        assertTrue(captor.getValue().isAsyncSupported());
+        captor.getValue().startAsync();
+        verify(request).startAsync();
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Hashtable;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the lookups done through the index of the bundle entries.
+ * @author Florent Benoit
+ */
+public class TestBundleEntryIndex {
+
+    @Mock
+    private BundleContext bundleContext;
+
+    @Mock
+    private Bundle bundle;
+
+    private URL index;
+
+    private URL logo;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        index = new URL("file:/www/index.html");
+        logo = new URL("file:/www/logo.png");
+        doReturn(new Hashtable<String, String>()).when(bundle).getHeaders("");
+        when(bundle.findEntries("/", "*", true)).thenAnswer(new Answer<Enumeration<URL>>() {
+            @Override
+            public Enumeration<URL> answer(InvocationOnMock invocation) {
+                return Collections.enumeration(Arrays.asList(index, logo));
+            }
+        });
+    }
+
+    @Test
+    public void testEntriesAndMissingNames() throws Exception {
+        BundleEntryIndex bundleEntryIndex = new BundleEntryIndex(bundle);
+        assertEquals(bundleEntryIndex.getResource("/www/index.html"), index);
+        assertEquals(bundleEntryIndex.getResource("www/logo.png"), logo);
+        assertEquals(bundleEntryIndex.size(), 2);
+        verify(bundle, never()).getResource(anyString());
+
+        // missing names are searched once
+        assertNull(bundleEntryIndex.getResource("/www/missing.html"));
+        assertNull(bundleEntryIndex.getResource("/www/missing.html"));
+        verify(bundle, times(1)).getResource("/www/missing.html");
+    }
+
+    @Test
+    public void testLookupsAreBounded() throws Exception {
+        BundleEntryIndex bundleEntryIndex = new BundleEntryIndex(bundle, 2);
+        bundleEntryIndex.getResource("/a");
+        bundleEntryIndex.getResource("/b");
+        bundleEntryIndex.getResource("/c");
+        bundleEntryIndex.getResource("/a");
+        verify(bundle, times(2)).getResource("/a");
+    }
+
+    @Test
+    public void testBundleClasspath() throws Exception {
+        Hashtable<String, String> headers = new Hashtable<>();
+        headers.put(Constants.BUNDLE_CLASSPATH, "., WEB-INF/classes");
+        doReturn(headers).when(bundle).getHeaders("");
+        doReturn(logo).when(bundle).getResource("/logo.png");
+
+        // entries are not the resources of the bundle
+        BundleEntryIndex bundleEntryIndex = new BundleEntryIndex(bundle);
+        assertEquals(bundleEntryIndex.getResource("/logo.png"), logo);
+        assertEquals(bundleEntryIndex.size(), 0);
+    }
+
+    @Test
+    public void testImportedPackages() throws Exception {
+        Hashtable<String, String> headers = new Hashtable<>();
+        headers.put(Constants.IMPORT_PACKAGE, "org.osgi.framework;version=\"[1.5,2)\",www;other;resolution:=optional");
+        doReturn(headers).when(bundle).getHeaders("");
+        URL imported = new URL("file:/exporter/www/index.html");
+        doReturn(imported).when(bundle).getResource("/www/index.html");
+
+        // the imported package is searched before the bundle entries
+        BundleEntryIndex bundleEntryIndex = new BundleEntryIndex(bundle);
+        assertEquals(bundleEntryIndex.getResource("/www/index.html"), imported);
+        assertEquals(bundleEntryIndex.size(), 2);
+        verify(bundle).getResource("/www/index.html");
+    }
+
+    @Test
+    public void testRequireBundle() throws Exception {
+        Hashtable<String, String> headers = new Hashtable<>();
+        headers.put(Constants.REQUIRE_BUNDLE, "com.example.www");
+        doReturn(headers).when(bundle).getHeaders("");
+        URL required = new URL("file:/required/www/logo.png");
+        doReturn(required).when(bundle).getResource("/www/logo.png");
+
+        // packages of the required bundles are not known
+        BundleEntryIndex bundleEntryIndex = new BundleEntryIndex(bundle);
+        assertEquals(bundleEntryIndex.getResource("/www/logo.png"), required);
+        assertEquals(bundleEntryIndex.size(), 0);
+    }
+
+    @Test
+    public void testRebuildAfterUpdate() throws Exception {
+        DefaultBundleEntryIndexManager manager = new DefaultBundleEntryIndexManager(bundleContext);
+        manager.start();
+        BundleEntryIndex bundleEntryIndex = manager.getIndex(bundle);
+        assertEquals(bundleEntryIndex.getResource("/www/index.html"), index);
+
+        final URL updated = new URL("file:/www/updated.html");
+        when(bundle.findEntries("/", "*", true)).thenAnswer(new Answer<Enumeration<URL>>() {
+            @Override
+            public Enumeration<URL> answer(InvocationOnMock invocation) {
+                return Collections.enumeration(Arrays.asList(updated));
+            }
+        });
+        manager.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        assertEquals(manager.getIndex(bundle), bundleEntryIndex);
+        assertEquals(bundleEntryIndex.getResource("/www/updated.html"), updated);
+        assertNull(bundleEntryIndex.getResource("/www/index.html"));
+        verify(bundle, times(2)).findEntries("/", "*", true);
+    }
+
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Checks the parsing of the caching policies and their selection by alias.
+ * @author Florent Benoit
+ */
+public class TestCachePolicy {
+
+    @Test
+    public void testParse() {
+        CachePolicy policy = CachePolicy.parse("Max-Age=3600, immutable");
+        assertEquals(policy.getMaxAge(), 3600);
+        assertTrue(policy.isImmutable());
+        assertEquals(policy.getCacheControl(), "max-age=3600, immutable");
+
+        // immutable resources are kept one year
+        assertEquals(CachePolicy.parse("immutable").getCacheControl(), "max-age=31536000, immutable");
+        assertTrue(CachePolicy.parse("no-cache").isNoCache());
+        assertSame(CachePolicy.parse(" "), CachePolicy.NONE);
+        assertNull(CachePolicy.NONE.getCacheControl());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testConflictingPolicy() {
+        CachePolicy.parse("no-cache, max-age=60");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnknownDirective() {
+        CachePolicy.parse("s-maxage=60");
+    }
+
+    @Test
+    public void testPolicyByAlias() {
+        DefaultCachePolicyManager manager = new DefaultCachePolicyManager();
+        manager.setPolicies(new String[] {"/static=max-age=31536000, immutable", "/static/private/=no-cache", "/=max-age=60"});
+        assertTrue(manager.getPolicy("/static/css").isImmutable());
+        assertTrue(manager.getPolicy("/static/private").isNoCache());
+        assertEquals(manager.getPolicy("/other").getMaxAge(), 60);
+
+        manager.setPolicies(new String[] {"/static=immutable"});
+        assertSame(manager.getPolicy("/other"), CachePolicy.NONE);
+    }
+
+}
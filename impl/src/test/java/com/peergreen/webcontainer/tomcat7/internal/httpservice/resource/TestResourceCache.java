@@ -0,0 +1,129 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import static org.mockito.Mockito.doReturn;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the LRU and invalidation behavior of the resource cache.
+ * @author Florent Benoit
+ */
+public class TestResourceCache {
+
+    @Mock
+    private BundleContext bundleContext;
+
+    @Mock
+    private Bundle bundle;
+
+    @Mock
+    private HttpContext httpContext;
+
+    @Mock
+    private HttpContext otherHttpContext;
+
+    private DefaultResourceCache resourceCache;
+
+    @BeforeMethod
+    public void setup() {
+        MockitoAnnotations.initMocks(this);
+        doReturn(12L).when(bundle).getBundleId();
+        resourceCache = new DefaultResourceCache(bundleContext);
+        resourceCache.setMaxSize(100);
+        resourceCache.setMaxEntrySize(40);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        assertNull(resourceCache.get(httpContext, "/a.js"));
+        assertTrue(resourceCache.put(httpContext, "/a.js", resource(10)));
+        assertNotNull(resourceCache.get(httpContext, "/a.js"));
+        assertNull(resourceCache.get(otherHttpContext, "/a.js"));
+
+        assertEquals(resourceCache.getHits(), 1);
+        assertEquals(resourceCache.getMisses(), 2);
+        assertEquals(resourceCache.getSize(), 10);
+    }
+
+    @Test
+    public void testTooLargeEntry() {
+        assertFalse(resourceCache.isCacheable(41));
+        assertFalse(resourceCache.isCacheable(-1));
+        assertFalse(resourceCache.put(httpContext, "/big.js", resource(41)));
+        assertEquals(resourceCache.getEntries(), 0);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        resourceCache.put(httpContext, "/1", resource(40));
+        resourceCache.put(httpContext, "/2", resource(40));
+
+        // use the first entry so that the second one is the eldest
+        resourceCache.get(httpContext, "/1");
+        resourceCache.put(httpContext, "/3", resource(40));
+
+        assertNotNull(resourceCache.get(httpContext, "/1"));
+        assertNull(resourceCache.get(httpContext, "/2"));
+        assertNotNull(resourceCache.get(httpContext, "/3"));
+        assertEquals(resourceCache.getEvictions(), 1);
+        assertEquals(resourceCache.getSize(), 80);
+    }
+
+    @Test
+    public void testReplaceEntry() {
+        resourceCache.put(httpContext, "/1", resource(30));
+        resourceCache.put(httpContext, "/1", resource(20));
+        assertEquals(resourceCache.getSize(), 20);
+        assertEquals(resourceCache.getEntries(), 1);
+    }
+
+    @Test
+    public void testInvalidateOnBundleUpdate() {
+        resourceCache.put(httpContext, "/1", resource(10));
+        resourceCache.put(otherHttpContext, "/2", resource(10));
+        resourceCache.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        assertEquals(resourceCache.getEntries(), 0);
+        assertEquals(resourceCache.getSize(), 0);
+    }
+
+    @Test
+    public void testInvalidateHttpContext() {
+        resourceCache.put(httpContext, "/1", resource(10));
+        resourceCache.put(otherHttpContext, "/2", resource(10));
+        resourceCache.invalidate(httpContext);
+        assertNull(resourceCache.get(httpContext, "/1"));
+        assertNotNull(resourceCache.get(otherHttpContext, "/2"));
+        assertEquals(resourceCache.getSize(), 10);
+    }
+
+    private CachedResource resource(int length) {
+        return new CachedResource(new byte[length], "text/plain", null, 0L, null, bundle.getBundleId());
+    }
+}
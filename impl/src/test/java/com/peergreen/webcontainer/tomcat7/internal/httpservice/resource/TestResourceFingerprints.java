@@ -0,0 +1,181 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.resource;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the fingerprinted names computed by the {@link DefaultResourceFingerprints}.
+ * @author Florent Benoit
+ */
+public class TestResourceFingerprints {
+
+    @Mock
+    private BundleContext bundleContext;
+
+    @Mock
+    private Bundle bundle;
+
+    @Mock
+    private HttpContext httpContext;
+
+    private Path file;
+
+    private DefaultResourceFingerprints resourceFingerprints;
+
+    @BeforeMethod
+    public void setup() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        file = Files.createTempFile("app", ".js");
+        file.toFile().deleteOnExit();
+        Files.write(file, "var app = {};".getBytes("UTF-8"));
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/web/app.js");
+        when(bundle.findEntries("/web/", "*", true)).thenAnswer(new Answer<Enumeration<URL>>() {
+            @Override
+            public Enumeration<URL> answer(InvocationOnMock invocation) throws IOException {
+                return Collections.enumeration(Collections.singletonList(new URL("file:/web/app.js")));
+            }
+        });
+
+        resourceFingerprints = new DefaultResourceFingerprints(bundleContext);
+        resourceFingerprints.setEnabled(true);
+        resourceFingerprints.start();
+    }
+
+    @AfterMethod
+    public void cleanup() {
+        resourceFingerprints.stop();
+    }
+
+    @Test
+    public void testFingerprint() {
+        assertEquals(DefaultResourceFingerprints.fingerprint("/static/app.min.js", "0123456789abcdef"), "/static/app.min.0123456789abcdef.js");
+        assertEquals(DefaultResourceFingerprints.fingerprint("/static/LICENSE", "0123456789abcdef"), "/static/LICENSE.0123456789abcdef");
+        assertEquals(DefaultResourceFingerprints.fingerprint("/static/.htaccess", "0123456789abcdef"), "/static/.htaccess.0123456789abcdef");
+    }
+
+    @Test
+    public void testResolve() throws InterruptedException {
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        waitForHashes(1);
+
+        String hash = resourceFingerprints.getHash(httpContext, "/web/app.js");
+        assertEquals(hash.length(), DefaultResourceFingerprints.HASH_LENGTH);
+        assertEquals(resourceFingerprints.resolve("/static/app.js"), "/static/app." + hash + ".js");
+        assertEquals(resourceFingerprints.getLogicalPath(httpContext, "/web/app." + hash + ".js"), "/web/app.js");
+
+        // unknown resources and aliases are not changed
+        assertEquals(resourceFingerprints.resolve("/static/missing.js"), "/static/missing.js");
+        assertEquals(resourceFingerprints.resolve("/other/app.js"), "/other/app.js");
+    }
+
+    @Test
+    public void testOutdatedFingerprint() throws IOException, InterruptedException {
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        waitForHashes(1);
+        String hash = resourceFingerprints.getHash(httpContext, "/web/app.js");
+
+        // new content of the bundle
+        Files.write(file, "var app = {version: 2};".getBytes("UTF-8"));
+        resourceFingerprints.bundleChanged(new BundleEvent(BundleEvent.UPDATED, bundle));
+        waitForHashes(1);
+
+        assertNull(resourceFingerprints.getLogicalPath(httpContext, "/web/app." + hash + ".js"));
+        assertNotEquals(resourceFingerprints.getHash(httpContext, "/web/app.js"), hash);
+    }
+
+    @Test
+    public void testUnregister() throws InterruptedException {
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        waitForHashes(1);
+
+        resourceFingerprints.unregister(bundle);
+        assertEquals(resourceFingerprints.size(), 0);
+        assertEquals(resourceFingerprints.resolve("/static/app.js"), "/static/app.js");
+    }
+
+    @Test
+    public void testUnregisterSibling() throws IOException, InterruptedException {
+        doReturn(file.toUri().toURL()).when(httpContext).getResource("/webapp/app.js");
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        resourceFingerprints.register("/static2", "/webapp", httpContext, bundle);
+        waitForHashes(1);
+        String hash = resourceFingerprints.getHash(httpContext, "/webapp/app.js");
+        assertEquals(resourceFingerprints.size(), 2);
+
+        // the hashes of /webapp are not the ones of /web
+        resourceFingerprints.unregister("/static");
+        assertEquals(resourceFingerprints.size(), 1);
+        assertEquals(resourceFingerprints.resolve("/static2/app.js"), "/static2/app." + hash + ".js");
+    }
+
+    @Test
+    public void testLogicalPathOfUnregisteredResource() {
+        String hash = new DefaultResourceFingerprints(bundleContext).getHash(httpContext, "/web/app.js");
+
+        // not hashed on the request thread
+        assertNull(resourceFingerprints.getLogicalPath(httpContext, "/web/app." + hash + ".js"));
+        assertEquals(resourceFingerprints.size(), 0);
+
+        // hashed on the request thread if requested before the background computation
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        assertEquals(resourceFingerprints.getLogicalPath(httpContext, "/web/app." + hash + ".js"), "/web/app.js");
+    }
+
+    @Test
+    public void testDisabled() {
+        resourceFingerprints.setEnabled(false);
+        resourceFingerprints.register("/static", "/web", httpContext, bundle);
+        assertEquals(resourceFingerprints.resolve("/static/app.js"), "/static/app.js");
+        assertNull(resourceFingerprints.getLogicalPath(httpContext, "/web/app.0123456789abcdef.js"));
+    }
+
+    /**
+     * Waits for the background computation of the hashes.
+     * @param expected the number of expected hashes
+     */
+    private void waitForHashes(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (resourceFingerprints.size() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        assertTrue(resourceFingerprints.size() >= expected);
+    }
+}
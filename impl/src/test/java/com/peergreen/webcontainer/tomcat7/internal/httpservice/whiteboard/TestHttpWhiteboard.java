@@ -0,0 +1,316 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.whiteboard;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.Dictionary;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterConfig;
+import javax.servlet.Servlet;
+
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.http.HttpContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.peergreen.webcontainer.tomcat7.internal.InternalTomcat7HttpService;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.WrappingResourceInServlet;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.CachePolicy;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultBundleEntryIndexManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultCachePolicyManager;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultResourceFingerprints;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.DefaultResourceStreamer;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ExtractedResourceCache;
+import com.peergreen.webcontainer.tomcat7.internal.httpservice.resource.ResourceCache;
+
+/**
+ * Checks the registrations done by the whiteboard when services come, change
+ * and go.
+ * @author Florent Benoit
+ */
+public class TestHttpWhiteboard {
+
+    private BundleContext bundleContext;
+
+    private Bundle whiteboardBundle;
+
+    private Bundle serviceBundle;
+
+    private InternalTomcat7HttpService tomcat7HttpService;
+
+    private HttpWhiteboard whiteboard;
+
+    private long serviceId = 1;
+
+    @BeforeMethod
+    public void setup() {
+        bundleContext = mock(BundleContext.class);
+        whiteboardBundle = mock(Bundle.class);
+        serviceBundle = mock(Bundle.class);
+        doReturn(whiteboardBundle).when(bundleContext).getBundle();
+        tomcat7HttpService = mock(InternalTomcat7HttpService.class);
+        whiteboard = new HttpWhiteboard(bundleContext, tomcat7HttpService, mock(ResourceCache.class), mock(ExtractedResourceCache.class),
+                new DefaultBundleEntryIndexManager(bundleContext), new DefaultCachePolicyManager(), new DefaultResourceFingerprints(bundleContext),
+                new DefaultResourceStreamer());
+        // apply the changes directly
+        whiteboard.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    @Test
+    public void testServletLifecycle() throws Exception {
+        Servlet servlet = mock(Servlet.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.SERVLET_PATTERN, "/hello/*");
+        properties.put(WhiteboardConstants.SERVLET_INIT_PARAM_PREFIX + "key", "value");
+        ServiceReference<Object> reference = reference(properties, servlet);
+
+        WhiteboardService service = whiteboard.addingService(reference);
+        verify(tomcat7HttpService).registerServlet(eq("/hello"), eq(servlet), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+
+        whiteboard.removedService(reference, service);
+        verify(tomcat7HttpService).unregister("/hello", whiteboardBundle);
+        verify(bundleContext).ungetService(reference);
+    }
+
+    @Test
+    public void testResources() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.RESOURCE_PATTERN, new String[] {"/files/*", "/static"});
+        properties.put(WhiteboardConstants.RESOURCE_PREFIX, "/www");
+        ServiceReference<Object> reference = reference(properties, new Object());
+
+        whiteboard.addingService(reference);
+        verify(tomcat7HttpService).registerServlet(eq("/files"), any(WrappingResourceInServlet.class), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService).registerServlet(eq("/static"), any(WrappingResourceInServlet.class), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+        // resources are not got as services
+        verify(bundleContext, never()).getService(reference);
+    }
+
+    @Test
+    public void testRankingChange() throws Exception {
+        Servlet low = mock(Servlet.class);
+        Map<String, Object> lowProperties = new HashMap<>();
+        lowProperties.put(WhiteboardConstants.SERVLET_PATTERN, "/shared");
+        ServiceReference<Object> lowReference = reference(lowProperties, low);
+
+        Servlet other = mock(Servlet.class);
+        Map<String, Object> otherProperties = new HashMap<>();
+        otherProperties.put(WhiteboardConstants.SERVLET_PATTERN, "/other");
+        ServiceReference<Object> otherReference = reference(otherProperties, other);
+
+        Servlet high = mock(Servlet.class);
+        Map<String, Object> highProperties = new HashMap<>();
+        highProperties.put(WhiteboardConstants.SERVLET_PATTERN, "/shared");
+        highProperties.put(Constants.SERVICE_RANKING, 10);
+        ServiceReference<Object> highReference = reference(highProperties, high);
+
+        WhiteboardService lowService = whiteboard.addingService(lowReference);
+        whiteboard.addingService(otherReference);
+        WhiteboardService highService = whiteboard.addingService(highReference);
+
+        // the service with the highest ranking replaces the first one
+        verify(tomcat7HttpService).registerServlet(eq("/shared"), eq(low), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService).unregister("/shared", whiteboardBundle);
+        verify(tomcat7HttpService).registerServlet(eq("/shared"), eq(high), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), eq(whiteboardBundle));
+
+        // changing the ranking of the registered service keeps its registration
+        highProperties.put(Constants.SERVICE_RANKING, 20);
+        whiteboard.modifiedService(highReference, highService);
+        verify(tomcat7HttpService, times(1)).registerServlet(eq("/shared"), eq(high), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), eq(whiteboardBundle));
+
+        // the low ranking service now wins
+        lowProperties.put(Constants.SERVICE_RANKING, 30);
+        whiteboard.modifiedService(lowReference, lowService);
+        verify(tomcat7HttpService, times(2)).unregister("/shared", whiteboardBundle);
+        verify(tomcat7HttpService, times(2)).registerServlet(eq("/shared"), eq(low), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), eq(whiteboardBundle));
+
+        // the unrelated servlet has never been touched
+        verify(tomcat7HttpService, times(1)).registerServlet(eq("/other"), eq(other), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService, never()).unregister(eq("/other"), any(Bundle.class));
+        verify(tomcat7HttpService, never()).unregisterAll(any(Bundle.class));
+        verify(tomcat7HttpService, times(4)).registerServlet(anyString(), any(Servlet.class), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), any(Bundle.class));
+    }
+
+    @Test
+    public void testInitParamsChange() throws Exception {
+        Servlet servlet = mock(Servlet.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.SERVLET_PATTERN, "/hello/*");
+        properties.put(WhiteboardConstants.SERVLET_INIT_PARAM_PREFIX + "key", "value");
+        ServiceReference<Object> reference = reference(properties, servlet);
+        WhiteboardService service = whiteboard.addingService(reference);
+
+        // the servlet is initialized again with the new parameters
+        properties.put(WhiteboardConstants.SERVLET_INIT_PARAM_PREFIX + "key", "other");
+        whiteboard.modifiedService(reference, service);
+        verify(tomcat7HttpService).unregister("/hello", whiteboardBundle);
+        verify(tomcat7HttpService, times(2)).registerServlet(eq("/hello"), eq(servlet), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+    }
+
+    @Test
+    public void testCachePolicyChange() throws Exception {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.RESOURCE_PATTERN, "/files/*");
+        ServiceReference<Object> reference = reference(properties, new Object());
+        WhiteboardService service = whiteboard.addingService(reference);
+
+        properties.put(CachePolicy.INIT_PARAMETER, "max-age=60");
+        whiteboard.modifiedService(reference, service);
+        verify(tomcat7HttpService).unregister("/files", whiteboardBundle);
+        verify(tomcat7HttpService, times(2)).registerServlet(eq("/files"), any(WrappingResourceInServlet.class), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+    }
+
+    @Test
+    public void testFilterLifecycle() throws Exception {
+        Filter filter = mock(Filter.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.FILTER_PATTERN, "/hello/*");
+        ServiceReference<Object> reference = reference(properties, filter);
+
+        WhiteboardService service = whiteboard.addingService(reference);
+        verify(tomcat7HttpService).registerFilter(eq("/hello/*"), any(Filter.class), eq(0), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+
+        // a change of ranking only updates the registration
+        properties.put(Constants.SERVICE_RANKING, 5);
+        whiteboard.modifiedService(reference, service);
+        verify(tomcat7HttpService).registerFilter(eq("/hello/*"), any(Filter.class), eq(5), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService, never()).unregisterFilter(any(Filter.class), eq(whiteboardBundle));
+
+        // a change of pattern registers the filter again
+        properties.put(WhiteboardConstants.FILTER_PATTERN, "/*");
+        whiteboard.modifiedService(reference, service);
+        verify(tomcat7HttpService).unregisterFilter(any(Filter.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService).registerFilter(eq("/*"), any(Filter.class), eq(5), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+
+        whiteboard.removedService(reference, service);
+        verify(tomcat7HttpService, times(2)).unregisterFilter(any(Filter.class), eq(whiteboardBundle));
+        verify(bundleContext).ungetService(reference);
+        verify(tomcat7HttpService, never()).registerServlet(anyString(), any(Servlet.class), Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), any(Bundle.class));
+    }
+
+    @Test
+    public void testFilterPatterns() throws Exception {
+        Filter filter = mock(Filter.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.FILTER_PATTERN, new String[] {"/hello/*", "*.jsp"});
+        ServiceReference<Object> reference = reference(properties, filter);
+
+        WhiteboardService service = whiteboard.addingService(reference);
+        verify(tomcat7HttpService).registerFilter(eq("/hello/*"), any(Filter.class), eq(0), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+        verify(tomcat7HttpService).registerFilter(eq("*.jsp"), any(Filter.class), eq(0), Matchers.<Dictionary<String, String>>any(),
+                any(HttpContext.class), eq(whiteboardBundle));
+        assertEquals(service.getRegisteredFilters().size(), 2);
+
+        whiteboard.removedService(reference, service);
+        verify(tomcat7HttpService, times(2)).unregisterFilter(any(Filter.class), eq(whiteboardBundle));
+    }
+
+    @Test
+    public void testInvalidFilterPattern() throws Exception {
+        Filter filter = mock(Filter.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.FILTER_PATTERN, new String[] {"/hello/*", "/invalid"});
+        ServiceReference<Object> reference = reference(properties, filter);
+        doThrow(new IllegalArgumentException("invalid")).when(tomcat7HttpService).registerFilter(eq("/invalid"), any(Filter.class), anyInt(),
+                Matchers.<Dictionary<String, String>>any(), any(HttpContext.class), any(Bundle.class));
+
+        // the failure is reported and only the registered pattern is removed
+        WhiteboardService service = whiteboard.addingService(reference);
+        whiteboard.removedService(reference, service);
+        verify(tomcat7HttpService, times(1)).unregisterFilter(any(Filter.class), eq(whiteboardBundle));
+    }
+
+    @Test
+    public void testFilterInitializedOnce() throws Exception {
+        Filter filter = mock(Filter.class);
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(WhiteboardConstants.FILTER_PATTERN, new String[] {"/hello/*", "*.jsp"});
+        ServiceReference<Object> reference = reference(properties, filter);
+        WhiteboardService service = whiteboard.addingService(reference);
+
+        // each registration initializes then destroys its filter
+        FilterConfig filterConfig = mock(FilterConfig.class);
+        for (WhiteboardFilter registered : service.getRegisteredFilters()) {
+            registered.init(filterConfig);
+        }
+        verify(filter).init(filterConfig);
+        service.getRegisteredFilters().get(0).destroy();
+        verify(filter, never()).destroy();
+        service.getRegisteredFilters().get(1).destroy();
+        verify(filter).destroy();
+    }
+
+    /**
+     * Builds a reference on a service with the given (mutable) properties.
+     */
+    @SuppressWarnings("unchecked")
+    private ServiceReference<Object> reference(final Map<String, Object> properties, Object service) {
+        properties.put(Constants.SERVICE_ID, serviceId++);
+        ServiceReference<Object> reference = mock(ServiceReference.class);
+        when(reference.getBundle()).thenReturn(serviceBundle);
+        when(reference.getProperty(anyString())).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                return properties.get(invocation.getArguments()[0]);
+            }
+        });
+        when(reference.getPropertyKeys()).thenAnswer(new Answer<String[]>() {
+            @Override
+            public String[] answer(InvocationOnMock invocation) {
+                return properties.keySet().toArray(new String[properties.size()]);
+            }
+        });
+        doReturn(service).when(bundleContext).getService(reference);
+        return reference;
+    }
+
+}
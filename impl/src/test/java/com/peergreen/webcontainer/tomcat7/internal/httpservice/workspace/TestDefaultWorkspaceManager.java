@@ -0,0 +1,105 @@
+/**
+ * Copyright 2013 Peergreen S.A.S.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.peergreen.webcontainer.tomcat7.internal.httpservice.workspace;
+
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.osgi.framework.BundleContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Checks the allocation and the cleanup of the context workspaces.
+ * @author Florent Benoit
+ */
+public class TestDefaultWorkspaceManager {
+
+    private File root;
+
+    private DefaultWorkspaceManager workspaceManager;
+
+    @BeforeMethod
+    public void setup() throws Exception {
+        root = Files.createTempDirectory("workspaces").toFile();
+        // content of a previous run and a file of another component
+        new File(root, "httpservice-workspaces/old").mkdirs();
+        new File(root, "other").mkdirs();
+        workspaceManager = new DefaultWorkspaceManager(mock(BundleContext.class));
+        workspaceManager.setDirectory(root.getPath());
+        workspaceManager.start();
+    }
+
+    @AfterMethod
+    public void stop() {
+        workspaceManager.stop();
+    }
+
+    @Test
+    public void testReuseByPath() throws Exception {
+        assertFalse(new File(root, "httpservice-workspaces/old").exists());
+        assertTrue(new File(root, "other").isDirectory());
+
+        Workspace workspace = workspaceManager.acquire("/myContext");
+        assertTrue(workspace.getDocBase().isDirectory());
+        assertTrue(workspace.getWorkDirectory().isDirectory());
+        assertEquals(workspaceManager.acquire("/myContext"), workspace);
+        assertEquals(workspaceManager.getWorkspaceCount(), 1);
+
+        // root context
+        assertEquals(workspaceManager.acquire("").getDocBase().getName(), "ROOT");
+    }
+
+    @Test
+    public void testReleaseDeletesContent() throws Exception {
+        Workspace workspace = workspaceManager.acquire("/myContext");
+        Files.write(new File(workspace.getWorkDirectory(), "file").toPath(), new byte[100]);
+        assertEquals(workspaceManager.getDiskUsage(), 100);
+
+        workspaceManager.release("/myContext");
+        assertFalse(workspace.getDocBase().exists());
+        assertFalse(workspace.getWorkDirectory().exists());
+        assertEquals(workspaceManager.getDiskUsage(), 0);
+        assertEquals(workspaceManager.getWorkspaceCount(), 0);
+
+        // same directories for the same path
+        Workspace newWorkspace = workspaceManager.acquire("/myContext");
+        assertEquals(newWorkspace.getDocBase(), workspace.getDocBase());
+    }
+
+    @Test
+    public void testSameName() throws Exception {
+        Workspace first = workspaceManager.acquire("/a b");
+        Workspace second = workspaceManager.acquire("/a_b");
+        assertNotEquals(first.getDocBase(), second.getDocBase());
+    }
+
+    @Test
+    public void testStopKeepsConfiguredDirectory() throws Exception {
+        workspaceManager.acquire("/myContext");
+        workspaceManager.stop();
+        assertFalse(new File(root, "httpservice-workspaces").exists());
+        assertTrue(new File(root, "other").isDirectory());
+    }
+
+}